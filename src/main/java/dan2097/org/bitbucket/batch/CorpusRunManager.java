@@ -0,0 +1,299 @@
+package dan2097.org.bitbucket.batch;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+import com.ggasoftware.indigo.IndigoObject;
+
+import dan2097.org.bitbucket.reactionextraction.Reaction;
+import dan2097.org.bitbucket.reactionextraction.ReactionExtractor;
+import dan2097.org.bitbucket.reactionextraction.ReactionListener;
+import dan2097.org.bitbucket.utility.Utils;
+import dan2097.org.bitbucket.uspto.UsptoPatentReader;
+
+/**
+ * Extracts reactions from a directory of XML patents such that the run may be killed and restarted at any point.
+ * The reactions from each patent are written to a CML file, mirroring the input directory structure, via a temporary file that is atomically
+ * renamed once complete, and then recorded as completed in a {@link RunJournal} in the output directory.
+ * On rerunning, completed documents (whose output exists) are skipped, failed documents are retried and quarantined documents are not.
+ * Progress and throughput are logged periodically
+ * @author dl387
+ *
+ */
+public class CorpusRunManager {
+
+	private static final Logger LOG = Logger.getLogger(CorpusRunManager.class);
+
+	static final String JOURNAL_FILE_NAME = "run-journal.tsv";
+	private static final String CML_NAMESPACE = "http://www.xml-cml.org/schema";
+	private static final long PROGRESS_INTERVAL = 60000;
+
+	private final File inputDirectory;
+	private final File outputDirectory;
+	private int workerCount = 0;
+	private long documentTimeout = 0;
+	private boolean completeReactionsOnly = true;
+
+	private final AtomicInteger documentsProcessed = new AtomicInteger();
+	private final AtomicInteger documentsFailed = new AtomicInteger();
+	private final AtomicLong reactionsWritten = new AtomicLong();
+	private long startTime;
+	private long lastProgressReport;
+	private int documentsToProcess;
+
+	public CorpusRunManager(File inputDirectory, File outputDirectory) {
+		if (!inputDirectory.isDirectory()){
+			throw new IllegalArgumentException("input directory is not a directory");
+		}
+		if (outputDirectory.exists() && !outputDirectory.isDirectory()){
+			throw new IllegalArgumentException("output directory is not a directory");
+		}
+		this.inputDirectory = inputDirectory;
+		this.outputDirectory = outputDirectory;
+	}
+
+	/**
+	 * The number of worker JVMs to extract reactions in, see {@link WorkerSupervisor}.
+	 * 0 (the default) extracts reactions in this JVM
+	 * @param workerCount
+	 */
+	public void setWorkerCount(int workerCount) {
+		this.workerCount = workerCount;
+	}
+
+	/**
+	 * Maximum time in milliseconds to spend on a document. 0 (the default) for no limit
+	 * @param documentTimeout
+	 */
+	public void setDocumentTimeout(long documentTimeout) {
+		this.documentTimeout = documentTimeout;
+	}
+
+	/**
+	 * Whether to only write reactions for which a complete atom mapping was found. True by default
+	 * @param completeReactionsOnly
+	 */
+	public void setCompleteReactionsOnly(boolean completeReactionsOnly) {
+		this.completeReactionsOnly = completeReactionsOnly;
+	}
+
+	/**
+	 * Processes every document that has not already been completed or quarantined
+	 * @throws IOException
+	 */
+	public void run() throws IOException {
+		FileUtils.forceMkdir(outputDirectory);
+		RunJournal journal = new RunJournal(new File(outputDirectory, JOURNAL_FILE_NAME));
+		try{
+			List<File> toProcess = new ArrayList<File>();
+			int skipped = 0;
+			for (File inputFile : findInputFiles()) {
+				String documentId = getDocumentId(inputFile);
+				RunJournal.Status status = journal.getStatus(documentId);
+				if (status == RunJournal.Status.quarantined ||
+						(status == RunJournal.Status.completed && getOutputFile(documentId).exists())){
+					skipped++;
+				}
+				else{
+					toProcess.add(inputFile);
+				}
+			}
+			LOG.info(toProcess.size() + " documents to process, " + skipped + " already completed or quarantined");
+			documentsToProcess = toProcess.size();
+			startTime = System.currentTimeMillis();
+			lastProgressReport = startTime;
+			if (workerCount > 0){
+				processUsingWorkers(toProcess, journal);
+			}
+			else{
+				for (File inputFile : toProcess) {
+					processInThisJvm(inputFile, journal);
+				}
+			}
+			reportProgress(true);
+		}
+		finally{
+			journal.close();
+		}
+	}
+
+	private Collection<File> findInputFiles() {
+		List<File> files = new ArrayList<File>(FileUtils.listFiles(inputDirectory, new String[]{"xml", "XML", "Xml"}, true));
+		Collections.sort(files);
+		return files;
+	}
+
+	/**
+	 * The path of the input file relative to the input directory, without extension and using forward slashes
+	 * @param inputFile
+	 * @return
+	 */
+	String getDocumentId(File inputFile) {
+		String relativePath = inputDirectory.toURI().relativize(inputFile.toURI()).getPath();
+		return FilenameUtils.removeExtension(relativePath);
+	}
+
+	File getOutputFile(String documentId) {
+		return new File(outputDirectory, documentId + ".cml");
+	}
+
+	private void processInThisJvm(File inputFile, RunJournal journal) throws IOException {
+		String documentId = getDocumentId(inputFile);
+		final List<String> reactionCml = new ArrayList<String>();
+		boolean truncated;
+		InputStream is = new FileInputStream(inputFile);
+		try{
+			ReactionExtractor extractor = UsptoPatentReader.createReactionExtractor(is);
+			extractor.setDocumentIdentifier(documentId);
+			extractor.setDocumentTimeBudget(documentTimeout);
+			extractor.setRetainIndigoReactions(false);
+			extractor.setRetainTaggedSentences(false);
+			extractor.extractReactions(new ReactionListener() {
+				public void reactionFound(Reaction reaction, IndigoObject indigoReaction, boolean complete) {
+					if (complete || !completeReactionsOnly){
+						reactionCml.add(reaction.toCML().toXML());
+					}
+				}
+			});
+			truncated = extractor.isTruncated();
+		}
+		catch (Exception e) {
+			LOG.warn("Failed to extract reactions from " + documentId, e);
+			documentFailed(journal, documentId, RunJournal.Status.failed, e.toString());
+			return;
+		}
+		finally{
+			IOUtils.closeQuietly(is);
+		}
+		if (truncated){
+			documentTruncated(journal, documentId, reactionCml);
+		}
+		else{
+			documentCompleted(journal, documentId, reactionCml);
+		}
+	}
+
+	private void processUsingWorkers(List<File> toProcess, final RunJournal journal) throws IOException {
+		WorkerSupervisor.ResultHandler handler = new WorkerSupervisor.ResultHandler() {
+			public void handle(WorkerResult result) {
+				try{
+					if (result.getStatus() == WorkerResult.Status.succeeded){
+						List<String> reactionCml = completeReactionsOnly ? result.getCompleteReactions() : result.getReactions();
+						if (result.isTruncated()){
+							documentTruncated(journal, result.getDocumentId(), reactionCml);
+						}
+						else{
+							documentCompleted(journal, result.getDocumentId(), reactionCml);
+						}
+					}
+					else{
+						documentFailed(journal, result.getDocumentId(),
+								result.getStatus() == WorkerResult.Status.quarantined ? RunJournal.Status.quarantined : RunJournal.Status.failed, result.getMessage());
+					}
+				}
+				catch (IOException e) {
+					LOG.error("Failed to record the result for " + result.getDocumentId(), e);
+				}
+			}
+		};
+		WorkerSupervisor supervisor = new WorkerSupervisor(workerCount, Collections.<String>emptyList(), 0, documentTimeout, handler);
+		try{
+			for (File inputFile : toProcess) {
+				supervisor.submit(getDocumentId(inputFile), FileUtils.readFileToByteArray(inputFile));
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted whilst submitting documents", e);
+		}
+		finally{
+			supervisor.close();
+		}
+	}
+
+	private void documentCompleted(RunJournal journal, String documentId, List<String> reactionCml) throws IOException {
+		Utils.writeAtomically(getOutputFile(documentId), toReactionList(reactionCml));
+		journal.record(documentId, RunJournal.Status.completed, String.valueOf(reactionCml.size()));
+		documentsProcessed.incrementAndGet();
+		reactionsWritten.addAndGet(reactionCml.size());
+		reportProgress(false);
+	}
+
+	/**
+	 * Writes the reactions found before the document timeout was reached, but records the document as failed so that a rerun retries it
+	 * @param journal
+	 * @param documentId
+	 * @param reactionCml
+	 * @throws IOException
+	 */
+	private void documentTruncated(RunJournal journal, String documentId, List<String> reactionCml) throws IOException {
+		LOG.warn("The document timeout was reached whilst extracting reactions from " + documentId);
+		Utils.writeAtomically(getOutputFile(documentId), toReactionList(reactionCml));
+		reactionsWritten.addAndGet(reactionCml.size());
+		documentFailed(journal, documentId, RunJournal.Status.failed, "Truncated by the document timeout after " + reactionCml.size() + " reactions");
+	}
+
+	private void documentFailed(RunJournal journal, String documentId, RunJournal.Status status, String message) throws IOException {
+		journal.record(documentId, status, message);
+		documentsProcessed.incrementAndGet();
+		documentsFailed.incrementAndGet();
+		reportProgress(false);
+	}
+
+	static String toReactionList(List<String> reactionCml) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		sb.append("<reactionList xmlns=\"" + CML_NAMESPACE + "\">\n");
+		for (String cml : reactionCml) {
+			sb.append(cml);
+			sb.append('\n');
+		}
+		sb.append("</reactionList>\n");
+		return sb.toString();
+	}
+
+	private synchronized void reportProgress(boolean finished) {
+		long now = System.currentTimeMillis();
+		if (!finished && now - lastProgressReport < PROGRESS_INTERVAL){
+			return;
+		}
+		lastProgressReport = now;
+		double seconds = Math.max(1, now - startTime) / 1000d;
+		int processed = documentsProcessed.get();
+		LOG.info(String.format("%s%d/%d documents (%d failed), %.2f documents/s, %.2f reactions/s",
+				finished ? "Finished: " : "", processed, documentsToProcess, documentsFailed.get(), processed / seconds, reactionsWritten.get() / seconds));
+	}
+
+	/**
+	 * Arguments: inputDirectory outputDirectory [workerCount] [documentTimeoutInSeconds]
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2){
+			System.err.println("Usage: CorpusRunManager inputDirectory outputDirectory [workerCount] [documentTimeoutInSeconds]");
+			System.exit(1);
+		}
+		CorpusRunManager manager = new CorpusRunManager(new File(args[0]), new File(args[1]));
+		if (args.length > 2){
+			manager.setWorkerCount(Integer.parseInt(args[2]));
+		}
+		if (args.length > 3){
+			manager.setDocumentTimeout(Long.parseLong(args[3]) * 1000);
+		}
+		manager.run();
+	}
+}
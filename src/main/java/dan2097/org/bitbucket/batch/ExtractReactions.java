@@ -0,0 +1,520 @@
+package dan2097.org.bitbucket.batch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+import com.ggasoftware.indigo.IndigoObject;
+
+import dan2097.org.bitbucket.reactionextraction.ExtractionPipeline;
+import dan2097.org.bitbucket.reactionextraction.ExtractionPipeline.Stage;
+import dan2097.org.bitbucket.reactionextraction.ExtractionPipeline.StageMetrics;
+import dan2097.org.bitbucket.reactionextraction.Reaction;
+import dan2097.org.bitbucket.reactionextraction.ReactionProvenance;
+import dan2097.org.bitbucket.utility.StringUtils;
+import dan2097.org.bitbucket.utility.Utils;
+import dan2097.org.bitbucket.uspto.UsptoBulkFile;
+
+/**
+ * Command line extraction of reactions from a directory of XML patents, a zip/tar archive of patents
+ * (including the archives of zipped patents distributed by Google) or a USPTO bulk file of concatenated XML patents.
+ * Documents are extracted by an {@link ExtractionPipeline}, whose bounded queues limit how many documents are read ahead of extraction.
+ * Progress and throughput, in documents/s and reactions/s, are logged periodically.
+ * Unlike {@link CorpusRunManager} runs are not journalled, so an interrupted run must be restarted from the beginning
+ * @author dl387
+ *
+ */
+public class ExtractReactions {
+
+	private static final Logger LOG = Logger.getLogger(ExtractReactions.class);
+
+	static final String SMILES_FILE_NAME = "reactions.tsv";
+
+	public enum OutputFormat {
+		/**A CML reaction list per document*/
+		cml,
+		/**A single tab separated file of document identifier, paragraph identifier, completeness and reaction SMILES*/
+		smiles,
+		/**A directory per document containing a depiction, CML file and ChemicalTagger output for each reaction, see {@link Utils#serializeReactions(File, Map, boolean)}*/
+		depictions
+	}
+
+	private final File input;
+	private final File outputDirectory;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int indigoAtomMappingTimeout = 15000;
+	private long documentTimeout = 0;
+	private OutputFormat outputFormat = OutputFormat.cml;
+	private boolean completeReactionsOnly = true;
+	private long progressInterval = 10000;
+
+	private final AtomicInteger documentsSubmitted = new AtomicInteger();
+	private final AtomicInteger documentsProcessed = new AtomicInteger();
+	private final AtomicInteger documentsFailed = new AtomicInteger();
+	private final AtomicLong reactionsWritten = new AtomicLong();
+	private ExtractionPipeline pipeline;
+	private Writer smilesWriter;
+	private long startTime;
+	private long lastProgressReport;
+
+	public ExtractReactions(File input, File outputDirectory) {
+		if (!input.exists()){
+			throw new IllegalArgumentException("input does not exist: " + input);
+		}
+		if (outputDirectory.exists() && !outputDirectory.isDirectory()){
+			throw new IllegalArgumentException("output directory is not a directory");
+		}
+		this.input = input;
+		this.outputDirectory = outputDirectory;
+	}
+
+	/**
+	 * The number of threads used to tag and to atom map, with half as many parsing. By default the number of processors
+	 * @param threads
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1){
+			throw new IllegalArgumentException("At least one thread is required");
+		}
+		this.threads = threads;
+	}
+
+	/**
+	 * The timeout on atom mapping each reaction. 15,000 milliseconds by default
+	 * @param milliseconds
+	 */
+	public void setIndigoAtomMappingTimeout(int milliseconds) {
+		this.indigoAtomMappingTimeout = milliseconds;
+	}
+
+	/**
+	 * Maximum time in milliseconds to spend on a document, from when it is handed to the pipeline, see {@link ExtractionPipeline#setDocumentTimeBudget(long)}.
+	 * 0 (the default) for no limit
+	 * @param documentTimeout
+	 */
+	public void setDocumentTimeout(long documentTimeout) {
+		this.documentTimeout = documentTimeout;
+	}
+
+	public void setOutputFormat(OutputFormat outputFormat) {
+		this.outputFormat = outputFormat;
+	}
+
+	/**
+	 * Whether to only write reactions for which a complete atom mapping was found. True by default
+	 * @param completeReactionsOnly
+	 */
+	public void setCompleteReactionsOnly(boolean completeReactionsOnly) {
+		this.completeReactionsOnly = completeReactionsOnly;
+	}
+
+	/**
+	 * How often, in milliseconds, progress is logged. 10,000 by default
+	 * @param progressInterval
+	 */
+	public void setProgressInterval(long progressInterval) {
+		this.progressInterval = progressInterval;
+	}
+
+	/**
+	 * Extracts reactions from every document of the input
+	 * @throws IOException
+	 */
+	public void run() throws IOException {
+		FileUtils.forceMkdir(outputDirectory);
+		if (outputFormat == OutputFormat.smiles){
+			smilesWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(outputDirectory, SMILES_FILE_NAME)), "UTF-8"));
+			smilesWriter.write("document\tparagraph\tcomplete\tsmiles\n");
+		}
+		pipeline = new ExtractionPipeline(new ExtractionPipeline.Sink() {
+			public void documentCompleted(String documentId, Map<Reaction, IndigoObject> foundReactions, Map<Reaction, IndigoObject> completeReactions) throws IOException {
+				writeReactions(documentId, completeReactionsOnly ? completeReactions : foundReactions, completeReactions);
+			}
+
+			public void documentFailed(String documentId, Stage stage, Exception e) {
+				LOG.warn("Failed to extract reactions from " + documentId + " at the " + stage + " stage", e);
+				documentsFailed.incrementAndGet();
+				documentsProcessed.incrementAndGet();
+				reportProgress(false);
+			}
+		});
+		pipeline.setStageThreads(Stage.sections, threads);
+		pipeline.setStageThreads(Stage.parse, Math.max(1, threads / 2));
+		pipeline.setStageThreads(Stage.map, threads);
+		pipeline.setIndigoAtomMappingTimeout(indigoAtomMappingTimeout);
+		pipeline.setDocumentTimeBudget(documentTimeout);
+		pipeline.setRetainTaggedSentences(outputFormat == OutputFormat.depictions);
+		startTime = System.currentTimeMillis();
+		lastProgressReport = startTime;
+		try{
+			submitDocuments();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted whilst submitting documents", e);
+		}
+		finally{
+			try{
+				pipeline.close();
+			}
+			finally{
+				if (smilesWriter != null){
+					smilesWriter.close();
+				}
+			}
+		}
+		reportProgress(true);
+	}
+
+	private void submitDocuments() throws IOException, InterruptedException {
+		String name = input.getName();
+		if (input.isDirectory()){
+			List<File> files = new ArrayList<File>(FileUtils.listFiles(input, new String[]{"xml", "XML", "Xml"}, true));
+			Collections.sort(files);
+			for (File file : files) {
+				String relativePath = input.toURI().relativize(file.toURI()).getPath();
+				submit(FilenameUtils.removeExtension(relativePath), file);
+			}
+		}
+		else if (StringUtils.endsWithCaseInsensitive(name, ".zip")){
+			submitZipFile();
+		}
+		else if (StringUtils.endsWithCaseInsensitive(name, ".tar") || StringUtils.endsWithCaseInsensitive(name, ".tar.gz") || StringUtils.endsWithCaseInsensitive(name, ".tgz")){
+			submitTarFile();
+		}
+		else{
+			submitBulkFile();
+		}
+	}
+
+	private void submitZipFile() throws IOException, InterruptedException {
+		ZipFile zipFile = new ZipFile(input);
+		try{
+			Enumeration<? extends ZipEntry> entries = zipFile.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry zipEntry = entries.nextElement();
+				if (!zipEntry.isDirectory()){
+					InputStream is = zipFile.getInputStream(zipEntry);
+					try{
+						submitArchiveEntry(zipEntry.getName(), is);
+					}
+					finally{
+						IOUtils.closeQuietly(is);
+					}
+				}
+			}
+		}
+		finally{
+			zipFile.close();
+		}
+	}
+
+	private void submitTarFile() throws IOException, InterruptedException {
+		InputStream is = new BufferedInputStream(new FileInputStream(input));
+		try{
+			if (!StringUtils.endsWithCaseInsensitive(input.getName(), ".tar")){
+				is = new GzipCompressorInputStream(is);
+			}
+			TarArchiveInputStream tin = new TarArchiveInputStream(is);
+			TarArchiveEntry tarEntry;
+			while ((tarEntry = tin.getNextTarEntry()) != null) {
+				if (tarEntry.isFile()){
+					submitArchiveEntry(tarEntry.getName(), tin);
+				}
+			}
+		}
+		finally{
+			IOUtils.closeQuietly(is);
+		}
+	}
+
+	/**
+	 * Submits an XML entry of an archive, or the XML entries of a zipped patent within an archive.
+	 * The identifier of a zipped patent's entry is prefixed by the zipped patent's name, as the entries of different zipped patents may have the same name.
+	 * Other entries e.g. images are ignored
+	 * @param entryName
+	 * @param entryStream
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private void submitArchiveEntry(String entryName, InputStream entryStream) throws IOException, InterruptedException {
+		if (StringUtils.endsWithCaseInsensitive(entryName, ".xml")){
+			submit(FilenameUtils.removeExtension(entryName), IOUtils.toByteArray(entryStream));
+		}
+		else if (StringUtils.endsWithCaseInsensitive(entryName, ".zip")){
+			ZipInputStream zin = new ZipInputStream(new ByteArrayInputStream(IOUtils.toByteArray(entryStream)));
+			try{
+				ZipEntry zipEntry;
+				while ((zipEntry = zin.getNextEntry()) != null) {
+					if (!zipEntry.isDirectory() && StringUtils.endsWithCaseInsensitive(zipEntry.getName(), ".xml")){
+						submit(FilenameUtils.removeExtension(entryName) + "/" + FilenameUtils.removeExtension(zipEntry.getName()), IOUtils.toByteArray(zin));
+					}
+				}
+			}
+			finally{
+				IOUtils.closeQuietly(zin);
+			}
+		}
+	}
+
+	private void submitBulkFile() throws IOException, InterruptedException {
+		UsptoBulkFile bulk = new UsptoBulkFile(input);
+		try{
+			String baseName = FilenameUtils.getBaseName(input.getName());
+			Set<String> documentIds = new HashSet<String>();
+			for (int i = 0; i < bulk.getDocumentCount(); i++) {
+				String documentNumber = bulk.getDocumentNumber(i);
+				String documentId = documentNumber != null ? documentNumber : baseName + "_" + i;
+				if (!documentIds.add(documentId)){
+					//e.g. a reissued document, which would otherwise overwrite the output of the first
+					documentId += "_" + i;
+					documentIds.add(documentId);
+				}
+				InputStream is = bulk.openDocument(i);
+				try{
+					submit(documentId, IOUtils.toByteArray(is));
+				}
+				finally{
+					IOUtils.closeQuietly(is);
+				}
+			}
+		}
+		finally{
+			bulk.close();
+		}
+	}
+
+	private void submit(String path, File patentFile) throws InterruptedException {
+		String documentId = toDocumentId(path);
+		if (documentId != null){
+			pipeline.submit(documentId, patentFile);
+		}
+	}
+
+	private void submit(String path, byte[] patentXml) throws InterruptedException {
+		String documentId = toDocumentId(path);
+		if (documentId != null){
+			pipeline.submit(documentId, patentXml);
+		}
+	}
+
+	/**
+	 * Returns the identifier, and hence output path relative to the output directory, of the document with the given path.
+	 * Returns null, counting the document as failed, if the path would resolve outside of the output directory
+	 * @param path
+	 * @return
+	 */
+	private String toDocumentId(String path) {
+		documentsSubmitted.incrementAndGet();
+		String documentId = normaliseDocumentId(path);
+		if (documentId == null){
+			LOG.warn("Skipping " + path + " as its output would be written outside of the output directory");
+			documentsFailed.incrementAndGet();
+			documentsProcessed.incrementAndGet();
+		}
+		return documentId;
+	}
+
+	/**
+	 * Normalises the given path to a relative path with forward slashes.
+	 * Returns null if the path refers to a parent directory of where it starts, or has no name
+	 * @param path
+	 * @return
+	 */
+	static String normaliseDocumentId(String path) {
+		String normalised = FilenameUtils.normalizeNoEndSeparator(path, true);
+		if (normalised == null){
+			return null;
+		}
+		normalised = normalised.substring(FilenameUtils.getPrefixLength(normalised));
+		if (normalised.length() == 0 || normalised.equals(".") || normalised.startsWith("../")){
+			return null;
+		}
+		return normalised;
+	}
+
+	private void writeReactions(String documentId, Map<Reaction, IndigoObject> reactions, Map<Reaction, IndigoObject> completeReactions) throws IOException {
+		switch (outputFormat) {
+		case cml:
+			List<String> reactionCml = new ArrayList<String>();
+			for (Reaction reaction : reactions.keySet()) {
+				reactionCml.add(reaction.toCML().toXML());
+			}
+			Utils.writeAtomically(new File(outputDirectory, documentId + ".cml"), CorpusRunManager.toReactionList(reactionCml));
+			break;
+		case smiles:
+			StringBuilder sb = new StringBuilder();
+			for (Reaction reaction : reactions.keySet()) {
+				ReactionProvenance provenance = reaction.getProvenance();
+				sb.append(documentId);
+				sb.append('\t');
+				sb.append(provenance != null && provenance.getIdentifier() != null ? provenance.getIdentifier() : "");
+				sb.append('\t');
+				sb.append(completeReactions.containsKey(reaction));
+				sb.append('\t');
+				sb.append(reaction.getReactionSmiles());
+				sb.append('\n');
+			}
+			synchronized (smilesWriter) {
+				smilesWriter.write(sb.toString());
+			}
+			break;
+		case depictions:
+			Utils.serializeReactions(new File(outputDirectory, documentId), reactions, true);
+			break;
+		default:
+			throw new IllegalArgumentException("Unexpected output format: " + outputFormat);
+		}
+		reactionsWritten.addAndGet(reactions.size());
+		documentsProcessed.incrementAndGet();
+		reportProgress(false);
+	}
+
+	private synchronized void reportProgress(boolean finished) {
+		long now = System.currentTimeMillis();
+		if (!finished && now - lastProgressReport < progressInterval){
+			return;
+		}
+		lastProgressReport = now;
+		double seconds = Math.max(1, now - startTime) / 1000d;
+		int processed = documentsProcessed.get();
+		LOG.info(String.format("%s%d/%d documents (%d failed), %.2f documents/s, %.2f reactions/s",
+				finished ? "Finished: " : "", processed, documentsSubmitted.get(), documentsFailed.get(), processed / seconds, reactionsWritten.get() / seconds));
+		if (LOG.isDebugEnabled()){
+			for (StageMetrics metrics : pipeline.getStageMetrics()) {
+				LOG.debug(metrics);
+			}
+		}
+	}
+
+	private static final String USAGE = "Usage: ExtractReactions [options] input outputDirectory\n" +
+			"input is a directory of XML patents, a zip/tar(.gz) archive of patents or a USPTO bulk XML file\n" +
+			"  --threads n             threads used to tag and atom map (default: number of processors)\n" +
+			"  --indigo-timeout ms     timeout on atom mapping each reaction (default: 15000)\n" +
+			"  --document-timeout s    maximum time to spend on a document, from reading to atom mapping (default: no limit)\n" +
+			"  --format cml|smiles|depictions  output format (default: cml)\n" +
+			"  --complete-only true|false      only write completely atom mapped reactions (default: true)\n" +
+			"  --progress-interval s   how often to log progress (default: 10)";
+
+	/**
+	 * Creates an ExtractReactions configured from the command line arguments.
+	 * Throws an IllegalArgumentException if they are invalid
+	 * @param args
+	 * @return
+	 */
+	static ExtractReactions fromArguments(String[] args) {
+		List<String> positionalArguments = new ArrayList<String>();
+		List<String[]> options = new ArrayList<String[]>();
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.startsWith("--")){
+				if (i + 1 >= args.length){
+					throw new IllegalArgumentException("No value given for " + arg);
+				}
+				options.add(new String[]{arg, args[++i]});
+			}
+			else{
+				positionalArguments.add(arg);
+			}
+		}
+		if (positionalArguments.size() != 2){
+			throw new IllegalArgumentException("An input and output directory are required");
+		}
+		ExtractReactions extractor = new ExtractReactions(new File(positionalArguments.get(0)), new File(positionalArguments.get(1)));
+		for (String[] option : options) {
+			String name = option[0];
+			String value = option[1];
+			try{
+				if (name.equals("--threads")){
+					extractor.setThreads(Integer.parseInt(value));
+				}
+				else if (name.equals("--indigo-timeout")){
+					extractor.setIndigoAtomMappingTimeout(Integer.parseInt(value));
+				}
+				else if (name.equals("--document-timeout")){
+					extractor.setDocumentTimeout(Long.parseLong(value) * 1000);
+				}
+				else if (name.equals("--format")){
+					extractor.setOutputFormat(OutputFormat.valueOf(value));
+				}
+				else if (name.equals("--complete-only")){
+					if (!value.equals("true") && !value.equals("false")){
+						throw new IllegalArgumentException("Expected true or false for --complete-only");
+					}
+					extractor.setCompleteReactionsOnly(Boolean.parseBoolean(value));
+				}
+				else if (name.equals("--progress-interval")){
+					extractor.setProgressInterval(Long.parseLong(value) * 1000);
+				}
+				else{
+					throw new IllegalArgumentException("Unknown option: " + name);
+				}
+			}
+			catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Expected a number for " + name + " but found: " + value);
+			}
+		}
+		return extractor;
+	}
+
+	int getThreads() {
+		return threads;
+	}
+
+	int getIndigoAtomMappingTimeout() {
+		return indigoAtomMappingTimeout;
+	}
+
+	long getDocumentTimeout() {
+		return documentTimeout;
+	}
+
+	OutputFormat getOutputFormat() {
+		return outputFormat;
+	}
+
+	boolean isCompleteReactionsOnly() {
+		return completeReactionsOnly;
+	}
+
+	public static void main(String[] args) throws IOException {
+		ExtractReactions extractor;
+		try{
+			extractor = fromArguments(args);
+		}
+		catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(1);
+			return;
+		}
+		extractor.run();
+	}
+}
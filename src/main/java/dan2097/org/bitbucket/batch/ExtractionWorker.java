@@ -0,0 +1,100 @@
+package dan2097.org.bitbucket.batch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import com.ggasoftware.indigo.IndigoObject;
+
+import dan2097.org.bitbucket.reactionextraction.Reaction;
+import dan2097.org.bitbucket.reactionextraction.ReactionExtractor;
+import dan2097.org.bitbucket.reactionextraction.ReactionListener;
+import dan2097.org.bitbucket.uspto.UsptoPatentReader;
+
+/**
+ * The child side of {@link WorkerSupervisor}.
+ * Reads XML patents from stdin, extracts their reactions and writes them back as CML on stdout
+ * so that a native crash or hang only loses the document being processed.
+ * stdout is reserved for the protocol; anything else written to System.out is redirected to stderr
+ * @author dl387
+ *
+ */
+public class ExtractionWorker {
+
+	private static final Logger LOG = Logger.getLogger(ExtractionWorker.class);
+
+	private final int indigoAtomMappingTimeout;
+	private final long documentTimeBudget;
+
+	/**
+	 * @param indigoAtomMappingTimeout milliseconds, 0 to use the ReactionExtractor default
+	 * @param documentTimeBudget milliseconds, 0 for no budget
+	 */
+	ExtractionWorker(int indigoAtomMappingTimeout, long documentTimeBudget) {
+		this.indigoAtomMappingTimeout = indigoAtomMappingTimeout;
+		this.documentTimeBudget = documentTimeBudget;
+	}
+
+	void run(DataInputStream in, DataOutputStream out) throws IOException {
+		WorkerProtocol.Request request;
+		while ((request = WorkerProtocol.readRequest(in)) != null) {
+			List<String> reactionCml = new ArrayList<String>();
+			List<Boolean> complete = new ArrayList<Boolean>();
+			boolean truncated;
+			try{
+				truncated = extract(request.documentId, request.document, reactionCml, complete);
+			}
+			catch (Exception e) {
+				LOG.warn("Reaction extraction failed for " + request.documentId, e);
+				WorkerProtocol.writeFailure(out, request.documentId, e.toString());
+				continue;
+			}
+			WorkerProtocol.writeSuccess(out, request.documentId, reactionCml, complete, truncated);
+		}
+	}
+
+	/**
+	 * Extracts the reactions of the document into the given lists, returning whether extraction was truncated by the document time budget
+	 */
+	private boolean extract(String documentId, byte[] documentBytes, final List<String> reactionCml, final List<Boolean> complete) throws Exception {
+		ReactionExtractor extractor = UsptoPatentReader.createReactionExtractor(new ByteArrayInputStream(documentBytes));
+		extractor.setDocumentIdentifier(documentId);
+		if (indigoAtomMappingTimeout > 0){
+			extractor.setIndigoAtomMappingTimeout(indigoAtomMappingTimeout);
+		}
+		extractor.setDocumentTimeBudget(documentTimeBudget);
+		extractor.setRetainIndigoReactions(false);//only CML is returned, so keep native memory flat across documents
+		extractor.setRetainTaggedSentences(false);
+		extractor.extractReactions(new ReactionListener() {
+			public void reactionFound(Reaction reaction, IndigoObject indigoReaction, boolean isComplete) {
+				reactionCml.add(reaction.toCML().toXML());
+				complete.add(isComplete);
+			}
+		});
+		return extractor.isTruncated();
+	}
+
+	/**
+	 * Arguments: [indigoAtomMappingTimeout] [documentTimeBudget], both in milliseconds
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		int indigoAtomMappingTimeout = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+		long documentTimeBudget = args.length > 1 ? Long.parseLong(args[1]) : 0;
+		PrintStream protocolOut = System.out;
+		System.setOut(System.err);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(protocolOut));
+		new ExtractionWorker(indigoAtomMappingTimeout, documentTimeBudget).run(in, out);
+		out.close();
+	}
+}
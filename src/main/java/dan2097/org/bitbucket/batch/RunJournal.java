@@ -0,0 +1,125 @@
+package dan2097.org.bitbucket.batch;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * An append-only record of the outcome of processing each document of a corpus run.
+ * Each line is tab separated: document identifier, status, time (milliseconds since the epoch) and a detail e.g. reaction count or error message.
+ * When a document appears more than once the last line wins. A truncated final line, as left by a killed run, is ignored
+ * @author dl387
+ *
+ */
+public class RunJournal implements Closeable {
+
+	private static final Logger LOG = Logger.getLogger(RunJournal.class);
+	private static final Pattern matchTab = Pattern.compile("\\t");
+	private static final Pattern matchWhiteSpace = Pattern.compile("\\s+");
+
+	public enum Status {
+		/**The document's output has been written*/
+		completed,
+		/**Processing threw an exception, the document will be retried by the next run*/
+		failed,
+		/**The document repeatedly crashed or hung a worker and will not be retried*/
+		quarantined
+	}
+
+	private final Map<String, Status> documentToStatus = new HashMap<String, Status>();
+	private final Writer writer;
+
+	/**
+	 * Opens the journal, reading the status of any documents recorded by previous runs
+	 * @param journalFile
+	 * @throws IOException
+	 */
+	public RunJournal(File journalFile) throws IOException {
+		if (journalFile.exists()){
+			read(journalFile);
+		}
+		writer = new OutputStreamWriter(new FileOutputStream(journalFile, true), "UTF-8");
+	}
+
+	private void read(File journalFile) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), "UTF-8"));
+		try{
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				String[] fields = matchTab.split(line);
+				if (fields.length < 3){
+					LOG.warn("Ignoring malformed line " + lineNumber + " of " + journalFile);
+					continue;
+				}
+				try{
+					documentToStatus.put(fields[0], Status.valueOf(fields[1]));
+				}
+				catch (IllegalArgumentException e) {
+					LOG.warn("Ignoring malformed line " + lineNumber + " of " + journalFile);
+				}
+			}
+		}
+		finally{
+			IOUtils.closeQuietly(reader);
+		}
+	}
+
+	/**
+	 * The most recently recorded status of the document, or null if it has not been processed
+	 * @param documentId
+	 * @return
+	 */
+	public synchronized Status getStatus(String documentId) {
+		return documentToStatus.get(documentId);
+	}
+
+	/**
+	 * The number of documents with the given status
+	 * @param status
+	 * @return
+	 */
+	public synchronized int count(Status status) {
+		int count = 0;
+		for (Status s : documentToStatus.values()) {
+			if (s == status){
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Records the outcome for a document. The line is flushed immediately
+	 * @param documentId
+	 * @param status
+	 * @param detail
+	 * @throws IOException
+	 */
+	public synchronized void record(String documentId, Status status, String detail) throws IOException {
+		if (documentId.indexOf('\t') != -1 || documentId.indexOf('\n') != -1){
+			throw new IllegalArgumentException("Document identifiers may not contain tabs or newlines: " + documentId);
+		}
+		documentToStatus.put(documentId, status);
+		String cleanDetail = detail != null ? matchWhiteSpace.matcher(detail).replaceAll(" ") : "";
+		writer.write(documentId + "\t" + status + "\t" + System.currentTimeMillis() + "\t" + cleanDetail + "\n");
+		writer.flush();
+	}
+
+	public synchronized void close() throws IOException {
+		writer.close();
+	}
+}
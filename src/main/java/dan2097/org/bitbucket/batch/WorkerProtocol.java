@@ -0,0 +1,127 @@
+package dan2097.org.bitbucket.batch;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The length prefixed binary framing used between a {@link WorkerSupervisor} and its {@link ExtractionWorker}s
+ *
+ * Request: UTF document identifier, int length, document bytes. An empty identifier asks the worker to exit
+ * Response: UTF document identifier, boolean success, then either
+ * boolean truncated, int reaction count followed by (boolean complete, int length, UTF-8 CML) for each reaction
+ * or a UTF error message
+ * @author dl387
+ *
+ */
+class WorkerProtocol {
+
+	private static final String CHARSET = "UTF-8";
+	private static final int MAX_ERROR_LENGTH = 10000;
+
+	static void writeRequest(DataOutputStream out, String documentId, byte[] document) throws IOException {
+		out.writeUTF(documentId);
+		out.writeInt(document.length);
+		out.write(document);
+		out.flush();
+	}
+
+	static void writeShutdownRequest(DataOutputStream out) throws IOException {
+		out.writeUTF("");
+		out.writeInt(0);
+		out.flush();
+	}
+
+	static class Request {
+		final String documentId;
+		final byte[] document;
+
+		Request(String documentId, byte[] document) {
+			this.documentId = documentId;
+			this.document = document;
+		}
+	}
+
+	/**
+	 * Reads the next request. Returns null if the stream is exhausted or a shutdown was requested
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	static Request readRequest(DataInputStream in) throws IOException {
+		String documentId;
+		try{
+			documentId = in.readUTF();
+		}
+		catch (EOFException e) {
+			return null;
+		}
+		int length = in.readInt();
+		byte[] document = new byte[length];
+		in.readFully(document);
+		if (documentId.length() == 0){
+			return null;
+		}
+		return new Request(documentId, document);
+	}
+
+	static void writeSuccess(DataOutputStream out, String documentId, List<String> reactionCml, List<Boolean> complete, boolean truncated) throws IOException {
+		out.writeUTF(documentId);
+		out.writeBoolean(true);
+		out.writeBoolean(truncated);
+		out.writeInt(reactionCml.size());
+		for (int i = 0; i < reactionCml.size(); i++) {
+			out.writeBoolean(complete.get(i));
+			byte[] cml = reactionCml.get(i).getBytes(CHARSET);
+			out.writeInt(cml.length);
+			out.write(cml);
+		}
+		out.flush();
+	}
+
+	static void writeFailure(DataOutputStream out, String documentId, String message) throws IOException {
+		out.writeUTF(documentId);
+		out.writeBoolean(false);
+		if (message == null){
+			message = "";
+		}
+		out.writeUTF(message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message);
+		out.flush();
+	}
+
+	/**
+	 * Reads a response. Throws an IOException if the worker died or replied out of sequence
+	 * @param in
+	 * @param expectedDocumentId
+	 * @return
+	 * @throws IOException
+	 */
+	static WorkerResult readResponse(DataInputStream in, String expectedDocumentId) throws IOException {
+		String documentId = in.readUTF();
+		if (!documentId.equals(expectedDocumentId)){
+			throw new IOException("Worker replied for " + documentId + " when a reply for " + expectedDocumentId + " was expected");
+		}
+		boolean success = in.readBoolean();
+		if (!success){
+			return WorkerResult.failed(documentId, in.readUTF());
+		}
+		boolean truncated = in.readBoolean();
+		int reactionCount = in.readInt();
+		List<String> reactions = new ArrayList<String>(reactionCount);
+		List<String> completeReactions = new ArrayList<String>();
+		for (int i = 0; i < reactionCount; i++) {
+			boolean complete = in.readBoolean();
+			byte[] cml = new byte[in.readInt()];
+			in.readFully(cml);
+			String cmlStr = new String(cml, CHARSET);
+			reactions.add(cmlStr);
+			if (complete){
+				completeReactions.add(cmlStr);
+			}
+		}
+		return WorkerResult.succeeded(documentId, reactions, completeReactions, truncated);
+	}
+}
@@ -0,0 +1,90 @@
+package dan2097.org.bitbucket.batch;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of extracting reactions from one document in a worker JVM
+ * @author dl387
+ *
+ */
+public class WorkerResult {
+
+	public enum Status {
+		/**Extraction completed, the reactions are available as CML*/
+		succeeded,
+		/**Extraction threw an exception in the worker*/
+		failed,
+		/**The document crashed or hung a worker on every attempt and will not be retried*/
+		quarantined
+	}
+
+	private final String documentId;
+	private final Status status;
+	private final List<String> reactions;
+	private final List<String> completeReactions;
+	private final boolean truncated;
+	private final String message;
+
+	private WorkerResult(String documentId, Status status, List<String> reactions, List<String> completeReactions, boolean truncated, String message) {
+		this.documentId = documentId;
+		this.status = status;
+		this.reactions = reactions;
+		this.completeReactions = completeReactions;
+		this.truncated = truncated;
+		this.message = message;
+	}
+
+	static WorkerResult succeeded(String documentId, List<String> reactions, List<String> completeReactions, boolean truncated) {
+		return new WorkerResult(documentId, Status.succeeded, reactions, completeReactions, truncated, null);
+	}
+
+	static WorkerResult failed(String documentId, String message) {
+		return new WorkerResult(documentId, Status.failed, Collections.<String>emptyList(), Collections.<String>emptyList(), false, message);
+	}
+
+	static WorkerResult quarantined(String documentId, String message) {
+		return new WorkerResult(documentId, Status.quarantined, Collections.<String>emptyList(), Collections.<String>emptyList(), false, message);
+	}
+
+	public String getDocumentId() {
+		return documentId;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * CML for every reaction found in the document
+	 * @return
+	 */
+	public List<String> getReactions() {
+		return reactions;
+	}
+
+	/**
+	 * CML for the reactions for which a complete atom mapping was found
+	 * @return
+	 */
+	public List<String> getCompleteReactions() {
+		return completeReactions;
+	}
+
+	/**
+	 * True if extraction stopped early as the worker's document time budget was exceeded,
+	 * in which case the reactions are only those found before then (see {@link dan2097.org.bitbucket.reactionextraction.ReactionExtractor#isTruncated()})
+	 * @return
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	/**
+	 * A description of why extraction failed, or null if it succeeded
+	 * @return
+	 */
+	public String getMessage() {
+		return message;
+	}
+}
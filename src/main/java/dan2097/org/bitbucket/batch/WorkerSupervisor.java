@@ -0,0 +1,371 @@
+package dan2097.org.bitbucket.batch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.ProcessBuilder.Redirect;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+import dan2097.org.bitbucket.utility.Utils;
+
+/**
+ * Runs reaction extraction in a pool of child JVMs ({@link ExtractionWorker}s) so that a segfault or hang
+ * in native code (Indigo, JNI-InChI) only costs the document being processed.
+ * A worker that crashes, or fails to reply within the document timeout, is killed and restarted and the document retried once.
+ * A document that takes down a worker on both attempts is quarantined.
+ * Results are reported to a {@link ResultHandler} from the supervisor's threads, possibly concurrently
+ * @author dl387
+ *
+ */
+public class WorkerSupervisor implements Closeable {
+
+	private static final Logger LOG = Logger.getLogger(WorkerSupervisor.class);
+
+	private static final int MAX_ATTEMPTS = 2;
+
+	public interface ResultHandler {
+		/**
+		 * Called once for every submitted document
+		 * @param result
+		 */
+		void handle(WorkerResult result);
+	}
+
+	private static class Task {
+		private final String documentId;
+		private final byte[] document;
+
+		private Task(String documentId, byte[] document) {
+			this.documentId = documentId;
+			this.document = document;
+		}
+	}
+
+	private static final Task END_OF_INPUT = new Task("", new byte[0]);
+
+	private final List<String> jvmArguments;
+	private final List<String> workerArguments;
+	private final long documentTimeout;
+	private final ResultHandler resultHandler;
+	private final BlockingQueue<Task> tasks;
+	private final List<Thread> slots = new ArrayList<Thread>();
+	private final Set<String> quarantinedDocuments = Collections.synchronizedSet(new HashSet<String>());
+	private Writer quarantineLog;
+	private boolean closed = false;
+
+	/**
+	 * Starts the given number of worker JVMs
+	 * @param workerCount
+	 * @param jvmArguments Arguments for the child JVMs e.g. -Xmx2g
+	 * @param indigoAtomMappingTimeout milliseconds, 0 to use the ReactionExtractor default
+	 * @param documentTimeout milliseconds a worker has to reply before it is considered hung, 0 for no limit
+	 * @param resultHandler
+	 */
+	public WorkerSupervisor(int workerCount, List<String> jvmArguments, int indigoAtomMappingTimeout, long documentTimeout, ResultHandler resultHandler) {
+		if (workerCount < 1){
+			throw new IllegalArgumentException("At least one worker is required");
+		}
+		this.jvmArguments = new ArrayList<String>(jvmArguments);
+		this.workerArguments = new ArrayList<String>();
+		workerArguments.add(String.valueOf(indigoAtomMappingTimeout));
+		//the worker's own budget stops cooperatively before the supervisor resorts to killing it
+		workerArguments.add(String.valueOf(documentTimeout > 0 ? documentTimeout / 2 : 0));
+		this.documentTimeout = documentTimeout;
+		this.resultHandler = resultHandler;
+		this.tasks = new ArrayBlockingQueue<Task>(workerCount * 2);
+		for (int i = 0; i < workerCount; i++) {
+			Thread slot = new Thread(new WorkerSlot(), "extraction-worker-" + i);
+			slot.setDaemon(true);
+			slots.add(slot);
+			slot.start();
+		}
+	}
+
+	/**
+	 * Appends the identifiers of quarantined documents to the given file
+	 * @param quarantineFile
+	 * @throws IOException
+	 */
+	public synchronized void setQuarantineFile(File quarantineFile) throws IOException {
+		IOUtils.closeQuietly(quarantineLog);
+		quarantineLog = new OutputStreamWriter(new FileOutputStream(quarantineFile, true), "UTF-8");
+	}
+
+	/**
+	 * Queues a document for extraction, blocking if all workers are busy and the queue is full
+	 * @param documentId A unique identifier for the document
+	 * @param document The XML patent document
+	 * @throws InterruptedException
+	 */
+	public void submit(String documentId, byte[] document) throws InterruptedException {
+		if (documentId == null || documentId.length() == 0){
+			throw new IllegalArgumentException("A document identifier is required");
+		}
+		synchronized (this) {
+			if (closed){
+				throw new IllegalStateException("Supervisor has been closed");
+			}
+		}
+		tasks.put(new Task(documentId, document));
+	}
+
+	/**
+	 * The identifiers of documents that were quarantined
+	 * @return
+	 */
+	public Set<String> getQuarantinedDocuments() {
+		synchronized (quarantinedDocuments) {
+			return new HashSet<String>(quarantinedDocuments);
+		}
+	}
+
+	/**
+	 * Waits for all submitted documents to be processed then stops the workers
+	 */
+	public void close() throws IOException {
+		synchronized (this) {
+			if (closed){
+				return;
+			}
+			closed = true;
+		}
+		try{
+			for (int i = 0; i < slots.size(); i++) {
+				tasks.put(END_OF_INPUT);
+			}
+			for (Thread slot : slots) {
+				slot.join();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted whilst waiting for workers to finish", e);
+		}
+		finally{
+			synchronized (this) {
+				IOUtils.closeQuietly(quarantineLog);
+			}
+		}
+	}
+
+	private void quarantine(String documentId, String reason) {
+		LOG.warn("Quarantining " + documentId + ": " + reason);
+		quarantinedDocuments.add(documentId);
+		synchronized (this) {
+			if (quarantineLog != null){
+				try {
+					quarantineLog.write(documentId + "\t" + reason.replaceAll("\\s+", " ") + "\n");
+					quarantineLog.flush();
+				} catch (IOException e) {
+					LOG.error("Failed to record quarantined document " + documentId, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Owns one child JVM, restarting it as necessary, and feeds it documents from the queue
+	 */
+	private class WorkerSlot implements Runnable {
+
+		private final ExecutorService responseReader = Executors.newSingleThreadExecutor();
+		private Process process;
+		private DataOutputStream toWorker;
+		private DataInputStream fromWorker;
+
+		public void run() {
+			try{
+				Task task;
+				while ((task = tasks.take()) != END_OF_INPUT) {
+					WorkerResult result = process(task);
+					try{
+						resultHandler.handle(result);
+					}
+					catch (RuntimeException e) {
+						LOG.error("Result handler failed for " + task.documentId, e);
+					}
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			finally{
+				stopWorker();
+				responseReader.shutdownNow();
+			}
+		}
+
+		private WorkerResult process(final Task task) {
+			String lastProblem = null;
+			for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+				try{
+					if (process == null){
+						startWorker();
+					}
+					WorkerProtocol.writeRequest(toWorker, task.documentId, task.document);
+					Future<WorkerResult> response = responseReader.submit(new Callable<WorkerResult>() {
+						public WorkerResult call() throws IOException {
+							return WorkerProtocol.readResponse(fromWorker, task.documentId);
+						}
+					});
+					if (documentTimeout > 0){
+						return response.get(documentTimeout, TimeUnit.MILLISECONDS);
+					}
+					return response.get();
+				}
+				catch (TimeoutException e) {
+					lastProblem = "worker did not reply within " + documentTimeout + "ms";
+				}
+				catch (ExecutionException e) {
+					lastProblem = "worker died: " + e.getCause();
+				}
+				catch (IOException e) {
+					lastProblem = "worker died: " + e;
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					stopWorker();
+					return WorkerResult.failed(task.documentId, "Interrupted");
+				}
+				LOG.warn("Attempt " + attempt + " at " + task.documentId + " failed, " + lastProblem + ". Restarting worker");
+				killWorker();
+			}
+			quarantine(task.documentId, lastProblem);
+			return WorkerResult.quarantined(task.documentId, lastProblem);
+		}
+
+		private void startWorker() throws IOException {
+			List<String> command = new ArrayList<String>();
+			command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path"));
+			command.addAll(jvmArguments);
+			command.add(ExtractionWorker.class.getName());
+			command.addAll(workerArguments);
+			ProcessBuilder pb = new ProcessBuilder(command);
+			pb.redirectError(Redirect.INHERIT);
+			process = pb.start();
+			toWorker = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+			fromWorker = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+		}
+
+		/**
+		 * Asks the worker to exit, killing it if that does not happen promptly
+		 */
+		private void stopWorker() {
+			if (process == null){
+				return;
+			}
+			try{
+				WorkerProtocol.writeShutdownRequest(toWorker);
+				waitFor(process, 10000);
+			}
+			catch (IOException e) {
+				//worker already gone
+			}
+			killWorker();
+		}
+
+		private void killWorker() {
+			if (process == null){
+				return;
+			}
+			process.destroy();
+			IOUtils.closeQuietly(toWorker);
+			IOUtils.closeQuietly(fromWorker);
+			process = null;
+			toWorker = null;
+			fromWorker = null;
+		}
+	}
+
+	private static void waitFor(Process process, long milliseconds) {
+		long end = System.currentTimeMillis() + milliseconds;
+		while (System.currentTimeMillis() < end) {
+			try{
+				process.exitValue();
+				return;
+			}
+			catch (IllegalThreadStateException e) {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e1) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Extracts reactions from every XML file in the input directory using worker JVMs,
+	 * writing a CML reaction list of each document's reactions to the output directory, mirroring the input directory structure.
+	 * Arguments: inputDirectory outputDirectory [workerCount] [documentTimeoutInSeconds]
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2){
+			System.err.println("Usage: WorkerSupervisor inputDirectory outputDirectory [workerCount] [documentTimeoutInSeconds]");
+			System.exit(1);
+		}
+		File inputDirectory = new File(args[0]);
+		final File outputDirectory = new File(args[1]);
+		int workerCount = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		long documentTimeout = args.length > 3 ? Long.parseLong(args[3]) * 1000 : 600000;
+		FileUtils.forceMkdir(outputDirectory);
+		ResultHandler writer = new ResultHandler() {
+			public void handle(WorkerResult result) {
+				if (result.getStatus() != WorkerResult.Status.succeeded){
+					LOG.warn(result.getDocumentId() + " " + result.getStatus() + ": " + result.getMessage());
+					return;
+				}
+				if (result.isTruncated()){
+					LOG.warn(result.getDocumentId() + " was truncated by the document timeout");
+				}
+				try {
+					Utils.writeAtomically(new File(outputDirectory, result.getDocumentId() + ".cml"), CorpusRunManager.toReactionList(result.getReactions()));
+				} catch (IOException e) {
+					LOG.error("Failed to write reactions for " + result.getDocumentId(), e);
+				}
+			}
+		};
+		WorkerSupervisor supervisor = new WorkerSupervisor(workerCount, Collections.<String>emptyList(), 0, documentTimeout, writer);
+		try{
+			supervisor.setQuarantineFile(new File(outputDirectory, "quarantined.txt"));
+			for (File f : FileUtils.listFiles(inputDirectory, new String[]{"xml", "XML"}, true)) {
+				//the relative path distinguishes identically named patents in different subdirectories
+				String relativePath = inputDirectory.toURI().relativize(f.toURI()).getPath();
+				supervisor.submit(FilenameUtils.removeExtension(relativePath), FileUtils.readFileToByteArray(f));
+			}
+		}
+		finally{
+			supervisor.close();
+		}
+	}
+}
@@ -1,20 +1,18 @@
 package dan2097.org.bitbucket.inchiTools;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
-import dan2097.org.bitbucket.utility.StringUtils;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 
 public class InchiDemerger {
 
-	private static final Pattern matchSlash = Pattern.compile("/");
-	private static final Pattern matchDot = Pattern.compile("[.]");
-	private static final Pattern matchSemiColon = Pattern.compile("[;]");
-	private static final Pattern matchMultiplierStar = Pattern.compile("([2-9][0-9]?)\\*");
-	private static final Pattern matchMultiplier = Pattern.compile("([2-9][0-9]?)");
+	/**Maximum number of InChIs whose demerged InChIs are remembered. The same InChIs (e.g. of solvents) are demerged repeatedly*/
+	private static final int DEMERGE_CACHE_SIZE = 10000;
+	private static final Cache<String, List<String>> inchiToDemergedInchis = CacheBuilder.newBuilder().maximumSize(DEMERGE_CACHE_SIZE).build();
 	private final String inchi;
 	
 	/**
@@ -35,54 +33,104 @@ public class InchiDemerger {
 	 * @return
 	 */
 	public List<String> generateDemergedInchis(){
-		List<List<String>> demergedInChIArrays = new ArrayList<List<String>>();
-		String[] inchiLayers = matchSlash.split(inchi);
-		if (inchiLayers.length < 2){
+		List<String> demergedInChIs = inchiToDemergedInchis.getIfPresent(inchi);
+		if (demergedInChIs == null){
+			demergedInChIs = Collections.unmodifiableList(demerge());
+			inchiToDemergedInchis.put(inchi, demergedInChIs);
+		}
+		return new ArrayList<String>(demergedInChIs);
+	}
+
+	private List<String> demerge(){
+		InchiLayers inchiLayers = new InchiLayers(inchi);
+		int layerCount = inchiLayers.getLayerCount();
+		if (layerCount < 2){
 			throw new IllegalArgumentException("Invalid InChI");
 		}
-		for (int i = 1; i < inchiLayers.length; i++) {
-			String layer = inchiLayers[i];
-			String layerSansIdentifier = (i==1 ? layer : layer.substring(1));
-			String layerPrefix = (i==1 ? "" :layer.substring(0, 1));
-			String[] componentsOfLayer = (i==1 ? matchDot.split(layerSansIdentifier) : matchSemiColon.split(layerSansIdentifier));
+		int versionStart = inchiLayers.getLayerStart(0);
+		int versionEnd = inchiLayers.getLayerEnd(0);
+		List<StringBuilder> demergedInChIBuilders = new ArrayList<StringBuilder>();
+		for (int i = 1; i < layerCount; i++) {
+			boolean isFormulaLayer = (i==1);
+			int layerStart = inchiLayers.getLayerStart(i);
+			int layerEnd = inchiLayers.getLayerEnd(i);
+			if (!isFormulaLayer){
+				inchiLayers.getLayerIdentifier(i);//layers other than the formula must have an identifier
+				layerStart++;
+			}
+			int[] componentsOfLayer = InchiLayers.split(inchi, layerStart, layerEnd, isFormulaLayer ? '.' : ';');
 			int componentCounter = 0;
-			for (String componentOfLayer : componentsOfLayer) {
-				Matcher m;
-				if (i==1){
-					m = matchMultiplier.matcher(componentOfLayer);
-				}
-				else{
-					m = matchMultiplierStar.matcher(componentOfLayer);
-				}
-				if (demergedInChIArrays.size()==0){
-					List<String> contents =new ArrayList<String>();
-					contents.add(inchiLayers[0]);
-					demergedInChIArrays.add(contents);
+			for (int k = 0; k < componentsOfLayer.length; k += 2) {
+				int componentStart = componentsOfLayer[k];
+				int componentEnd = componentsOfLayer[k + 1];
+				if (demergedInChIBuilders.size()==0){
+					demergedInChIBuilders.add(new StringBuilder().append(inchi, versionStart, versionEnd));
 				}
+				int multiplierLength = isFormulaLayer ? multiplierLength(componentStart, componentEnd) : starredMultiplierLength(componentStart, componentEnd);
 				int multiplier = 1;
-				String sectionOfLayerToMultiply;
-				if (m.lookingAt()){
-					sectionOfLayerToMultiply = componentOfLayer.substring(m.end(0));
-					multiplier = Integer.parseInt(m.group(1));
-				}
-				else{
-					sectionOfLayerToMultiply = componentOfLayer;
+				int sectionOfLayerToMultiplyStart = componentStart;
+				if (multiplierLength > 0){
+					multiplier = Integer.parseInt(inchi.substring(componentStart, componentStart + multiplierLength));
+					sectionOfLayerToMultiplyStart += isFormulaLayer ? multiplierLength : multiplierLength + 1;
 				}
 
 				for (int j = 0; j < multiplier; j++) {
-					if (componentCounter == demergedInChIArrays.size()){
-						List<String> contents =new ArrayList<String>();
-						contents.add(inchiLayers[0]);
-						demergedInChIArrays.add(contents);
+					if (componentCounter == demergedInChIBuilders.size()){
+						demergedInChIBuilders.add(new StringBuilder().append(inchi, versionStart, versionEnd));
 					}
-					demergedInChIArrays.get(componentCounter++).add(layerPrefix + sectionOfLayerToMultiply);
+					StringBuilder sb = demergedInChIBuilders.get(componentCounter++);
+					sb.append('/');
+					if (!isFormulaLayer){
+						sb.append(inchi.charAt(inchiLayers.getLayerStart(i)));
+					}
+					sb.append(inchi, sectionOfLayerToMultiplyStart, componentEnd);
 				}
 			}
 		}
-		List<String> demergedInChIs = new ArrayList<String>();
-		for (List<String> demergedInChIArray : demergedInChIArrays) {
-			demergedInChIs.add(StringUtils.stringListToString(demergedInChIArray, "/"));
+		List<String> demergedInChIs = new ArrayList<String>(demergedInChIBuilders.size());
+		for (StringBuilder sb : demergedInChIBuilders) {
+			demergedInChIs.add(sb.toString());
 		}
 		return demergedInChIs;
 	}
+
+	/**
+	 * The length of the multiplier (a number from 2 to 99 without a leading 1) at the start of a molecular formula component, 0 if there isn't one
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	private int multiplierLength(int start, int end) {
+		if (start < end && isDigitFrom2To9(inchi.charAt(start))){
+			return (start + 1 < end && isDigit(inchi.charAt(start + 1))) ? 2 : 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * The length of the multiplier (a number from 2 to 99 without a leading 1, followed by a *) at the start of a layer's component,
+	 * excluding the *, 0 if there isn't one
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	private int starredMultiplierLength(int start, int end) {
+		if (start < end && isDigitFrom2To9(inchi.charAt(start))){
+			if (start + 2 < end && isDigit(inchi.charAt(start + 1)) && inchi.charAt(start + 2) == '*'){
+				return 2;
+			}
+			if (start + 1 < end && inchi.charAt(start + 1) == '*'){
+				return 1;
+			}
+		}
+		return 0;
+	}
+
+	private static boolean isDigitFrom2To9(char c) {
+		return c >= '2' && c <= '9';
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
 }
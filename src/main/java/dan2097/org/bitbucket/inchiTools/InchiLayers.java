@@ -0,0 +1,141 @@
+package dan2097.org.bitbucket.inchiTools;
+
+/**
+ * A single pass tokenisation of an InChI into its "/" delimited layers.
+ * Layers (and the components within them) are represented as offsets into the original string so no intermediate strings are created.
+ * The tokenisation is equivalent to String.split i.e. trailing empty tokens are discarded
+ * @author dl387
+ *
+ */
+class InchiLayers {
+
+	private final String inchi;
+	/**start and end offsets of each layer*/
+	private final int[] bounds;
+
+	InchiLayers(String inchi) {
+		this.inchi = inchi;
+		this.bounds = split(inchi, 0, inchi.length(), '/');
+	}
+
+	String getInchi() {
+		return inchi;
+	}
+
+	int getLayerCount() {
+		return bounds.length / 2;
+	}
+
+	int getLayerStart(int layer) {
+		return bounds[layer * 2];
+	}
+
+	int getLayerEnd(int layer) {
+		return bounds[layer * 2 + 1];
+	}
+
+	/**
+	 * The first character of the given layer, which identifies the type of layer for all but the first two layers.
+	 * Throws a StringIndexOutOfBoundsException if the layer is empty
+	 * @param layer
+	 * @return
+	 */
+	char getLayerIdentifier(int layer) {
+		int start = getLayerStart(layer);
+		if (start == getLayerEnd(layer)){
+			throw new StringIndexOutOfBoundsException(0);
+		}
+		return inchi.charAt(start);
+	}
+
+	/**
+	 * A view of the given layer, backed by the InChI
+	 * @param layer
+	 * @return
+	 */
+	CharSequence getLayer(int layer) {
+		return new View(inchi, getLayerStart(layer), getLayerEnd(layer));
+	}
+
+	/**
+	 * The start and end offsets of the tokens of the given region of the string delimited by the given character,
+	 * with the same semantics as String.split:
+	 * if the delimiter does not occur the only token is the whole region, otherwise trailing empty tokens are discarded
+	 * @param str
+	 * @param start
+	 * @param end
+	 * @param delimiter
+	 * @return
+	 */
+	static int[] split(String str, int start, int end, char delimiter) {
+		int delimiterCount = 0;
+		for (int i = start; i < end; i++) {
+			if (str.charAt(i) == delimiter){
+				delimiterCount++;
+			}
+		}
+		if (delimiterCount == 0){
+			return new int[]{start, end};
+		}
+		int[] tokenBounds = new int[(delimiterCount + 1) * 2];
+		int tokenCount = 0;
+		int tokenStart = start;
+		for (int i = start; i < end; i++) {
+			if (str.charAt(i) == delimiter){
+				tokenBounds[tokenCount * 2] = tokenStart;
+				tokenBounds[tokenCount * 2 + 1] = i;
+				tokenCount++;
+				tokenStart = i + 1;
+			}
+		}
+		tokenBounds[tokenCount * 2] = tokenStart;
+		tokenBounds[tokenCount * 2 + 1] = end;
+		tokenCount++;
+		while (tokenCount > 0 && tokenBounds[tokenCount * 2 - 2] == tokenBounds[tokenCount * 2 - 1]) {
+			tokenCount--;
+		}
+		if (tokenCount * 2 == tokenBounds.length){
+			return tokenBounds;
+		}
+		int[] trimmed = new int[tokenCount * 2];
+		System.arraycopy(tokenBounds, 0, trimmed, 0, trimmed.length);
+		return trimmed;
+	}
+
+	/**
+	 * A read-only window onto a region of a string
+	 */
+	static class View implements CharSequence {
+		private final String str;
+		private final int start;
+		private final int end;
+
+		View(String str, int start, int end) {
+			this.str = str;
+			this.start = start;
+			this.end = end;
+		}
+
+		public int length() {
+			return end - start;
+		}
+
+		public char charAt(int index) {
+			if (index < 0 || index >= end - start){
+				throw new StringIndexOutOfBoundsException(index);
+			}
+			return str.charAt(start + index);
+		}
+
+		public CharSequence subSequence(int subStart, int subEnd) {
+			if (subStart < 0 || subEnd > end - start || subStart > subEnd){
+				throw new StringIndexOutOfBoundsException("Invalid range: " + subStart + "-" + subEnd);
+			}
+			return new View(str, start + subStart, start + subEnd);
+		}
+
+		public String toString() {
+			return str.substring(start, end);
+		}
+	}
+}
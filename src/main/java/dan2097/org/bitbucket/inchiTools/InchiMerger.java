@@ -1,9 +1,14 @@
 package dan2097.org.bitbucket.inchiTools;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.log4j.Logger;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 import net.sf.jniinchi.INCHI_RET;
 import net.sf.jniinchi.JniInchiInput;
 import net.sf.jniinchi.JniInchiInputInchi;
@@ -11,8 +16,16 @@ import net.sf.jniinchi.JniInchiOutput;
 import net.sf.jniinchi.JniInchiOutputStructure;
 import net.sf.jniinchi.JniInchiWrapper;
 
+import dan2097.org.bitbucket.utility.ExtractionEvents;
+import dan2097.org.bitbucket.utility.ExtractionEvents.Operation;
+
 public class InchiMerger {
 	private static Logger LOG = Logger.getLogger(InchiMerger.class);
+	/**Maximum number of merged InChIs remembered. The same salts and mixtures occur repeatedly*/
+	private static final int MERGE_CACHE_SIZE = 10000;
+	/**Keyed by the sorted input InChIs, as the merged InChI is independent of the order of the inputs*/
+	private static final Cache<List<String>, String> inchisToMergedNormalisedInchi = CacheBuilder.newBuilder().maximumSize(MERGE_CACHE_SIZE).build();
+	private static final String HYDROGEN_CHLORIDE_INCHI = "InChI=1/ClH/h1H";
 	private final List<String> inchis;
 	
 	/**
@@ -66,10 +79,119 @@ public class InchiMerger {
 	 * Returns null if merging failed
 	 */
 	public String generateMergedNormalisedInchi(){
-		String generateMergedInchi = generateMergedInchi();
-		if (generateMergedInchi !=null){
-			generateMergedInchi = InchiNormaliser.normaliseInChI(generateMergedInchi);
+		int totalInchiLength = 0;
+		for (String inchi : inchis) {
+			totalInchiLength += inchi.length();
+		}
+		ExtractionEvents.Span span = ExtractionEvents.begin(Operation.inchiMerging, totalInchiLength);
+		try{
+			List<String> sortedInchis = new ArrayList<String>(inchis);
+			Collections.sort(sortedInchis);
+			String mergedInchi = inchisToMergedNormalisedInchi.getIfPresent(sortedInchis);
+			if (mergedInchi != null){
+				span.setOutcome("cached");
+				return mergedInchi;
+			}
+			mergedInchi = mergeHydrochloride();
+			if (mergedInchi != null){
+				span.setOutcome("textual");
+			}
+			else{
+				mergedInchi = generateMergedInchi();
+				if (mergedInchi !=null){
+					mergedInchi = InchiNormaliser.normaliseInChI(mergedInchi);
+				}
+				span.setOutcome(mergedInchi != null ? "merged" : "unmerged");
+			}
+			if (mergedInchi != null){
+				inchisToMergedNormalisedInchi.put(Collections.unmodifiableList(sortedInchis), mergedInchi);
+			}
+			return mergedInchi;
+		}
+		finally{
+			span.end();
+		}
+	}
+
+	/**
+	 * Textually merges a hydrochloride or polyhydrochloride, e.g. InChI=1/C5H5N/c1-2-4-6-5-3-1/h1-5H and InChI=1/ClH/h1H
+	 * --&gt; InChI=1/C5H5N.ClH/c1-2-4-6-5-3-1;/h1-5H;1H, without going through JNI-InChI.
+	 * Only applies to a single organic component, consisting of just connections and hydrogens layers, 
+	 * with any number of hydrogen chlorides, where the organic component is known to be ordered first.
+	 * Returns null if the InChIs are not of this form
+	 * @return
+	 */
+	String mergeHydrochloride() {
+		String organicInchi = null;
+		int hydrogenChlorideCount = 0;
+		for (String inchi : inchis) {
+			if (inchi.equals(HYDROGEN_CHLORIDE_INCHI) || inchi.equals("InChI=1S/ClH/h1H")){
+				hydrogenChlorideCount++;
+			}
+			else if (organicInchi == null){
+				organicInchi = inchi;
+			}
+			else{
+				return null;
+			}
+		}
+		if (organicInchi == null || hydrogenChlorideCount == 0){
+			return null;
+		}
+		InchiLayers layers = new InchiLayers(organicInchi);
+		if (layers.getLayerCount() != 4 || layers.getLayerIdentifier(2) != 'c' || layers.getLayerIdentifier(3) != 'h'){
+			return null;
+		}
+		String version = layers.getLayer(0).toString();
+		if (!version.equals("InChI=1") && !version.equals("InChI=1S")){
+			return null;
+		}
+		CharSequence formula = layers.getLayer(1);
+		if (!containsCarbon(formula)){
+			return null;
+		}
+		for (int i = 0; i < formula.length(); i++) {
+			if (formula.charAt(i) == '.'){//already has multiple components
+				return null;
+			}
+		}
+		for (int i = layers.getLayerStart(2); i < layers.getLayerEnd(3); i++) {
+			char c = organicInchi.charAt(i);
+			if (c == ';' || c == '*'){
+				return null;
+			}
+		}
+		StringBuilder sb = new StringBuilder(organicInchi.length() + 16);
+		sb.append("InChI=1/");
+		sb.append(formula).append('.');
+		if (hydrogenChlorideCount > 1){
+			sb.append(hydrogenChlorideCount);
+		}
+		sb.append("ClH/");
+		sb.append(layers.getLayer(2));
+		for (int i = 0; i < hydrogenChlorideCount; i++) {
+			sb.append(';');
+		}
+		sb.append('/');
+		sb.append(layers.getLayer(3)).append(';');
+		if (hydrogenChlorideCount > 1){
+			sb.append(hydrogenChlorideCount).append('*');
+		}
+		sb.append("1H");
+		return sb.toString();
+	}
+
+	/**
+	 * Does the molecular formula contain carbon (as opposed to e.g. chlorine)
+	 * @param formula
+	 * @return
+	 */
+	private static boolean containsCarbon(CharSequence formula) {
+		for (int i = 0; i < formula.length(); i++) {
+			if (formula.charAt(i) == 'C' && (i + 1 == formula.length() || !Character.isLowerCase(formula.charAt(i + 1)))){
+				return true;
+			}
 		}
-		return generateMergedInchi;
+		return false;
 	}
 }
@@ -1,16 +1,8 @@
 package dan2097.org.bitbucket.inchiTools;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.regex.Pattern;
-
-import dan2097.org.bitbucket.utility.StringUtils;
-
 
 public class InchiNormaliser {
 
-	private static final Pattern matchSlash = Pattern.compile("/");
-	
 	/**
 	 * Return a modified version of the given InChI where the:
 	 * fixed hydrogen and reconnected layers have been removed
@@ -22,26 +14,30 @@ public class InchiNormaliser {
 		if (inchi == null){
 			throw new IllegalArgumentException("Input InChI was the null string");
 		}
-		String[] inchiLayers = matchSlash.split(inchi);
-		if (inchiLayers.length < 2){
+		InchiLayers inchiLayers = new InchiLayers(inchi);
+		int layerCount = inchiLayers.getLayerCount();
+		if (layerCount < 2){
 			throw new IllegalArgumentException("Invalid InChI");
 		}
-		List<String> retainedLayers = new ArrayList<String>();
-		if (Character.isLetter(inchiLayers[0].charAt(inchiLayers[0].length() -1))){//remove the S indicating this to be a standard InChI
-			inchiLayers[0]=inchiLayers[0].substring(0, inchiLayers[0].length() -1);
+		StringBuilder sb = new StringBuilder(inchi.length());
+		int versionEnd = inchiLayers.getLayerEnd(0);
+		if (Character.isLetter(inchi.charAt(versionEnd - 1))){//remove the S indicating this to be a standard InChI
+			versionEnd--;
 		}
-		retainedLayers.add(inchiLayers[0]);//version identifier
-		retainedLayers.add(inchiLayers[1]);//molecular formula
+		sb.append(inchi, inchiLayers.getLayerStart(0), versionEnd);//version identifier
+		sb.append('/');
+		sb.append(inchi, inchiLayers.getLayerStart(1), inchiLayers.getLayerEnd(1));//molecular formula
 
-		for (int i = 2; i < inchiLayers.length; i++) {
-			Character c = inchiLayers[i].charAt(0);
+		for (int i = 2; i < layerCount; i++) {
+			char c = inchiLayers.getLayerIdentifier(i);
 			if (c=='c' || c=='h' || c=='q' || c=='p' || c=='b' || c=='t' || c=='m' || c=='s' || c=='i'){
-				retainedLayers.add(inchiLayers[i]);
+				sb.append('/');
+				sb.append(inchi, inchiLayers.getLayerStart(i), inchiLayers.getLayerEnd(i));
 			}
 			else{
 				break;
 			}
 		}
-		return StringUtils.stringListToString(retainedLayers, "/");
+		return sb.toString();
 	}
 }
@@ -10,6 +10,9 @@ import net.sf.classifier4J.bayesian.WordsDataSourceException;
 
 import org.apache.commons.io.IOUtils;
 
+import dan2097.org.bitbucket.utility.ExtractionEvents;
+import dan2097.org.bitbucket.utility.ExtractionEvents.Operation;
+
 public class ParagraphClassifier {
 
 	private final BayesianClassifier bayesianClassifier = new BayesianClassifier(); 
@@ -62,7 +65,15 @@ public class ParagraphClassifier {
 	 * @throws ClassifierException
 	 */
 	public double classify(String string) throws WordsDataSourceException, ClassifierException {
-		return bayesianClassifier.classify(string);
+		ExtractionEvents.Span span = ExtractionEvents.begin(Operation.paragraphClassification, string.length());
+		try{
+			double probability = bayesianClassifier.classify(string);
+			span.setOutcome(probability >= 0.5 ? "experimental" : "nonExperimental");
+			return probability;
+		}
+		finally{
+			span.end();
+		}
 	}
 	
 	/**
@@ -4,6 +4,8 @@ import java.util.HashSet;
 import java.util.Set;
 
 import dan2097.org.bitbucket.inchiTools.InchiNormaliser;
+import dan2097.org.bitbucket.utility.LongHashSet;
+import dan2097.org.bitbucket.utility.StructureId;
 import dan2097.org.bitbucket.utility.Utils;
 
 public class AprioriKnowledge {
@@ -17,6 +19,8 @@ public class AprioriKnowledge {
 	private final Set<String> solventNames;
 	private final Set<String> catalystInChIs = new HashSet<String>();
 	private final Set<String> catalystNames;
+	private final LongHashSet solventStructures;
+	private final LongHashSet catalystStructures;
 	
 	private AprioriKnowledge() {
 		Set<String> solventInchis = Utils.fileToStringSet(KNOWN_SOLVENTSINCHIS_LOCATION);
@@ -29,6 +33,16 @@ public class AprioriKnowledge {
 			catalystInChIs.add(InchiNormaliser.normaliseInChI(inchi));
 		}
 		catalystNames = Utils.fileToStringSet(KNOWN_CATALYSTSNAMES_LOCATION);
+		solventStructures = toStructureIds(solventInChIs);
+		catalystStructures = toStructureIds(catalystInChIs);
+	}
+
+	private static LongHashSet toStructureIds(Set<String> inchis) {
+		LongHashSet structureIds = new LongHashSet(inchis.size());
+		for (String inchi : inchis) {
+			structureIds.add(StructureId.of(inchi));
+		}
+		return structureIds;
 	}
 	 
 	private static class SingletonHolder { 
@@ -53,7 +67,16 @@ public class AprioriKnowledge {
 	 * @return
 	 */
 	public boolean isKnownSolventInChI(String inchi) {
-		return solventInChIs.contains(inchi);
+		return inchi != null && solventStructures.contains(StructureId.of(inchi));
+	}
+
+	/**
+	 * Is the structure with the given {@link StructureId} a known solvent
+	 * @param structureId
+	 * @return
+	 */
+	public boolean isKnownSolventStructure(long structureId) {
+		return structureId != StructureId.NONE && solventStructures.contains(structureId);
 	}
 	
 	/**
@@ -78,7 +101,16 @@ public class AprioriKnowledge {
 	 * @return
 	 */
 	public boolean isKnownCatalystInChI(String inchi) {
-		return catalystInChIs.contains(inchi);
+		return inchi != null && catalystStructures.contains(StructureId.of(inchi));
+	}
+
+	/**
+	 * Is the structure with the given {@link StructureId} a known catalyst
+	 * @param structureId
+	 * @return
+	 */
+	public boolean isKnownCatalystStructure(long structureId) {
+		return structureId != StructureId.NONE && catalystStructures.contains(structureId);
 	}
 
 	
@@ -62,6 +62,14 @@ public class Chemical{
 		return chemicalIdentifierPair.getInchi();
 	}
 	
+	/**
+	 * The {@link dan2097.org.bitbucket.utility.StructureId} of the InChI, used in place of the InChI for deduplication and membership tests
+	 * @return
+	 */
+	public long getStructureId(){
+		return chemicalIdentifierPair.getStructureId();
+	}
+	
 	public boolean hasSmiles(){
 		return chemicalIdentifierPair.getSmiles() != null;
 	}
@@ -1,5 +1,7 @@
 package dan2097.org.bitbucket.reactionextraction;
 
+import dan2097.org.bitbucket.utility.StructureId;
+
 /**
  * An immutable SMILES/InChI pair.
  * SMILES can never be null, InChI could be in chemicals such as polymers
@@ -10,6 +12,7 @@ public class ChemicalIdentifierPair {
 
 	private final String smiles;
 	private final String inchi;
+	private final long structureId;
 	
 	/**
 	 * Constructs an immutable SMILES/InChI pair.
@@ -19,6 +22,7 @@ public class ChemicalIdentifierPair {
 	public ChemicalIdentifierPair(String smiles, String inchi) {
 		this.smiles = smiles;
 		this.inchi = inchi;
+		this.structureId = StructureId.of(inchi);
 	}
 
 	/**
@@ -36,4 +40,12 @@ public class ChemicalIdentifierPair {
 	public String getInchi() {
 		return inchi;
 	}
+
+	/**
+	 * The {@link StructureId} of the InChI, {@link StructureId#NONE} if there is no InChI
+	 * @return
+	 */
+	public long getStructureId() {
+		return structureId;
+	}
 }
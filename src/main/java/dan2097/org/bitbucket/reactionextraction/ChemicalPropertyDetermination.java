@@ -20,7 +20,12 @@ public class ChemicalPropertyDetermination {
 	private static final Logger LOG = Logger.getLogger(ChemicalPropertyDetermination.class);
 	
 	public static void determineProperties(Chemical chemical, Element molecule){
-	    List<Element> quantityElements = XomUtils.getDescendantElementsWithTagName(molecule, ChemicalTaggerTags.QUANTITY_Container);
+		determineProperties(chemical, new MoleculeFacts(molecule));
+	}
+
+	static void determineProperties(Chemical chemical, MoleculeFacts moleculeFacts){
+		Element molecule = moleculeFacts.getMolecule();
+	    List<Element> quantityElements = moleculeFacts.getQuantityElements();
 		for (Element quantityElement : quantityElements) {
 			determineVolume(chemical, quantityElement);
 			determineAmount(chemical, quantityElement);
@@ -22,7 +22,7 @@ class ChemicalRoleAssigner {
 	 */
 	static ChemicalRole determineChemicalRole(Element chemicalEl, Chemical chemical) {
 		String lcName = chemical.getName().toLowerCase(Locale.ROOT); 
-		if (chemicalKnowledge.isKnownCatalystInChI(chemical.getInchi())){
+		if (chemicalKnowledge.isKnownCatalystStructure(chemical.getStructureId())){
 			return ChemicalRole.catalyst;
 		}
 		else if (isKnownTrivialCatalyst(lcName)){
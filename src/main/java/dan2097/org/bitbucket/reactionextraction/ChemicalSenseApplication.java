@@ -2,11 +2,9 @@ package dan2097.org.bitbucket.reactionextraction;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import org.apache.log4j.Logger;
 
@@ -15,12 +13,15 @@ import com.ggasoftware.indigo.IndigoException;
 import com.ggasoftware.indigo.IndigoObject;
 
 import dan2097.org.bitbucket.utility.IndigoHolder;
+import dan2097.org.bitbucket.utility.IndigoScope;
+import dan2097.org.bitbucket.utility.LongHashSet;
 import dan2097.org.bitbucket.utility.Utils;
 
 public class ChemicalSenseApplication {
-	private static final Indigo indigo = IndigoHolder.getInstance();
 	private static final Logger LOG = Logger.getLogger(ChemicalSenseApplication.class);
 
+	/**Sections may be parsed concurrently, hence each thread uses its own Indigo*/
+	private final Indigo indigo = IndigoHolder.getThreadLocalInstance();
 	private final Reaction reaction;
 	
 	ChemicalSenseApplication(Reaction reaction) {
@@ -33,21 +34,21 @@ public class ChemicalSenseApplication {
 	 */
 	void mergeProductsByInChI() {
 		List<Chemical> products = reaction.getProducts();
-		Map<String, Chemical> inchiToProduct = new HashMap<String, Chemical>();
+		Map<Long, Chemical> structureToProduct = new HashMap<Long, Chemical>();
 		for (int i = products.size() -1; i >=0; i--) {
 			Chemical product = products.get(i);
-			String inchi = product.getInchi();
-			if (inchiToProduct.containsKey(inchi)){
-				if (!inchiToProduct.get(inchi).hasAQuantity() && product.hasAQuantity()){
-					reaction.removeProduct(inchiToProduct.get(inchi));
-					inchiToProduct.put(inchi, product);
+			Long structureId = product.getStructureId();
+			if (structureToProduct.containsKey(structureId)){
+				if (!structureToProduct.get(structureId).hasAQuantity() && product.hasAQuantity()){
+					reaction.removeProduct(structureToProduct.get(structureId));
+					structureToProduct.put(structureId, product);
 				}
 				else{
 					reaction.removeProduct(product);
 				}
 			}
 			else{
-				inchiToProduct.put(inchi, product);
+				structureToProduct.put(structureId, product);
 			}
 		}
 	}
@@ -58,17 +59,18 @@ public class ChemicalSenseApplication {
 	}
 
 	void correctReactantsThatAreCatalysts() {
+		IndigoScope scope = new IndigoScope(indigo);
 		try{
 			List<IndigoObject> products = new ArrayList<IndigoObject>();
 			for (Chemical product : reaction.getProducts()) {
 				if (product.getSmiles() != null){
-					products.add(indigo.loadMolecule(product.getSmiles()));
+					products.add(scope.track(indigo.loadMolecule(product.getSmiles())));
 				}
 			}
 			List<Chemical> reactantsToReclassify = new ArrayList<Chemical>();
 			for (Chemical reactant : reaction.getReactants()) {
 				if (reactant.getSmiles() != null){
-					IndigoObject reactantMol = indigo.loadMolecule(reactant.getSmiles());
+					IndigoObject reactantMol = scope.track(indigo.loadMolecule(reactant.getSmiles()));
 					List<Integer> transitionMetalInChemical = new ArrayList<Integer>();
 					for (Iterator<IndigoObject> iterator = reactantMol.iterateAtoms(); iterator.hasNext();) {
 						IndigoObject atom = iterator.next();
@@ -104,6 +106,9 @@ public class ChemicalSenseApplication {
 		catch (IndigoException e) {
 			LOG.warn("Indigo threw an exception whilst loading the constituents of a reaction fromm SMILES", e);
 		}
+		finally{
+			scope.close();
+		}
 	}
 
 	/**
@@ -147,33 +152,33 @@ public class ChemicalSenseApplication {
 
 
 	void correctReactantsThatAreSolvents() {
-		Set<String> solventInChIs = getSolventInChIs();
-		classifyReactantsThatAreAlsoSolventsAsSolvent(solventInChIs);
+		LongHashSet solventStructures = getSolventStructures();
+		classifyReactantsThatAreAlsoSolventsAsSolvent(solventStructures);
 		classifyReactantAsSolventsUsingAprioriKnowledge();
 	}
 
 
 
-	private Set<String> getSolventInChIs() {
-		Set<String> solventInChIs = new HashSet<String>();
+	private LongHashSet getSolventStructures() {
+		LongHashSet solventStructures = new LongHashSet();
 		for (Chemical spectator : reaction.getSpectators()) {
 			if (ChemicalRole.solvent.equals(spectator.getRole()) && spectator.getInchi() != null){
-				solventInChIs.add(spectator.getInchi());
+				solventStructures.add(spectator.getStructureId());
 			}
 		}
-		return solventInChIs;
+		return solventStructures;
 	}
 
 	/**
 	 * Applies the heuristic that the same chemical cannot be both a reactant and solvent
 	 * to reclassify such "reactants" as solvents
-	 * @param solventInChIs 
+	 * @param solventStructures 
 	 */
-	private void classifyReactantsThatAreAlsoSolventsAsSolvent(Set<String> solventInChIs) {
+	private void classifyReactantsThatAreAlsoSolventsAsSolvent(LongHashSet solventStructures) {
 		List<Chemical> reactants = reaction.getReactants();
 		for (int i = reactants.size()-1; i >=0; i--) {
 			Chemical reactant = reactants.get(i);
-			if (solventInChIs.contains(reactant.getInchi())){
+			if (solventStructures.contains(reactant.getStructureId())){
 				reactant.setRole(ChemicalRole.solvent);
 				reaction.removeReactant(reactant);
 				reaction.addSpectator(reactant);
@@ -182,16 +187,16 @@ public class ChemicalSenseApplication {
 	}
 
 	private void classifyReactantAsSolventsUsingAprioriKnowledge() {
-		boolean hasSolvent = getSolventInChIs().size() > 0;
+		boolean hasSolvent = getSolventStructures().size() > 0;
 		List<Chemical> reactants = reaction.getReactants();
-		Set<String> newSolventInChIs = new HashSet<String>();
+		LongHashSet newSolventStructures = new LongHashSet();
 		for (int i = reactants.size()-1; i >=0; i--) {
 			Chemical reactant = reactants.get(i);
 			if ((!hasSolvent || moreThan4UniqueReactantStructures()) && ReactionExtractionMethods.isKnownSolvent(reactant) && !reactant.hasAmountOrEquivalentsOrYield()){
 				reactant.setRole(ChemicalRole.solvent);
 				reaction.removeReactant(reactant);
 				reaction.addSpectator(reactant);
-				newSolventInChIs.add(reactant.getInchi());
+				newSolventStructures.add(reactant.getStructureId());
 				hasSolvent = true;
 			}
 		}
@@ -203,16 +208,15 @@ public class ChemicalSenseApplication {
 					reactant.setRole(ChemicalRole.solvent);
 					reaction.removeReactant(reactant);
 					reaction.addSpectator(reactant);
-					String inchi = reactant.getInchi();
-					if (inchi != null){
-						newSolventInChIs.add(inchi);
+					if (reactant.getInchi() != null){
+						newSolventStructures.add(reactant.getStructureId());
 					}
 					hasSolvent = true;
 				}
 			}
 		}
-		if (!newSolventInChIs.isEmpty()){
-			classifyReactantsThatAreAlsoSolventsAsSolvent(newSolventInChIs);
+		if (!newSolventStructures.isEmpty()){
+			classifyReactantsThatAreAlsoSolventsAsSolvent(newSolventStructures);
 		}
 	}
 
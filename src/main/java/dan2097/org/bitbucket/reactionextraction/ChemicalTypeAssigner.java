@@ -37,11 +37,16 @@ public class ChemicalTypeAssigner {
 	 * @param chem
 	 */
 	public static ChemicalEntityType determineEntityTypeOfChemical(Element mol, Chemical chem) {
+		return determineEntityTypeOfChemical(new MoleculeFacts(mol), chem);
+	}
+
+	static ChemicalEntityType determineEntityTypeOfChemical(MoleculeFacts moleculeFacts, Chemical chem) {
+		Element mol = moleculeFacts.getMolecule();
 		String chemicalName = chem.getName();
 		if (isFalsePositive(chemicalName, mol)){
 			return ChemicalEntityType.falsePositive;
 		}
-		ChemicalEntityType entityType = determineTypeFromSurroundingText(mol);
+		ChemicalEntityType entityType = determineTypeFromSurroundingText(moleculeFacts);
 		if (entityType == null){
 			entityType = determineTypeFromChemicalName(chemicalName, chem.getSmiles() != null);
 		}
@@ -52,7 +57,7 @@ public class ChemicalTypeAssigner {
 		if (entityType != null){
 			return entityType;
 		}
-		if (hasNoQuantitiesOrStructureAndUninterpretableByOpsinParser(mol, chem)){
+		if (hasNoQuantitiesOrStructureAndUninterpretableByOpsinParser(moleculeFacts, chem)){
 			return ChemicalEntityType.falsePositive;
 		}
 		else{
@@ -79,11 +84,11 @@ public class ChemicalTypeAssigner {
 	 * Looks at the word before the first OSCARCM and after the MOLECULE
 	 * to determine whether the chemical type
 	 * Returns null if type cannot be determined from the surrounding text
-	 * @param mol
+	 * @param moleculeFacts
 	 * @return 
 	 */
-	static ChemicalEntityType determineTypeFromSurroundingText(Element mol) {
-		Element nextEl = getElementAfterLastOSCARCM(mol);
+	static ChemicalEntityType determineTypeFromSurroundingText(MoleculeFacts moleculeFacts) {
+		Element nextEl = moleculeFacts.getElementAfterLastOscarcm();
 		if (nextEl != null){//examine the head noun
 			if (matchSurfaceQualifier.matcher(nextEl.getValue()).matches()){
 				return ChemicalEntityType.falsePositive;
@@ -92,7 +97,7 @@ public class ChemicalTypeAssigner {
 				return ChemicalEntityType.fragment;
 			}
 		}
-		Element previousEl = getElementBeforeFirstOSCARCM(mol);
+		Element previousEl = moleculeFacts.getElementBeforeFirstOscarcm();
 		if (previousEl != null){
 			String previousElVal = previousEl.getValue();
 			if (matchSurfacePreQualifier.matcher(previousElVal).matches()){
@@ -149,31 +154,11 @@ public class ChemicalTypeAssigner {
 		return ExperimentalStepParser.matchProductTextualAnaphora.matcher(chemicalName).matches();
 	}
 
-	private static boolean hasNoQuantitiesOrStructureAndUninterpretableByOpsinParser(Element mol, Chemical chem) {
+	private static boolean hasNoQuantitiesOrStructureAndUninterpretableByOpsinParser(MoleculeFacts moleculeFacts, Chemical chem) {
 		return (chem.getSmiles() == null &&
 				chem.getInchi() == null &&
-						XomUtils.getDescendantElementsWithTagName(mol, QUANTITY_Container).size() == 0 &&
+						moleculeFacts.getQuantityElements().size() == 0 &&
 				!ReactionExtractionMethods.isKnownTrivialNameWithNoCT(chem) &&
 				Utils.getSystematicChemicalNamesFromText(chem.getName()).size() == 0);
 	}
-
-	private static Element getElementAfterLastOSCARCM(Element mol) {
-		List<Element> oscarcms = XomUtils.getDescendantElementsWithTagNames(mol, new String[]{OSCARCM_Container});
-		if (oscarcms.size() > 0){
-			return Utils.getNextElement(oscarcms.get(oscarcms.size() - 1));
-		}
-		else{
-			return Utils.getNextElement(mol);
-		}
-	}
-	
-	private static Element getElementBeforeFirstOSCARCM(Element mol) {
-		List<Element> oscarcms = XomUtils.getDescendantElementsWithTagNames(mol, new String[]{OSCARCM_Container});
-		if (oscarcms.size() > 0){
-			return Utils.getPreviousElement(oscarcms.get(0));
-		}
-		else{
-			return Utils.getPreviousElement(mol);
-		}
-	}
 }
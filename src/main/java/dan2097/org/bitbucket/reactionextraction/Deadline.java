@@ -0,0 +1,64 @@
+package dan2097.org.bitbucket.reactionextraction;
+
+/**
+ * A point in time after which cooperative work should stop.
+ * Used to bound the time spent extracting reactions from a document or paragraph
+ * @author dl387
+ *
+ */
+class Deadline {
+
+	private static final Deadline NEVER = new Deadline(0, false);
+
+	private final long expiryNanos;
+	private final boolean bounded;
+
+	private Deadline(long expiryNanos, boolean bounded) {
+		this.expiryNanos = expiryNanos;
+		this.bounded = bounded;
+	}
+
+	/**
+	 * A deadline that expires the given number of milliseconds from now.
+	 * A budget of zero or less indicates that there is no deadline
+	 * @param milliseconds
+	 * @return
+	 */
+	static Deadline after(long milliseconds) {
+		if (milliseconds <= 0){
+			return NEVER;
+		}
+		return new Deadline(System.nanoTime() + milliseconds * 1000000L, true);
+	}
+
+	/**
+	 * A deadline that never expires
+	 * @return
+	 */
+	static Deadline never() {
+		return NEVER;
+	}
+
+	/**
+	 * Has the deadline passed
+	 * @return
+	 */
+	boolean hasExpired() {
+		return bounded && System.nanoTime() - expiryNanos >= 0;
+	}
+
+	/**
+	 * Returns whichever of this and the given deadline will expire first
+	 * @param other
+	 * @return
+	 */
+	Deadline earliest(Deadline other) {
+		if (!bounded){
+			return other;
+		}
+		if (!other.bounded){
+			return this;
+		}
+		return expiryNanos - other.expiryNanos <= 0 ? this : other;
+	}
+}
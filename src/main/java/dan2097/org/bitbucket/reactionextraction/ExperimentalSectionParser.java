@@ -15,6 +15,7 @@ import nu.xom.Element;
 import nu.xom.Elements;
 import static dan2097.org.bitbucket.utility.ChemicalTaggerTags.*;
 import dan2097.org.bitbucket.utility.ChemicalTaggerTags;
+import dan2097.org.bitbucket.utility.ExtractionEvents;
 import dan2097.org.bitbucket.utility.StringUtils;
 import dan2097.org.bitbucket.utility.Utils;
 import dan2097.org.bitbucket.utility.XomUtils;
@@ -66,6 +67,10 @@ public class ExperimentalSectionParser {
 			if (titleCompound ==null){
 				titleCompound = ultimateTargetCompound;
 			}
+			if (!step.getParagraphs().isEmpty()){
+				Paragraph firstParagraph = step.getParagraphs().get(0);
+				ExtractionEvents.setParagraph(firstParagraph.getIdentifier(), firstParagraph.getText().length());
+			}
 			processMoleculeToChemicalAndStringToChemicalMappings(step.getParagraphs());
 			ExperimentalStepParser stepParser = new ExperimentalStepParser(step, moleculeToChemicalMap, currentStepTargetCompound, titleCompound);
 			List<Reaction> reactions = stepParser.extractReactions();
@@ -75,29 +80,115 @@ public class ExperimentalSectionParser {
 		return sectionReactions;
 	}
 
+	/**
+	 * Determines, from the tagged paragraphs alone, the aliases and section identifiers that {@link #parseForReactions()} may define or look up.
+	 * These are supersets e.g. every molecule's name is considered to be a potential reference to an alias
+	 * @return
+	 */
+	SectionDependencies findDependencies(){
+		SectionDependencies dependencies = new SectionDependencies();
+		if (experimentalSection.getTargetChemicalNamePair() != null){
+			dependencies.addDefinedAlias(experimentalSection.getTargetChemicalNamePair().getAlias());
+		}
+		if (experimentalSection.getProcedureElement() != null){
+			dependencies.addDefinedSection(getSectionIdentifier(experimentalSection.getProcedureElement()));
+		}
+		for (ExperimentalStep step : experimentalSection.getExperimentalSteps()) {
+			if (step.getTargetChemicalNamePair() != null){
+				dependencies.addDefinedAlias(step.getTargetChemicalNamePair().getAlias());
+			}
+			for (Paragraph paragraph : step.getParagraphs()) {
+				for (Element moleculeEl : findAllMolecules(paragraph)) {
+					addDependenciesOfMolecule(paragraph.getMoleculeFacts(moleculeEl), dependencies);
+					for (Element reference : XomUtils.getDescendantElementsWithTagName(moleculeEl, REFERENCETOCOMPOUND_Container)) {
+						dependencies.addDefinedAlias(getIdentifierFromReference(reference));
+					}
+					for (String synonym : findPotentialSynonymousChemicalNames(moleculeEl)) {
+						dependencies.addDefinedAlias(synonym);
+					}
+				}
+				for (Element unnamedMoleculeEl : findAllUnnamedMolecules(paragraph)) {
+					addDependenciesOfMolecule(paragraph.getMoleculeFacts(unnamedMoleculeEl), dependencies);
+				}
+			}
+		}
+		return dependencies;
+	}
+
+	/**
+	 * Adds the name of the molecule/unnamed molecule and any references to compounds/procedures within it as references
+	 * @param moleculeFacts
+	 * @param dependencies
+	 */
+	private void addDependenciesOfMolecule(MoleculeFacts moleculeFacts, SectionDependencies dependencies) {
+		Element molOrUnnamedEl = moleculeFacts.getMolecule();
+		dependencies.addReferencedAlias(moleculeFacts.getName());
+		for (Element reference : XomUtils.getDescendantElementsWithTagName(molOrUnnamedEl, REFERENCETOCOMPOUND_Container)) {
+			dependencies.addReferencedAlias(getIdentifierFromReference(reference));
+		}
+		for (Element procedureEl : XomUtils.getDescendantElementsWithTagName(molOrUnnamedEl, PROCEDURE_Container)) {
+			SectionAndStepIdentifier sectionAndStepIdentifier = getSectionAndStepIdentifier(procedureEl);
+			if (sectionAndStepIdentifier != null){
+				dependencies.addReferencedSection(sectionAndStepIdentifier.getSectionIdentifier());
+			}
+		}
+	}
+
+	/**
+	 * The names that {@link #extractSynonymousChemicalNameAliases(Element)} could define as aliases, without resolving them
+	 * @param moleculeEl
+	 * @return
+	 */
+	private List<String> findPotentialSynonymousChemicalNames(Element moleculeEl) {
+		List<String> names = new ArrayList<String>();
+		List<Element> oscarCMsAndMixtures = XomUtils.getChildElementsWithTagNames(moleculeEl, new String[]{OSCARCM_Container, MIXTURE_Container});
+		if (oscarCMsAndMixtures.size() == 2 && oscarCMsAndMixtures.get(0).getLocalName().equals(OSCARCM_Container)){
+			Element secondOscarcm = findSynonymnOscarCmFromMixture(oscarCMsAndMixtures.get(1));
+			if (secondOscarcm != null){
+				names.add(StringUtils.stringListToString(ChemTaggerOutputNameExtraction.findMoleculeNameFromOscarCM(oscarCMsAndMixtures.get(0)), " "));
+				names.add(StringUtils.stringListToString(ChemTaggerOutputNameExtraction.findMoleculeNameFromOscarCM(secondOscarcm), " "));
+			}
+		}
+		return names;
+	}
+
 	/**
 	 * Adds molecule to to chemical mapping for all molecule and unnamed molecules
 	 * Adds string to chemical mappings as appropriate
 	 * Resolves structures using such mappings
+	 * The names of all molecules are resolved upfront, as this is independent of the order in which aliases/anaphora are encountered
 	 * @param paragraphs
 	 */
 	private void processMoleculeToChemicalAndStringToChemicalMappings(List<Paragraph> paragraphs) {
+		List<List<String>> nameComponentLists = new ArrayList<List<String>>();
+		for (Paragraph paragraph : paragraphs) {
+			for (Element moleculeEl : findAllMolecules(paragraph)) {
+				nameComponentLists.add(paragraph.getMoleculeFacts(moleculeEl).getNameComponents());
+			}
+			for (Element unnamedMoleculeEl : findAllUnnamedMolecules(paragraph)) {
+				nameComponentLists.add(paragraph.getMoleculeFacts(unnamedMoleculeEl).getNameComponents());
+			}
+		}
+		Map<List<String>, ChemicalIdentifierPair> resolvedNames = Utils.resolveNamesToIdentifierPairs(nameComponentLists);
+
 		Map<String, Chemical> aliasToChemicalMap = previousReactionData.getAliasToChemicalMap();
 		for (Paragraph paragraph : paragraphs) {
 			List<Element> moleculeEls = findAllMolecules(paragraph);
 			for (Element moleculeEl : moleculeEls) {
-				Chemical cm = generateChemicalFromMoleculeElAndLocalInformation(moleculeEl);
+				MoleculeFacts moleculeFacts = paragraph.getMoleculeFacts(moleculeEl);
+				Chemical cm = generateChemicalFromMoleculeElAndLocalInformation(moleculeFacts, resolvedNames);
 				moleculeToChemicalMap.put(moleculeEl, cm);
-				cm.setEntityType(ChemicalTypeAssigner.determineEntityTypeOfChemical(moleculeEl, cm));
+				cm.setEntityType(ChemicalTypeAssigner.determineEntityTypeOfChemical(moleculeFacts, cm));
 				attemptToResolveAnaphora(moleculeEl, cm);
 				aliasToChemicalMap.putAll(findAliasDefinitions(moleculeEl, cm.getEntityType()));
 			}
 			List<Element> unnamedMoleculeEls = findAllUnnamedMolecules(paragraph);
 			for (Element unnamedMoleculeEl : unnamedMoleculeEls) {
-				Chemical cm = generateChemicalFromMoleculeElAndLocalInformation(unnamedMoleculeEl);
+				MoleculeFacts moleculeFacts = paragraph.getMoleculeFacts(unnamedMoleculeEl);
+				Chemical cm = generateChemicalFromMoleculeElAndLocalInformation(moleculeFacts, resolvedNames);
 				moleculeToChemicalMap.put(unnamedMoleculeEl, cm);
 				attemptToResolveAnaphora(unnamedMoleculeEl, cm);
-				cm.setEntityType(ChemicalTypeAssigner.determineEntityTypeOfChemical(unnamedMoleculeEl, cm));
+				cm.setEntityType(ChemicalTypeAssigner.determineEntityTypeOfChemical(moleculeFacts, cm));
 			}
 		}
 	}
@@ -168,8 +259,7 @@ public class ExperimentalSectionParser {
 			Chemical referencedChemical = previousReactionData.getProductOfReaction(sectionAndStepIdentifier.getSectionIdentifier(), sectionAndStepIdentifier.getStepIdentifier());
 			if (referencedChemical != null){
 				if (cm.getInchi() !=null && !cm.getInchi().equals(referencedChemical.getInchi()) && sectionAndStepIdentifier.getStepIdentifier() == null){
-					List<String> productInChIs = ReactionExtractionMethods.getProductInchis(previousReactionData.getReactions(sectionAndStepIdentifier.getSectionIdentifier()));
-					if (productInChIs.contains(cm.getInchi())){
+					if (previousReactionData.isProductOfSection(sectionAndStepIdentifier.getSectionIdentifier(), cm.getStructureId())){
 						return;//is a reference to a product of a sub step
 					}
 				}
@@ -304,9 +394,10 @@ public class ExperimentalSectionParser {
 		return null;
 	}
 
-	private Chemical generateChemicalFromMoleculeElAndLocalInformation(Element moleculeEl) {
-		List<String> nameComponents = ChemTaggerOutputNameExtraction.findMoleculeName(moleculeEl);
-		Chemical chem = Utils.createChemicalFromName(nameComponents);
+	private Chemical generateChemicalFromMoleculeElAndLocalInformation(MoleculeFacts moleculeFacts, Map<List<String>, ChemicalIdentifierPair> resolvedNames) {
+		List<String> nameComponents = moleculeFacts.getNameComponents();
+		Chemical chem = new Chemical(StringUtils.stringListToString(nameComponents, " "));
+		chem.setChemicalIdentifierPair(resolvedNames.get(nameComponents));
 		String name = chem.getName();
 		Chemical referencedChemical = previousReactionData.getAliasToChemicalMap().get(name);
 		if (referencedChemical != null){
@@ -317,7 +408,7 @@ public class ExperimentalSectionParser {
 		if (smarts !=null && FunctionalGroupDefinitions.getFunctionalClassSmartsFromChemicalName(name)!=null){
 			chem.setChemicalIdentifierPair(new ChemicalIdentifierPair(null, null));
 		}
-		ChemicalPropertyDetermination.determineProperties(chem, moleculeEl);
+		ChemicalPropertyDetermination.determineProperties(chem, moleculeFacts);
 		return chem;
 	}
 
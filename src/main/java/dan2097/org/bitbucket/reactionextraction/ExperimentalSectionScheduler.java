@@ -0,0 +1,162 @@
+package dan2097.org.bitbucket.reactionextraction;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import dan2097.org.bitbucket.utility.ExtractionEvents;
+
+/**
+ * Parses experimental sections concurrently whilst giving the same results as parsing them one after another in document order.
+ * Before being parsed each section's {@link SectionDependencies} are determined. A section is only parsed once every earlier section that
+ * defines an alias or section identifier that it refers to or defines, or that refers to an alias or section identifier that it defines, has been parsed.
+ * Hence sections that never refer back to other sections are parsed in parallel whilst chains of dependent sections are parsed in order.
+ *
+ * Sections are submitted in document order and the executor must start tasks in the order they were submitted (e.g. a fixed thread pool),
+ * so a section waiting for an earlier section to be parsed is never waiting on a section that has not been started.
+ * The executor is not owned by the scheduler and may be shared between documents, so that its threads' Indigo/OPSIN instances are reused.
+ * The parsed reactions are taken in the order the sections were submitted.
+ * This class is not thread safe; sections should be submitted and taken by one thread
+ * @author dl387
+ *
+ */
+class ExperimentalSectionScheduler {
+
+	private final PreviousReactionData previousReactionData;
+	private final ExecutorService executor;
+	/**The sections whose reactions have not yet been taken, in document order*/
+	private final Deque<Future<List<Reaction>>> pendingSections = new ArrayDeque<Future<List<Reaction>>>();
+	/**The most recently submitted section that defines each alias/section identifier*/
+	private final Map<String, Future<List<Reaction>>> lastDefinition = new HashMap<String, Future<List<Reaction>>>();
+	/**The sections submitted since the most recent definition of each alias/section identifier that refer to it*/
+	private final Map<String, List<Future<List<Reaction>>>> referencesSinceLastDefinition = new HashMap<String, List<Future<List<Reaction>>>>();
+
+	ExperimentalSectionScheduler(PreviousReactionData previousReactionData, ExecutorService executor) {
+		this.previousReactionData = previousReactionData;
+		this.executor = executor;
+	}
+
+	/**
+	 * Schedules the section to be parsed once the earlier sections it depends on have been parsed
+	 * @param experimentalSection
+	 */
+	void submit(ExperimentalSection experimentalSection) {
+		final ExperimentalSectionParser sectionParser = new ExperimentalSectionParser(experimentalSection, previousReactionData);
+		SectionDependencies dependencies = sectionParser.findDependencies();
+		final List<Future<List<Reaction>>> prerequisites = new ArrayList<Future<List<Reaction>>>();
+		final String documentIdentifier = ExtractionEvents.getDocumentIdentifier();
+		for (String key : dependencies.getReferencedKeys()) {
+			addIfNotNull(prerequisites, lastDefinition.get(key));
+		}
+		for (String key : dependencies.getDefinedKeys()) {
+			addIfNotNull(prerequisites, lastDefinition.get(key));
+			List<Future<List<Reaction>>> references = referencesSinceLastDefinition.get(key);
+			if (references != null){
+				prerequisites.addAll(references);
+			}
+		}
+		Future<List<Reaction>> section = executor.submit(new Callable<List<Reaction>>() {
+			public List<Reaction> call() throws InterruptedException {
+				for (Future<List<Reaction>> prerequisite : prerequisites) {
+					awaitCompletion(prerequisite);
+				}
+				ExtractionEvents.setDocumentIdentifier(documentIdentifier);
+				try{
+					return sectionParser.parseForReactions();
+				}
+				finally{
+					ExtractionEvents.clearContext();
+				}
+			}
+		});
+		for (String key : dependencies.getReferencedKeys()) {
+			List<Future<List<Reaction>>> references = referencesSinceLastDefinition.get(key);
+			if (references == null){
+				references = new ArrayList<Future<List<Reaction>>>();
+				referencesSinceLastDefinition.put(key, references);
+			}
+			references.add(section);
+		}
+		for (String key : dependencies.getDefinedKeys()) {
+			lastDefinition.put(key, section);
+			referencesSinceLastDefinition.remove(key);
+		}
+		pendingSections.add(section);
+	}
+
+	private static void addIfNotNull(List<Future<List<Reaction>>> futures, Future<List<Reaction>> future) {
+		if (future != null){
+			futures.add(future);
+		}
+	}
+
+	/**
+	 * Waits for the section to have been parsed (or to have failed to be parsed)
+	 * @param section
+	 * @throws InterruptedException
+	 */
+	private static void awaitCompletion(Future<List<Reaction>> section) throws InterruptedException {
+		try {
+			section.get();
+		}
+		catch (ExecutionException e) {
+			//the failure is reported when this section's reactions are taken
+		}
+		catch (CancellationException e) {
+			//only occurs when parsing has been abandoned
+		}
+	}
+
+	/**
+	 * Returns the reactions of the earliest submitted section whose reactions have not yet been taken.
+	 * If waitForParsing is false, null is returned if this section has not yet been parsed.
+	 * Null is returned if there are no such sections.
+	 * An exception thrown whilst parsing the section is rethrown
+	 * @param waitForParsing
+	 * @return
+	 */
+	List<Reaction> takeParsedSection(boolean waitForParsing) {
+		Future<List<Reaction>> section = pendingSections.peek();
+		if (section == null || (!waitForParsing && !section.isDone())){
+			return null;
+		}
+		pendingSections.remove();
+		try {
+			return section.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted whilst waiting for an experimental section to be parsed", e);
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException){
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error){
+				throw (Error) cause;
+			}
+			throw new RuntimeException(cause);
+		}
+	}
+
+	/**
+	 * Abandons the parsing of any sections that have not been taken. The executor is left running
+	 */
+	void abandonPendingSections() {
+		for (Future<List<Reaction>> section : pendingSections) {
+			section.cancel(true);
+		}
+		pendingSections.clear();
+		lastDefinition.clear();
+		referencesSinceLastDefinition.clear();
+	}
+}
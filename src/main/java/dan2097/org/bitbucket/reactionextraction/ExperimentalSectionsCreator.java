@@ -4,6 +4,7 @@ import static dan2097.org.bitbucket.utility.ChemicalTaggerTags.*;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.List;
 import java.util.regex.Pattern;
@@ -18,6 +19,7 @@ import org.apache.log4j.Logger;
 
 import uk.ac.cam.ch.wwmm.chemicaltagger.Formatter;
 import dan2097.org.bitbucket.paragraphclassification.ParagraphClassifier;
+import dan2097.org.bitbucket.utility.ExtractionEvents;
 import dan2097.org.bitbucket.utility.ParagraphClassifierHolder;
 import dan2097.org.bitbucket.utility.StringUtils;
 import dan2097.org.bitbucket.utility.Utils;
@@ -39,11 +41,27 @@ public class ExperimentalSectionsCreator {
 
 	private ExperimentalSection currentSection = new ExperimentalSection();
 	private int unnamedProcedureCounter = 1;
+	private TaggedDocumentProvider taggedDocumentProvider = null;
 
 	public ExperimentalSectionsCreator(List<Element> orderedHeadingsAndParagraphs) {
 		this.orderedHeadingsAndParagraphs = orderedHeadingsAndParagraphs;
 	}
 
+	/**
+	 * For use when the headings and paragraphs are instead given incrementally to {@link #processHeadingOrParagraph(Element)}
+	 */
+	ExperimentalSectionsCreator() {
+		this(Collections.<Element>emptyList());
+	}
+
+	/**
+	 * Obtain ChemicalTagger output from the given provider rather than by running ChemicalTagger
+	 * @param taggedDocumentProvider
+	 */
+	void setTaggedDocumentProvider(TaggedDocumentProvider taggedDocumentProvider) {
+		this.taggedDocumentProvider = taggedDocumentProvider;
+	}
+
 	/**
 	 * Attempts to return an experimental section for each example reaction.
 	 * A multi step reaction should be contained within an experimental section
@@ -51,17 +69,50 @@ public class ExperimentalSectionsCreator {
 	 */
 	public List<ExperimentalSection> createSections() {
 		for (Element element : orderedHeadingsAndParagraphs) {
-			if (isHeading(element)){
-				handleHeading(element);
-			}
-			else{
-				handleParagraph(element);
-			}
+			processHeadingOrParagraph(element);
+		}
+		finishSections();
+		return experimentalSections;
+	}
+
+	/**
+	 * Incrementally processes the next heading or paragraph of the document.
+	 * Any sections this completes are appended to the list returned by {@link #getCompletedSections()}
+	 * @param headingOrParagraph
+	 */
+	void processHeadingOrParagraph(Element headingOrParagraph) {
+		if (isHeading(headingOrParagraph)){
+			handleHeading(headingOrParagraph);
 		}
+		else{
+			handleParagraph(headingOrParagraph);
+		}
+	}
+
+	/**
+	 * Completes the section currently being built, if it has any experimental paragraphs
+	 * Should be called after the last heading or paragraph has been processed
+	 */
+	void finishSections() {
 		addCurrentSectionIfNonEmptyAndReset();
+	}
+
+	/**
+	 * The sections that have been completed so far, in document order.
+	 * Sections in this list will not be further modified by this class
+	 * @return
+	 */
+	List<ExperimentalSection> getCompletedSections() {
 		return experimentalSections;
 	}
 
+	private Document runChemicalTagger(String text) {
+		if (taggedDocumentProvider != null){
+			return taggedDocumentProvider.getTaggedDocument(text);
+		}
+		return Utils.runChemicalTagger(text);
+	}
+
 	boolean isHeading(Element headingOrParagraph) {
 		String name = headingOrParagraph.getLocalName();
 		if (name.equals(XMLTags.HEADING)){
@@ -71,7 +122,7 @@ public class ExperimentalSectionsCreator {
 			String id = headingOrParagraph.getAttributeValue(XMLAtrs.ID); 
 			if (id !=null && id.startsWith("h-") && !headingOrParagraph.getValue().contains("\n")){
 				String text = Utils.getElementText(headingOrParagraph);
-				Document taggedDoc = Utils.runChemicalTagger(text);
+				Document taggedDoc = runChemicalTagger(text);
 				boolean isNonChemicalHeading = isAllCapitalLetters(text);
 				List<Element> moleculesFound = isNonChemicalHeading ? new ArrayList<Element>() : extractNonFalsePositiveMoleculeEls(taggedDoc.getRootElement());
 				List<Element> procedureNames = extractProcedureNames(taggedDoc.getRootElement());
@@ -180,7 +231,7 @@ public class ExperimentalSectionsCreator {
 			addCurrentSectionIfNonEmptyAndReset();
 			return;
 		}
-		Document taggedDoc = Utils.runChemicalTagger(text);
+		Document taggedDoc = runChemicalTagger(text);
 		boolean isNonChemicalHeading = isAllCapitalLetters(text);
 		List<Element> moleculesFound = isNonChemicalHeading ? new ArrayList<Element>() : extractNonFalsePositiveMoleculeEls(taggedDoc.getRootElement());
 		correctCompoundWithSpecialCase(moleculesFound, taggedDoc.getRootElement());
@@ -208,12 +259,12 @@ public class ExperimentalSectionsCreator {
 	 * @return
 	 */
 	private Chemical createChemicalFromHeadingMoleculeEl(Element moleculeEl) {
-		List<String> nameComponents = ChemTaggerOutputNameExtraction.findMoleculeName(moleculeEl);
-		Chemical chem = Utils.createChemicalFromName(nameComponents);
+		MoleculeFacts moleculeFacts = new MoleculeFacts(moleculeEl);
+		Chemical chem = Utils.createChemicalFromName(moleculeFacts.getNameComponents());
 		String name = chem.getName();
 		String smarts = FunctionalGroupDefinitions.getSmartsFromChemicalName(name);
 		chem.setSmarts(smarts);
-		if ((smarts != null && FunctionalGroupDefinitions.getFunctionalClassSmartsFromChemicalName(name) != null) || ChemicalEntityType.chemicalClass.equals(ChemicalTypeAssigner.determineTypeFromSurroundingText(moleculeEl))){
+		if ((smarts != null && FunctionalGroupDefinitions.getFunctionalClassSmartsFromChemicalName(name) != null) || ChemicalEntityType.chemicalClass.equals(ChemicalTypeAssigner.determineTypeFromSurroundingText(moleculeFacts))){
 			chem.setChemicalIdentifierPair(new ChemicalIdentifierPair(null, null));
 		}
 		return chem;
@@ -322,6 +373,8 @@ public class ExperimentalSectionsCreator {
 		if (text.length() == 0){//blank paragraph
 			return;
 		}
+		String identifier = paraEl.getAttributeValue(XMLAtrs.NUM);
+		ExtractionEvents.setParagraph(identifier, text.length());
 		boolean isExperimentalParagraph = text.length() > MAX_PARA_SIZE ? false : paragraphClassifier.isExperimental(text);
 		if (!isExperimentalParagraph){
 			if (currentSection.getCurrentStepProcedureElement() != null){
@@ -332,8 +385,7 @@ public class ExperimentalSectionsCreator {
 			}
 			return;
 		}
-		String identifier = paraEl.getAttributeValue(XMLAtrs.NUM);
-		Paragraph para = new Paragraph(text, identifier);
+		Paragraph para = taggedDocumentProvider != null ? new Paragraph(text, identifier, taggedDocumentProvider) : new Paragraph(text, identifier);
 		
 		//Sometimes headings are present at the start of paragraphs...
 		Element hiddenHeadingEl = findAndDetachHiddenHeadingContent(para.getTaggedSentencesDocument());
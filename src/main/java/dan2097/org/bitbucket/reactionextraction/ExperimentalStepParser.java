@@ -26,6 +26,7 @@ import com.google.common.collect.BiMap;
 
 import dan2097.org.bitbucket.utility.ChemicalTaggerTags;
 import dan2097.org.bitbucket.utility.IndigoHolder;
+import dan2097.org.bitbucket.utility.IndigoScope;
 import dan2097.org.bitbucket.utility.Utils;
 import dan2097.org.bitbucket.utility.XomUtils;
 import nu.xom.Document;
@@ -35,7 +36,6 @@ import nu.xom.Nodes;
 
 public class ExperimentalStepParser {
 	private static final Logger LOG = Logger.getLogger(ExperimentalStepParser.class);
-	private static final Indigo indigo = IndigoHolder.getInstance();
 	
 	/**The chemical after this expression does not occur as it has been replaced (needs to be confirmed by a match with matchFirstChemicalToBeReplacedInbetween)*/
 	private static final Pattern matchFirstChemicalToBeReplacedBefore = Pattern.compile("((replac|substitut)[e]?ing( of)?|(substitution|replacement) of)( the)?$", Pattern.CASE_INSENSITIVE);
@@ -54,6 +54,8 @@ public class ExperimentalStepParser {
 	
 	static final Pattern matchProductTextualAnaphora = Pattern.compile("(crude|desired|title[d]?|final|aimed|expected|anticipated) (compound|product)", Pattern.CASE_INSENSITIVE);
 	
+	/**Sections may be parsed concurrently, hence each thread uses its own Indigo*/
+	private final Indigo indigo = IndigoHolder.getThreadLocalInstance();
 	private final ExperimentalStep experimentalStep;
 	private final BiMap<Element, Chemical> moleculeToChemicalMap;
 	private final Chemical targetCompound;
@@ -75,6 +77,7 @@ public class ExperimentalStepParser {
 	 */
 	List<Reaction> extractReactions() {
 		List<Reaction> reactions = new ArrayList<Reaction>();
+		PreviousReactionData.ProductIndex stepProducts = new PreviousReactionData.ProductIndex();
 		List<Paragraph> paragraphs = experimentalStep.getParagraphs();
 		Element orphanYieldElement = null;
 		for (Paragraph paragraph : paragraphs) {
@@ -107,7 +110,7 @@ public class ExperimentalStepParser {
 				Set<Element> chemicals = new LinkedHashSet<Element>();
 				chemicals.addAll(products);
 				chemicals.addAll(reagents);
-				resolveLocalBackReferencesAndChangeRoleIfNecessary(chemicals, reactions);
+				resolveLocalBackReferencesAndChangeRoleIfNecessary(chemicals, stepProducts);
 				for (Element reagent : reagents) {
 					Chemical reagentChem = moleculeToChemicalMap.get(reagent);
 					if (reagentChem.getEntityType() == ChemicalEntityType.falsePositive){
@@ -148,16 +151,18 @@ public class ExperimentalStepParser {
 						orphanYieldElement = null;
 					}
 					reactions.add(currentReaction);
+					stepProducts.addProductsOf(currentReaction);
 					currentReaction = new Reaction();
 				}
 			}
 			if (currentReaction.getProducts().size() > 0 || currentReaction.getReactants().size() > 0){
 				currentReaction.setInput(paragraph);
 				reactions.add(currentReaction);
+				stepProducts.addProductsOf(currentReaction);
 			}
 		}
 		if (targetCompound != null){
-			if (!compoundIsProductOfAReaction(reactions, targetCompound)){
+			if (!(targetCompound.hasInchi() && stepProducts.containsStructure(targetCompound.getStructureId()))){
 				if (!addTargetCompoundToLastReactionWithReactantsIfHasNoProduct(reactions)){
 					LOG.trace("Failed to assign: " + targetCompound.getName() + " to a reaction!");
 				}
@@ -332,7 +337,7 @@ public class ExperimentalStepParser {
 		return new ArrayList<Element>();
 	}
 
-	private void resolveLocalBackReferencesAndChangeRoleIfNecessary(Set<Element> chemicals, List<Reaction> reactions) {
+	private void resolveLocalBackReferencesAndChangeRoleIfNecessary(Set<Element> chemicals, PreviousReactionData.ProductIndex stepProducts) {
 		for (Element chemical : chemicals) {
 			Chemical chemChem = moleculeToChemicalMap.get(chemical);
 			if (chemChem.getEntityType() == ChemicalEntityType.definiteReference){
@@ -349,7 +354,7 @@ public class ExperimentalStepParser {
 						smarts = generateAromaticSmiles(chemChem.getSmiles());
 					}
 					if (smarts != null){
-						List<Chemical> chemicalsToMatchAgainst = getProductChemsFromReactions(reactions);
+						List<Chemical> chemicalsToMatchAgainst = new ArrayList<Chemical>(stepProducts.getProducts());
 						ChemicalRole role = chemChem.getRole();
 						if (ChemicalRole.product == role && targetCompound != null){
 							chemicalsToMatchAgainst.add(targetCompound);
@@ -407,23 +412,19 @@ public class ExperimentalStepParser {
 		}
 	}
 	
-	private List<Chemical> getProductChemsFromReactions(List<Reaction> reactionsToConsider) {
-		List<Chemical> products = new ArrayList<Chemical>();
-		for (Reaction reaction : reactionsToConsider) {
-			products.addAll(reaction.getProducts());
-		}
-		return products;
-	}
-	
 	private String generateAromaticSmiles(String smiles) {
+		IndigoObject chem = null;
 		try{
-			IndigoObject chem = indigo.loadMolecule(smiles);
+			chem = indigo.loadMolecule(smiles);
 			chem.aromatize();
 			return chem.smiles();
 		}
 		catch (IndigoException e){
 			return null;
 		}
+		finally{
+			IndigoScope.disposeQuietly(chem);
+		}
 	}
 	
 	/**
@@ -433,15 +434,21 @@ public class ExperimentalStepParser {
 	 * @return
 	 */
 	private List<Chemical> findMatchesUsingSmarts(String smarts, List<Chemical> chemicalsToMatchAgainst) {
+		IndigoScope scope = new IndigoScope(indigo);
 		try {
-			IndigoObject query = indigo.loadSmarts(smarts);
+			IndigoObject query = scope.track(indigo.loadSmarts(smarts));
 			List<Chemical> chemicalMatches = new ArrayList<Chemical>();
 			for (Chemical chemical : chemicalsToMatchAgainst) {
 				if (chemical.getSmiles() != null){
-					IndigoObject substructureMatcher = indigo.substructureMatcher(indigo.loadMolecule(chemical.getSmiles()));
-					if (substructureMatcher.match(query) != null){
+					IndigoObject mol = scope.track(indigo.loadMolecule(chemical.getSmiles()));
+					IndigoObject substructureMatcher = scope.track(indigo.substructureMatcher(mol));
+					IndigoObject match = substructureMatcher.match(query);
+					if (match != null){
+						scope.dispose(match);
 						chemicalMatches.add(chemical);
 					}
+					scope.dispose(substructureMatcher);
+					scope.dispose(mol);
 				}
 			}
 			return chemicalMatches;
@@ -449,27 +456,9 @@ public class ExperimentalStepParser {
 		catch (IndigoException e){
 			return new ArrayList<Chemical>();
 		}
-	}
-	
-	/**
-	 * Uses InChIs to check whether the compound has been the product of any of the given reactions
-	 * @param reactions
-	 * @param compound
-	 * @return
-	 */
-	private boolean compoundIsProductOfAReaction(List<Reaction> reactions, Chemical potentialProduct) {
-		String inchi = potentialProduct.getInchi();
-		if (inchi == null){
-			return false;
-		}
-		for (Reaction reaction : reactions) {
-			for (Chemical product : reaction.getProducts()) {
-				if (inchi.equals(product.getInchi())){
-					return true;
-				}
-			}
+		finally{
+			scope.close();
 		}
-		return false;
 	}
 	
 	private Element findOrphanYieldInPhrase(Element phrase) {
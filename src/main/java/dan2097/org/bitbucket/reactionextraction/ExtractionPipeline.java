@@ -0,0 +1,613 @@
+package dan2097.org.bitbucket.reactionextraction;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nu.xom.Element;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+import com.ggasoftware.indigo.IndigoObject;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import dan2097.org.bitbucket.utility.ExtractionEvents;
+import dan2097.org.bitbucket.utility.IndigoHolder;
+import dan2097.org.bitbucket.utility.Utils;
+import dan2097.org.bitbucket.uspto.UsptoPatentReader;
+
+/**
+ * Extracts reactions from many USPTO patents as a pipeline of stages, each with its own, separately sized, executor.
+ * This allows the I/O bound stages (reading and writing) to overlap with the CPU bound stages (tagging and parsing) and the long tailed native atom mapping.
+ * Each stage has a bounded queue and handing a document to a stage whose queue is full blocks, hence a slow stage applies backpressure
+ * to the stages before it and ultimately to {@link #submit(String, File)}.
+ * The queue depth, throughput and latency of each stage are available from {@link #getStageMetrics()}.
+ * Each document's work is done in the same order as by {@link ReactionExtractor}, hence the same reactions are found.
+ * The stage threads use their own Indigo instances (see {@link IndigoHolder#bindThreadLocalInstance()}), so Indigo reactions are not retained,
+ * they can be recreated using {@link Utils#loadIndigoReaction(Reaction)}
+ * @author dl387
+ *
+ */
+public class ExtractionPipeline implements Closeable {
+
+	private static final Logger LOG = Logger.getLogger(ExtractionPipeline.class);
+
+	public enum Stage {
+		/**Reading the headings and paragraphs of the patent's description, see {@link UsptoPatentReader}*/
+		read,
+		/**Classifying and tagging paragraphs, and grouping them into experimental sections*/
+		sections,
+		/**Resolving names and determining the reactions of each experimental section*/
+		parse,
+		/**Atom mapping the reactions*/
+		map,
+		/**Passing the reactions to the sink e.g. to be serialised*/
+		write
+	}
+
+	/**
+	 * Receives the result of each document. Methods are called from the stages' threads, hence implementations should be thread safe
+	 */
+	public interface Sink {
+
+		/**
+		 * Called by the write stage with the reactions found and those that were completely atom mapped.
+		 * As with {@link ReactionExtractor#setRetainIndigoReactions(boolean)} set to false, the values of the maps are null
+		 * @param documentId
+		 * @param foundReactions
+		 * @param completeReactions
+		 * @throws IOException
+		 */
+		void documentCompleted(String documentId, Map<Reaction, IndigoObject> foundReactions, Map<Reaction, IndigoObject> completeReactions) throws IOException;
+
+		/**
+		 * Called when the given stage failed to process the document
+		 * @param documentId
+		 * @param stage
+		 * @param e
+		 */
+		void documentFailed(String documentId, Stage stage, Exception e);
+	}
+
+	/**
+	 * A snapshot of a stage's activity
+	 */
+	public static class StageMetrics {
+		private final Stage stage;
+		private final int threads;
+		private final int queueDepth;
+		private final int active;
+		private final long completed;
+		private final long failed;
+		private final double meanLatencyMillis;
+		private final double maxLatencyMillis;
+		private final double meanQueueWaitMillis;
+
+		StageMetrics(Stage stage, int threads, int queueDepth, int active, long completed, long failed, double meanLatencyMillis, double maxLatencyMillis, double meanQueueWaitMillis) {
+			this.stage = stage;
+			this.threads = threads;
+			this.queueDepth = queueDepth;
+			this.active = active;
+			this.completed = completed;
+			this.failed = failed;
+			this.meanLatencyMillis = meanLatencyMillis;
+			this.maxLatencyMillis = maxLatencyMillis;
+			this.meanQueueWaitMillis = meanQueueWaitMillis;
+		}
+
+		public Stage getStage() {
+			return stage;
+		}
+
+		public int getThreads() {
+			return threads;
+		}
+
+		/**
+		 * The number of documents waiting to be processed by this stage
+		 * @return
+		 */
+		public int getQueueDepth() {
+			return queueDepth;
+		}
+
+		/**
+		 * The number of documents currently being processed by this stage
+		 * @return
+		 */
+		public int getActive() {
+			return active;
+		}
+
+		public long getCompleted() {
+			return completed;
+		}
+
+		public long getFailed() {
+			return failed;
+		}
+
+		/**
+		 * The mean time taken to process a document in this stage
+		 * @return
+		 */
+		public double getMeanLatencyMillis() {
+			return meanLatencyMillis;
+		}
+
+		public double getMaxLatencyMillis() {
+			return maxLatencyMillis;
+		}
+
+		/**
+		 * The mean time a document waited in this stage's queue
+		 * @return
+		 */
+		public double getMeanQueueWaitMillis() {
+			return meanQueueWaitMillis;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %d threads, %d queued, %d active, %d completed, %d failed, mean %.1fms, max %.1fms, mean queue wait %.1fms",
+					stage, threads, queueDepth, active, completed, failed, meanLatencyMillis, maxLatencyMillis, meanQueueWaitMillis);
+		}
+	}
+
+	/**
+	 * The state of a document as it passes through the stages
+	 */
+	private static class PipelineDocument {
+		private final String documentId;
+		private final File file;
+		private final byte[] xml;
+		private final Deadline deadline;
+		private boolean truncated = false;
+		private List<Element> headingsAndParagraphs;
+		private List<ExperimentalSection> sections;
+		private List<Reaction> reactions;
+		private final Map<Reaction, IndigoObject> foundReactions = new LinkedHashMap<Reaction, IndigoObject>();
+		private final Map<Reaction, IndigoObject> completeReactions = new LinkedHashMap<Reaction, IndigoObject>();
+
+		PipelineDocument(String documentId, File file, byte[] xml, Deadline deadline) {
+			this.documentId = documentId;
+			this.file = file;
+			this.xml = xml;
+			this.deadline = deadline;
+		}
+	}
+
+	private interface StageTask {
+		void run(PipelineDocument document) throws Exception;
+	}
+
+	/**
+	 * An executor for one stage, whose queue is bounded by a semaphore and which records the stage's metrics
+	 */
+	private class StageExecutor {
+		private final Stage stage;
+		private final int threads;
+		private final ExecutorService executor;
+		private final Semaphore capacity;
+		private final AtomicInteger queued = new AtomicInteger();
+		private final AtomicInteger active = new AtomicInteger();
+		private final AtomicLong completed = new AtomicLong();
+		private final AtomicLong failed = new AtomicLong();
+		private final AtomicLong totalLatencyNanos = new AtomicLong();
+		private final AtomicLong maxLatencyNanos = new AtomicLong();
+		private final AtomicLong totalQueueWaitNanos = new AtomicLong();
+
+		StageExecutor(Stage stage, int threads, int queueCapacity) {
+			this.stage = stage;
+			this.threads = threads;
+			this.capacity = new Semaphore(threads + queueCapacity);
+			final ThreadFactory threadFactory = new ThreadFactoryBuilder().setDaemon(true).setNameFormat("pipeline-" + stage + "-%d").build();
+			this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				public Thread newThread(final Runnable r) {
+					return threadFactory.newThread(new Runnable() {
+						public void run() {
+							IndigoHolder.bindThreadLocalInstance();
+							r.run();
+						}
+					});
+				}
+			});
+		}
+
+		/**
+		 * Queues the document to be processed by this stage, blocking whilst the queue is full
+		 * @param document
+		 * @param task
+		 * @throws InterruptedException
+		 */
+		void submit(final PipelineDocument document, final StageTask task) throws InterruptedException {
+			capacity.acquire();
+			queued.incrementAndGet();
+			final long submitted = System.nanoTime();
+			executor.execute(new Runnable() {
+				public void run() {
+					long start = System.nanoTime();
+					queued.decrementAndGet();
+					active.incrementAndGet();
+					totalQueueWaitNanos.addAndGet(start - submitted);
+					ExtractionEvents.setDocumentIdentifier(document.documentId);
+					try{
+						task.run(document);
+						completed.incrementAndGet();
+					}
+					catch (Exception e) {
+						failed.incrementAndGet();
+						documentFailed(document, stage, e);
+					}
+					finally{
+						long latency = System.nanoTime() - start;
+						totalLatencyNanos.addAndGet(latency);
+						long max;
+						while (latency > (max = maxLatencyNanos.get()) && !maxLatencyNanos.compareAndSet(max, latency)) {
+						}
+						ExtractionEvents.clearContext();
+						active.decrementAndGet();
+						capacity.release();
+					}
+				}
+			});
+		}
+
+		StageMetrics getMetrics() {
+			long processed = completed.get() + failed.get();
+			double meanLatency = processed > 0 ? totalLatencyNanos.get() / 1e6 / processed : 0;
+			long started = processed + active.get();
+			double meanQueueWait = started > 0 ? totalQueueWaitNanos.get() / 1e6 / started : 0;
+			return new StageMetrics(stage, threads, queued.get(), active.get(), completed.get(), failed.get(), meanLatency, maxLatencyNanos.get() / 1e6, meanQueueWait);
+		}
+	}
+
+	private final Sink sink;
+	private final Map<Stage, Integer> stageThreads = new EnumMap<Stage, Integer>(Stage.class);
+	private final Map<Stage, Integer> stageQueueCapacities = new EnumMap<Stage, Integer>(Stage.class);
+	private int indigoAtomMappingTimeout = 15000;
+	private long documentTimeBudget = 0;
+	private long paragraphTimeBudget = 0;
+	private boolean retainTaggedSentences = false;
+	private TaggedDocumentProvider taggedDocumentProvider = null;
+
+	private Map<Stage, StageExecutor> executors = null;
+	private int documentsInProgress = 0;
+
+	/**
+	 * Creates a pipeline passing the results of each document to the given sink.
+	 * By default reading and writing use two threads, mapping and tagging one per processor, and parsing half as many.
+	 * Each stage queues up to twice as many documents as it has threads
+	 * @param sink
+	 */
+	public ExtractionPipeline(Sink sink) {
+		if (sink == null){
+			throw new IllegalArgumentException("A sink is required");
+		}
+		this.sink = sink;
+		int processors = Runtime.getRuntime().availableProcessors();
+		stageThreads.put(Stage.read, 2);
+		stageThreads.put(Stage.sections, processors);
+		stageThreads.put(Stage.parse, Math.max(1, processors / 2));
+		stageThreads.put(Stage.map, processors);
+		stageThreads.put(Stage.write, 2);
+	}
+
+	/**
+	 * A sink that serialises each document's complete reactions to a directory named after the document,
+	 * using {@link Utils#serializeReactions(File, Map)}. Failures are logged
+	 * @param outputDirectory
+	 * @return
+	 */
+	public static Sink serializingSink(final File outputDirectory) {
+		return new Sink() {
+			public void documentCompleted(String documentId, Map<Reaction, IndigoObject> foundReactions, Map<Reaction, IndigoObject> completeReactions) throws IOException {
+				Utils.serializeReactions(new File(outputDirectory, documentId), completeReactions);
+			}
+
+			public void documentFailed(String documentId, Stage stage, Exception e) {
+				LOG.warn("Failed to extract reactions from " + documentId + " at the " + stage + " stage", e);
+			}
+		};
+	}
+
+	/**
+	 * Sets the number of threads used by the given stage. Must be called before the first document is submitted
+	 * @param stage
+	 * @param threads
+	 */
+	public void setStageThreads(Stage stage, int threads) {
+		checkNotStarted();
+		if (threads < 1){
+			throw new IllegalArgumentException("A stage requires at least one thread");
+		}
+		stageThreads.put(stage, threads);
+	}
+
+	/**
+	 * Sets the number of documents that may wait to be processed by the given stage. Must be called before the first document is submitted
+	 * @param stage
+	 * @param queueCapacity
+	 */
+	public void setStageQueueCapacity(Stage stage, int queueCapacity) {
+		checkNotStarted();
+		if (queueCapacity < 0){
+			throw new IllegalArgumentException("Queue capacity cannot be negative");
+		}
+		stageQueueCapacities.put(stage, queueCapacity);
+	}
+
+	/**
+	 * See {@link ReactionExtractor#setIndigoAtomMappingTimeout(int)}. 15,000 milliseconds by default
+	 * @param milliseconds
+	 */
+	public void setIndigoAtomMappingTimeout(int milliseconds) {
+		checkNotStarted();
+		this.indigoAtomMappingTimeout = milliseconds;
+	}
+
+	/**
+	 * The maximum time, in milliseconds, that may be spent on a document from when it is submitted, including the time it waits in the stages' queues.
+	 * The budget is checked between headings/paragraphs, sections and reactions, see {@link ReactionExtractor#setDocumentTimeBudget(long)}.
+	 * When exceeded the document's remaining stages are skipped and the reactions mapped so far are passed to the sink
+	 * @param milliseconds
+	 */
+	public void setDocumentTimeBudget(long milliseconds) {
+		this.documentTimeBudget = milliseconds;
+	}
+
+	/**
+	 * See {@link ReactionExtractor#setParagraphTimeBudget(long)}
+	 * @param milliseconds
+	 */
+	public void setParagraphTimeBudget(long milliseconds) {
+		this.paragraphTimeBudget = milliseconds;
+	}
+
+	/**
+	 * See {@link ReactionExtractor#setRetainTaggedSentences(boolean)}. False by default
+	 * @param retainTaggedSentences
+	 */
+	public void setRetainTaggedSentences(boolean retainTaggedSentences) {
+		this.retainTaggedSentences = retainTaggedSentences;
+	}
+
+	/**
+	 * See {@link ReactionExtractor#setTaggedDocumentProvider(TaggedDocumentProvider)}
+	 * @param taggedDocumentProvider
+	 */
+	public void setTaggedDocumentProvider(TaggedDocumentProvider taggedDocumentProvider) {
+		this.taggedDocumentProvider = taggedDocumentProvider;
+	}
+
+	private synchronized void checkNotStarted() {
+		if (executors != null){
+			throw new IllegalStateException("The pipeline's stages cannot be changed once documents have been submitted");
+		}
+	}
+
+	private synchronized Map<Stage, StageExecutor> getExecutors() {
+		if (executors == null){
+			executors = new EnumMap<Stage, StageExecutor>(Stage.class);
+			for (Stage stage : Stage.values()) {
+				int threads = stageThreads.get(stage);
+				Integer queueCapacity = stageQueueCapacities.get(stage);
+				executors.put(stage, new StageExecutor(stage, threads, queueCapacity != null ? queueCapacity : threads * 2));
+			}
+		}
+		return executors;
+	}
+
+	/**
+	 * Submits the patent in the given file, blocking whilst the read stage's queue is full
+	 * @param documentId
+	 * @param patentFile
+	 * @throws InterruptedException
+	 */
+	public void submit(String documentId, File patentFile) throws InterruptedException {
+		submit(new PipelineDocument(documentId, patentFile, null, Deadline.after(documentTimeBudget)));
+	}
+
+	/**
+	 * Submits the patent XML, blocking whilst the read stage's queue is full
+	 * @param documentId
+	 * @param patentXml
+	 * @throws InterruptedException
+	 */
+	public void submit(String documentId, byte[] patentXml) throws InterruptedException {
+		submit(new PipelineDocument(documentId, null, patentXml, Deadline.after(documentTimeBudget)));
+	}
+
+	private void submit(PipelineDocument document) throws InterruptedException {
+		Map<Stage, StageExecutor> stageExecutors = getExecutors();
+		synchronized (this) {
+			documentsInProgress++;
+		}
+		try{
+			stageExecutors.get(Stage.read).submit(document, readTask);
+		}
+		catch (InterruptedException e) {
+			documentFinished();
+			throw e;
+		}
+	}
+
+	private final StageTask readTask = new StageTask() {
+		public void run(PipelineDocument document) throws Exception {
+			InputStream is = document.file != null ? new FileInputStream(document.file) : new ByteArrayInputStream(document.xml);
+			try{
+				document.headingsAndParagraphs = UsptoPatentReader.readHeadingsAndParagraphs(is);
+			}
+			finally{
+				IOUtils.closeQuietly(is);
+			}
+			executors.get(Stage.sections).submit(document, sectionsTask);
+		}
+	};
+
+	private final StageTask sectionsTask = new StageTask() {
+		public void run(PipelineDocument document) throws Exception {
+			ExperimentalSectionsCreator sectionsCreator = new ExperimentalSectionsCreator();
+			sectionsCreator.setTaggedDocumentProvider(taggedDocumentProvider);
+			for (Element headingOrParagraph : document.headingsAndParagraphs) {
+				if (document.deadline.hasExpired()){
+					document.truncated = true;
+					break;
+				}
+				sectionsCreator.processHeadingOrParagraph(headingOrParagraph);
+			}
+			if (!document.truncated){
+				sectionsCreator.finishSections();
+			}
+			document.sections = sectionsCreator.getCompletedSections();
+			document.headingsAndParagraphs = null;
+			executors.get(Stage.parse).submit(document, parseTask);
+		}
+	};
+
+	private final StageTask parseTask = new StageTask() {
+		public void run(PipelineDocument document) throws Exception {
+			PreviousReactionData previousReactionData = new PreviousReactionData();
+			List<Reaction> reactions = new ArrayList<Reaction>();
+			for (ExperimentalSection section : document.sections) {
+				if (document.deadline.hasExpired()){
+					document.truncated = true;
+					break;
+				}
+				reactions.addAll(new ExperimentalSectionParser(section, previousReactionData).parseForReactions());
+			}
+			document.sections = null;
+			document.reactions = reactions;
+			executors.get(Stage.map).submit(document, mapTask);
+		}
+	};
+
+	private final StageTask mapTask = new StageTask() {
+		public void run(final PipelineDocument document) throws Exception {
+			ReactionExtractor extractor = ReactionExtractor.createWithoutCopyingElements(Collections.<Element>emptyList());
+			extractor.setIndigoAtomMappingTimeout(indigoAtomMappingTimeout);
+			extractor.setParagraphTimeBudget(paragraphTimeBudget);
+			extractor.setRetainIndigoReactions(false);
+			extractor.setRetainTaggedSentences(retainTaggedSentences);
+			extractor.mapReactions(document.reactions, new ReactionListener() {
+				public void reactionFound(Reaction reaction, IndigoObject indigoReaction, boolean complete) {
+					if (complete){
+						document.completeReactions.put(reaction, null);
+					}
+					document.foundReactions.put(reaction, null);
+				}
+			}, document.deadline);
+			if (extractor.isTruncated()){
+				document.truncated = true;
+			}
+			document.reactions = null;
+			executors.get(Stage.write).submit(document, writeTask);
+		}
+	};
+
+	private final StageTask writeTask = new StageTask() {
+		public void run(PipelineDocument document) throws Exception {
+			if (document.truncated){
+				LOG.debug("Document time budget exceeded, reaction extraction from " + document.documentId + " was truncated");
+			}
+			sink.documentCompleted(document.documentId, document.foundReactions, document.completeReactions);
+			documentFinished();
+		}
+	};
+
+	private void documentFailed(PipelineDocument document, Stage stage, Exception e) {
+		try{
+			sink.documentFailed(document.documentId, stage, e);
+		}
+		catch (RuntimeException sinkException) {
+			LOG.error("Sink failed to handle the failure of " + document.documentId, sinkException);
+		}
+		finally{
+			documentFinished();
+		}
+	}
+
+	private synchronized void documentFinished() {
+		documentsInProgress--;
+		notifyAll();
+	}
+
+	/**
+	 * Blocks until every submitted document has been completed or has failed
+	 * @throws InterruptedException
+	 */
+	public synchronized void awaitCompletion() throws InterruptedException {
+		while (documentsInProgress > 0) {
+			wait();
+		}
+	}
+
+	/**
+	 * The current metrics of each stage, in pipeline order
+	 * @return
+	 */
+	public List<StageMetrics> getStageMetrics() {
+		List<StageMetrics> metrics = new ArrayList<StageMetrics>();
+		Map<Stage, StageExecutor> stageExecutors;
+		synchronized (this) {
+			stageExecutors = executors;
+		}
+		if (stageExecutors != null){
+			for (StageExecutor executor : stageExecutors.values()) {
+				metrics.add(executor.getMetrics());
+			}
+		}
+		return metrics;
+	}
+
+	/**
+	 * Waits for the submitted documents to be processed, then stops the stages' threads
+	 */
+	public void close() throws IOException {
+		Map<Stage, StageExecutor> stageExecutors;
+		synchronized (this) {
+			stageExecutors = executors;
+		}
+		if (stageExecutors == null){
+			return;
+		}
+		try{
+			awaitCompletion();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted whilst waiting for documents to be processed", e);
+		}
+		finally{
+			for (StageExecutor executor : stageExecutors.values()) {
+				executor.executor.shutdownNow();
+			}
+		}
+		for (StageExecutor executor : stageExecutors.values()) {
+			try {
+				executor.executor.awaitTermination(1, TimeUnit.MINUTES);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package dan2097.org.bitbucket.reactionextraction;
+
+import static dan2097.org.bitbucket.utility.ChemicalTaggerTags.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import nu.xom.Element;
+
+import dan2097.org.bitbucket.utility.StringUtils;
+import dan2097.org.bitbucket.utility.Utils;
+import dan2097.org.bitbucket.utility.XomUtils;
+
+/**
+ * Facts derived from a MOLECULE/UNNAMEDMOLECULE element of a tagged document, such as its name, that are needed by several stages of extraction.
+ * Each fact is computed on first request and then reused.
+ *
+ * The facts for the molecules of a paragraph are held by the {@link Paragraph} (see {@link Paragraph#getMoleculeFacts(Element)}),
+ * and so are discarded with it. As with the paragraph's tagged document they are not thread safe.
+ * A fact computed on an element whose subtree or neighbours are subsequently restructured would be stale;
+ * the tagged documents are only restructured by the ExperimentalSectionsCreator before any facts are requested
+ * @author dl387
+ *
+ */
+class MoleculeFacts {
+
+	private final Element molecule;
+	private List<String> nameComponents = null;
+	private String name = null;
+	private List<Element> quantityElements = null;
+	private boolean neighboursFound = false;
+	private Element elementAfterLastOscarcm = null;
+	private Element elementBeforeFirstOscarcm = null;
+
+	/**
+	 * Facts for the given MOLECULE/UNNAMEDMOLECULE element.
+	 * Where the element is from a {@link Paragraph} {@link Paragraph#getMoleculeFacts(Element)} should be used instead so that the facts are shared
+	 * @param molecule
+	 */
+	MoleculeFacts(Element molecule) {
+		this.molecule = molecule;
+	}
+
+	Element getMolecule() {
+		return molecule;
+	}
+
+	/**
+	 * As {@link ChemTaggerOutputNameExtraction#findMoleculeName(Element)}. The returned list may be modified by the caller
+	 * @return
+	 */
+	List<String> getNameComponents() {
+		if (nameComponents == null){
+			nameComponents = Collections.unmodifiableList(ChemTaggerOutputNameExtraction.findMoleculeName(molecule));
+		}
+		return new ArrayList<String>(nameComponents);
+	}
+
+	/**
+	 * The space concatenated name components
+	 * @return
+	 */
+	String getName() {
+		if (name == null){
+			name = StringUtils.stringListToString(getNameComponents(), " ");
+		}
+		return name;
+	}
+
+	/**
+	 * The QUANTITY elements that are descendants of the molecule
+	 * @return
+	 */
+	List<Element> getQuantityElements() {
+		if (quantityElements == null){
+			quantityElements = Collections.unmodifiableList(XomUtils.getDescendantElementsWithTagName(molecule, QUANTITY_Container));
+		}
+		return quantityElements;
+	}
+
+	/**
+	 * The element after the molecule's last OSCARCM, or after the molecule if it has none.
+	 * Null if there is no such element
+	 * @return
+	 */
+	Element getElementAfterLastOscarcm() {
+		findNeighbours();
+		return elementAfterLastOscarcm;
+	}
+
+	/**
+	 * The element before the molecule's first OSCARCM, or before the molecule if it has none.
+	 * Null if there is no such element
+	 * @return
+	 */
+	Element getElementBeforeFirstOscarcm() {
+		findNeighbours();
+		return elementBeforeFirstOscarcm;
+	}
+
+	private void findNeighbours() {
+		if (!neighboursFound){
+			List<Element> oscarcms = XomUtils.getDescendantElementsWithTagName(molecule, OSCARCM_Container);
+			elementAfterLastOscarcm = Utils.getNextElement(oscarcms.size() > 0 ? oscarcms.get(oscarcms.size() - 1) : molecule);
+			elementBeforeFirstOscarcm = Utils.getPreviousElement(oscarcms.size() > 0 ? oscarcms.get(0) : molecule);
+			neighboursFound = true;
+		}
+	}
+}
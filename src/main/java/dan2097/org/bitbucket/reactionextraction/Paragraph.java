@@ -1,6 +1,9 @@
 package dan2097.org.bitbucket.reactionextraction;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -16,11 +19,14 @@ import dan2097.org.bitbucket.utility.Utils;
 import nu.xom.Document;
 import nu.xom.Element;
 import nu.xom.Nodes;
+import nu.xom.Serializer;
 
 public class Paragraph {
 	private final String untaggedString;
 	private final Document taggedSentencesDocument;
 	private final String identifier;
+	private String taggedSentencesXml = null;
+	private final Map<Element, MoleculeFacts> moleculeFacts = new IdentityHashMap<Element, MoleculeFacts>();
 	private static final List<String> WORKUP_PHRASES = Arrays.asList("Concentrate", "Degass", "Dry", "Extract", "Filter", "Partition", "Precipitate", "Purify", "Recover", "Remove", "Wash", "Quench");
 	private static final String[] CONTAINER_ELS = new String[]{ACTIONPHRASE_Container, UNMATCHED_Container, NOUN_PHRASE_Container, VERBPHRASE_Container, ATMOSPHEREPHRASE_Container, TIMEPHRASE_Container,TEMPPHRASE_Container, PREPPHRASE_Container, ROLEPREPPHRASE_Container};
 
@@ -42,6 +48,24 @@ public class Paragraph {
 		}
 	}
 
+	/**
+	 * As {@link #Paragraph(String, String)} but the chemical tagger output is obtained from the given provider
+	 * e.g. rehydrated from a {@link TaggedParagraphStore}
+	 * @param paragraphText
+	 * @param identifier
+	 * @param taggedDocumentProvider
+	 */
+	public Paragraph(String paragraphText, String identifier, TaggedDocumentProvider taggedDocumentProvider) {
+		untaggedString = paragraphText;
+		this.identifier = identifier;
+		if (untaggedString.equals("")){
+			taggedSentencesDocument = new Document(new Element("Document"));
+		}
+		else{
+			taggedSentencesDocument = taggedDocumentProvider.getTaggedDocument(untaggedString);
+		}
+	}
+
 	/**
 	 * The sentence as a XOM document as produced by chemical tagger.
 	 * @return
@@ -50,6 +74,50 @@ public class Paragraph {
 		return taggedSentencesDocument;
 	}
 	
+	/**
+	 * The text of the paragraph
+	 * @return
+	 */
+	public String getText() {
+		return untaggedString;
+	}
+
+	/**
+	 * The sentence as produced by chemical tagger, serialised as indented XML.
+	 * Computed on first request and shared by all reactions from this paragraph
+	 * @return
+	 */
+	public String getTaggedSentencesXml() {
+		if (taggedSentencesXml == null){
+			try{
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				Serializer serializer = new Serializer(out);
+				serializer.setIndent(2);
+				serializer.write(taggedSentencesDocument);
+				taggedSentencesXml = out.toString("UTF-8");
+			}
+			catch (IOException e) {
+				throw new RuntimeException("Failed to serialise tagged sentences", e);
+			}
+		}
+		return taggedSentencesXml;
+	}
+
+	/**
+	 * The facts of the given MOLECULE/UNNAMEDMOLECULE element of this paragraph's tagged document,
+	 * computed on first request and then shared by the stages of extraction
+	 * @param molecule
+	 * @return
+	 */
+	MoleculeFacts getMoleculeFacts(Element molecule) {
+		MoleculeFacts facts = moleculeFacts.get(molecule);
+		if (facts == null){
+			facts = new MoleculeFacts(molecule);
+			moleculeFacts.put(molecule, facts);
+		}
+		return facts;
+	}
+
 	/**
 	 * Gets the unique identifier for this paragraph (or null if not set)
 	 * @return
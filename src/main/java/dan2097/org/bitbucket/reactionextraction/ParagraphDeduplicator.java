@@ -0,0 +1,211 @@
+package dan2097.org.bitbucket.reactionextraction;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.regex.Pattern;
+
+import nu.xom.Document;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+
+import dan2097.org.bitbucket.utility.Utils;
+
+/**
+ * Shares the ChemicalTagger output of paragraphs and headings between the documents of a batch,
+ * as members of a patent family repeat the same experimental paragraphs nearly verbatim.
+ * Texts are keyed after collapsing whitespace, which does not affect ChemicalTagger's tokenisation.
+ *
+ * Only the tagging is reused as this depends solely on the text. Everything that depends on the paragraph's context
+ * (its section, headings, aliases and previous reactions) is recomputed for each document.
+ * The resolution of chemical names to structures is similarly context independent and is memoised by
+ * {@link dan2097.org.bitbucket.utility.OscarReliantFunctionality}.
+ *
+ * Texts not previously seen are tagged by the given {@link TaggedDocumentProvider} (e.g. a {@link TaggedParagraphStore}) or by running ChemicalTagger.
+ * At most maxInMemory tagged documents are held in memory; the least recently used are spilled to the given directory
+ * (or discarded if this is null). Each caller receives its own copy of the tagged document as it is modified during extraction.
+ * This class is thread safe and the same instance may be given to many ReactionExtractors
+ * @author dl387
+ *
+ */
+public class ParagraphDeduplicator implements TaggedDocumentProvider, Closeable {
+
+	private static final Logger LOG = Logger.getLogger(ParagraphDeduplicator.class);
+	private static final Pattern matchWhiteSpace = Pattern.compile("\\s+");
+
+	private final Map<String, Document> inMemory;
+	private final File spillDirectory;
+	private final TaggedDocumentProvider taggedDocumentProvider;
+	private long hits = 0;
+	private long spillHits = 0;
+	private long misses = 0;
+
+	/**
+	 * @param maxInMemory the maximum number of tagged documents to keep in memory
+	 * @param spillDirectory directory to spill tagged documents to when evicted from memory, or null to discard them
+	 * @throws IOException
+	 */
+	public ParagraphDeduplicator(int maxInMemory, File spillDirectory) throws IOException {
+		this(maxInMemory, spillDirectory, null);
+	}
+
+	/**
+	 * @param maxInMemory the maximum number of tagged documents to keep in memory
+	 * @param spillDirectory directory to spill tagged documents to when evicted from memory, or null to discard them
+	 * @param taggedDocumentProvider used to tag texts that have not previously been seen, or null to run ChemicalTagger
+	 * @throws IOException
+	 */
+	public ParagraphDeduplicator(final int maxInMemory, File spillDirectory, TaggedDocumentProvider taggedDocumentProvider) throws IOException {
+		if (maxInMemory < 1){
+			throw new IllegalArgumentException("maxInMemory must be at least 1");
+		}
+		if (spillDirectory != null){
+			FileUtils.forceMkdir(spillDirectory);
+		}
+		this.spillDirectory = spillDirectory;
+		this.taggedDocumentProvider = taggedDocumentProvider;
+		inMemory = new LinkedHashMap<String, Document>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Entry<String, Document> eldest) {
+				if (size() > maxInMemory){
+					spill(eldest.getKey(), eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * The key under which the given text's tagged document is stored
+	 * @param text
+	 * @return
+	 */
+	static String normalise(String text) {
+		return matchWhiteSpace.matcher(text).replaceAll(" ").trim();
+	}
+
+	/**
+	 * Returns the ChemicalTagger output for the given text, running ChemicalTagger only if
+	 * text that is the same after normalisation has not previously been tagged.
+	 * The returned document may be freely modified
+	 * @param text
+	 * @return
+	 */
+	public Document getTaggedDocument(String text) {
+		String key = normalise(text);
+		synchronized (this) {
+			Document taggedDoc = inMemory.get(key);
+			if (taggedDoc != null){
+				hits++;
+				return new Document(taggedDoc);
+			}
+			taggedDoc = readSpilled(key);
+			if (taggedDoc != null){
+				spillHits++;
+				inMemory.put(key, taggedDoc);
+				return new Document(taggedDoc);
+			}
+			misses++;
+		}
+		//tagging is performed outside the lock, hence two threads may occasionally tag the same text
+		Document taggedDoc = taggedDocumentProvider != null ? taggedDocumentProvider.getTaggedDocument(text) : Utils.runChemicalTagger(text);
+		synchronized (this) {
+			inMemory.put(key, new Document(taggedDoc));
+		}
+		return taggedDoc;
+	}
+
+	private void spill(String key, Document taggedDoc) {
+		if (spillDirectory == null){
+			return;
+		}
+		File file = getSpillFile(key);
+		try{
+			FileUtils.writeStringToFile(file, taggedDoc.toXML(), "UTF-8");
+		}
+		catch (IOException e) {
+			LOG.warn("Failed to spill tagged paragraph to " + file, e);
+		}
+	}
+
+	private Document readSpilled(String key) {
+		if (spillDirectory == null){
+			return null;
+		}
+		File file = getSpillFile(key);
+		if (!file.isFile()){
+			return null;
+		}
+		try{
+			Document taggedDoc = Utils.buildXmlFromString(FileUtils.readFileToString(file, "UTF-8"));
+			file.delete();//now held in memory, will be rewritten if spilled again
+			return taggedDoc;
+		}
+		catch (Exception e) {
+			LOG.warn("Failed to read spilled tagged paragraph " + file, e);
+			return null;
+		}
+	}
+
+	private File getSpillFile(String key) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			String hash = BaseEncoding.base16().lowerCase().encode(digest.digest(key.getBytes(Charsets.UTF_8)));
+			return new File(spillDirectory, hash + ".xml");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("SHA-256 is not supported by this JVM", e);
+		}
+	}
+
+	/**
+	 * Number of texts whose tagged document was found in memory
+	 * @return
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Number of texts whose tagged document was read back from the spill directory
+	 * @return
+	 */
+	public synchronized long getSpillHits() {
+		return spillHits;
+	}
+
+	/**
+	 * Number of texts that had to be tagged
+	 * @return
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Releases the tagged documents held in memory and deletes any spilled to disk
+	 */
+	public synchronized void close() {
+		inMemory.clear();
+		if (spillDirectory != null){
+			File[] files = spillDirectory.listFiles();
+			if (files != null){
+				for (File file : files) {
+					if (file.getName().endsWith(".xml")){
+						file.delete();
+					}
+				}
+			}
+		}
+	}
+}
@@ -1,13 +1,19 @@
 package dan2097.org.bitbucket.reactionextraction;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import dan2097.org.bitbucket.utility.LongHashSet;
+
 /**
  * This class holds a mapping between procedures and extracted reactions
  * A document specific alias to chemical map is also kept
+ * The reactions and product structures of each section are indexed as they are added, so lookups do not depend on the number of reactions seen
+ * This class is thread safe, although to give consistent results sections that refer to each other's identifiers or aliases
+ * must be parsed in order (see {@link ExperimentalSectionScheduler})
  * @author dl387
  *
  */
@@ -44,8 +50,46 @@ public class PreviousReactionData {
 		}
 	} 
 
+	/**
+	 * The products of a sequence of reactions, with the structure ids of those with an InChI indexed as reactions are added
+	 */
+	static class ProductIndex {
+		private final List<Chemical> products = new ArrayList<Chemical>();
+		private final LongHashSet structureIds = new LongHashSet();
+
+		void addProductsOf(Reaction reaction) {
+			for (Chemical product : reaction.getProducts()) {
+				products.add(product);
+				if (product.hasInchi()){
+					structureIds.add(product.getStructureId());
+				}
+			}
+		}
+
+		/**
+		 * Does any of the products have the given structure
+		 * @param structureId
+		 * @return
+		 */
+		boolean containsStructure(long structureId) {
+			return structureIds.contains(structureId);
+		}
+
+		/**
+		 * The products in the order their reactions were added
+		 * @return
+		 */
+		List<Chemical> getProducts() {
+			return products;
+		}
+	}
+
 	private final Map<String, List<StepReactionHolder>> sectionIdentifierToSectionReactions = new HashMap<String, List<StepReactionHolder>>();
-	private final Map<String, Chemical> aliasToChemicalMap = new HashMap<String, Chemical>();
+	/**All the reactions of each section, in the order they were added*/
+	private final Map<String, List<Reaction>> sectionIdentifierToReactions = new HashMap<String, List<Reaction>>();
+	/**The products of each section*/
+	private final Map<String, ProductIndex> sectionIdentifierToProducts = new HashMap<String, ProductIndex>();
+	private final Map<String, Chemical> aliasToChemicalMap = Collections.synchronizedMap(new HashMap<String, Chemical>());
 
 	Map<String, Chemical> getAliasToChemicalMap() {
 		return aliasToChemicalMap;
@@ -57,7 +101,7 @@ public class PreviousReactionData {
 	 * @param section
 	 * @param step
 	 */
-	void addReactions(List<Reaction> reactions, String section, String step){
+	synchronized void addReactions(List<Reaction> reactions, String section, String step){
 		if (reactions == null){
 			throw new IllegalArgumentException("Null reactions paramater");
 		}
@@ -73,25 +117,31 @@ public class PreviousReactionData {
 		}
 		stepHolders.add(new StepReactionHolder(reactions, step));
 		sectionIdentifierToSectionReactions.put(section, stepHolders);
+
+		List<Reaction> sectionReactions = sectionIdentifierToReactions.get(section);
+		ProductIndex products = sectionIdentifierToProducts.get(section);
+		if (sectionReactions == null){
+			sectionReactions = new ArrayList<Reaction>();
+			sectionIdentifierToReactions.put(section, sectionReactions);
+			products = new ProductIndex();
+			sectionIdentifierToProducts.put(section, products);
+		}
+		sectionReactions.addAll(reactions);
+		for (Reaction reaction : reactions) {
+			products.addProductsOf(reaction);
+		}
 	}
 	
 	/**
-	 * Returns reactions associated with the given section.
-	 * 
-	 * Null if this section identifier has not been encountered
+	 * Is a chemical with the given structure the product of any of the reactions of the given section.
+	 * False if this section identifier has not been encountered
 	 * @param sectionIdentifier
+	 * @param structureId
 	 * @return
 	 */
-	List<Reaction> getReactions(String sectionIdentifier){
-		List<Reaction> reactions = new ArrayList<Reaction>();
-		List<StepReactionHolder> stepReactionHolders = sectionIdentifierToSectionReactions.get(sectionIdentifier);
-		if (stepReactionHolders == null){
-			return null;
-		}
-		for (StepReactionHolder stepReactionHolder : stepReactionHolders) {
-			reactions.addAll(stepReactionHolder.getReactions());
-		}
-		return reactions;
+	synchronized boolean isProductOfSection(String sectionIdentifier, long structureId){
+		ProductIndex products = sectionIdentifierToProducts.get(sectionIdentifier);
+		return products != null && products.containsStructure(structureId);
 	}
 	
 	/**
@@ -100,7 +150,7 @@ public class PreviousReactionData {
 	 * @param stepIdentifier
 	 * @return
 	 */
-	List<Reaction> getReactions(String sectionIdentifier, String stepIdentifier){
+	synchronized List<Reaction> getReactions(String sectionIdentifier, String stepIdentifier){
 		List<StepReactionHolder> stepReactionHolders = sectionIdentifierToSectionReactions.get(sectionIdentifier);
 		if (stepReactionHolders == null){
 			return null;
@@ -122,8 +172,8 @@ public class PreviousReactionData {
 	 * @param sectionIdentifier
 	 * @return
 	 */
-	Chemical getProductOfReaction(String sectionIdentifier) {
-		List<Reaction> reactions = getReactions(sectionIdentifier);
+	synchronized Chemical getProductOfReaction(String sectionIdentifier) {
+		List<Reaction> reactions = sectionIdentifierToReactions.get(sectionIdentifier);
 		if (reactions == null || reactions.isEmpty()){
 			return null;
 		}
@@ -141,7 +191,7 @@ public class PreviousReactionData {
 	 * @param stepIdentifier
 	 * @return
 	 */
-	Chemical getProductOfReaction(String sectionIdentifier, String stepIdentifier) {
+	synchronized Chemical getProductOfReaction(String sectionIdentifier, String stepIdentifier) {
 		List<Reaction> reactions = getReactions(sectionIdentifier, stepIdentifier);
 		if (reactions == null || reactions.isEmpty()){
 			return null;
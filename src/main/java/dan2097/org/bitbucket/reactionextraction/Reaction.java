@@ -13,15 +13,47 @@ public class Reaction {
 	private final List<Chemical> products = new ArrayList<Chemical>();
 	/** Typically solvents or catalysts*/
 	private final List<Chemical> spectators =new ArrayList<Chemical>();
+	/** Only held until the provenance is created, to avoid retaining the paragraph's tagged document*/
 	private Paragraph inputPara = null;
+	private ReactionProvenance provenance = null;
 	private String reactionSmiles = null;
+	/** MDL RXN file of the (possibly atom mapped) Indigo reaction, only retained when live Indigo reactions are not*/
+	private String reactionRxn = null;
 
 	public void setInput(Paragraph inputPara) {
 		this.inputPara = inputPara;	
 	}
+
+	/**
+	 * The paragraph the reaction was found in. Null once the reaction's provenance has been created
+	 * @return
+	 */
 	public Paragraph getInput() {
 		return inputPara;
 	}
+
+	/**
+	 * Replaces the reference to the input paragraph with a compact description of the reaction's provenance
+	 * @param retainTaggedSentences
+	 */
+	void createProvenance(boolean retainTaggedSentences) {
+		if (inputPara != null){
+			provenance = ReactionProvenance.createProvenance(inputPara, this, retainTaggedSentences);
+			inputPara = null;
+		}
+	}
+
+	/**
+	 * Where the reaction came from. Available once the reaction has been processed by the ReactionExtractor
+	 * @return
+	 */
+	public ReactionProvenance getProvenance() {
+		return provenance;
+	}
+
+	void setProvenance(ReactionProvenance provenance) {
+		this.provenance = provenance;
+	}
 	
 	public String getReactionSmiles() {
 		return reactionSmiles;
@@ -30,6 +62,18 @@ public class Reaction {
 	public void setReactionSmiles(String reactionSmiles) {
 		this.reactionSmiles = reactionSmiles;
 	}
+
+	/**
+	 * The Indigo reaction serialised as an MDL RXN file, or null if the live Indigo reaction was retained instead
+	 * @return
+	 */
+	public String getReactionRxn() {
+		return reactionRxn;
+	}
+
+	public void setReactionRxn(String reactionRxn) {
+		this.reactionRxn = reactionRxn;
+	}
 	
 	public List<Chemical> getReactants() {
 		return reactants;
@@ -0,0 +1,614 @@
+package dan2097.org.bitbucket.reactionextraction;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nu.xom.Attribute;
+import nu.xom.Document;
+import nu.xom.Element;
+import nu.xom.Elements;
+import nu.xom.ParsingException;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+
+import dan2097.org.bitbucket.utility.Utils;
+
+/**
+ * A persistent cache of the reactions extracted from a document, see {@link ReactionExtractor#setResultCache(ReactionCache)}.
+ * Entries are keyed by a SHA-256 hash of the document's headings and paragraphs and of a fingerprint of the extractor,
+ * which combines the extractor's version with the content of the knowledge resources (known solvents, catalysts etc.) it uses.
+ * Changing either hence results in cache misses, with the now stale entries eventually being evicted.
+ * NOTE the version of snapshot builds does not change when the code does, so the cache should be cleared after modifying the extraction code.
+ *
+ * Each entry is an XML file retaining every field of the reactions' chemicals (which CML does not) along with the reactions' provenance and atom mapped RXN files.
+ * When the total size of the entries exceeds the maximum the least recently used entries are deleted.
+ * The main method of this class can be used to inspect and maintain a cache directory
+ * @author dl387
+ *
+ */
+public class ReactionCache {
+
+	private static final Logger LOG = Logger.getLogger(ReactionCache.class);
+
+	/**Increment when the format of the entries changes*/
+	static final int CACHE_FORMAT_VERSION = 1;
+	private static final String VERSION_LOCATION = "/dan2097/org/bitbucket/reactionextraction/extractorVersion.txt";
+	private static final String[] KNOWLEDGE_RESOURCE_LOCATIONS = new String[]{
+		AprioriKnowledge.KNOWN_SOLVENTSINCHIS_LOCATION,
+		AprioriKnowledge.KNOWN_SOLVENTNAMES_LOCATION,
+		AprioriKnowledge.KNOWN_CATALYSTSINCHIS_LOCATION,
+		AprioriKnowledge.KNOWN_CATALYSTSNAMES_LOCATION,
+		"/dan2097/org/bitbucket/reactionextraction/falsePositiveRegexes.txt",
+		"/dan2097/org/bitbucket/chemicaltagging/stopWords.txt",
+		"/dan2097/org/bitbucket/chemicaltagging/trivialNameDictionary.txt",
+		"/dan2097/org/bitbucket/paragraphclassification/experimental.txt",
+		"/dan2097/org/bitbucket/paragraphclassification/non-experimental.txt"
+	};
+	private static final String ENTRY_EXTENSION = ".xml";
+	/**On exceeding the maximum size entries are evicted until the cache is this fraction of the maximum*/
+	private static final double EVICTION_TARGET = 0.9;
+
+	private final File directory;
+	private final long maxBytes;
+	private long totalBytes;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	private static class FingerprintHolder {
+		private static final String FINGERPRINT = computeExtractorFingerprint();
+	}
+
+	/**
+	 * A reaction retrieved from the cache and whether it was complete i.e. could be fully atom mapped.
+	 * The reaction's RXN file is always populated
+	 */
+	static class CachedReaction {
+		private final Reaction reaction;
+		private final boolean complete;
+
+		CachedReaction(Reaction reaction, boolean complete) {
+			this.reaction = reaction;
+			this.complete = complete;
+		}
+
+		Reaction getReaction() {
+			return reaction;
+		}
+
+		boolean isComplete() {
+			return complete;
+		}
+	}
+
+	/**
+	 * Uses (creating if necessary) the given directory as a cache whose entries may total at most maxBytes
+	 * @param directory
+	 * @param maxBytes
+	 * @throws IOException
+	 */
+	public ReactionCache(File directory, long maxBytes) throws IOException {
+		FileUtils.forceMkdir(directory);
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		for (File entry : listEntries()) {
+			totalBytes += entry.length();
+		}
+	}
+
+	/**
+	 * Identifies the version of the extractor and the content of its knowledge resources
+	 * @return
+	 */
+	public static String getExtractorFingerprint() {
+		return FingerprintHolder.FINGERPRINT;
+	}
+
+	private static String computeExtractorFingerprint() {
+		MessageDigest digest = createDigest();
+		update(digest, String.valueOf(CACHE_FORMAT_VERSION));
+		for (String location : KNOWLEDGE_RESOURCE_LOCATIONS) {
+			update(digest, location);
+			digest.update(readResource(location));
+		}
+		String version = new String(readResource(VERSION_LOCATION), Charsets.UTF_8).trim();
+		return version + "-" + BaseEncoding.base16().lowerCase().encode(digest.digest()).substring(0, 16);
+	}
+
+	private static byte[] readResource(String location) {
+		InputStream is = ReactionCache.class.getResourceAsStream(location);
+		if (is == null){
+			throw new RuntimeException("Failed to read " + location);
+		}
+		try{
+			return IOUtils.toByteArray(is);
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Failed to read " + location, e);
+		}
+		finally{
+			IOUtils.closeQuietly(is);
+		}
+	}
+
+	/**
+	 * Computes the key for the given headings and paragraphs, which must not yet have been modified by extraction.
+	 * As whether the tagged sentences are retained affects the reactions' provenance, this is also part of the key
+	 * @param headingsAndParagraphs
+	 * @param retainTaggedSentences
+	 * @return
+	 */
+	String computeKey(List<Element> headingsAndParagraphs, boolean retainTaggedSentences) {
+		MessageDigest digest = createDigest();
+		update(digest, getExtractorFingerprint());
+		update(digest, String.valueOf(retainTaggedSentences));
+		for (Element headingOrParagraph : headingsAndParagraphs) {
+			update(digest, headingOrParagraph.toXML());
+		}
+		return BaseEncoding.base16().lowerCase().encode(digest.digest());
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("SHA-256 is not supported by this JVM", e);
+		}
+	}
+
+	/**
+	 * Adds the string, followed by a separator, to the digest
+	 * @param digest
+	 * @param str
+	 */
+	private static void update(MessageDigest digest, String str) {
+		digest.update(str.getBytes(Charsets.UTF_8));
+		digest.update((byte) 0);
+	}
+
+	/**
+	 * Returns the reactions stored under the given key, or null if there is no such entry (or it could not be read)
+	 * @param key
+	 * @return
+	 */
+	List<CachedReaction> get(String key) {
+		File entry = getEntryFile(key);
+		if (!entry.isFile()){
+			misses.incrementAndGet();
+			return null;
+		}
+		try{
+			List<CachedReaction> reactions = fromXml(readEntry(entry));
+			entry.setLastModified(System.currentTimeMillis());
+			hits.incrementAndGet();
+			return reactions;
+		}
+		catch (Exception e) {
+			LOG.warn("Ignoring unreadable reaction cache entry " + entry, e);
+			misses.incrementAndGet();
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the reactions under the given key, evicting the least recently used entries if the cache is now too large.
+	 * Each reaction's RXN file must be populated
+	 * @param key
+	 * @param reactions
+	 */
+	void put(String key, List<CachedReaction> reactions) {
+		File entry = getEntryFile(key);
+		try{
+			long previousSize = entry.isFile() ? entry.length() : 0;
+			Utils.writeAtomically(entry, toXml(reactions).toXML());
+			long size = entry.length();
+			boolean evictionRequired;
+			synchronized (this) {
+				totalBytes += size - previousSize;
+				evictionRequired = totalBytes > maxBytes;
+			}
+			if (evictionRequired){
+				evict((long) (maxBytes * EVICTION_TARGET));
+			}
+		}
+		catch (IOException e) {
+			LOG.warn("Failed to write reaction cache entry " + entry, e);
+		}
+	}
+
+	/**
+	 * Deletes the least recently used entries until the total size of the cache is at most targetBytes
+	 * @param targetBytes
+	 * @return the number of entries deleted
+	 */
+	public synchronized int evict(long targetBytes) {
+		List<File> entries = listEntries();
+		final long[] lastModified = new long[entries.size()];
+		long size = 0;
+		for (int i = 0; i < entries.size(); i++) {
+			File entry = entries.get(i);
+			lastModified[i] = entry.lastModified();
+			size += entry.length();
+		}
+		List<Integer> indices = new ArrayList<Integer>();
+		for (int i = 0; i < entries.size(); i++) {
+			indices.add(i);
+		}
+		Collections.sort(indices, new Comparator<Integer>() {
+			public int compare(Integer o1, Integer o2) {
+				long diff = lastModified[o1] - lastModified[o2];
+				return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+			}
+		});
+		int deleted = 0;
+		for (Integer index : indices) {
+			if (size <= targetBytes){
+				break;
+			}
+			File entry = entries.get(index);
+			long length = entry.length();
+			if (entry.delete()){
+				size -= length;
+				deleted++;
+			}
+		}
+		totalBytes = size;
+		LOG.debug("Evicted " + deleted + " reaction cache entries");
+		return deleted;
+	}
+
+	/**
+	 * Deletes every entry that was not created by the current version of the extractor and its knowledge resources
+	 * @return the number of entries deleted
+	 */
+	public synchronized int purgeStaleEntries() {
+		int deleted = 0;
+		for (File entry : listEntries()) {
+			String fingerprint;
+			try{
+				fingerprint = readEntry(entry).getRootElement().getAttributeValue("fingerprint");
+			}
+			catch (Exception e) {
+				fingerprint = null;
+			}
+			if (!getExtractorFingerprint().equals(fingerprint)){
+				long length = entry.length();
+				if (entry.delete()){
+					totalBytes -= length;
+					deleted++;
+				}
+			}
+		}
+		return deleted;
+	}
+
+	/**
+	 * Deletes every entry
+	 */
+	public synchronized void clear() {
+		for (File entry : listEntries()) {
+			entry.delete();
+		}
+		totalBytes = 0;
+	}
+
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Entries are sharded by the first two characters of their key to avoid very large directories
+	 * @param key
+	 * @return
+	 */
+	File getEntryFile(String key) {
+		return new File(new File(directory, key.substring(0, 2)), key + ENTRY_EXTENSION);
+	}
+
+	List<File> listEntries() {
+		List<File> entries = new ArrayList<File>();
+		File[] shards = directory.listFiles();
+		if (shards == null){
+			return entries;
+		}
+		for (File shard : shards) {
+			File[] files = shard.listFiles();
+			if (files == null){
+				continue;
+			}
+			for (File file : files) {
+				if (file.getName().endsWith(ENTRY_EXTENSION)){
+					entries.add(file);
+				}
+			}
+		}
+		return entries;
+	}
+
+	private static Document readEntry(File entry) throws IOException, ParsingException {
+		InputStream is = new FileInputStream(entry);
+		try{
+			return Utils.buildXmlFile(is);
+		}
+		finally{
+			IOUtils.closeQuietly(is);
+		}
+	}
+
+	static Document toXml(List<CachedReaction> reactions) {
+		Element root = new Element("reactionCacheEntry");
+		root.addAttribute(new Attribute("fingerprint", getExtractorFingerprint()));
+		for (CachedReaction cachedReaction : reactions) {
+			Reaction reaction = cachedReaction.getReaction();
+			Element reactionEl = new Element("reaction");
+			reactionEl.addAttribute(new Attribute("complete", String.valueOf(cachedReaction.isComplete())));
+			appendTextElement(reactionEl, "smiles", reaction.getReactionSmiles());
+			appendTextElement(reactionEl, "rxn", reaction.getReactionRxn());
+			ReactionProvenance provenance = reaction.getProvenance();
+			if (provenance != null){
+				Element provenanceEl = new Element("provenance");
+				if (provenance.getIdentifier() != null){
+					provenanceEl.addAttribute(new Attribute("identifier", provenance.getIdentifier()));
+				}
+				appendTextElement(provenanceEl, "text", provenance.getText());
+				appendTextElement(provenanceEl, "taggedSentences", provenance.getTaggedSentencesXml());
+				List<Chemical> orderedChemicals = getOrderedChemicals(reaction);
+				for (ReactionProvenance.ChemicalMention mention : provenance.getChemicalMentions()) {
+					Element mentionEl = new Element("mention");
+					mentionEl.addAttribute(new Attribute("chemical", String.valueOf(indexOfIdentical(orderedChemicals, mention.getChemical()))));
+					mentionEl.addAttribute(new Attribute("start", String.valueOf(mention.getStart())));
+					mentionEl.addAttribute(new Attribute("end", String.valueOf(mention.getEnd())));
+					provenanceEl.appendChild(mentionEl);
+				}
+				reactionEl.appendChild(provenanceEl);
+			}
+			for (Chemical product : reaction.getProducts()) {
+				reactionEl.appendChild(toXml(product, "product"));
+			}
+			for (Chemical reactant : reaction.getReactants()) {
+				reactionEl.appendChild(toXml(reactant, "reactant"));
+			}
+			for (Chemical spectator : reaction.getSpectators()) {
+				reactionEl.appendChild(toXml(spectator, "spectator"));
+			}
+			root.appendChild(reactionEl);
+		}
+		return new Document(root);
+	}
+
+	/**
+	 * The reaction's products, reactants then spectators, which is the order they are written to an entry
+	 * @param reaction
+	 * @return
+	 */
+	private static List<Chemical> getOrderedChemicals(Reaction reaction) {
+		List<Chemical> chemicals = new ArrayList<Chemical>();
+		chemicals.addAll(reaction.getProducts());
+		chemicals.addAll(reaction.getReactants());
+		chemicals.addAll(reaction.getSpectators());
+		return chemicals;
+	}
+
+	/**
+	 * Mentions refer to chemicals by index as a chemical's role, and hence its position, may have changed since the provenance was created
+	 * @param chemicals
+	 * @param chemical
+	 * @return
+	 */
+	private static int indexOfIdentical(List<Chemical> chemicals, Chemical chemical) {
+		for (int i = 0; i < chemicals.size(); i++) {
+			if (chemicals.get(i) == chemical){
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static Element toXml(Chemical chemical, String elementName) {
+		Element chemicalEl = new Element(elementName);
+		addAttribute(chemicalEl, "name", chemical.getName());
+		addAttribute(chemicalEl, "smiles", chemical.getSmiles());
+		addAttribute(chemicalEl, "inchi", chemical.getInchi());
+		addAttribute(chemicalEl, "smarts", chemical.getSmarts());
+		addAttribute(chemicalEl, "massValue", chemical.getMassValue());
+		addAttribute(chemicalEl, "massUnits", chemical.getMassUnits());
+		addAttribute(chemicalEl, "amountValue", chemical.getAmountValue());
+		addAttribute(chemicalEl, "amountUnits", chemical.getAmountUnits());
+		addAttribute(chemicalEl, "molarityValue", chemical.getMolarity());
+		addAttribute(chemicalEl, "molarityUnits", chemical.getMolarityUnits());
+		addAttribute(chemicalEl, "volumeValue", chemical.getVolumeValue());
+		addAttribute(chemicalEl, "volumeUnits", chemical.getVolumeUnits());
+		addAttribute(chemicalEl, "equivalents", chemical.getEquivalents());
+		addAttribute(chemicalEl, "equivalentsUnits", chemical.getEquivalentsUnits());
+		addAttribute(chemicalEl, "pH", chemical.getpH());
+		addAttribute(chemicalEl, "percentYield", chemical.getPercentYield());
+		addAttribute(chemicalEl, "stoichiometry", chemical.getStoichiometry());
+		addAttribute(chemicalEl, "state", chemical.getState());
+		addAttribute(chemicalEl, "role", chemical.getRole());
+		addAttribute(chemicalEl, "entityType", chemical.getEntityType());
+		return chemicalEl;
+	}
+
+	private static void addAttribute(Element element, String name, Object value) {
+		if (value != null){
+			element.addAttribute(new Attribute(name, value.toString()));
+		}
+	}
+
+	private static void appendTextElement(Element parent, String name, String text) {
+		if (text != null){
+			Element child = new Element(name);
+			child.appendChild(text);
+			parent.appendChild(child);
+		}
+	}
+
+	static List<CachedReaction> fromXml(Document doc) {
+		List<CachedReaction> reactions = new ArrayList<CachedReaction>();
+		Elements reactionEls = doc.getRootElement().getChildElements("reaction");
+		for (int i = 0; i < reactionEls.size(); i++) {
+			Element reactionEl = reactionEls.get(i);
+			Reaction reaction = new Reaction();
+			reaction.setReactionSmiles(getChildText(reactionEl, "smiles"));
+			reaction.setReactionRxn(getChildText(reactionEl, "rxn"));
+			Elements children = reactionEl.getChildElements();
+			for (int j = 0; j < children.size(); j++) {
+				Element child = children.get(j);
+				String name = child.getLocalName();
+				if (name.equals("product")){
+					reaction.addProduct(chemicalFromXml(child));
+				}
+				else if (name.equals("reactant")){
+					reaction.addReactant(chemicalFromXml(child));
+				}
+				else if (name.equals("spectator")){
+					reaction.addSpectator(chemicalFromXml(child));
+				}
+			}
+			Element provenanceEl = reactionEl.getFirstChildElement("provenance");
+			if (provenanceEl != null){
+				List<Chemical> orderedChemicals = getOrderedChemicals(reaction);
+				List<ReactionProvenance.ChemicalMention> mentions = new ArrayList<ReactionProvenance.ChemicalMention>();
+				Elements mentionEls = provenanceEl.getChildElements("mention");
+				for (int j = 0; j < mentionEls.size(); j++) {
+					Element mentionEl = mentionEls.get(j);
+					int index = Integer.parseInt(mentionEl.getAttributeValue("chemical"));
+					Chemical chemical = index >= 0 && index < orderedChemicals.size() ? orderedChemicals.get(index) : null;
+					mentions.add(new ReactionProvenance.ChemicalMention(chemical,
+							Integer.parseInt(mentionEl.getAttributeValue("start")), Integer.parseInt(mentionEl.getAttributeValue("end"))));
+				}
+				reaction.setProvenance(new ReactionProvenance(provenanceEl.getAttributeValue("identifier"),
+						getChildText(provenanceEl, "text"), getChildText(provenanceEl, "taggedSentences"), mentions));
+			}
+			reactions.add(new CachedReaction(reaction, Boolean.parseBoolean(reactionEl.getAttributeValue("complete"))));
+		}
+		return reactions;
+	}
+
+	private static Chemical chemicalFromXml(Element chemicalEl) {
+		Chemical chemical = new Chemical(chemicalEl.getAttributeValue("name"));
+		String smiles = chemicalEl.getAttributeValue("smiles");
+		String inchi = chemicalEl.getAttributeValue("inchi");
+		if (smiles != null || inchi != null){
+			chemical.setChemicalIdentifierPair(new ChemicalIdentifierPair(smiles, inchi));
+		}
+		chemical.setSmarts(chemicalEl.getAttributeValue("smarts"));
+		chemical.setMassValue(chemicalEl.getAttributeValue("massValue"));
+		chemical.setMassUnits(chemicalEl.getAttributeValue("massUnits"));
+		chemical.setAmountValue(chemicalEl.getAttributeValue("amountValue"));
+		chemical.setAmountUnits(chemicalEl.getAttributeValue("amountUnits"));
+		chemical.setMolarityValue(chemicalEl.getAttributeValue("molarityValue"));
+		chemical.setMolarityUnits(chemicalEl.getAttributeValue("molarityUnits"));
+		chemical.setVolumeValue(chemicalEl.getAttributeValue("volumeValue"));
+		chemical.setVolumeUnits(chemicalEl.getAttributeValue("volumeUnits"));
+		chemical.setEquivalents(toBigDecimal(chemicalEl.getAttributeValue("equivalents")));
+		chemical.setEquivalentsUnits(chemicalEl.getAttributeValue("equivalentsUnits"));
+		chemical.setpH(toBigDecimal(chemicalEl.getAttributeValue("pH")));
+		chemical.setPercentYield(toBigDecimal(chemicalEl.getAttributeValue("percentYield")));
+		String stoichiometry = chemicalEl.getAttributeValue("stoichiometry");
+		chemical.setStoichiometry(stoichiometry != null ? Integer.valueOf(stoichiometry) : null);
+		chemical.setState(chemicalEl.getAttributeValue("state"));
+		String role = chemicalEl.getAttributeValue("role");
+		chemical.setRole(role != null ? ChemicalRole.valueOf(role) : null);
+		String entityType = chemicalEl.getAttributeValue("entityType");
+		chemical.setEntityType(entityType != null ? ChemicalEntityType.valueOf(entityType) : null);
+		return chemical;
+	}
+
+	private static BigDecimal toBigDecimal(String value) {
+		return value != null ? new BigDecimal(value) : null;
+	}
+
+	private static String getChildText(Element parent, String name) {
+		Element child = parent.getFirstChildElement(name);
+		return child != null ? child.getValue() : null;
+	}
+
+	/**
+	 * Arguments: cacheDirectory command, where command is one of:
+	 * stats, list, show key, evict maxMegabytes, purge (deletes entries from other extractor versions) or clear
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2){
+			System.err.println("Usage: ReactionCache cacheDirectory stats|list|show key|evict maxMegabytes|purge|clear");
+			System.exit(1);
+		}
+		ReactionCache cache = new ReactionCache(new File(args[0]), Long.MAX_VALUE);
+		String command = args[1];
+		if (command.equals("stats")){
+			List<File> entries = cache.listEntries();
+			int current = 0;
+			for (File entry : entries) {
+				try{
+					if (getExtractorFingerprint().equals(readEntry(entry).getRootElement().getAttributeValue("fingerprint"))){
+						current++;
+					}
+				}
+				catch (ParsingException e) {
+					//counted as stale
+				}
+			}
+			System.out.println("Extractor fingerprint: " + getExtractorFingerprint());
+			System.out.println("Entries: " + entries.size() + " (" + current + " from this extractor version)");
+			System.out.println("Total size: " + FileUtils.byteCountToDisplaySize(cache.getTotalBytes()));
+		}
+		else if (command.equals("list")){
+			for (File entry : cache.listEntries()) {
+				String key = entry.getName().substring(0, entry.getName().length() - ENTRY_EXTENSION.length());
+				System.out.println(key + "\t" + entry.length() + "\t" + new Date(entry.lastModified()));
+			}
+		}
+		else if (command.equals("show") && args.length > 2){
+			File entry = cache.getEntryFile(args[2]);
+			if (!entry.isFile()){
+				System.err.println("No entry with key " + args[2]);
+				System.exit(1);
+			}
+			for (CachedReaction cachedReaction : fromXml(readEntry(entry))) {
+				Reaction reaction = cachedReaction.getReaction();
+				ReactionProvenance provenance = reaction.getProvenance();
+				System.out.println((provenance != null ? provenance.getIdentifier() : null) + "\t" +
+						(cachedReaction.isComplete() ? "complete" : "incomplete") + "\t" + reaction.getReactionSmiles());
+			}
+		}
+		else if (command.equals("evict") && args.length > 2){
+			int deleted = cache.evict(Long.parseLong(args[2]) * 1024 * 1024);
+			System.out.println("Deleted " + deleted + " entries");
+		}
+		else if (command.equals("purge")){
+			System.out.println("Deleted " + cache.purgeStaleEntries() + " entries");
+		}
+		else if (command.equals("clear")){
+			cache.clear();
+		}
+		else{
+			System.err.println("Unrecognised command: " + command);
+			System.exit(1);
+		}
+	}
+}
@@ -6,6 +6,8 @@ import com.ggasoftware.indigo.Indigo;
 import com.ggasoftware.indigo.IndigoObject;
 import com.ggasoftware.indigo.IndigoRenderer;
 
+import dan2097.org.bitbucket.utility.ExtractionEvents;
+import dan2097.org.bitbucket.utility.ExtractionEvents.Operation;
 import dan2097.org.bitbucket.utility.IndigoHolder;
 
 public class ReactionDepicter {
@@ -19,13 +21,18 @@ public class ReactionDepicter {
 	}
 	
 	public static void depictReaction(IndigoObject rxn, File depictionFile){
+		ExtractionEvents.Span span = ExtractionEvents.begin(Operation.depiction);
 		try{
 			rxn.layout();
 			renderer.renderToFile(rxn, depictionFile.getCanonicalPath());
+			span.setOutcome("depicted");
 		}
 		catch (Exception e) {
 			e.printStackTrace();
 		}
+		finally{
+			span.end();
+		}
 	}
 
 }
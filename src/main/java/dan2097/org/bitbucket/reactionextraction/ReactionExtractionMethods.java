@@ -1,6 +1,5 @@
 package dan2097.org.bitbucket.reactionextraction;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 
@@ -37,23 +36,6 @@ public class ReactionExtractionMethods {
 		return false;
 	}
 
-	/**
-	 * Given a list of reactions returns the InChIs for all products that has an InChI
-	 * @param reactions
-	 * @return
-	 */
-	public static List<String> getProductInchis(List<Reaction> reactions) {
-		List<String> productInchis = new ArrayList<String>();
-		for (Reaction reaction : reactions) {
-			for (Chemical product : reaction.getProducts()) {
-				if (product.hasInchi()){
-					productInchis.add(product.getInchi());
-				}
-			}
-		}
-		return productInchis;
-	}
-
 	/**
 	 * Does the given chemical correspond to a name with no connection table e.g. raney nickel or brine
 	 * @param chem
@@ -1,11 +1,17 @@
 package dan2097.org.bitbucket.reactionextraction;
 
+import java.io.Closeable;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
@@ -14,20 +20,34 @@ import nu.xom.Element;
 
 import com.ggasoftware.indigo.IndigoException;
 import com.ggasoftware.indigo.IndigoObject;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import dan2097.org.bitbucket.utility.ExtractionEvents;
 import dan2097.org.bitbucket.utility.IndigoHolder;
+import dan2097.org.bitbucket.utility.IndigoScope;
+import dan2097.org.bitbucket.utility.LongHashSet;
 import dan2097.org.bitbucket.utility.Utils;
 import dan2097.org.bitbucket.utility.XMLTags;
 import dan2097.org.bitbucket.utility.XomUtils;
 
-public class ReactionExtractor {
+public class ReactionExtractor implements Closeable {
 	
 	private static final  Logger LOG = Logger.getLogger(ReactionExtractor.class);
 
-	private final List<Element> headingsAndParagraphs;
+	private final Iterable<Element> headingsAndParagraphs;
 	private final PreviousReactionData previousReactionData = new PreviousReactionData();
 	private final Map<Reaction, IndigoObject> documentReactions = new LinkedHashMap<Reaction, IndigoObject>();
 	private final Map<Reaction, IndigoObject> completeReactions = new LinkedHashMap<Reaction, IndigoObject>();
+	private long documentTimeBudget = 0;
+	private long paragraphTimeBudget = 0;
+	private boolean truncated = false;
+	private boolean retainIndigoReactions = true;
+	private boolean retainTaggedSentences = false;
+	private ReactionCache resultCache = null;
+	private TaggedDocumentProvider taggedDocumentProvider = null;
+	private ExecutorService sectionParsingExecutor = null;
+	private boolean ownsSectionParsingExecutor = false;
+	private String documentIdentifier = null;
 
 	/**
 	 * Convenience constructor for extracting reactions from a USPTO patent as a XOM document
@@ -43,12 +63,32 @@ public class ReactionExtractor {
 	 * @param orderedHeadingsAndParagraphs
 	 */
 	public ReactionExtractor(List<Element> orderedHeadingsAndParagraphs) {
+		this(copyElements(orderedHeadingsAndParagraphs));
+	}
+
+	private ReactionExtractor(Iterable<Element> orderedHeadingsAndParagraphs) {
+		headingsAndParagraphs = orderedHeadingsAndParagraphs;
+		IndigoHolder.getInstance().setOption("aam-timeout", 15000);
+	}
+
+	/**
+	 * As {@link #ReactionExtractor(List)} but the headings and paragraphs are used directly rather than being copied.
+	 * They must not be shared as they will be modified during extraction.
+	 * The headings and paragraphs are only iterated over once, by {@link #extractReactions()}, and hence may be produced lazily
+	 * e.g. by a {@link dan2097.org.bitbucket.uspto.UsptoPatentReader}
+	 * @param orderedHeadingsAndParagraphs
+	 * @return
+	 */
+	public static ReactionExtractor createWithoutCopyingElements(Iterable<Element> orderedHeadingsAndParagraphs) {
+		return new ReactionExtractor(orderedHeadingsAndParagraphs);
+	}
+
+	private static List<Element> copyElements(List<Element> orderedHeadingsAndParagraphs) {
 		List<Element> headingsAndParagraphsCopy = new ArrayList<Element>();//defensively copy so as to allow modification and rearrangement of the XML
 		for (Element element : orderedHeadingsAndParagraphs) {
 			headingsAndParagraphsCopy.add(new Element(element));
 		}
-		headingsAndParagraphs = headingsAndParagraphsCopy;
-		IndigoHolder.getInstance().setOption("aam-timeout", 15000);
+		return headingsAndParagraphsCopy;
 	}
 	
 	/**
@@ -60,6 +100,146 @@ public class ReactionExtractor {
 		IndigoHolder.getInstance().setOption("aam-timeout", milliseconds);
 	}
 	
+	/**
+	 * Sets the maximum time, in milliseconds, that {@link #extractReactions()} may spend on this document.
+	 * The budget is checked between headings/paragraphs and between reactions, hence an individual
+	 * ChemicalTagger or atom mapping call may overrun it.
+	 * When exceeded, the reactions found so far are retained and {@link #isTruncated()} will return true.
+	 * 0 (the default) indicates no limit
+	 * @param milliseconds
+	 */
+	public void setDocumentTimeBudget(long milliseconds) {
+		this.documentTimeBudget = milliseconds;
+	}
+
+	/**
+	 * Sets the maximum time, in milliseconds, that may be spent atom mapping the reactions from any one paragraph.
+	 * When exceeded, the remaining reactions from that paragraph are still reported by {@link #getAllFoundReactions()}
+	 * but no attempt is made to map them, and {@link #isTruncated()} will return true.
+	 * 0 (the default) indicates no limit
+	 * @param milliseconds
+	 */
+	public void setParagraphTimeBudget(long milliseconds) {
+		this.paragraphTimeBudget = milliseconds;
+	}
+
+	/**
+	 * True if extraction was cut short by the document or paragraph time budget.
+	 * In this case the results only contain the reactions found before the budget was exceeded
+	 * @return
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	/**
+	 * By default the Indigo reaction for each found reaction is kept as the value of the maps returned by
+	 * {@link #getAllCompleteReactions()} and {@link #getAllFoundReactions()}.
+	 * As these hold native memory, when extracting from many documents it is preferable to set this to false,
+	 * in which case the Indigo reactions are freed as soon as they have been processed and the maps' values are null.
+	 * The reaction is instead retained as SMILES and an atom mapped RXN file on the Reaction,
+	 * from which it can be recreated with {@link Utils#loadIndigoReaction(Reaction)}
+	 * @param retainIndigoReactions
+	 */
+	public void setRetainIndigoReactions(boolean retainIndigoReactions) {
+		this.retainIndigoReactions = retainIndigoReactions;
+	}
+
+	/**
+	 * By default each reaction's {@link ReactionProvenance} keeps just the paragraph identifier, text and chemical locations.
+	 * Set to true to also keep the paragraph's ChemicalTagger output as XML, which is many times larger than the paragraph's text
+	 * @param retainTaggedSentences
+	 */
+	public void setRetainTaggedSentences(boolean retainTaggedSentences) {
+		this.retainTaggedSentences = retainTaggedSentences;
+	}
+
+	/**
+	 * Sets a cache from which the reactions of a previously processed document are retrieved without any tagging or atom mapping.
+	 * Reactions are only stored in the cache when extraction was not truncated.
+	 * NOTE the headings and paragraphs are read in full before extraction starts so as to compute the cache key
+	 * @param resultCache
+	 */
+	public void setResultCache(ReactionCache resultCache) {
+		this.resultCache = resultCache;
+	}
+
+	/**
+	 * Obtains the ChemicalTagger output of paragraphs and headings from the given provider rather than always running ChemicalTagger.
+	 * A {@link ParagraphDeduplicator} shares the output of repeated paragraphs with the other extractors using it e.g. when processing the members of a patent family,
+	 * while a {@link TaggedParagraphStore} persists the output so that extraction can be rerun without rerunning ChemicalTagger
+	 * @param taggedDocumentProvider
+	 */
+	public void setTaggedDocumentProvider(TaggedDocumentProvider taggedDocumentProvider) {
+		this.taggedDocumentProvider = taggedDocumentProvider;
+	}
+
+	/**
+	 * Sets the number of threads used to parse experimental sections. 1 (the default) parses each section on the calling thread.
+	 * With more than one thread, sections are parsed concurrently except where a section refers back to an alias or section identifier defined in an earlier section,
+	 * while the calling thread continues to tag subsequent paragraphs and maps the reactions of parsed sections.
+	 * The reactions found, and the order in which they are reported, are the same as when parsing on the calling thread
+	 * (unless the document time budget is exceeded).
+	 * The threads belong to this extractor and are stopped by {@link #close()}; when extracting from many documents
+	 * use {@link #setSectionParsingThreads(ExecutorService)} so that the threads are shared
+	 * @param threads
+	 */
+	public void setSectionParsingThreads(int threads) {
+		if (threads < 1){
+			throw new IllegalArgumentException("At least one thread is required to parse sections");
+		}
+		shutdownOwnedSectionParsingExecutor();
+		if (threads > 1){
+			ThreadPoolExecutor executor = (ThreadPoolExecutor) createSectionParsingExecutor(threads);
+			executor.allowCoreThreadTimeOut(true);//in case the extractor is not closed
+			sectionParsingExecutor = executor;
+			ownsSectionParsingExecutor = true;
+		}
+	}
+
+	/**
+	 * As {@link #setSectionParsingThreads(int)} but sections are parsed by the given executor, which is not shut down by this extractor.
+	 * Sharing one executor between the extractors of many documents avoids starting new threads, each with their own Indigo and OPSIN instances, for every document.
+	 * The executor must start tasks in the order they were submitted e.g. one created by {@link #createSectionParsingExecutor(int)}.
+	 * Null parses each section on the calling thread
+	 * @param executor
+	 */
+	public void setSectionParsingThreads(ExecutorService executor) {
+		shutdownOwnedSectionParsingExecutor();
+		sectionParsingExecutor = executor;
+	}
+
+	/**
+	 * Creates an executor suitable for {@link #setSectionParsingThreads(ExecutorService)} with the given number of daemon threads.
+	 * The caller is responsible for shutting it down
+	 * @param threads
+	 * @return
+	 */
+	public static ExecutorService createSectionParsingExecutor(int threads) {
+		if (threads < 1){
+			throw new IllegalArgumentException("At least one thread is required to parse sections");
+		}
+		return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("section-parser-%d").build());
+	}
+
+	private void shutdownOwnedSectionParsingExecutor() {
+		if (ownsSectionParsingExecutor){
+			sectionParsingExecutor.shutdownNow();
+			ownsSectionParsingExecutor = false;
+		}
+		sectionParsingExecutor = null;
+	}
+
+	/**
+	 * Sets an identifier for the document e.g. its patent number, which is recorded, along with the paragraph identifier,
+	 * on the flight recorder events emitted during extraction (see {@link ExtractionEvents})
+	 * @param documentIdentifier
+	 */
+	public void setDocumentIdentifier(String documentIdentifier) {
+		this.documentIdentifier = documentIdentifier;
+	}
+
 	/**
 	 * Gets all reactions that looks to be chemically reasonable e.g. all product atoms have a corresponding reactant atom
 	 * @return
@@ -81,35 +261,268 @@ public class ReactionExtractor {
 	 * The getter methods of this class will return empty results prior to this being run
 	 */
 	public void extractReactions(){
-		ExperimentalSectionsCreator sectionsCreator = new ExperimentalSectionsCreator(headingsAndParagraphs);
-		List<ExperimentalSection> experimentalSections = sectionsCreator.createSections();
-		for (ExperimentalSection experimentalSection : experimentalSections) {
-			ExperimentalSectionParser sectionParser = new ExperimentalSectionParser(experimentalSection, previousReactionData);
-			List<Reaction> reactions  = sectionParser.parseForReactions();
-			for (Reaction reaction : reactions) {
-				try{
-					IndigoObject indigoReaction = Utils.convertToIndigoReaction(reaction);
-					if (reactionIsSane(reaction, indigoReaction)){
-						if (reactionIsMappable(indigoReaction)){
-							new ReactionStoichiometryDeterminer(reaction, indigoReaction).processReactionStoichiometry();
-							completeReactions.put(reaction, indigoReaction);
-						}
-						else {
-							IndigoObject modifiedReaction = attemptToProduceMappableReactionByRoleReclassification(reaction);
-							if (modifiedReaction != null){
-								indigoReaction = modifiedReaction;
-								new ReactionStoichiometryDeterminer(reaction, indigoReaction).processReactionStoichiometry();
-								completeReactions.put(reaction, indigoReaction);
-							}
-						}
+		extractReactions(new ReactionListener() {
+			public void reactionFound(Reaction reaction, IndigoObject indigoReaction, boolean complete) {
+				if (complete){
+					completeReactions.put(reaction, indigoReaction);
+				}
+				documentReactions.put(reaction, indigoReaction);
+			}
+		});
+	}
+
+	/**
+	 * Performs reaction extraction, passing each reaction to the listener as soon as its experimental section has been processed.
+	 * The reactions are not accumulated, hence the getter methods of this class will not return them
+	 * @param listener
+	 */
+	public void extractReactions(ReactionListener listener){
+		ExtractionEvents.setDocumentIdentifier(documentIdentifier);
+		try{
+			if (resultCache != null){
+				extractReactionsUsingCache(listener);
+			}
+			else{
+				extractReactions(headingsAndParagraphs, listener);
+			}
+		}
+		finally{
+			ExtractionEvents.clearContext();
+		}
+	}
+
+	private void extractReactionsUsingCache(final ReactionListener listener) {
+		List<Element> elements = new ArrayList<Element>();
+		for (Element headingOrParagraph : headingsAndParagraphs) {
+			elements.add(headingOrParagraph);
+		}
+		String key = resultCache.computeKey(elements, retainTaggedSentences);
+		List<ReactionCache.CachedReaction> cachedReactions = resultCache.get(key);
+		if (cachedReactions != null){
+			for (ReactionCache.CachedReaction cachedReaction : cachedReactions) {
+				Reaction reaction = cachedReaction.getReaction();
+				IndigoObject indigoReaction = null;
+				if (retainIndigoReactions){
+					try{
+						indigoReaction = Utils.loadIndigoReaction(reaction);
+					}
+					catch (IndigoException e) {
+						LOG.warn("Indigo threw an exception whilst loading a cached reaction! The reaction has been ignored", e);
+						continue;
+					}
+					reaction.setReactionRxn(null);
+				}
+				listener.reactionFound(reaction, indigoReaction, cachedReaction.isComplete());
+			}
+			return;
+		}
+		final List<ReactionCache.CachedReaction> reactionsToCache = new ArrayList<ReactionCache.CachedReaction>();
+		final boolean[] cacheable = new boolean[]{true};
+		extractReactions(elements, new ReactionListener() {
+			public void reactionFound(Reaction reaction, IndigoObject indigoReaction, boolean complete) {
+				String rxn = reaction.getReactionRxn();
+				if (rxn == null && indigoReaction != null){
+					try{
+						rxn = indigoReaction.rxnfile();
 					}
-					documentReactions.put(reaction, indigoReaction);
-					reaction.setReactionSmiles(indigoReaction.smiles());
+					catch (IndigoException e) {
+						cacheable[0] = false;
+					}
+				}
+				reactionsToCache.add(new ReactionCache.CachedReaction(copyForCache(reaction, rxn), complete));
+				listener.reactionFound(reaction, indigoReaction, complete);
+			}
+		});
+		if (!truncated && cacheable[0]){
+			resultCache.put(key, reactionsToCache);
+		}
+	}
+
+	/**
+	 * A shallow copy of the reaction with the given RXN file, so that the RXN file is not retained by
+	 * the caller's reaction when live Indigo reactions are being retained
+	 * @param reaction
+	 * @param rxn
+	 * @return
+	 */
+	private Reaction copyForCache(Reaction reaction, String rxn) {
+		Reaction copy = new Reaction();
+		copy.importReaction(reaction);
+		copy.setProvenance(reaction.getProvenance());
+		copy.setReactionSmiles(reaction.getReactionSmiles());
+		copy.setReactionRxn(rxn);
+		return copy;
+	}
+
+	private void extractReactions(Iterable<Element> headingsAndParagraphs, ReactionListener listener){
+		Deadline documentDeadline = Deadline.after(documentTimeBudget);
+		ExperimentalSectionsCreator sectionsCreator = new ExperimentalSectionsCreator();
+		sectionsCreator.setTaggedDocumentProvider(taggedDocumentProvider);
+		List<ExperimentalSection> experimentalSections = sectionsCreator.getCompletedSections();
+		ExperimentalSectionScheduler scheduler = sectionParsingExecutor != null ? new ExperimentalSectionScheduler(previousReactionData, sectionParsingExecutor) : null;
+		try{
+			int sectionsParsed = 0;
+			for (Element headingOrParagraph : headingsAndParagraphs) {
+				if (documentDeadline.hasExpired()){
+					break;
 				}
-				catch (IndigoException e) {
-					LOG.warn("Indigo threw an exception whilst handling an extracted reaction! The reaction has been ignored", e);
+				sectionsCreator.processHeadingOrParagraph(headingOrParagraph);
+				sectionsParsed = parseNewSections(experimentalSections, sectionsParsed, documentDeadline, listener, scheduler, false);
+			}
+			if (documentDeadline.hasExpired()){
+				LOG.debug("Document time budget exceeded, reaction extraction was truncated");
+				truncated = true;
+				return;
+			}
+			sectionsCreator.finishSections();
+			parseNewSections(experimentalSections, sectionsParsed, documentDeadline, listener, scheduler, true);
+		}
+		finally{
+			if (scheduler != null){
+				scheduler.abandonPendingSections();
+			}
+		}
+	}
+
+	/**
+	 * Parses and maps the reactions of every section from index sectionsParsed onwards.
+	 * If a scheduler is provided the sections are instead submitted to it, and the reactions of those sections that have been parsed are mapped.
+	 * When lastSections is true this waits for all submitted sections to be parsed.
+	 * Returns the number of sections that have now been parsed (or submitted)
+	 * @param experimentalSections
+	 * @param sectionsParsed
+	 * @param documentDeadline
+	 * @param listener
+	 * @param scheduler
+	 * @param lastSections
+	 * @return
+	 */
+	private int parseNewSections(List<ExperimentalSection> experimentalSections, int sectionsParsed, Deadline documentDeadline, ReactionListener listener, ExperimentalSectionScheduler scheduler, boolean lastSections) {
+		if (scheduler != null){
+			for (; sectionsParsed < experimentalSections.size(); sectionsParsed++) {
+				scheduler.submit(experimentalSections.get(sectionsParsed));
+			}
+			List<Reaction> reactions;
+			while ((reactions = scheduler.takeParsedSection(lastSections)) != null) {
+				if (documentDeadline.hasExpired()){
+					truncated = true;
+					break;
 				}
+				processSectionReactions(reactions, documentDeadline, listener);
 			}
+			return sectionsParsed;
+		}
+		for (; sectionsParsed < experimentalSections.size(); sectionsParsed++) {
+			if (documentDeadline.hasExpired()){
+				truncated = true;
+				break;
+			}
+			ExperimentalSectionParser sectionParser = new ExperimentalSectionParser(experimentalSections.get(sectionsParsed), previousReactionData);
+			processSectionReactions(sectionParser.parseForReactions(), documentDeadline, listener);
+		}
+		return sectionsParsed;
+	}
+
+	/**
+	 * Maps the given reactions, which were parsed by other means e.g. by an {@link ExtractionPipeline} or from a lone paragraph
+	 * using {@link Utils#createExperimentalSectionParser(String, String)}, passing each to the listener.
+	 * The document time budget applies from when this is called
+	 * @param reactions
+	 * @param listener
+	 */
+	public void mapReactions(List<Reaction> reactions, ReactionListener listener) {
+		mapReactions(reactions, listener, Deadline.after(documentTimeBudget));
+	}
+
+	/**
+	 * As {@link #mapReactions(List, ReactionListener)} but bounded by the given deadline, rather than the document time budget,
+	 * so that time already spent on the document e.g. in the earlier stages of an {@link ExtractionPipeline} counts towards it
+	 * @param reactions
+	 * @param listener
+	 * @param documentDeadline
+	 */
+	void mapReactions(List<Reaction> reactions, ReactionListener listener, Deadline documentDeadline) {
+		processSectionReactions(reactions, documentDeadline, listener);
+	}
+
+	private void processSectionReactions(List<Reaction> reactions, Deadline documentDeadline, ReactionListener listener) {
+		Paragraph currentParagraph = null;
+		Deadline paragraphDeadline = documentDeadline;
+		for (Reaction reaction : reactions) {
+			if (documentDeadline.hasExpired()){
+				truncated = true;
+				break;
+			}
+			if (reaction.getInput() != currentParagraph){
+				currentParagraph = reaction.getInput();
+				paragraphDeadline = Deadline.after(paragraphTimeBudget).earliest(documentDeadline);
+				if (currentParagraph != null){
+					ExtractionEvents.setParagraph(currentParagraph.getIdentifier(), currentParagraph.getText().length());
+				}
+			}
+			processReaction(reaction, paragraphDeadline, listener);
+		}
+	}
+
+	private void processReaction(Reaction reaction, Deadline deadline, ReactionListener listener) {
+		reaction.createProvenance(retainTaggedSentences);
+		IndigoObject indigoReaction = null;
+		boolean complete = false;
+		try{
+			indigoReaction = Utils.convertToIndigoReaction(reaction);
+			if (deadline.hasExpired()){
+				truncated = true;
+			}
+			else if (reactionIsSane(reaction, indigoReaction)){
+				if (reactionIsMappable(indigoReaction)){
+					new ReactionStoichiometryDeterminer(reaction, indigoReaction).processReactionStoichiometry();
+					complete = true;
+				}
+				else {
+					IndigoObject modifiedReaction = attemptToProduceMappableReactionByRoleReclassification(reaction, deadline);
+					if (modifiedReaction != null){
+						IndigoScope.disposeQuietly(indigoReaction);
+						indigoReaction = modifiedReaction;
+						new ReactionStoichiometryDeterminer(reaction, indigoReaction).processReactionStoichiometry();
+						complete = true;
+					}
+				}
+			}
+			reaction.setReactionSmiles(indigoReaction.smiles());
+			if (!retainIndigoReactions){
+				reaction.setReactionRxn(indigoReaction.rxnfile());
+			}
+		}
+		catch (IndigoException e) {
+			LOG.warn("Indigo threw an exception whilst handling an extracted reaction! The reaction has been ignored", e);
+			IndigoScope.disposeQuietly(indigoReaction);
+			return;
+		}
+		if (retainIndigoReactions){
+			listener.reactionFound(reaction, indigoReaction, complete);
+		}
+		else{
+			IndigoScope.disposeQuietly(indigoReaction);
+			listener.reactionFound(reaction, null, complete);
+		}
+	}
+
+	/**
+	 * Frees the native memory of the Indigo reactions held by this extractor, and stops any section parsing threads created by {@link #setSectionParsingThreads(int)}.
+	 * The Reaction objects remain available but the Indigo reactions in the result maps are replaced by null
+	 */
+	public void close() {
+		shutdownOwnedSectionParsingExecutor();
+		Set<IndigoObject> indigoReactions = Collections.newSetFromMap(new IdentityHashMap<IndigoObject, Boolean>());
+		indigoReactions.addAll(documentReactions.values());
+		for (Reaction reaction : new ArrayList<Reaction>(documentReactions.keySet())) {
+			documentReactions.put(reaction, null);
+		}
+		for (Reaction reaction : new ArrayList<Reaction>(completeReactions.keySet())) {
+			completeReactions.put(reaction, null);
+		}
+		for (IndigoObject indigoReaction : indigoReactions) {
+			IndigoScope.disposeQuietly(indigoReaction);
 		}
 	}
 
@@ -117,21 +530,26 @@ public class ReactionExtractor {
 	 * Attempts to reclassify a solvent as a reactant to fully map the reaction
 	 * The output is an indigo reaction of the modified reaction
 	 * NOTE if this function is successful the input Reaction will have been modified
+	 * Returns null if no such reclassification was found before the deadline
 	 * @param reaction
+	 * @param deadline
 	 * @return
 	 */
-	private IndigoObject attemptToProduceMappableReactionByRoleReclassification(Reaction reaction) {
-		Set<String> seenInChIs = new HashSet<String>();
+	private IndigoObject attemptToProduceMappableReactionByRoleReclassification(Reaction reaction, Deadline deadline) {
+		LongHashSet seenStructures = new LongHashSet();
 		List<Chemical> spectators = reaction.getSpectators();
 		for (int i = 0; i < spectators.size(); i++) {
+			if (deadline.hasExpired()){
+				truncated = true;
+				return null;
+			}
 			Chemical spectator = spectators.get(i);
 			if (spectator.hasInchi() && spectator.getRole().equals(ChemicalRole.solvent) &&
-					!seenInChIs.contains(spectator.getInchi())){
-				String inchi = spectator.getInchi();
-				seenInChIs.add(inchi);
+					seenStructures.add(spectator.getStructureId())){
+				long structureId = spectator.getStructureId();
 				List<Chemical> solventsToRecategorise = new ArrayList<Chemical>();
 				for (Chemical solventToRecategorise : spectators) {
-					if (inchi.equals(solventToRecategorise.getInchi())){
+					if (structureId == solventToRecategorise.getStructureId()){
 						solventsToRecategorise.add(solventToRecategorise);
 					}
 				}
@@ -160,6 +578,7 @@ public class ReactionExtractor {
 					}
 					return indigoReaction;
 				}
+				IndigoScope.disposeQuietly(indigoReaction);
 			}
 		}
 		return null;
@@ -201,23 +620,23 @@ public class ReactionExtractor {
 	 * @return
 	 */
 	private boolean reagentsContainProducts(Reaction reaction) {
-		List<Chemical> products =reaction.getProducts();
-		Set<String> productInChIs = new HashSet<String>();
-		for (Chemical product : products) {
-			if (product.getInchi() != null){
-				productInChIs.add(product.getInchi());
-			}
-		}
-		if (productInChIs.isEmpty()){
-			return false;
-		}
+		LongHashSet reagentStructures = new LongHashSet(reaction.getReactants().size() + reaction.getSpectators().size());
 		for (Chemical reactant : reaction.getReactants()) {
-			productInChIs.remove(reactant.getInchi());
+			reagentStructures.add(reactant.getStructureId());
 		}
 		for (Chemical spectator : reaction.getSpectators()) {
-			productInChIs.remove(spectator.getInchi());
+			reagentStructures.add(spectator.getStructureId());
+		}
+		boolean hasProductWithInChI = false;
+		for (Chemical product : reaction.getProducts()) {
+			if (product.hasInchi()){
+				if (!reagentStructures.contains(product.getStructureId())){
+					return false;
+				}
+				hasProductWithInChI = true;
+			}
 		}
-		return productInChIs.isEmpty();
+		return hasProductWithInChI;
 	}
 
 	private static List<Element> getHeadingsAndParagraphsFromUSPTOPatent(Document usptoPatentDoc) {
@@ -0,0 +1,23 @@
+package dan2097.org.bitbucket.reactionextraction;
+
+import com.ggasoftware.indigo.IndigoObject;
+
+/**
+ * Receives reactions from {@link ReactionExtractor#extractReactions(ReactionListener)}
+ * as soon as the experimental section they were found in has been parsed and its reactions mapped
+ * @author dl387
+ *
+ */
+public interface ReactionListener {
+
+	/**
+	 * Called once for every reaction found, in document order.
+	 * The extractor does not retain the reaction after this returns.
+	 * indigoReaction is null if the extractor was told not to retain Indigo reactions,
+	 * otherwise the listener is responsible for it (including freeing it when done)
+	 * @param reaction
+	 * @param indigoReaction
+	 * @param complete true if all product atoms could be mapped to reactant atoms, see {@link ReactionExtractor#getAllCompleteReactions()}
+	 */
+	void reactionFound(Reaction reaction, IndigoObject indigoReaction, boolean complete);
+}
@@ -5,6 +5,9 @@ import org.apache.log4j.Logger;
 import com.ggasoftware.indigo.Indigo;
 import com.ggasoftware.indigo.IndigoObject;
 
+import dan2097.org.bitbucket.utility.ExtractionEvents;
+import dan2097.org.bitbucket.utility.ExtractionEvents.Operation;
+
 public class ReactionMapper {
 	private static final Logger LOG = Logger.getLogger(ReactionMapper.class);
 
@@ -21,29 +24,37 @@ public class ReactionMapper {
 	 * @return
 	 */
 	public boolean mapReaction() {
-		if (reaction.countProducts() == 0 || reaction.countReactants() == 0){
-			return false;
-		}
-		for (IndigoObject m: reaction.iterateMolecules()){
-			for (IndigoObject b: m.iterateBonds()){
-				reaction.setReactingCenter(b, Indigo.RC_UNCHANGED | Indigo.RC_ORDER_CHANGED | Indigo.RC_MADE_OR_BROKEN);
-			}
-		}
+		ExtractionEvents.Span span = ExtractionEvents.begin(Operation.atomMapping);
 		try{
-			reaction.automap("discard ignore_charges ignore_valence");
-		}
-		catch (Exception e) {
-			LOG.error("Indigo reaction mapping failed", e);
-			return false;
-		}
-		finally {
+			if (reaction.countProducts() == 0 || reaction.countReactants() == 0){
+				span.setOutcome("noReactantsOrProducts");
+				return false;
+			}
 			for (IndigoObject m: reaction.iterateMolecules()){
 				for (IndigoObject b: m.iterateBonds()){
-					reaction.setReactingCenter(b, Indigo.RC_UNCHANGED);
+					reaction.setReactingCenter(b, Indigo.RC_UNCHANGED | Indigo.RC_ORDER_CHANGED | Indigo.RC_MADE_OR_BROKEN);
 				}
 			}
+			try{
+				reaction.automap("discard ignore_charges ignore_valence");
+			}
+			catch (Exception e) {
+				LOG.error("Indigo reaction mapping failed", e);
+				return false;
+			}
+			finally {
+				for (IndigoObject m: reaction.iterateMolecules()){
+					for (IndigoObject b: m.iterateBonds()){
+						reaction.setReactingCenter(b, Indigo.RC_UNCHANGED);
+					}
+				}
+			}
+			span.setOutcome("mapped");
+			return true;
+		}
+		finally{
+			span.end();
 		}
-		return true;
 	}
 	
 	public boolean allProductAtomsAreMapped() {
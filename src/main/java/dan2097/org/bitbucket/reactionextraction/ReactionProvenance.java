@@ -0,0 +1,172 @@
+package dan2097.org.bitbucket.reactionextraction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where a reaction came from: the identifier and text of its paragraph, the location in that text of each of
+ * the reaction's chemicals and optionally the paragraph's ChemicalTagger output serialised as XML.
+ * Retained by a Reaction in place of the Paragraph so that the paragraph's tagged XOM document can be released after parsing
+ * @author dl387
+ *
+ */
+public class ReactionProvenance {
+
+	private final String identifier;
+	private final String text;
+	private final String taggedSentencesXml;
+	private final List<ChemicalMention> chemicalMentions;
+
+	/**
+	 * The location of a chemical's name within the paragraph text
+	 */
+	public static class ChemicalMention {
+		private final Chemical chemical;
+		private final int start;
+		private final int end;
+
+		ChemicalMention(Chemical chemical, int start, int end) {
+			this.chemical = chemical;
+			this.start = start;
+			this.end = end;
+		}
+
+		public Chemical getChemical() {
+			return chemical;
+		}
+
+		/**
+		 * Offset of the first character of the mention, or -1 if the name could not be located in the text
+		 * @return
+		 */
+		public int getStart() {
+			return start;
+		}
+
+		/**
+		 * Offset after the last character of the mention, or -1 if the name could not be located in the text
+		 * @return
+		 */
+		public int getEnd() {
+			return end;
+		}
+	}
+
+	ReactionProvenance(String identifier, String text, String taggedSentencesXml, List<ChemicalMention> chemicalMentions) {
+		this.identifier = identifier;
+		this.text = text;
+		this.taggedSentencesXml = taggedSentencesXml;
+		this.chemicalMentions = Collections.unmodifiableList(chemicalMentions);
+	}
+
+	/**
+	 * Creates the provenance of the given reaction which was found in the given paragraph
+	 * @param paragraph
+	 * @param reaction
+	 * @param retainTaggedSentences whether to keep the paragraph's ChemicalTagger output as XML
+	 * @return
+	 */
+	static ReactionProvenance createProvenance(Paragraph paragraph, Reaction reaction, boolean retainTaggedSentences) {
+		String text = paragraph.getText();
+		List<ChemicalMention> mentions = new ArrayList<ChemicalMention>();
+		Map<String, Integer> nameToSearchStart = new HashMap<String, Integer>();
+		List<Chemical> chemicals = new ArrayList<Chemical>();
+		chemicals.addAll(reaction.getProducts());
+		chemicals.addAll(reaction.getReactants());
+		chemicals.addAll(reaction.getSpectators());
+		for (Chemical chemical : chemicals) {
+			String name = chemical.getName();
+			Integer searchStart = nameToSearchStart.get(name);
+			int[] location = findIgnoringWhitespace(text, name, searchStart != null ? searchStart : 0);
+			if (location == null && searchStart != null){
+				location = findIgnoringWhitespace(text, name, 0);
+			}
+			if (location != null){
+				nameToSearchStart.put(name, location[1]);
+				mentions.add(new ChemicalMention(chemical, location[0], location[1]));
+			}
+			else{
+				mentions.add(new ChemicalMention(chemical, -1, -1));
+			}
+		}
+		return new ReactionProvenance(paragraph.getIdentifier(), text, retainTaggedSentences ? paragraph.getTaggedSentencesXml() : null, mentions);
+	}
+
+	/**
+	 * Finds the name in the text, treating whitespace as insignificant as ChemicalTagger's tokenisation
+	 * may add or remove whitespace from a name.
+	 * Returns the start and end offsets in the text or null if not found
+	 * @param text
+	 * @param name
+	 * @param fromIndex
+	 * @return
+	 */
+	static int[] findIgnoringWhitespace(String text, String name, int fromIndex) {
+		if (name == null || name.trim().length() == 0){
+			return null;
+		}
+		int textLength = text.length();
+		int nameLength = name.length();
+		for (int start = fromIndex; start < textLength; start++) {
+			if (Character.isWhitespace(text.charAt(start))){
+				continue;
+			}
+			int i = start;
+			int j = 0;
+			while (j < nameLength) {
+				if (Character.isWhitespace(name.charAt(j))){
+					j++;
+				}
+				else if (i < textLength && Character.isWhitespace(text.charAt(i))){
+					i++;
+				}
+				else if (i < textLength && text.charAt(i) == name.charAt(j)){
+					i++;
+					j++;
+				}
+				else{
+					break;
+				}
+			}
+			if (j == nameLength){
+				return new int[]{start, i};
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the unique identifier of the paragraph the reaction was found in (or null if not set)
+	 * @return
+	 */
+	public String getIdentifier() {
+		return identifier;
+	}
+
+	/**
+	 * The text of the paragraph the reaction was found in
+	 * @return
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * The paragraph as tagged by ChemicalTagger serialised as XML, or null if this was not retained
+	 * @return
+	 */
+	public String getTaggedSentencesXml() {
+		return taggedSentencesXml;
+	}
+
+	/**
+	 * The location in the paragraph text of each of the reaction's products, reactants and spectators in that order
+	 * @return
+	 */
+	public List<ChemicalMention> getChemicalMentions() {
+		return chemicalMentions;
+	}
+}
@@ -0,0 +1,59 @@
+package dan2097.org.bitbucket.reactionextraction;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The aliases and section identifiers that parsing an experimental section may define in, or look up from, the {@link PreviousReactionData}.
+ * Each is held as a key prefixed by its type so that an alias cannot be confused with a section identifier
+ * @author dl387
+ *
+ */
+class SectionDependencies {
+
+	private static final String ALIAS_PREFIX = "alias:";
+	private static final String SECTION_PREFIX = "section:";
+
+	private final Set<String> definedKeys = new HashSet<String>();
+	private final Set<String> referencedKeys = new HashSet<String>();
+
+	void addDefinedAlias(String alias) {
+		if (alias != null){
+			definedKeys.add(ALIAS_PREFIX + alias);
+		}
+	}
+
+	void addReferencedAlias(String alias) {
+		if (alias != null){
+			referencedKeys.add(ALIAS_PREFIX + alias);
+		}
+	}
+
+	void addDefinedSection(String sectionIdentifier) {
+		if (sectionIdentifier != null){
+			definedKeys.add(SECTION_PREFIX + sectionIdentifier);
+		}
+	}
+
+	void addReferencedSection(String sectionIdentifier) {
+		if (sectionIdentifier != null){
+			referencedKeys.add(SECTION_PREFIX + sectionIdentifier);
+		}
+	}
+
+	/**
+	 * The aliases and section identifiers that may be recorded
+	 * @return
+	 */
+	Set<String> getDefinedKeys() {
+		return definedKeys;
+	}
+
+	/**
+	 * The aliases and section identifiers that may be looked up
+	 * @return
+	 */
+	Set<String> getReferencedKeys() {
+		return referencedKeys;
+	}
+}
@@ -0,0 +1,19 @@
+package dan2097.org.bitbucket.reactionextraction;
+
+import nu.xom.Document;
+
+/**
+ * A source of ChemicalTagger output, that may avoid rerunning ChemicalTagger on text that has previously been tagged
+ * @author dl387
+ *
+ */
+public interface TaggedDocumentProvider {
+
+	/**
+	 * Returns the result of running ChemicalTagger on the given text.
+	 * The returned document may be freely modified by the caller
+	 * @param text
+	 * @return
+	 */
+	Document getTaggedDocument(String text);
+}
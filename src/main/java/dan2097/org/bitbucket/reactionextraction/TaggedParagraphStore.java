@@ -0,0 +1,372 @@
+package dan2097.org.bitbucket.reactionextraction;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import nu.xom.Document;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import dan2097.org.bitbucket.utility.TaggedDocumentCodec;
+import dan2097.org.bitbucket.utility.Utils;
+
+/**
+ * An append-only file of ChemicalTagger output, keyed by a 128-bit hash of the tagged text, allowing reaction extraction to be rerun
+ * (e.g. after changing the parsing heuristics) without rerunning ChemicalTagger.
+ * Each tagged document is stored using the compact {@link TaggedDocumentCodec} encoding and read back from memory mapped windows of the file.
+ *
+ * The file begins with a header containing a fingerprint of the tagging resources (stop words, trivial name dictionary);
+ * opening a store with a different fingerprint fails, as its content would no longer match what ChemicalTagger would produce.
+ * The store should similarly be recreated after upgrading ChemicalTagger, OSCAR or OPSIN.
+ * Each record is: the hash of the text (16 bytes), the length of the encoded document, a CRC32 of the encoded document and then the encoded document.
+ * A partially written final record, as left by a killed process, is discarded on opening.
+ *
+ * This class is thread safe
+ * @author dl387
+ *
+ */
+public class TaggedParagraphStore implements TaggedDocumentProvider, Closeable {
+
+	private static final Logger LOG = Logger.getLogger(TaggedParagraphStore.class);
+
+	private static final int MAGIC = 0x54505331;//TPS1
+	/**Increment when the encoding of the tagged documents changes*/
+	private static final int FORMAT_VERSION = 1;
+	private static final String[] TAGGING_RESOURCE_LOCATIONS = new String[]{
+		"/dan2097/org/bitbucket/chemicaltagging/stopWords.txt",
+		"/dan2097/org/bitbucket/chemicaltagging/trivialNameDictionary.txt"
+	};
+	private static final int RECORD_HEADER_SIZE = 16 + 4 + 4;
+	/**Size of each mapped window of the file. Windows overlap by the maximum record size so that any record can be read from a single window*/
+	private static final int WINDOW_SIZE = 1 << 28;
+	private static final int MAX_RECORD_SIZE = 1 << 26;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final long dataStart;
+	private final Map<TextHash, Long> hashToOffset = new HashMap<TextHash, Long>();
+	private final Map<Integer, MappedByteBuffer> windows = new HashMap<Integer, MappedByteBuffer>();
+	private long size;
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * The 128-bit hash of a paragraph's text
+	 */
+	private static final class TextHash {
+		private final long high;
+		private final long low;
+
+		TextHash(long high, long low) {
+			this.high = high;
+			this.low = low;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (high ^ (high >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof TextHash)){
+				return false;
+			}
+			TextHash other = (TextHash) obj;
+			return high == other.high && low == other.low;
+		}
+	}
+
+	/**
+	 * Opens (creating if necessary) the store in the given file and indexes its records
+	 * @param file
+	 * @throws IOException
+	 */
+	public TaggedParagraphStore(File file) throws IOException {
+		this.file = file;
+		this.raf = new RandomAccessFile(file, "rw");
+		this.channel = raf.getChannel();
+		try{
+			byte[] fingerprint = getTaggingFingerprint().getBytes(Charsets.UTF_8);
+			if (channel.size() == 0){
+				ByteBuffer header = ByteBuffer.allocate(12 + fingerprint.length);
+				header.putInt(MAGIC);
+				header.putInt(FORMAT_VERSION);
+				header.putInt(fingerprint.length);
+				header.put(fingerprint);
+				header.flip();
+				channel.write(header, 0);
+			}
+			else{
+				checkHeader(fingerprint);
+			}
+			dataStart = 12 + fingerprint.length;
+			size = indexRecords();
+			if (size < channel.size()){
+				LOG.warn("Discarding a partially written record at the end of " + file);
+				channel.truncate(size);
+			}
+		}
+		catch (IOException e) {
+			IOUtils.closeQuietly(raf);
+			throw e;
+		}
+		catch (RuntimeException e) {
+			IOUtils.closeQuietly(raf);
+			throw e;
+		}
+	}
+
+	private void checkHeader(byte[] expectedFingerprint) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(12 + expectedFingerprint.length);
+		channel.read(header, 0);
+		header.flip();
+		if (header.remaining() < 12 || header.getInt() != MAGIC){
+			throw new IOException(file + " is not a tagged paragraph store");
+		}
+		int formatVersion = header.getInt();
+		int fingerprintLength = header.getInt();
+		byte[] fingerprint = new byte[Math.min(fingerprintLength, header.remaining())];
+		header.get(fingerprint);
+		if (formatVersion != FORMAT_VERSION || !new String(fingerprint, Charsets.UTF_8).equals(new String(expectedFingerprint, Charsets.UTF_8))){
+			throw new IllegalStateException(file + " was created with a different version of the tagging resources and should be deleted");
+		}
+	}
+
+	/**
+	 * Identifies the resources used by the customised ChemicalTagger configuration
+	 * @return
+	 */
+	static String getTaggingFingerprint() {
+		Hasher hasher = Hashing.sha256().newHasher();
+		for (String location : TAGGING_RESOURCE_LOCATIONS) {
+			InputStream is = TaggedParagraphStore.class.getResourceAsStream(location);
+			if (is == null){
+				throw new RuntimeException("Failed to read " + location);
+			}
+			try{
+				hasher.putBytes(IOUtils.toByteArray(is));
+			}
+			catch (IOException e) {
+				throw new RuntimeException("Failed to read " + location, e);
+			}
+			finally{
+				IOUtils.closeQuietly(is);
+			}
+		}
+		return hasher.hash().toString();
+	}
+
+	/**
+	 * Reads the header of each record, populating the index.
+	 * Returns the offset after the last complete record
+	 * @return
+	 * @throws IOException
+	 */
+	private long indexRecords() throws IOException {
+		long fileSize = channel.size();
+		long offset = dataStart;
+		ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+		while (offset + RECORD_HEADER_SIZE <= fileSize) {
+			recordHeader.clear();
+			channel.read(recordHeader, offset);
+			recordHeader.flip();
+			TextHash hash = new TextHash(recordHeader.getLong(), recordHeader.getLong());
+			int length = recordHeader.getInt();
+			if (length < 0 || length > MAX_RECORD_SIZE || offset + RECORD_HEADER_SIZE + length > fileSize){
+				break;
+			}
+			hashToOffset.put(hash, offset);
+			offset += RECORD_HEADER_SIZE + length;
+		}
+		return offset;
+	}
+
+	/**
+	 * Returns the stored ChemicalTagger output for the given text, running ChemicalTagger and storing its output if there is none
+	 */
+	public Document getTaggedDocument(String text) {
+		Document taggedDoc = get(text);
+		if (taggedDoc == null){
+			taggedDoc = Utils.runChemicalTagger(text);
+			try{
+				put(text, taggedDoc);
+			}
+			catch (IOException e) {
+				LOG.warn("Failed to store tagged paragraph in " + file, e);
+			}
+		}
+		return taggedDoc;
+	}
+
+	/**
+	 * Returns the stored ChemicalTagger output for the given text, or null if there is none
+	 * @param text
+	 * @return
+	 */
+	public Document get(String text) {
+		TextHash hash = hash(text);
+		ByteBuffer record;
+		long offset;
+		synchronized (this) {
+			Long recordOffset = hashToOffset.get(hash);
+			if (recordOffset == null){
+				misses++;
+				return null;
+			}
+			offset = recordOffset;
+			try{
+				record = getRecord(offset);
+			}
+			catch (IOException e) {
+				LOG.warn("Failed to read tagged paragraph from " + file, e);
+				misses++;
+				return null;
+			}
+			if (record.getLong() != hash.high || record.getLong() != hash.low){
+				misses++;
+				return null;
+			}
+			hits++;
+		}
+		int length = record.getInt();
+		int checksum = record.getInt();
+		ByteBuffer encoded = record.slice();
+		encoded.limit(length);
+		if (checksum != crc(encoded.duplicate())){
+			LOG.warn("Ignoring corrupt tagged paragraph in " + file);
+			synchronized (this) {
+				//allow the paragraph to be stored again
+				if (Long.valueOf(offset).equals(hashToOffset.get(hash))){
+					hashToOffset.remove(hash);
+				}
+			}
+			return null;
+		}
+		return TaggedDocumentCodec.decode(encoded);
+	}
+
+	/**
+	 * Appends the ChemicalTagger output for the given text to the store, unless output for the text is already stored
+	 * @param text
+	 * @param taggedDoc
+	 * @throws IOException
+	 */
+	public void put(String text, Document taggedDoc) throws IOException {
+		TextHash hash = hash(text);
+		synchronized (this) {
+			if (hashToOffset.containsKey(hash)){
+				return;
+			}
+		}
+		byte[] encoded = TaggedDocumentCodec.encode(taggedDoc);
+		if (encoded.length > MAX_RECORD_SIZE){
+			throw new IllegalArgumentException("Tagged document is too large to store");
+		}
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + encoded.length);
+		record.putLong(hash.high);
+		record.putLong(hash.low);
+		record.putInt(encoded.length);
+		record.putInt(crc(ByteBuffer.wrap(encoded)));
+		record.put(encoded);
+		record.flip();
+		synchronized (this) {
+			if (hashToOffset.containsKey(hash)){
+				return;//stored by another thread whilst this one was encoding
+			}
+			long offset = size;
+			while (record.hasRemaining()) {
+				channel.write(record, offset + record.position());
+			}
+			size += record.limit();
+			hashToOffset.put(hash, offset);
+		}
+	}
+
+	/**
+	 * A buffer positioned at the start of the record at the given offset
+	 * @param offset
+	 * @return
+	 * @throws IOException
+	 */
+	private ByteBuffer getRecord(long offset) throws IOException {
+		int windowIndex = (int) (offset / WINDOW_SIZE);
+		long windowStart = (long) windowIndex * WINDOW_SIZE;
+		MappedByteBuffer window = windows.get(windowIndex);
+		int positionInWindow = (int) (offset - windowStart);
+		if (window == null || !recordIsWithin(window, positionInWindow)){
+			//(re)map as the window may have been mapped before the record was appended
+			long windowLength = Math.min(size - windowStart, (long) WINDOW_SIZE + MAX_RECORD_SIZE + RECORD_HEADER_SIZE);
+			window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowLength);
+			windows.put(windowIndex, window);
+		}
+		ByteBuffer record = window.duplicate();
+		record.position(positionInWindow);
+		return record;
+	}
+
+	private static boolean recordIsWithin(ByteBuffer window, int position) {
+		if (position + RECORD_HEADER_SIZE > window.limit()){
+			return false;
+		}
+		int length = window.getInt(position + 16);
+		return position + RECORD_HEADER_SIZE + length <= window.limit();
+	}
+
+	private static TextHash hash(String text) {
+		ByteBuffer hash = ByteBuffer.wrap(Hashing.murmur3_128().hashString(text, Charsets.UTF_8).asBytes());
+		return new TextHash(hash.getLong(), hash.getLong());
+	}
+
+	private static int crc(ByteBuffer buffer) {
+		CRC32 crc = new CRC32();
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		crc.update(bytes);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * The number of tagged documents in the store
+	 * @return
+	 */
+	public synchronized int getParagraphCount() {
+		return hashToOffset.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Forces any appended records to be written to disk
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException {
+		channel.force(false);
+	}
+
+	public synchronized void close() throws IOException {
+		windows.clear();
+		raf.close();
+	}
+}
@@ -0,0 +1,843 @@
+package dan2097.org.bitbucket.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nu.xom.Element;
+import nu.xom.ParsingException;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.log4j.Logger;
+
+import com.ggasoftware.indigo.IndigoObject;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import dan2097.org.bitbucket.reactionextraction.Chemical;
+import dan2097.org.bitbucket.reactionextraction.Reaction;
+import dan2097.org.bitbucket.reactionextraction.ReactionExtractor;
+import dan2097.org.bitbucket.reactionextraction.ReactionListener;
+import dan2097.org.bitbucket.reactionextraction.ReactionProvenance;
+import dan2097.org.bitbucket.utility.IndigoHolder;
+import dan2097.org.bitbucket.utility.OscarReliantFunctionality;
+import dan2097.org.bitbucket.utility.ParagraphClassifierHolder;
+import dan2097.org.bitbucket.utility.Utils;
+import dan2097.org.bitbucket.uspto.UsptoPatentReader;
+
+/**
+ * A long running HTTP service that extracts reactions, so that the start up cost of the chemical name recognition, paragraph classification,
+ * name dictionaries and Indigo is paid once rather than on every invocation.
+ * Before accepting requests the singletons are initialised and reactions are extracted from a built in paragraph on every extraction thread,
+ * and from any given warm up documents, so that the JIT has compiled the extraction code.
+ *
+ * POST /extract/paragraph with the paragraph's text as the body, and optionally its heading as the title parameter,
+ * treats the paragraph as an experimental section (see {@link Utils#createExperimentalSectionParser(String, String)}).
+ * POST /extract/patent with a USPTO patent's XML as the body extracts from the whole patent as {@link ReactionExtractor} does.
+ * The format parameter selects a CML reaction list (the default) or JSON.
+ * Request bodies larger than {@link #setMaxRequestSize(long)} are rejected with status 413.
+ * {@link #main(String[])} only listens on the loopback interface; the service does not authenticate requests so should not be directly exposed.
+ *
+ * Requests waiting to be dispatched are batched and byte-identical requests in a batch are extracted once. This only saves work when
+ * the same request is repeated, e.g. by clients retrying, and by default no time is spent waiting for such requests, see {@link #setBatchWindow(long)}.
+ * Extractions waiting for an extraction thread are started paragraphs first, then in the order they were dispatched,
+ * so that interactive requests are not held up behind whole patents
+ * @author dl387
+ *
+ */
+public class ExtractionService implements Closeable {
+
+	private static final Logger LOG = Logger.getLogger(ExtractionService.class);
+
+	private static final String CML_NAMESPACE = "http://www.xml-cml.org/schema";
+	private static final String WARM_UP_TITLE = "Methyl 4-nitrobenzoate";
+	private static final String WARM_UP_PARAGRAPH = "To a solution of 4-nitrobenzoic acid (1.67 g, 10 mmol) in methanol (20 ml) was added concentrated sulfuric acid (0.5 ml). " +
+			"The mixture was heated at reflux for 16 hours, cooled and concentrated in vacuo. The residue was partitioned between ethyl acetate and saturated aqueous sodium bicarbonate " +
+			"and the organic layer dried over magnesium sulfate and evaporated to give methyl 4-nitrobenzoate (1.72 g, 95%) as a white solid.";
+
+	public enum Format {
+		cml,
+		json
+	}
+
+	/**
+	 * In the order in which queued extractions are started
+	 */
+	private enum RequestType {
+		paragraph,
+		patent
+	}
+
+	/**
+	 * The reactions extracted for a request
+	 */
+	static class ExtractedReactions {
+		private final Map<Reaction, Boolean> reactionToCompleteness = new LinkedHashMap<Reaction, Boolean>();
+		private boolean truncated;
+
+		void add(Reaction reaction, boolean complete) {
+			reactionToCompleteness.put(reaction, complete);
+		}
+
+		Map<Reaction, Boolean> getReactionToCompleteness() {
+			return reactionToCompleteness;
+		}
+
+		boolean isTruncated() {
+			return truncated;
+		}
+	}
+
+	/**
+	 * Identifies a request's input, so that identical requests in a batch can share their extraction
+	 */
+	private static class RequestKey {
+		private final RequestType type;
+		private final String title;
+		private final byte[] content;
+
+		RequestKey(RequestType type, String title, byte[] content) {
+			this.type = type;
+			this.title = title;
+			this.content = content;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * (31 * type.hashCode() + (title != null ? title.hashCode() : 0)) + Arrays.hashCode(content);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof RequestKey)){
+				return false;
+			}
+			RequestKey other = (RequestKey) obj;
+			return type == other.type && (title == null ? other.title == null : title.equals(other.title)) && Arrays.equals(content, other.content);
+		}
+	}
+
+	private static class PendingRequest {
+		private final RequestKey key;
+		private final SettableFuture<ExtractedReactions> result = SettableFuture.create();
+
+		PendingRequest(RequestKey key) {
+			this.key = key;
+		}
+	}
+
+	private final InetSocketAddress address;
+	private int extractionThreads = Runtime.getRuntime().availableProcessors();
+	private int httpThreads = 16;
+	private int maxBatchSize = 32;
+	private long batchWindow = 0;
+	private long maxRequestSize = 32 * 1024 * 1024;
+	private int indigoAtomMappingTimeout = 15000;
+	private long documentTimeBudget = 0;
+	private List<File> warmUpDocuments = Collections.emptyList();
+
+	private final BlockingQueue<PendingRequest> pendingRequests = new LinkedBlockingQueue<PendingRequest>();
+	private final AtomicLong batchesProcessed = new AtomicLong();
+	private final AtomicLong requestsProcessed = new AtomicLong();
+	private final AtomicLong extractionsPerformed = new AtomicLong();
+	private final AtomicLong extractionsDispatched = new AtomicLong();
+	private ExecutorService extractionExecutor;
+	private ExecutorService httpExecutor;
+	private Thread batcher;
+	private HttpServer server;
+	private volatile boolean running = false;
+
+	/**
+	 * Creates a service that will listen on the given address once {@link #start()} has been called.
+	 * A port of 0 uses any free port, see {@link #getPort()}
+	 * @param address
+	 */
+	public ExtractionService(InetSocketAddress address) {
+		this.address = address;
+	}
+
+	/**
+	 * The number of threads that extract reactions, by default the number of processors
+	 * @param extractionThreads
+	 */
+	public void setExtractionThreads(int extractionThreads) {
+		if (extractionThreads < 1){
+			throw new IllegalArgumentException("At least one extraction thread is required");
+		}
+		checkNotStarted();
+		this.extractionThreads = extractionThreads;
+	}
+
+	/**
+	 * The number of threads that handle HTTP requests, and hence the maximum number of requests that may be awaiting extraction. 16 by default
+	 * @param httpThreads
+	 */
+	public void setHttpThreads(int httpThreads) {
+		if (httpThreads < 1){
+			throw new IllegalArgumentException("At least one HTTP thread is required");
+		}
+		checkNotStarted();
+		this.httpThreads = httpThreads;
+	}
+
+	/**
+	 * The maximum number of requests in a batch. 32 by default
+	 * @param maxBatchSize
+	 */
+	public void setMaxBatchSize(int maxBatchSize) {
+		if (maxBatchSize < 1){
+			throw new IllegalArgumentException("A batch must allow at least one request");
+		}
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * How long, in milliseconds, to wait after the first request of a batch for further requests to join it. 0 by default,
+	 * which dispatches each request as soon as it arrives, only batching those that are already waiting.
+	 * As only byte-identical requests share an extraction, a longer window just delays requests unless clients repeat them
+	 * @param milliseconds
+	 */
+	public void setBatchWindow(long milliseconds) {
+		this.batchWindow = milliseconds;
+	}
+
+	/**
+	 * The largest request body, in bytes, that will be accepted. 32 MB by default
+	 * @param bytes
+	 */
+	public void setMaxRequestSize(long bytes) {
+		if (bytes < 1){
+			throw new IllegalArgumentException("The maximum request size must be positive");
+		}
+		this.maxRequestSize = bytes;
+	}
+
+	/**
+	 * Sets the timeout on reaction mapping. 15,000 milliseconds by default
+	 * @param milliseconds
+	 */
+	public void setIndigoAtomMappingTimeout(int milliseconds) {
+		this.indigoAtomMappingTimeout = milliseconds;
+	}
+
+	/**
+	 * See {@link ReactionExtractor#setDocumentTimeBudget(long)}. Applies to each request
+	 * @param milliseconds
+	 */
+	public void setDocumentTimeBudget(long milliseconds) {
+		this.documentTimeBudget = milliseconds;
+	}
+
+	/**
+	 * USPTO patents from which reactions are extracted before the service accepts requests, in addition to the built in paragraph.
+	 * Representative documents, e.g. the test patents, give the JIT a more realistic profile
+	 * @param warmUpDocuments
+	 */
+	public void setWarmUpDocuments(List<File> warmUpDocuments) {
+		checkNotStarted();
+		this.warmUpDocuments = new ArrayList<File>(warmUpDocuments);
+	}
+
+	private void checkNotStarted() {
+		if (running){
+			throw new IllegalStateException("The service has already been started");
+		}
+	}
+
+	/**
+	 * Initialises and warms up the extraction code, then starts accepting requests.
+	 * Returns once the service is accepting requests
+	 * @throws IOException
+	 */
+	public synchronized void start() throws IOException {
+		checkNotStarted();
+		final ThreadFactory threadFactory = new ThreadFactoryBuilder().setDaemon(true).setNameFormat("extraction-%d").build();
+		//only ExtractionTasks are executed, which order the queue
+		extractionExecutor = new ThreadPoolExecutor(extractionThreads, extractionThreads, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+			public Thread newThread(final Runnable r) {
+				return threadFactory.newThread(new Runnable() {
+					public void run() {
+						IndigoHolder.bindThreadLocalInstance();
+						r.run();
+					}
+				});
+			}
+		});
+		try{
+			warmUp();
+		}
+		catch (IOException e) {
+			extractionExecutor.shutdownNow();
+			throw e;
+		}
+		running = true;
+		batcher = new ThreadFactoryBuilder().setDaemon(true).setNameFormat("extraction-batcher").build().newThread(new Runnable() {
+			public void run() {
+				batchRequests();
+			}
+		});
+		batcher.start();
+		httpExecutor = Executors.newFixedThreadPool(httpThreads, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("extraction-http-%d").build());
+		server = HttpServer.create(address, 0);
+		server.createContext("/extract/paragraph", new ExtractionHandler(RequestType.paragraph));
+		server.createContext("/extract/patent", new ExtractionHandler(RequestType.patent));
+		server.setExecutor(httpExecutor);
+		server.start();
+		LOG.info("Accepting requests on port " + getPort());
+	}
+
+	/**
+	 * Loads the singletons, then extracts from the warm up paragraph on every extraction thread (so that each thread's Indigo is loaded)
+	 * and from each warm up document.
+	 * The warm up paragraph extractions wait for each other to start, hence each is on a different thread
+	 * @throws IOException
+	 */
+	private void warmUp() throws IOException {
+		long start = System.currentTimeMillis();
+		OscarReliantFunctionality.getInstance();
+		ParagraphClassifierHolder.getInstance();
+		List<Future<ExtractedReactions>> warmUpExtractions = new ArrayList<Future<ExtractedReactions>>();
+		RequestKey warmUpParagraph = new RequestKey(RequestType.paragraph, WARM_UP_TITLE, WARM_UP_PARAGRAPH.getBytes("UTF-8"));
+		CountDownLatch allThreadsStarted = new CountDownLatch(extractionThreads);
+		for (int i = 0; i < extractionThreads; i++) {
+			warmUpExtractions.add(submitExtraction(warmUpParagraph, allThreadsStarted));
+		}
+		for (File warmUpDocument : warmUpDocuments) {
+			warmUpExtractions.add(submitExtraction(new RequestKey(RequestType.patent, null, FileUtils.readFileToByteArray(warmUpDocument)), null));
+		}
+		for (Future<ExtractedReactions> warmUpExtraction : warmUpExtractions) {
+			try{
+				warmUpExtraction.get();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted whilst warming up", e);
+			}
+			catch (ExecutionException e) {
+				LOG.warn("Extraction failed whilst warming up", e.getCause());
+			}
+		}
+		LOG.info("Warmed up in " + (System.currentTimeMillis() - start) + "ms");
+	}
+
+	/**
+	 * The port the service is listening on
+	 * @return
+	 */
+	public int getPort() {
+		if (server == null){
+			throw new IllegalStateException("The service has not been started");
+		}
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Extracts reactions from the paragraph, as if it were the only paragraph of an experimental section with the given title, using the service's threads
+	 * @param title
+	 * @param paragraph
+	 * @return
+	 */
+	Future<ExtractedReactions> submitParagraph(String title, String paragraph) {
+		try{
+			return submit(new RequestKey(RequestType.paragraph, title, paragraph.getBytes("UTF-8")));
+		}
+		catch (UnsupportedEncodingException e) {
+			throw new RuntimeException("JVM doesn't support UTF-8...but it should do!");
+		}
+	}
+
+	/**
+	 * Extracts reactions from the USPTO patent using the service's threads
+	 * @param patentXml
+	 * @return
+	 */
+	Future<ExtractedReactions> submitPatent(byte[] patentXml) {
+		return submit(new RequestKey(RequestType.patent, null, patentXml));
+	}
+
+	private Future<ExtractedReactions> submit(RequestKey key) {
+		if (!running){
+			throw new IllegalStateException("The service is not running");
+		}
+		PendingRequest request = new PendingRequest(key);
+		pendingRequests.add(request);
+		return request.result;
+	}
+
+	/**
+	 * Run by the batcher thread: collects the requests that arrive within the batch window of the first and dispatches them together
+	 */
+	private void batchRequests() {
+		while (running) {
+			List<PendingRequest> batch = new ArrayList<PendingRequest>();
+			try{
+				batch.add(pendingRequests.take());
+				long batchEnd = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchWindow);
+				while (batch.size() < maxBatchSize) {
+					PendingRequest request = pendingRequests.poll(batchEnd - System.nanoTime(), TimeUnit.NANOSECONDS);
+					if (request == null){
+						break;
+					}
+					batch.add(request);
+				}
+			}
+			catch (InterruptedException e) {
+				for (PendingRequest request : batch) {
+					request.result.setException(new IllegalStateException("The service was closed"));
+				}
+				return;
+			}
+			dispatch(batch);
+		}
+	}
+
+	private void dispatch(List<PendingRequest> batch) {
+		Map<RequestKey, List<PendingRequest>> paragraphRequests = new LinkedHashMap<RequestKey, List<PendingRequest>>();
+		Map<RequestKey, List<PendingRequest>> patentRequests = new LinkedHashMap<RequestKey, List<PendingRequest>>();
+		for (PendingRequest request : batch) {
+			Map<RequestKey, List<PendingRequest>> requests = request.key.type == RequestType.paragraph ? paragraphRequests : patentRequests;
+			List<PendingRequest> identicalRequests = requests.get(request.key);
+			if (identicalRequests == null){
+				identicalRequests = new ArrayList<PendingRequest>();
+				requests.put(request.key, identicalRequests);
+			}
+			identicalRequests.add(request);
+		}
+		for (Entry<RequestKey, List<PendingRequest>> entry : paragraphRequests.entrySet()) {
+			dispatchExtraction(entry.getKey(), entry.getValue());
+		}
+		for (Entry<RequestKey, List<PendingRequest>> entry : patentRequests.entrySet()) {
+			dispatchExtraction(entry.getKey(), entry.getValue());
+		}
+		batchesProcessed.incrementAndGet();
+		requestsProcessed.addAndGet(batch.size());
+		extractionsPerformed.addAndGet(paragraphRequests.size() + patentRequests.size());
+	}
+
+	private void dispatchExtraction(RequestKey key, List<PendingRequest> requests) {
+		extractionExecutor.execute(new ExtractionTask(key, requests, null));
+	}
+
+	/**
+	 * Dispatches an extraction directly, bypassing the batcher e.g. whilst warming up.
+	 * If a latch is given, the extraction counts it down then waits for it to reach zero before starting
+	 * @param key
+	 * @param startLatch
+	 * @return
+	 */
+	private Future<ExtractedReactions> submitExtraction(RequestKey key, CountDownLatch startLatch) {
+		PendingRequest request = new PendingRequest(key);
+		extractionExecutor.execute(new ExtractionTask(key, Collections.singletonList(request), startLatch));
+		return request.result;
+	}
+
+	/**
+	 * The extraction for one or more identical requests.
+	 * Queued extractions are ordered by request type (paragraphs first) then by the order in which they were dispatched
+	 */
+	private class ExtractionTask implements Runnable, Comparable<ExtractionTask> {
+		private final RequestKey key;
+		private final List<PendingRequest> requests;
+		private final CountDownLatch startLatch;
+		private final long sequenceNumber = extractionsDispatched.getAndIncrement();
+
+		ExtractionTask(RequestKey key, List<PendingRequest> requests, CountDownLatch startLatch) {
+			this.key = key;
+			this.requests = requests;
+			this.startLatch = startLatch;
+		}
+
+		public void run() {
+			ExtractedReactions result;
+			try{
+				if (startLatch != null){
+					startLatch.countDown();
+					startLatch.await();
+				}
+				result = extract(key);
+			}
+			catch (Throwable e) {
+				for (PendingRequest request : requests) {
+					request.result.setException(e);
+				}
+				return;
+			}
+			for (PendingRequest request : requests) {
+				request.result.set(result);
+			}
+		}
+
+		public int compareTo(ExtractionTask other) {
+			int typeComparison = key.type.compareTo(other.key.type);
+			if (typeComparison != 0){
+				return typeComparison;
+			}
+			return Long.compare(sequenceNumber, other.sequenceNumber);
+		}
+	}
+
+	/**
+	 * Performs the extraction for a request. Called on an extraction thread
+	 * @param key
+	 * @return
+	 * @throws IOException
+	 * @throws ParsingException
+	 */
+	private ExtractedReactions extract(RequestKey key) throws IOException, ParsingException {
+		final ExtractedReactions extractedReactions = new ExtractedReactions();
+		ReactionListener listener = new ReactionListener() {
+			public void reactionFound(Reaction reaction, IndigoObject indigoReaction, boolean complete) {
+				extractedReactions.add(reaction, complete);
+			}
+		};
+		ReactionExtractor extractor;
+		if (key.type == RequestType.paragraph){
+			extractor = ReactionExtractor.createWithoutCopyingElements(Collections.<Element>emptyList());
+			configure(extractor);
+			List<Reaction> reactions = Utils.createExperimentalSectionParser(key.title != null ? key.title : "", new String(key.content, "UTF-8")).parseForReactions();
+			extractor.mapReactions(reactions, listener);
+		}
+		else{
+			List<Element> headingsAndParagraphs;
+			try{
+				headingsAndParagraphs = UsptoPatentReader.readHeadingsAndParagraphs(new ByteArrayInputStream(key.content));
+			}
+			catch (RuntimeException e) {//the patent could not be read
+				throw new ParsingException(e.getCause() != null ? e.getCause().getMessage() : e.getMessage(), e);
+			}
+			extractor = ReactionExtractor.createWithoutCopyingElements(headingsAndParagraphs);
+			configure(extractor);
+			extractor.extractReactions(listener);
+		}
+		extractedReactions.truncated = extractor.isTruncated();
+		return extractedReactions;
+	}
+
+	private void configure(ReactionExtractor extractor) {
+		extractor.setIndigoAtomMappingTimeout(indigoAtomMappingTimeout);
+		extractor.setDocumentTimeBudget(documentTimeBudget);
+		extractor.setRetainIndigoReactions(false);
+		extractor.setRetainTaggedSentences(false);
+	}
+
+	/**
+	 * The number of batches of requests that have been dispatched
+	 * @return
+	 */
+	public long getBatchesProcessed() {
+		return batchesProcessed.get();
+	}
+
+	/**
+	 * The number of requests that have been dispatched
+	 * @return
+	 */
+	public long getRequestsProcessed() {
+		return requestsProcessed.get();
+	}
+
+	/**
+	 * The number of extractions performed for dispatched requests, which is less than the number of requests when identical requests were batched together
+	 * @return
+	 */
+	public long getExtractionsPerformed() {
+		return extractionsPerformed.get();
+	}
+
+	private class ExtractionHandler implements HttpHandler {
+
+		private final RequestType type;
+
+		ExtractionHandler(RequestType type) {
+			this.type = type;
+		}
+
+		public void handle(HttpExchange exchange) throws IOException {
+			try{
+				if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())){
+					sendResponse(exchange, 405, "text/plain", "Only POST is supported\n");
+					return;
+				}
+				Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+				Format format;
+				try{
+					format = parameters.containsKey("format") ? Format.valueOf(parameters.get("format")) : Format.cml;
+				}
+				catch (IllegalArgumentException e) {
+					sendResponse(exchange, 400, "text/plain", "Unsupported format: " + parameters.get("format") + "\n");
+					return;
+				}
+				boolean completeOnly = !"false".equals(parameters.get("completeOnly"));
+				byte[] body = readRequestBody(exchange);
+				if (body == null){
+					sendResponse(exchange, 413, "text/plain", "The request body is larger than " + maxRequestSize + " bytes\n");
+					return;
+				}
+				ExtractedReactions result;
+				try{
+					result = submit(new RequestKey(type, type == RequestType.paragraph ? parameters.get("title") : null, body)).get();
+				}
+				catch (IllegalStateException e) {
+					sendResponse(exchange, 503, "text/plain", "The service is not running\n");
+					return;
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					sendResponse(exchange, 503, "text/plain", "Interrupted whilst extracting\n");
+					return;
+				}
+				catch (ExecutionException e) {
+					if (e.getCause() instanceof ParsingException){
+						sendResponse(exchange, 400, "text/plain", "The patent is not well formed XML: " + e.getCause().getMessage() + "\n");
+					}
+					else{
+						LOG.warn("Reaction extraction failed", e.getCause());
+						sendResponse(exchange, 500, "text/plain", "Reaction extraction failed: " + e.getCause() + "\n");
+					}
+					return;
+				}
+				if (format == Format.json){
+					sendResponse(exchange, 200, "application/json", toJson(result, completeOnly));
+				}
+				else{
+					sendResponse(exchange, 200, "application/xml", toCml(result, completeOnly));
+				}
+			}
+			finally{
+				exchange.close();
+			}
+		}
+	}
+
+	/**
+	 * Reads the request's body, or returns null if it is larger than the maximum request size
+	 * @param exchange
+	 * @return
+	 * @throws IOException
+	 */
+	private byte[] readRequestBody(HttpExchange exchange) throws IOException {
+		String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+		if (contentLength != null){
+			try{
+				if (Long.parseLong(contentLength.trim()) > maxRequestSize){
+					return null;
+				}
+			}
+			catch (NumberFormatException e) {
+				//the body's length is checked as it is read
+			}
+		}
+		InputStream is = exchange.getRequestBody();
+		try{
+			byte[] body = IOUtils.toByteArray(new BoundedInputStream(is, maxRequestSize + 1));
+			return body.length > maxRequestSize ? null : body;
+		}
+		finally{
+			IOUtils.closeQuietly(is);
+		}
+	}
+
+	private static void sendResponse(HttpExchange exchange, int status, String contentType, String response) throws IOException {
+		byte[] bytes = response.getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=UTF-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream os = exchange.getResponseBody();
+		try{
+			os.write(bytes);
+		}
+		finally{
+			IOUtils.closeQuietly(os);
+		}
+	}
+
+	static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+		Map<String, String> parameters = new HashMap<String, String>();
+		if (rawQuery == null){
+			return parameters;
+		}
+		for (String parameter : rawQuery.split("&")) {
+			int equalsIndex = parameter.indexOf('=');
+			if (equalsIndex > 0){
+				parameters.put(URLDecoder.decode(parameter.substring(0, equalsIndex), "UTF-8"), URLDecoder.decode(parameter.substring(equalsIndex + 1), "UTF-8"));
+			}
+			else if (parameter.length() > 0){
+				parameters.put(URLDecoder.decode(parameter, "UTF-8"), "");
+			}
+		}
+		return parameters;
+	}
+
+	static String toCml(ExtractedReactions result, boolean completeOnly) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		sb.append("<reactionList xmlns=\"" + CML_NAMESPACE + "\">\n");
+		for (Entry<Reaction, Boolean> entry : result.getReactionToCompleteness().entrySet()) {
+			if (entry.getValue() || !completeOnly){
+				sb.append(entry.getKey().toCML().toXML());
+				sb.append('\n');
+			}
+		}
+		sb.append("</reactionList>\n");
+		return sb.toString();
+	}
+
+	static String toJson(ExtractedReactions result, boolean completeOnly) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"truncated\":").append(result.isTruncated()).append(",\"reactions\":[");
+		boolean first = true;
+		for (Entry<Reaction, Boolean> entry : result.getReactionToCompleteness().entrySet()) {
+			if (!entry.getValue() && completeOnly){
+				continue;
+			}
+			if (!first){
+				sb.append(',');
+			}
+			first = false;
+			Reaction reaction = entry.getKey();
+			ReactionProvenance provenance = reaction.getProvenance();
+			sb.append("{\"paragraph\":").append(jsonString(provenance != null ? provenance.getIdentifier() : null));
+			sb.append(",\"complete\":").append(entry.getValue());
+			sb.append(",\"smiles\":").append(jsonString(reaction.getReactionSmiles()));
+			appendChemicals(sb, "reactants", reaction.getReactants());
+			appendChemicals(sb, "products", reaction.getProducts());
+			appendChemicals(sb, "spectators", reaction.getSpectators());
+			sb.append('}');
+		}
+		sb.append("]}");
+		return sb.toString();
+	}
+
+	private static void appendChemicals(StringBuilder sb, String listName, List<Chemical> chemicals) {
+		sb.append(",\"").append(listName).append("\":[");
+		for (int i = 0; i < chemicals.size(); i++) {
+			Chemical chemical = chemicals.get(i);
+			if (i > 0){
+				sb.append(',');
+			}
+			sb.append("{\"name\":").append(jsonString(chemical.getName()));
+			sb.append(",\"smiles\":").append(jsonString(chemical.getSmiles()));
+			sb.append(",\"inchi\":").append(jsonString(chemical.getInchi()));
+			sb.append(",\"role\":").append(jsonString(chemical.getRole() != null ? chemical.getRole().toString() : null));
+			sb.append('}');
+		}
+		sb.append(']');
+	}
+
+	static String jsonString(String str) {
+		if (str == null){
+			return "null";
+		}
+		StringBuilder sb = new StringBuilder(str.length() + 2);
+		sb.append('"');
+		for (int i = 0; i < str.length(); i++) {
+			char ch = str.charAt(i);
+			switch (ch) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				if (ch < 0x20){
+					sb.append(String.format("\\u%04x", (int) ch));
+				}
+				else{
+					sb.append(ch);
+				}
+			}
+		}
+		sb.append('"');
+		return sb.toString();
+	}
+
+	/**
+	 * Stops accepting requests. Requests that have not yet been dispatched fail, whilst extractions in progress are abandoned
+	 */
+	public synchronized void close() {
+		if (!running){
+			return;
+		}
+		running = false;
+		server.stop(0);
+		batcher.interrupt();
+		try{
+			batcher.join();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		PendingRequest request;
+		while ((request = pendingRequests.poll()) != null) {
+			request.result.setException(new IllegalStateException("The service was closed"));
+		}
+		httpExecutor.shutdownNow();
+		extractionExecutor.shutdownNow();
+	}
+
+	/**
+	 * Arguments: port [warmUpDocument...]
+	 * The service listens on the loopback interface
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1){
+			System.err.println("Usage: ExtractionService port [warmUpDocument...]");
+			System.exit(1);
+		}
+		final ExtractionService service = new ExtractionService(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(args[0])));
+		List<File> warmUpDocuments = new ArrayList<File>();
+		for (int i = 1; i < args.length; i++) {
+			warmUpDocuments.add(new File(args[i]));
+		}
+		service.setWarmUpDocuments(warmUpDocuments);
+		service.start();
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				service.close();
+			}
+		});
+	}
+}
@@ -39,6 +39,7 @@ public class ExtractOrganicChemistryPatents {
 	/**
 	 * An input directory in which zip/tar files from
 	 * http://www.google.com/googlebooks/uspto-patents-applications-text-with-embedded-images.html
+	 * or bulk XML files (concatenated XML patents, as currently distributed by the USPTO)
 	 * are placed and an output location for appropriate patents
 	 * @param inputDirectoryLocation
 	 * @param outputDirectoryLocation
@@ -51,6 +52,7 @@ public class ExtractOrganicChemistryPatents {
 	/**
 	 * An input directory in which zip/tar files from
 	 * http://www.google.com/googlebooks/uspto-patents-applications-text-with-embedded-images.html
+	 * or bulk XML files (concatenated XML patents, as currently distributed by the USPTO)
 	 * are placed and an output location for appropriate patents
 	 * @param inputDirectory
 	 * @param outputDirectory
@@ -68,6 +70,10 @@ public class ExtractOrganicChemistryPatents {
 		while (fileIterator.hasNext()) {
 			processPatentArchiveFile((File) fileIterator.next());
 		}
+		Iterator<File> bulkFileIterator = FileUtils.iterateFiles(inputDirectory, new String[]{"XML", "xml", "Xml"}, false);
+		while (bulkFileIterator.hasNext()) {
+			processPatentBulkFile((File) bulkFileIterator.next());
+		}
 		File tempDirectory = new File(outputDirectory.getAbsolutePath() +"/temp");
 		if(tempDirectory.exists()){
 			FileUtils.forceDeleteOnExit(tempDirectory);
@@ -92,6 +98,45 @@ public class ExtractOrganicChemistryPatents {
 		FileUtils.forceDeleteOnExit(tempDirectory);
 	}
 
+	/**
+	 * Copies the organic chemistry patents from a bulk file of concatenated XML patents e.g. ipgYYMMDD.xml
+	 * Each is written to a file named after its document number
+	 * @param bulkFile
+	 * @throws IOException
+	 */
+	private void processPatentBulkFile(File bulkFile) throws IOException {
+		LOG.debug(bulkFile.getAbsolutePath());
+		File bulkOutputDirectory = new File(outputDirectory.getAbsolutePath() +"/" + bulkFile.getName());
+		FileUtils.forceMkdir(bulkOutputDirectory);
+		UsptoBulkFile bulk = new UsptoBulkFile(bulkFile);
+		try{
+			for (int i = 0; i < bulk.getDocumentCount(); i++) {
+				Document doc;
+				try{
+					doc = Utils.buildXmlFile(bulk.openDocument(i));
+				}
+				catch (Exception e) {
+					LOG.error("Failed to read document at offset " + bulk.getDocumentOffset(i) + " of " + bulkFile.getAbsolutePath(), e);
+					continue;
+				}
+				if (isOrganicChemistryDocument(doc)){
+					String documentNumber = bulk.getDocumentNumber(i);
+					String fileName = (documentNumber != null ? documentNumber : FilenameUtils.getBaseName(bulkFile.getName()) + "_" + i) + ".xml";
+					FileOutputStream fos = new FileOutputStream(new File(bulkOutputDirectory, fileName));
+					try{
+						IOUtils.copy(bulk.openDocument(i), fos);
+					}
+					finally{
+						IOUtils.closeQuietly(fos);
+					}
+				}
+			}
+		}
+		finally{
+			bulk.close();
+		}
+	}
+
 	/**
 	 * Extracts all zip files present within the given zip file
 	 * @param patentArchiveFile
@@ -190,8 +235,12 @@ public class ExtractOrganicChemistryPatents {
 	
 	
 	public static void main(String[] args) throws IOException {
-		String inputDirectory  = "C:/Users/dl387/Desktop/newUSPTO/2011";
-		String outputDirectory  = "C:/Users/dl387/Desktop/newUSPTOout/2011";
+		if (args.length != 2){
+			System.err.println("Usage: ExtractOrganicChemistryPatents inputDirectory outputDirectory");
+			System.exit(1);
+		}
+		String inputDirectory  = args[0];
+		String outputDirectory  = args[1];
 		ExtractOrganicChemistryPatents eocp= new ExtractOrganicChemistryPatents(inputDirectory, outputDirectory);
 		eocp.extractOrganicPatents();
 	}
@@ -0,0 +1,412 @@
+package dan2097.org.bitbucket.uspto;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * A USPTO full text bulk file (e.g. ipgYYMMDD.xml or ipaYYMMDD.xml) which consists of thousands of concatenated XML documents.
+ * The file is memory mapped and the document boundaries found by scanning for XML declarations at the start of a line.
+ * Each patent can then be read as an InputStream over its slice of the file.
+ *
+ * For random access by patent number a sidecar index (the bulk file's name + ".idx") of tab separated
+ * document number, offset and length is written on first use and reused thereafter
+ * @author dl387
+ *
+ */
+public class UsptoBulkFile implements Closeable {
+
+	private static final Logger LOG = Logger.getLogger(UsptoBulkFile.class);
+
+	/**Size of each window of the file that is mapped whilst scanning, must be less than 2GB*/
+	private static final int SCAN_WINDOW_SIZE = 1 << 30;
+	private static final byte[] XML_DECLARATION = new byte[]{'<', '?', 'x', 'm', 'l'};
+	private static final byte[] DOC_NUMBER_START = new byte[]{'<', 'd', 'o', 'c', '-', 'n', 'u', 'm', 'b', 'e', 'r', '>'};
+	private static final byte[] DOC_NUMBER_END = new byte[]{'<', '/', 'd', 'o', 'c', '-', 'n', 'u', 'm', 'b', 'e', 'r', '>'};
+	/**The first doc-number is expected to be in the document's publication-reference, near the start*/
+	private static final int DOC_NUMBER_SEARCH_LIMIT = 8192;
+	private static final Pattern matchTab = Pattern.compile("\\t");
+
+	public interface DocumentHandler {
+		/**
+		 * Called with each document in the bulk file
+		 * @param documentIndex The index of the document within the bulk file
+		 * @param document The bytes of the XML document
+		 * @throws Exception
+		 */
+		void handleDocument(int documentIndex, InputStream document) throws Exception;
+	}
+
+	private final File bulkFile;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final long[] documentOffsets;
+	private Map<String, Integer> documentNumberToIndex = null;
+
+	/**
+	 * Maps and scans the given bulk file for document boundaries
+	 * @param bulkFile
+	 * @throws IOException
+	 */
+	public UsptoBulkFile(File bulkFile) throws IOException {
+		this.bulkFile = bulkFile;
+		this.raf = new RandomAccessFile(bulkFile, "r");
+		this.channel = raf.getChannel();
+		try{
+			this.documentOffsets = findDocumentOffsets(channel);
+		}
+		catch (IOException e) {
+			IOUtils.closeQuietly(raf);
+			throw e;
+		}
+	}
+
+	/**
+	 * Finds the offset of each XML declaration that is at the start of the file or of a line
+	 * @param channel
+	 * @return
+	 * @throws IOException
+	 */
+	static long[] findDocumentOffsets(FileChannel channel) throws IOException {
+		long fileSize = channel.size();
+		List<Long> offsets = new ArrayList<Long>();
+		//windows overlap so that a declaration spanning a window boundary is found in the later window
+		int overlap = XML_DECLARATION.length;
+		for (long windowStart = 0; windowStart < fileSize; windowStart += SCAN_WINDOW_SIZE) {
+			long windowEnd = Math.min(fileSize, windowStart + SCAN_WINDOW_SIZE + overlap);
+			MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd - windowStart);
+			int scanEnd = (int) Math.min(SCAN_WINDOW_SIZE, windowEnd - windowStart);
+			for (int i = 0; i < scanEnd; i++) {
+				if (window.get(i) == '<' && matchesAt(window, i, XML_DECLARATION)){
+					long offset = windowStart + i;
+					if (offset == 0 || isLineStart(channel, window, windowStart, i)){
+						offsets.add(offset);
+					}
+				}
+			}
+		}
+		long[] offsetArray = new long[offsets.size()];
+		for (int i = 0; i < offsetArray.length; i++) {
+			offsetArray[i] = offsets.get(i);
+		}
+		return offsetArray;
+	}
+
+	private static boolean isLineStart(FileChannel channel, ByteBuffer window, long windowStart, int i) throws IOException {
+		byte previous;
+		if (i > 0){
+			previous = window.get(i - 1);
+		}
+		else{
+			ByteBuffer b = ByteBuffer.allocate(1);
+			channel.read(b, windowStart - 1);
+			previous = b.get(0);
+		}
+		return previous == '\n' || previous == '\r';
+	}
+
+	private static boolean matchesAt(ByteBuffer buffer, int position, byte[] bytes) {
+		if (position + bytes.length > buffer.limit()){
+			return false;
+		}
+		for (int j = 0; j < bytes.length; j++) {
+			if (buffer.get(position + j) != bytes[j]){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The number of XML documents in the bulk file
+	 * @return
+	 */
+	public int getDocumentCount() {
+		return documentOffsets.length;
+	}
+
+	/**
+	 * The offset of the given document within the bulk file
+	 * @param documentIndex
+	 * @return
+	 */
+	public long getDocumentOffset(int documentIndex) {
+		return documentOffsets[documentIndex];
+	}
+
+	/**
+	 * The length in bytes of the given document
+	 * @param documentIndex
+	 * @return
+	 * @throws IOException
+	 */
+	public long getDocumentLength(int documentIndex) throws IOException {
+		long end = documentIndex + 1 < documentOffsets.length ? documentOffsets[documentIndex + 1] : channel.size();
+		return end - documentOffsets[documentIndex];
+	}
+
+	/**
+	 * The given document as a buffer over the mapped file
+	 * @param documentIndex
+	 * @return
+	 * @throws IOException
+	 */
+	public ByteBuffer getDocumentBuffer(int documentIndex) throws IOException {
+		long length = getDocumentLength(documentIndex);
+		if (length > Integer.MAX_VALUE){
+			throw new IOException("Document " + documentIndex + " is too large to map");
+		}
+		return channel.map(FileChannel.MapMode.READ_ONLY, documentOffsets[documentIndex], length);
+	}
+
+	/**
+	 * Reads the given document from the mapped file. Closing the stream is not required
+	 * @param documentIndex
+	 * @return
+	 * @throws IOException
+	 */
+	public InputStream openDocument(int documentIndex) throws IOException {
+		return new ByteBufferInputStream(getDocumentBuffer(documentIndex));
+	}
+
+	/**
+	 * Reads the document with the given document number e.g. 07654321 or 20080000032, or returns null if not present
+	 * @param documentNumber
+	 * @return
+	 * @throws IOException
+	 */
+	public InputStream openDocument(String documentNumber) throws IOException {
+		Integer documentIndex = getDocumentNumberToIndex().get(documentNumber);
+		return documentIndex != null ? openDocument(documentIndex) : null;
+	}
+
+	/**
+	 * The text of the first doc-number element in the given document, or null if there isn't one near the start of the document
+	 * @param documentIndex
+	 * @return
+	 * @throws IOException
+	 */
+	public String getDocumentNumber(int documentIndex) throws IOException {
+		ByteBuffer document = getDocumentBuffer(documentIndex);
+		int limit = Math.min(document.limit(), DOC_NUMBER_SEARCH_LIMIT);
+		for (int i = 0; i < limit; i++) {
+			if (document.get(i) == '<' && matchesAt(document, i, DOC_NUMBER_START)){
+				int start = i + DOC_NUMBER_START.length;
+				for (int j = start; j < document.limit(); j++) {
+					if (document.get(j) == '<'){
+						if (!matchesAt(document, j, DOC_NUMBER_END)){
+							return null;
+						}
+						byte[] number = new byte[j - start];
+						for (int k = 0; k < number.length; k++) {
+							number[k] = document.get(start + k);
+						}
+						return new String(number, "UTF-8").trim();
+					}
+				}
+				return null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Passes each document to the handler. If more than one thread is requested documents are processed concurrently
+	 * and hence the handler must be thread-safe
+	 * @param handler
+	 * @param threads
+	 * @throws IOException
+	 */
+	public void processDocuments(final DocumentHandler handler, int threads) throws IOException {
+		if (threads <= 1){
+			for (int i = 0; i < documentOffsets.length; i++) {
+				handle(handler, i);
+			}
+			return;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try{
+			List<Future<Void>> results = new ArrayList<Future<Void>>();
+			for (int i = 0; i < documentOffsets.length; i++) {
+				final int documentIndex = i;
+				results.add(executor.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						handle(handler, documentIndex);
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> result : results) {
+				result.get();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted whilst processing " + bulkFile, e);
+		}
+		catch (ExecutionException e) {
+			throw new IOException("Failed to process " + bulkFile, e.getCause());
+		}
+		finally{
+			executor.shutdownNow();
+		}
+	}
+
+	private void handle(DocumentHandler handler, int documentIndex) throws IOException {
+		try{
+			handler.handleDocument(documentIndex, openDocument(documentIndex));
+		}
+		catch (Exception e) {
+			LOG.warn("Failed to process document " + documentIndex + " at offset " + documentOffsets[documentIndex] + " of " + bulkFile, e);
+		}
+	}
+
+	/**
+	 * The sidecar index file for the given bulk file
+	 * @param bulkFile
+	 * @return
+	 */
+	public static File getIndexFile(File bulkFile) {
+		return new File(bulkFile.getPath() + ".idx");
+	}
+
+	private synchronized Map<String, Integer> getDocumentNumberToIndex() throws IOException {
+		if (documentNumberToIndex == null){
+			File indexFile = getIndexFile(bulkFile);
+			if (indexFile.exists() && indexFile.lastModified() >= bulkFile.lastModified()){
+				documentNumberToIndex = readIndex(indexFile);
+			}
+			if (documentNumberToIndex == null){
+				documentNumberToIndex = new LinkedHashMap<String, Integer>();
+				for (int i = 0; i < documentOffsets.length; i++) {
+					String documentNumber = getDocumentNumber(i);
+					if (documentNumber != null){
+						documentNumberToIndex.put(documentNumber, i);
+					}
+				}
+				writeIndex(indexFile);
+			}
+		}
+		return documentNumberToIndex;
+	}
+
+	/**
+	 * Reads the index, returning null if it does not match the document boundaries found in the bulk file
+	 * @param indexFile
+	 * @return
+	 * @throws IOException
+	 */
+	private Map<String, Integer> readIndex(File indexFile) throws IOException {
+		Map<String, Integer> index = new LinkedHashMap<String, Integer>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), "UTF-8"));
+		try{
+			int documentIndex = 0;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = matchTab.split(line);
+				if (fields.length != 3){
+					return null;
+				}
+				long offset = Long.parseLong(fields[1]);
+				while (documentIndex < documentOffsets.length && documentOffsets[documentIndex] < offset) {
+					documentIndex++;
+				}
+				if (documentIndex == documentOffsets.length || documentOffsets[documentIndex] != offset || getDocumentLength(documentIndex) != Long.parseLong(fields[2])){
+					LOG.warn(indexFile + " is out of date and will be regenerated");
+					return null;
+				}
+				index.put(fields[0], documentIndex);
+			}
+		}
+		catch (NumberFormatException e) {
+			LOG.warn(indexFile + " is malformed and will be regenerated");
+			return null;
+		}
+		finally{
+			IOUtils.closeQuietly(reader);
+		}
+		return index;
+	}
+
+	private void writeIndex(File indexFile) throws IOException {
+		Writer writer = new OutputStreamWriter(new FileOutputStream(indexFile), "UTF-8");
+		try{
+			for (Map.Entry<String, Integer> entry : documentNumberToIndex.entrySet()) {
+				int documentIndex = entry.getValue();
+				writer.write(entry.getKey() + "\t" + documentOffsets[documentIndex] + "\t" + getDocumentLength(documentIndex) + "\n");
+			}
+		}
+		finally{
+			IOUtils.closeQuietly(writer);
+		}
+	}
+
+	public void close() throws IOException {
+		raf.close();
+	}
+
+	/**
+	 * An InputStream over a ByteBuffer
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0){
+				return 0;
+			}
+			if (!buffer.hasRemaining()){
+				return -1;
+			}
+			int n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public long skip(long n) {
+			int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+			buffer.position(buffer.position() + skipped);
+			return skipped;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+}
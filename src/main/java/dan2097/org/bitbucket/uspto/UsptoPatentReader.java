@@ -0,0 +1,294 @@
+package dan2097.org.bitbucket.uspto;
+
+import java.io.Closeable;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import nu.xom.Attribute;
+import nu.xom.Element;
+
+import dan2097.org.bitbucket.reactionextraction.ReactionExtractor;
+import dan2097.org.bitbucket.utility.XMLTags;
+
+/**
+ * Streams the headings and paragraphs out of a USPTO XML patent without building a document for the whole patent.
+ * Everything outside the description (claims, sequence listings etc.) is skipped at parse time, as are the
+ * tables and lists that would anyway be detached from paragraphs before their text is used.
+ * Each of these is replaced by an empty element of the same name (containing just a newline if the skipped content contained one)
+ * so that the paragraph is treated identically to one from a fully built document.
+ *
+ * Elements are produced lazily, and may be given directly to a ReactionExtractor e.g.
+ * <pre>
+ * UsptoPatentReader reader = new UsptoPatentReader(inputStream);
+ * ReactionExtractor extractor = ReactionExtractor.createWithoutCopyingElements(reader);
+ * extractor.extractReactions();
+ * reader.close();
+ * </pre>
+ * As with {@link dan2097.org.bitbucket.utility.Utils#buildXmlFile(InputStream)} external DTDs are not loaded
+ * @author dl387
+ *
+ */
+public class UsptoPatentReader implements Iterable<Element>, Iterator<Element>, Closeable {
+
+	private static final XMLInputFactory inputFactory;
+	private static final String[] SKIPPED_DESCENDANTS = new String[]{XMLTags.TABLE_EXTERNAL_DOC, XMLTags.TABLES, XMLTags.DL, XMLTags.OL, XMLTags.UL};
+
+	static {
+		inputFactory = XMLInputFactory.newInstance();
+		inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		inputFactory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, false);//undeclared entities are skipped, as the XOM builder does
+	}
+
+	private final XMLStreamReader reader;
+	private boolean iteratorCreated = false;
+	private boolean inDescription = false;
+	private boolean finished = false;
+	private Element nextElement = null;
+
+	public UsptoPatentReader(InputStream inputStream) {
+		try {
+			reader = inputFactory.createXMLStreamReader(inputStream);
+		} catch (XMLStreamException e) {
+			throw new RuntimeException("Failed to read USPTO patent", e);
+		}
+	}
+
+	/**
+	 * Reads all the headings and paragraphs from the description of the given USPTO patent
+	 * @param inputStream
+	 * @return
+	 */
+	public static List<Element> readHeadingsAndParagraphs(InputStream inputStream) {
+		UsptoPatentReader patentReader = new UsptoPatentReader(inputStream);
+		try{
+			List<Element> headingsAndParagraphs = new ArrayList<Element>();
+			while (patentReader.hasNext()) {
+				headingsAndParagraphs.add(patentReader.next());
+			}
+			return headingsAndParagraphs;
+		}
+		finally{
+			patentReader.close();
+		}
+	}
+
+	/**
+	 * Convenience method to create a ReactionExtractor for the given USPTO patent.
+	 * The patent is read as the extractor requires it, so the stream should not be closed before
+	 * {@link ReactionExtractor#extractReactions()} has been called.
+	 * The reader is closed once the description has been read
+	 * @param inputStream
+	 * @return
+	 */
+	public static ReactionExtractor createReactionExtractor(InputStream inputStream) {
+		return ReactionExtractor.createWithoutCopyingElements(new UsptoPatentReader(inputStream));
+	}
+
+	/**
+	 * The reader can only be iterated over once
+	 */
+	public Iterator<Element> iterator() {
+		if (iteratorCreated){
+			throw new IllegalStateException("A USPTO patent can only be read once");
+		}
+		iteratorCreated = true;
+		return this;
+	}
+
+	public boolean hasNext() {
+		if (nextElement == null && !finished){
+			try {
+				nextElement = readNextHeadingOrParagraph();
+			} catch (XMLStreamException e) {
+				throw new RuntimeException("Malformed USPTO patent", e);
+			}
+			if (nextElement == null){
+				close();
+			}
+		}
+		return nextElement != null;
+	}
+
+	public Element next() {
+		if (!hasNext()){
+			throw new NoSuchElementException();
+		}
+		Element element = nextElement;
+		nextElement = null;
+		return element;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Closes the underlying XML reader, but not the input stream. Called automatically once the description has been read
+	 */
+	public void close() {
+		if (finished){
+			return;
+		}
+		finished = true;
+		try {
+			reader.close();
+		} catch (XMLStreamException e) {
+			//ignore
+		}
+	}
+
+	/**
+	 * Advances to the next heading or paragraph that is a child of the description and builds it.
+	 * Returns null once the description has been fully read
+	 * @return
+	 * @throws XMLStreamException
+	 */
+	private Element readNextHeadingOrParagraph() throws XMLStreamException {
+		if (!inDescription){
+			if (!advanceToDescription()){
+				throw new RuntimeException("Malformed USPTO patent, no \"description\" element found");
+			}
+			inDescription = true;
+		}
+		while (reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT){
+				String name = reader.getLocalName();
+				if (isInNoNamespace() && (name.equals(XMLTags.HEADING) || name.equals(XMLTags.P))){
+					return buildElement();
+				}
+				skipElement();
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT){
+				//end of the description
+				return null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Moves to the start of the first description element that is a child of the root element
+	 * @return false if there is no such element
+	 * @throws XMLStreamException
+	 */
+	private boolean advanceToDescription() throws XMLStreamException {
+		int depth = 0;
+		while (reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT){
+				depth++;
+				if (depth == 2 && isInNoNamespace() && reader.getLocalName().equals(XMLTags.DESCRIPTION)){
+					return true;
+				}
+				if (depth >= 2){
+					skipElement();
+					depth--;
+				}
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT){
+				depth--;
+			}
+		}
+		return false;
+	}
+
+	private boolean isInNoNamespace() {
+		String namespace = reader.getNamespaceURI();
+		return namespace == null || namespace.length() == 0;
+	}
+
+	/**
+	 * Skips past the end of the current element.
+	 * Returns whether the skipped content contained a newline
+	 * @return
+	 * @throws XMLStreamException
+	 */
+	private boolean skipElement() throws XMLStreamException {
+		boolean containsNewline = false;
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT){
+				depth++;
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT){
+				depth--;
+			}
+			else if (!containsNewline && isText(event)){
+				containsNewline = reader.getText().indexOf('\n') != -1;
+			}
+		}
+		return containsNewline;
+	}
+
+	/**
+	 * Builds the current element and its descendants, replacing those that would later be detached by empty placeholders
+	 * @return
+	 * @throws XMLStreamException
+	 */
+	private Element buildElement() throws XMLStreamException {
+		Element root = createElement();
+		Element current = root;
+		while (current != null) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT){
+				Element child = createElement();
+				current.appendChild(child);
+				if (isSkippedDescendant(child.getLocalName())){
+					if (skipElement()){
+						child.appendChild("\n");
+					}
+				}
+				else{
+					current = child;
+				}
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT){
+				current = current == root ? null : (Element) current.getParent();
+			}
+			else if (isText(event)){
+				current.appendChild(reader.getText());
+			}
+		}
+		return root;
+	}
+
+	private Element createElement() {
+		String prefix = reader.getPrefix();
+		String localName = reader.getLocalName();
+		String qualifiedName = prefix != null && prefix.length() > 0 ? prefix + ":" + localName : localName;
+		String namespace = reader.getNamespaceURI();
+		Element element = new Element(qualifiedName, namespace != null ? namespace : "");
+		for (int i = 0, l = reader.getAttributeCount(); i < l; i++) {
+			String atrPrefix = reader.getAttributePrefix(i);
+			String atrLocalName = reader.getAttributeLocalName(i);
+			String atrNamespace = reader.getAttributeNamespace(i);
+			String atrQualifiedName = atrPrefix != null && atrPrefix.length() > 0 ? atrPrefix + ":" + atrLocalName : atrLocalName;
+			element.addAttribute(new Attribute(atrQualifiedName, atrNamespace != null ? atrNamespace : "", reader.getAttributeValue(i)));
+		}
+		return element;
+	}
+
+	private boolean isSkippedDescendant(String localName) {
+		for (String name : SKIPPED_DESCENDANTS) {
+			if (name.equals(localName)){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isText(int event) {
+		return event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE;
+	}
+}
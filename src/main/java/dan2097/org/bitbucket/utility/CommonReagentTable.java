@@ -0,0 +1,214 @@
+package dan2097.org.bitbucket.utility;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.base.Charsets;
+
+import dan2097.org.bitbucket.inchiTools.InchiNormaliser;
+import dan2097.org.bitbucket.utility.OscarReliantFunctionality.NameResolution;
+
+/**
+ * A precompiled table of the structures of frequently mentioned solvents, reagents and work-up agents,
+ * allowing their names to be resolved without going through the OSCAR dictionaries/OPSIN and InChI normalisation.
+ * The table is a resource, sorted by name, of name, SMILES and normalised InChI (tab separated, empty if not resolvable).
+ * It is generated by {@link #main(String[])}, which resolves the names in the usual way, and is regenerated with the common-reagent-table build profile
+ * whenever the names or the OPSIN/OSCAR versions change
+ * @author dl387
+ *
+ */
+public class CommonReagentTable {
+
+	static final String TABLE_LOCATION = "/dan2097/org/bitbucket/utility/commonReagentStructures.txt";
+	static final String NAMES_LOCATION = "/dan2097/org/bitbucket/utility/commonReagentNames.txt";
+	private static final String[] INCHI_LIST_LOCATIONS = new String[]{
+		"/dan2097/org/bitbucket/reactionextraction/knownSolventInChIs.txt",
+		"/dan2097/org/bitbucket/reactionextraction/knownCatalystInChIs.txt"
+	};
+	private static final Pattern matchTab = Pattern.compile("\\t");
+	private static final Pattern matchWhiteSpace = Pattern.compile("\\s+");
+
+	private final String[] names;
+	private final String[] smiles;
+	private final String[] inchis;
+
+	CommonReagentTable(InputStream is) throws IOException {
+		List<String> names = new ArrayList<String>();
+		List<String> smiles = new ArrayList<String>();
+		List<String> inchis = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(is, Charsets.UTF_8));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.startsWith("#") || line.equals("")){
+				continue;
+			}
+			String[] columns = matchTab.split(line, -1);
+			if (columns.length != 3){
+				throw new IOException("Malformed common reagent table line: " + line);
+			}
+			if (names.size() > 0 && names.get(names.size() - 1).compareTo(columns[0]) >= 0){
+				throw new IOException("Common reagent table is not sorted by name at: " + columns[0]);
+			}
+			names.add(columns[0]);
+			smiles.add(columns[1].length() > 0 ? columns[1] : null);
+			inchis.add(columns[2].length() > 0 ? columns[2] : null);
+		}
+		this.names = names.toArray(new String[names.size()]);
+		this.smiles = smiles.toArray(new String[smiles.size()]);
+		this.inchis = inchis.toArray(new String[inchis.size()]);
+	}
+
+	private static class SingletonHolder {
+		public static final CommonReagentTable INSTANCE = load();
+	}
+
+	public static CommonReagentTable getInstance() {
+		return SingletonHolder.INSTANCE;
+	}
+
+	private static CommonReagentTable load() {
+		InputStream is = CommonReagentTable.class.getResourceAsStream(TABLE_LOCATION);
+		if (is == null){
+			throw new RuntimeException("Failed to read " + TABLE_LOCATION);
+		}
+		try{
+			return new CommonReagentTable(is);
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Failed to read " + TABLE_LOCATION, e);
+		}
+		finally{
+			IOUtils.closeQuietly(is);
+		}
+	}
+
+	/**
+	 * Collapses runs of whitespace and trims, as is done to the names to precompile
+	 * @param name
+	 * @return
+	 */
+	static String normaliseName(String name) {
+		return matchWhiteSpace.matcher(name).replaceAll(" ").trim();
+	}
+
+	/**
+	 * True if the name is in the table, in which case {@link #getSmiles(String)} and {@link #getInchi(String)} give its resolution.
+	 * Names are matched exactly
+	 * @param name
+	 * @return
+	 */
+	public boolean contains(String name) {
+		return Arrays.binarySearch(names, name) >= 0;
+	}
+
+	/**
+	 * The SMILES of the given name or null if the name is not in the table or could not be resolved to SMILES
+	 * @param name
+	 * @return
+	 */
+	public String getSmiles(String name) {
+		int index = Arrays.binarySearch(names, name);
+		return index >= 0 ? smiles[index] : null;
+	}
+
+	/**
+	 * The normalised InChI of the given name or null if the name is not in the table or could not be resolved to an InChI
+	 * @param name
+	 * @return
+	 */
+	public String getInchi(String name) {
+		int index = Arrays.binarySearch(names, name);
+		return index >= 0 ? inchis[index] : null;
+	}
+
+	public int size() {
+		return names.length;
+	}
+
+	/**
+	 * The names to be precompiled: the curated list of common reagents together with the names given in the known solvent/catalyst InChI lists
+	 * (as given and lower cased)
+	 * @return
+	 */
+	static Set<String> getNamesToPrecompile() {
+		Set<String> namesToPrecompile = new TreeSet<String>();
+		for (String name : Utils.fileToStringSet(NAMES_LOCATION)) {
+			namesToPrecompile.add(normaliseName(name));
+		}
+		for (String location : INCHI_LIST_LOCATIONS) {
+			InputStream is = CommonReagentTable.class.getResourceAsStream(location);
+			if (is == null){
+				throw new RuntimeException("Failed to read " + location);
+			}
+			try{
+				for (String line : IOUtils.readLines(is, "UTF-8")) {
+					String[] columns = matchTab.split(line);
+					if (line.startsWith("#") || columns.length < 2){
+						continue;
+					}
+					String name = normaliseName(columns[1]);
+					if (name.length() > 0){
+						namesToPrecompile.add(name);
+						namesToPrecompile.add(name.toLowerCase());
+					}
+				}
+			}
+			catch (IOException e) {
+				throw new RuntimeException("Failed to read " + location, e);
+			}
+			finally{
+				IOUtils.closeQuietly(is);
+			}
+		}
+		return namesToPrecompile;
+	}
+
+	/**
+	 * Generates the table by resolving the names to precompile using OSCAR's dictionaries/OPSIN and writes it to the given file.
+	 * Names that could not be resolved are included with empty SMILES and InChI, and listed in the printed coverage report
+	 * @param args the file to write the table to
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1){
+			System.err.println("Usage: CommonReagentTable outputFile");
+			System.exit(1);
+		}
+		Set<String> namesToPrecompile = getNamesToPrecompile();
+		Map<String, NameResolution> resolutions = new TreeMap<String, NameResolution>(OscarReliantFunctionality.getInstance().resolveAll(namesToPrecompile));
+		StringBuilder table = new StringBuilder();
+		table.append("#Generated by ").append(CommonReagentTable.class.getName()).append(" from ").append(NAMES_LOCATION).append(" and the known solvent/catalyst InChI lists. Do not edit\n");
+		table.append("#Regenerate with: mvn -Pcommon-reagent-table process-classes\n");
+		List<String> unresolved = new ArrayList<String>();
+		for (String name : namesToPrecompile) {
+			NameResolution resolution = resolutions.get(name);
+			String smiles = resolution.getSmiles();
+			String inchi = resolution.getStdInchi() != null ? InchiNormaliser.normaliseInChI(resolution.getStdInchi()) : null;
+			if (smiles == null && inchi == null){
+				unresolved.add(name);
+			}
+			table.append(name).append('\t');
+			table.append(smiles != null ? smiles : "").append('\t');
+			table.append(inchi != null ? inchi : "").append('\n');
+		}
+		FileUtils.writeStringToFile(new File(args[0]), table.toString(), "UTF-8");
+		System.out.println("Precompiled " + (namesToPrecompile.size() - unresolved.size()) + " of " + namesToPrecompile.size() + " names");
+		for (String name : unresolved) {
+			System.out.println("Unresolvable: " + name);
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package dan2097.org.bitbucket.utility;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Emits Java Flight Recorder events around the expensive operations of reaction extraction, so that a recording of a production run
+ * shows which document, paragraph and input each slow ChemicalTagger, classification, name resolution, atom mapping, InChI merging or depiction call was for.
+ * Each event carries the document identifier and paragraph identifier of the current thread's {@link #setDocumentIdentifier(String) context},
+ * the length of the text that was processed and the outcome.
+ *
+ * The event classes require JDK 11+ and are compiled by the jfr profile (activated automatically on JDK 11+) into the dan2097.org.bitbucket.jfr package.
+ * When they are not present, or flight recording of an event is not enabled, {@link #begin(Operation)} returns a span that does nothing
+ * @author dl387
+ *
+ */
+public class ExtractionEvents {
+
+	private static final Logger LOG = Logger.getLogger(ExtractionEvents.class);
+	private static final String RECORDER_CLASS = "dan2097.org.bitbucket.jfr.JfrEventRecorder";
+
+	public enum Operation {
+		chemicalTagging,
+		paragraphClassification,
+		nameResolution,
+		batchNameResolution,
+		atomMapping,
+		inchiMerging,
+		depiction
+	}
+
+	/**
+	 * Implemented by the JFR backed recorder
+	 */
+	public interface Recorder {
+
+		/**
+		 * Starts timing an event for the given operation. Returns null if the event is not enabled
+		 * @param operation
+		 * @return
+		 */
+		Object begin(Operation operation);
+
+		/**
+		 * Ends the event and commits it if it meets the recording's threshold
+		 * @param event
+		 * @param documentIdentifier
+		 * @param paragraphIdentifier
+		 * @param textLength
+		 * @param outcome
+		 */
+		void end(Object event, String documentIdentifier, String paragraphIdentifier, int textLength, String outcome);
+	}
+
+	/**
+	 * An operation in progress. {@link #end()} should be called in a finally block; if no outcome has been set the operation is recorded as failed
+	 */
+	public static class Span {
+		private final Object event;
+		private final int textLength;
+		private String outcome = "failed";
+
+		private Span(Object event, int textLength) {
+			this.event = event;
+			this.textLength = textLength;
+		}
+
+		public void setOutcome(String outcome) {
+			if (event != null){
+				this.outcome = outcome;
+			}
+		}
+
+		public void end() {
+			if (event != null){
+				Context context = context();
+				recorder.end(event, context.documentIdentifier, context.paragraphIdentifier, textLength, outcome);
+			}
+		}
+	}
+
+	private static class Context {
+		private String documentIdentifier;
+		private String paragraphIdentifier;
+		private int paragraphLength;
+	}
+
+	private static final Span DISABLED_SPAN = new Span(null, 0);
+
+	private static final Recorder recorder = loadRecorder();
+
+	private static final ThreadLocal<Context> threadContext = new ThreadLocal<Context>(){
+		protected Context initialValue() {
+			return new Context();
+		}
+	};
+
+	private ExtractionEvents() {}
+
+	private static Recorder loadRecorder() {
+		try{
+			return (Recorder) Class.forName(RECORDER_CLASS).newInstance();
+		}
+		catch (ClassNotFoundException e) {
+			return null;
+		}
+		catch (Throwable e) {//e.g. the event classes are present but this is not a JDK 11+ JVM
+			LOG.debug("Flight recorder events are unavailable", e);
+			return null;
+		}
+	}
+
+	private static Context context() {
+		return threadContext.get();
+	}
+
+	/**
+	 * True if the flight recorder events are available, which does not imply that they are being recorded
+	 * @return
+	 */
+	public static boolean isAvailable() {
+		return recorder != null;
+	}
+
+	/**
+	 * Sets the identifier of the document being processed by this thread, and clears the current paragraph
+	 * @param documentIdentifier
+	 */
+	public static void setDocumentIdentifier(String documentIdentifier) {
+		Context context = context();
+		context.documentIdentifier = documentIdentifier;
+		context.paragraphIdentifier = null;
+		context.paragraphLength = 0;
+	}
+
+	public static String getDocumentIdentifier() {
+		return context().documentIdentifier;
+	}
+
+	/**
+	 * Sets the paragraph being processed by this thread
+	 * @param paragraphIdentifier
+	 * @param paragraphLength
+	 */
+	public static void setParagraph(String paragraphIdentifier, int paragraphLength) {
+		Context context = context();
+		context.paragraphIdentifier = paragraphIdentifier;
+		context.paragraphLength = paragraphLength;
+	}
+
+	public static String getParagraphIdentifier() {
+		return context().paragraphIdentifier;
+	}
+
+	/**
+	 * Clears this thread's document and paragraph
+	 */
+	public static void clearContext() {
+		setDocumentIdentifier(null);
+	}
+
+	/**
+	 * Begins an operation on the current paragraph, whose length is recorded as the text length
+	 * @param operation
+	 * @return
+	 */
+	public static Span begin(Operation operation) {
+		if (recorder == null){
+			return DISABLED_SPAN;
+		}
+		return begin(operation, context().paragraphLength);
+	}
+
+	/**
+	 * Begins an operation on a text of the given length e.g. a chemical name
+	 * @param operation
+	 * @param textLength
+	 * @return
+	 */
+	public static Span begin(Operation operation, int textLength) {
+		if (recorder == null){
+			return DISABLED_SPAN;
+		}
+		Object event = recorder.begin(operation);
+		if (event == null){
+			return DISABLED_SPAN;
+		}
+		return new Span(event, textLength);
+	}
+}
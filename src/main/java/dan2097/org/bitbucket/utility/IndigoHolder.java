@@ -9,7 +9,42 @@ public class IndigoHolder {
 		public static final Indigo INSTANCE = new Indigo();
 	}
  
+	/**
+	 * The shared Indigo instance, or if {@link #bindThreadLocalInstance()} has been called on this thread, the thread's own instance
+	 * @return
+	 */
 	public static Indigo getInstance() {
-		return SingletonHolder.INSTANCE;
+		Indigo boundInstance = threadBoundInstance.get();
+		return boundInstance != null ? boundInstance : SingletonHolder.INSTANCE;
+	}
+
+	private static final ThreadLocal<Indigo> threadInstance = new ThreadLocal<Indigo>(){
+		protected Indigo initialValue() {
+			return new Indigo();
+		}
+	};
+
+	private static final ThreadLocal<Indigo> threadBoundInstance = new ThreadLocal<Indigo>();
+
+	/**
+	 * An Indigo instance for use by the current thread only, as an Indigo instance (and the objects it creates) must not be used concurrently.
+	 * Options set on the shared instance, e.g. the atom mapping timeout, do not apply
+	 * @return
+	 */
+	public static Indigo getThreadLocalInstance() {
+		return threadInstance.get();
+	}
+
+	/**
+	 * Makes {@link #getInstance()} return this thread's own instance for the remainder of the thread's life.
+	 * For use by the threads of a pool that extracts or depicts reactions concurrently,
+	 * as Indigo objects are then only ever created and used by the thread that owns them.
+	 * Returns the thread's instance so that options, e.g. the atom mapping timeout, can be set on it
+	 * @return
+	 */
+	public static Indigo bindThreadLocalInstance() {
+		Indigo indigo = threadInstance.get();
+		threadBoundInstance.set(indigo);
+		return indigo;
 	}
 }
@@ -0,0 +1,167 @@
+package dan2097.org.bitbucket.utility;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import com.ggasoftware.indigo.Indigo;
+import com.ggasoftware.indigo.IndigoException;
+import com.ggasoftware.indigo.IndigoObject;
+
+/**
+ * Frees the native memory of the IndigoObjects it tracks when closed,
+ * rather than leaving this to the garbage collector's finalisation of the objects.
+ * Intended to be used with try/finally around code that creates temporary molecules/reactions e.g.
+ * <pre>
+ * IndigoScope scope = new IndigoScope();
+ * try{
+ *   IndigoObject mol = scope.track(indigo.loadMolecule(smiles));
+ *   ...
+ * }
+ * finally{
+ *   scope.close();
+ * }
+ * </pre>
+ * Objects that need to outlive the scope should either not be tracked or be released with {@link #keep(IndigoObject)}
+ *
+ * Setting the system property {@value #LEAK_TRACKING_PROPERTY} to true enables leak tracking:
+ * the number of live Indigo objects is compared on opening and closing each scope and
+ * a warning, with the location the scope was opened at, is logged if objects were not freed.
+ * As this forces garbage collection it should only be used for debugging
+ * @author dl387
+ *
+ */
+public class IndigoScope implements Closeable {
+
+	private static final Logger LOG = Logger.getLogger(IndigoScope.class);
+
+	public static final String LEAK_TRACKING_PROPERTY = "dan2097.indigo.leakTracking";
+	private static final boolean LEAK_TRACKING = Boolean.getBoolean(LEAK_TRACKING_PROPERTY);
+
+	private final Indigo indigo;
+	private final List<IndigoObject> trackedObjects = new ArrayList<IndigoObject>();
+	private final int referencesOnOpening;
+	private final Throwable openedAt;
+	private int keptObjects = 0;
+	private boolean closed = false;
+
+	/**
+	 * A scope for objects created by the shared Indigo instance
+	 */
+	public IndigoScope() {
+		this(IndigoHolder.getInstance());
+	}
+
+	/**
+	 * A scope for objects created by the given Indigo instance
+	 * @param indigo
+	 */
+	public IndigoScope(Indigo indigo) {
+		this.indigo = indigo;
+		if (LEAK_TRACKING){
+			referencesOnOpening = indigo.countReferences();
+			openedAt = new Throwable("Indigo scope opened here");
+		}
+		else{
+			referencesOnOpening = 0;
+			openedAt = null;
+		}
+	}
+
+	/**
+	 * Is leak tracking enabled
+	 * @return
+	 */
+	public static boolean isLeakTrackingEnabled() {
+		return LEAK_TRACKING;
+	}
+
+	/**
+	 * Registers the object to be disposed when this scope is closed.
+	 * Returns the object for convenience
+	 * @param obj
+	 * @return
+	 */
+	public IndigoObject track(IndigoObject obj) {
+		if (closed){
+			throw new IllegalStateException("Indigo scope has already been closed");
+		}
+		trackedObjects.add(obj);
+		return obj;
+	}
+
+	/**
+	 * Stops tracking the given object so that it survives the closing of this scope.
+	 * Objects that were not tracked by this scope are returned unchanged
+	 * @param obj
+	 * @return
+	 */
+	public IndigoObject keep(IndigoObject obj) {
+		for (int i = trackedObjects.size() - 1; i >= 0; i--) {
+			if (trackedObjects.get(i) == obj){
+				trackedObjects.remove(i);
+				keptObjects++;
+				break;
+			}
+		}
+		return obj;
+	}
+
+	/**
+	 * Disposes the object immediately and stops tracking it
+	 * @param obj
+	 */
+	public void dispose(IndigoObject obj) {
+		for (int i = trackedObjects.size() - 1; i >= 0; i--) {
+			if (trackedObjects.get(i) == obj){
+				trackedObjects.remove(i);
+				break;
+			}
+		}
+		disposeQuietly(obj);
+	}
+
+	/**
+	 * Disposes all tracked objects, most recently tracked first
+	 */
+	public void close() {
+		if (closed){
+			return;
+		}
+		closed = true;
+		for (int i = trackedObjects.size() - 1; i >= 0; i--) {
+			disposeQuietly(trackedObjects.get(i));
+		}
+		trackedObjects.clear();
+		if (LEAK_TRACKING){
+			int leaked = indigo.countReferences() - referencesOnOpening - keptObjects;
+			if (leaked > 0){
+				//untracked temporaries e.g. atom iterators are only freed by finalisation, so discount any that are already unreachable
+				System.gc();
+				System.runFinalization();
+				leaked = indigo.countReferences() - referencesOnOpening - keptObjects;
+			}
+			if (leaked > 0){
+				LOG.warn(leaked + " Indigo object(s) created in this scope were not freed", openedAt);
+			}
+		}
+	}
+
+	/**
+	 * Frees the native memory associated with the given object, ignoring null
+	 * @param obj
+	 */
+	public static void disposeQuietly(IndigoObject obj) {
+		if (obj == null){
+			return;
+		}
+		try{
+			obj.dispose();
+		}
+		catch (IndigoException e) {
+			LOG.debug("Failed to dispose Indigo object", e);
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package dan2097.org.bitbucket.utility;
+
+import java.util.Arrays;
+
+/**
+ * A set of primitive longs, using open addressing with linear probing. Removal is not supported.
+ * This class is not thread safe
+ * @author dl387
+ *
+ */
+public class LongHashSet {
+
+	private static final long EMPTY = 0;
+
+	private long[] table;
+	private int size = 0;
+	/**0 is used to mark empty slots so is recorded separately*/
+	private boolean containsEmptyValue = false;
+
+	public LongHashSet() {
+		this(8);
+	}
+
+	/**
+	 * Creates a set that can hold the given number of values without resizing
+	 * @param expectedSize
+	 */
+	public LongHashSet(int expectedSize) {
+		int capacity = 8;
+		while (capacity < expectedSize * 2) {
+			capacity <<= 1;
+		}
+		table = new long[capacity];
+	}
+
+	/**
+	 * Adds the value, returning true if it was not already present
+	 * @param value
+	 * @return
+	 */
+	public boolean add(long value) {
+		if (value == EMPTY){
+			if (containsEmptyValue){
+				return false;
+			}
+			containsEmptyValue = true;
+			size++;
+			return true;
+		}
+		int mask = table.length - 1;
+		int slot = mix(value) & mask;
+		while (table[slot] != EMPTY) {
+			if (table[slot] == value){
+				return false;
+			}
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = value;
+		size++;
+		if (size * 2 > table.length){
+			resize(table.length * 2);
+		}
+		return true;
+	}
+
+	public boolean contains(long value) {
+		if (value == EMPTY){
+			return containsEmptyValue;
+		}
+		int mask = table.length - 1;
+		int slot = mix(value) & mask;
+		while (table[slot] != EMPTY) {
+			if (table[slot] == value){
+				return true;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return false;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		Arrays.fill(table, EMPTY);
+		size = 0;
+		containsEmptyValue = false;
+	}
+
+	private void resize(int capacity) {
+		long[] oldTable = table;
+		table = new long[capacity];
+		int mask = capacity - 1;
+		for (long value : oldTable) {
+			if (value != EMPTY){
+				int slot = mix(value) & mask;
+				while (table[slot] != EMPTY) {
+					slot = (slot + 1) & mask;
+				}
+				table[slot] = value;
+			}
+		}
+	}
+
+	/**
+	 * Spreads the bits of the value so that values differing only in their high bits occupy different slots
+	 * @param value
+	 * @return
+	 */
+	private static int mix(long value) {
+		long h = value * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
@@ -1,9 +1,23 @@
 package dan2097.org.bitbucket.utility;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import uk.ac.cam.ch.wwmm.chemicaltagger.ChemistryPOSTagger;
 import uk.ac.cam.ch.wwmm.chemicaltagger.OpenNLPTagger;
@@ -19,13 +33,35 @@ import uk.ac.cam.ch.wwmm.oscar.chemnamedict.dictionaries.ChEBIDictionary;
 import uk.ac.cam.ch.wwmm.oscar.chemnamedict.dictionaries.DefaultDictionary;
 import uk.ac.cam.ch.wwmm.oscar.opsin.OpsinDictionary;
 import uk.ac.cam.ch.wwmm.oscarMEMM.MEMMRecogniser;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import dan2097.org.bitbucket.chemicaltagging.CustomisedOscarTagger;
 import dan2097.org.bitbucket.chemicaltagging.OpsinTagger;
 import dan2097.org.bitbucket.chemicaltagging.TrivialChemicalNameTagger;
 
 public class OscarReliantFunctionality {
+	/**Maximum number of names whose resolution to SMILES/InChI is memoised*/
+	private static final int NAME_RESOLUTION_CACHE_SIZE = 100000;
+
 	private final List<IChemNameDict> dictionaries;
+	/**The dictionaries other than OPSIN, which are simple lookups*/
+	private final List<IChemNameDict> lookupDictionaries;
+	/**OPSIN instances, one per resolving thread, so that names may be resolved concurrently*/
+	private final ThreadLocal<OpsinDictionary> threadOpsinDictionary = new ThreadLocal<OpsinDictionary>(){
+		protected OpsinDictionary initialValue() {
+			return new OpsinDictionary();
+		}
+	};
+	/**Created when first needed, see {@link #getOpsinExecutor()}*/
+	private ExecutorService opsinExecutor;
 	private final ChemistryPOSTagger posTagger;
+	/**Name resolution is independent of context, so the same name occurring in different paragraphs and documents need only be resolved once*/
+	private final Cache<String, Optional<String>> nameToSmiles = CacheBuilder.newBuilder().maximumSize(NAME_RESOLUTION_CACHE_SIZE).build();
+	private final Cache<String, Optional<String>> nameToStdInchi = CacheBuilder.newBuilder().maximumSize(NAME_RESOLUTION_CACHE_SIZE).build();
 	
 	private OscarReliantFunctionality() {
 		Oscar oscar = new Oscar();
@@ -33,6 +69,7 @@ public class OscarReliantFunctionality {
 		dictionaries.add(new OpsinDictionary());
 		dictionaries.add(new DefaultDictionary());
 		dictionaries.add(ChEBIDictionary.getInstance());
+		lookupDictionaries = dictionaries.subList(1, dictionaries.size());
 		ChemNameDictRegistry chemNameRegistry = new ChemNameDictRegistry(Locale.ENGLISH);
 		for (IChemNameDict dict : dictionaries) {
 			chemNameRegistry.register(dict);
@@ -65,6 +102,41 @@ public class OscarReliantFunctionality {
 	}
 	
 	public String resolveNameToSmiles(String name) {
+		Optional<String> smiles = nameToSmiles.getIfPresent(name);
+		if (smiles == null){
+			smiles = Optional.fromNullable(lookupSmiles(name, getDictionariesForCurrentThread()));
+			nameToSmiles.put(name, smiles);
+		}
+		return smiles.orNull();
+	}
+
+	/**
+	 * The dictionaries in order of precedence: the lookup dictionaries, then this thread's OPSIN in place of the OPSIN registered with OSCAR
+	 * @return
+	 */
+	private List<IChemNameDict> getDictionariesForCurrentThread() {
+		List<IChemNameDict> threadDictionaries = new ArrayList<IChemNameDict>(dictionaries.size());
+		threadDictionaries.addAll(lookupDictionaries);
+		threadDictionaries.add(threadOpsinDictionary.get());
+		return threadDictionaries;
+	}
+
+	/**
+	 * The threads on which {@link #resolveAll(Collection)} runs OPSIN. These are daemon threads that exit after a minute without work
+	 * @return
+	 */
+	private synchronized ExecutorService getOpsinExecutor() {
+		if (opsinExecutor == null){
+			int threads = Runtime.getRuntime().availableProcessors();
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+					new ThreadFactoryBuilder().setDaemon(true).setNameFormat("opsin-%d").build());
+			executor.allowCoreThreadTimeOut(true);
+			opsinExecutor = executor;
+		}
+		return opsinExecutor;
+	}
+
+	private static String lookupSmiles(String name, List<IChemNameDict> dictionaries) {
 		for (IChemNameDict dict : dictionaries) {
 			if (dict instanceof ISMILESProvider) {
 				String smiles = (((ISMILESProvider)dict).getShortestSmiles(name));
@@ -77,6 +149,15 @@ public class OscarReliantFunctionality {
 	}
 	
 	public String resolveNameToStdInchi(String name) {
+		Optional<String> inchi = nameToStdInchi.getIfPresent(name);
+		if (inchi == null){
+			inchi = Optional.fromNullable(lookupStdInchi(name, getDictionariesForCurrentThread()));
+			nameToStdInchi.put(name, inchi);
+		}
+		return inchi.orNull();
+	}
+
+	private static String lookupStdInchi(String name, List<IChemNameDict> dictionaries) {
 		for (IChemNameDict dict : dictionaries) {
 			if (dict instanceof IStdInChIProvider) {
 				Set<String> inchis = (((IStdInChIProvider)dict).getStdInchis(name));
@@ -88,4 +169,86 @@ public class OscarReliantFunctionality {
 		}
 		return null;
 	}
+
+	/**
+	 * The SMILES and StdInChI of a name, either of which may be null
+	 */
+	public static class NameResolution {
+		private final String smiles;
+		private final String stdInchi;
+
+		NameResolution(String smiles, String stdInchi) {
+			this.smiles = smiles;
+			this.stdInchi = stdInchi;
+		}
+
+		public String getSmiles() {
+			return smiles;
+		}
+
+		public String getStdInchi() {
+			return stdInchi;
+		}
+	}
+
+	/**
+	 * Resolves each of the given names to SMILES and StdInChI, giving the same results as {@link #resolveNameToSmiles(String)} and {@link #resolveNameToStdInchi(String)}.
+	 * Names that have previously been resolved are answered from memory and the remaining distinct names are looked up in the dictionaries,
+	 * which take precedence over OPSIN. Only the names the dictionaries do not fully resolve are parsed by OPSIN, in parallel
+	 * @param names
+	 * @return map from each name to its resolution
+	 */
+	public Map<String, NameResolution> resolveAll(Collection<String> names) {
+		Map<String, NameResolution> results = new HashMap<String, NameResolution>();
+		List<String> unresolvedNames = new ArrayList<String>();
+		for (String name : new LinkedHashSet<String>(names)) {
+			Optional<String> smiles = nameToSmiles.getIfPresent(name);
+			Optional<String> inchi = nameToStdInchi.getIfPresent(name);
+			if (smiles != null && inchi != null){
+				results.put(name, new NameResolution(smiles.orNull(), inchi.orNull()));
+			}
+			else{
+				unresolvedNames.add(name);
+			}
+		}
+		Map<String, Future<NameResolution>> opsinResults = new LinkedHashMap<String, Future<NameResolution>>();
+		for (final String name : unresolvedNames) {
+			final String dictionarySmiles = lookupSmiles(name, lookupDictionaries);
+			final String dictionaryInchi = lookupStdInchi(name, lookupDictionaries);
+			if (dictionarySmiles != null && dictionaryInchi != null){
+				nameToSmiles.put(name, Optional.of(dictionarySmiles));
+				nameToStdInchi.put(name, Optional.of(dictionaryInchi));
+				results.put(name, new NameResolution(dictionarySmiles, dictionaryInchi));
+				continue;
+			}
+			opsinResults.put(name, getOpsinExecutor().submit(new Callable<NameResolution>() {
+				public NameResolution call() {
+					List<IChemNameDict> opsin = Collections.<IChemNameDict>singletonList(threadOpsinDictionary.get());
+					String smiles = dictionarySmiles != null ? dictionarySmiles : lookupSmiles(name, opsin);
+					String inchi = dictionaryInchi != null ? dictionaryInchi : lookupStdInchi(name, opsin);
+					return new NameResolution(smiles, inchi);
+				}
+			}));
+		}
+		try{
+			for (Entry<String, Future<NameResolution>> entry : opsinResults.entrySet()) {
+				String name = entry.getKey();
+				NameResolution resolution = entry.getValue().get();
+				nameToSmiles.put(name, Optional.fromNullable(resolution.getSmiles()));
+				nameToStdInchi.put(name, Optional.fromNullable(resolution.getStdInchi()));
+				results.put(name, resolution);
+			}
+		}
+		catch (InterruptedException e) {
+			for (Future<NameResolution> future : opsinResults.values()) {
+				future.cancel(true);
+			}
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted whilst resolving names", e);
+		}
+		catch (ExecutionException e) {
+			throw new RuntimeException("Name resolution failed", e.getCause());
+		}
+		return results;
+	}
 }
@@ -0,0 +1,36 @@
+package dan2097.org.bitbucket.utility;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * A 64-bit identifier of a chemical structure, derived from its (normalised) InChI.
+ * Comparing and hashing these is much cheaper than doing so with InChIs, which may be hundreds of characters long, 
+ * so they are used for deduplication and membership tests, typically in a {@link LongHashSet}.
+ * Distinct InChIs are treated as the same structure if they have the same identifier; this is vanishingly unlikely for the numbers of structures compared
+ * @author dl387
+ *
+ */
+public class StructureId {
+
+	/**The identifier used when there is no InChI*/
+	public static final long NONE = 0;
+
+	private static final HashFunction hashFunction = Hashing.murmur3_128();
+
+	private StructureId() {}
+
+	/**
+	 * The identifier of the given InChI, or {@link #NONE} if it is null
+	 * @param inchi
+	 * @return
+	 */
+	public static long of(String inchi) {
+		if (inchi == null){
+			return NONE;
+		}
+		long id = hashFunction.hashString(inchi, Charsets.UTF_8).asLong();
+		return id != NONE ? id : 1;
+	}
+}
@@ -0,0 +1,161 @@
+package dan2097.org.bitbucket.utility;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nu.xom.Attribute;
+import nu.xom.Document;
+import nu.xom.Element;
+import nu.xom.Node;
+import nu.xom.Text;
+
+import com.google.common.base.Charsets;
+
+/**
+ * A compact binary encoding of XML documents such as those produced by ChemicalTagger.
+ * The encoding begins with a table of the distinct strings used by the document (element names, namespaces, attribute names and values, and text),
+ * followed by the elements in document order, each referring to its strings by index. All integers are written as variable length quantities.
+ * Only elements, attributes and text are encoded; comments and processing instructions are dropped
+ * @author dl387
+ *
+ */
+public class TaggedDocumentCodec {
+
+	private static final byte ELEMENT = 1;
+	private static final byte TEXT = 2;
+
+	/**
+	 * Encodes the given document
+	 * @param doc
+	 * @return
+	 */
+	public static byte[] encode(Document doc) {
+		Map<String, Integer> stringToIndex = new HashMap<String, Integer>();
+		List<String> strings = new ArrayList<String>();
+		ByteArrayOutputStream tree = new ByteArrayOutputStream();
+		encodeElement(doc.getRootElement(), tree, stringToIndex, strings);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(tree.size() + strings.size() * 16);
+		writeVarInt(out, strings.size());
+		for (String str : strings) {
+			byte[] bytes = str.getBytes(Charsets.UTF_8);
+			writeVarInt(out, bytes.length);
+			out.write(bytes, 0, bytes.length);
+		}
+		byte[] treeBytes = tree.toByteArray();
+		out.write(treeBytes, 0, treeBytes.length);
+		return out.toByteArray();
+	}
+
+	private static void encodeElement(Element element, ByteArrayOutputStream out, Map<String, Integer> stringToIndex, List<String> strings) {
+		out.write(ELEMENT);
+		writeVarInt(out, indexOf(element.getQualifiedName(), stringToIndex, strings));
+		writeVarInt(out, indexOf(element.getNamespaceURI(), stringToIndex, strings));
+		int attributeCount = element.getAttributeCount();
+		writeVarInt(out, attributeCount);
+		for (int i = 0; i < attributeCount; i++) {
+			Attribute attribute = element.getAttribute(i);
+			writeVarInt(out, indexOf(attribute.getQualifiedName(), stringToIndex, strings));
+			writeVarInt(out, indexOf(attribute.getNamespaceURI(), stringToIndex, strings));
+			writeVarInt(out, indexOf(attribute.getValue(), stringToIndex, strings));
+		}
+		int encodedChildCount = 0;
+		for (int i = 0, l = element.getChildCount(); i < l; i++) {
+			Node child = element.getChild(i);
+			if (child instanceof Element || child instanceof Text){
+				encodedChildCount++;
+			}
+		}
+		writeVarInt(out, encodedChildCount);
+		for (int i = 0, l = element.getChildCount(); i < l; i++) {
+			Node child = element.getChild(i);
+			if (child instanceof Element){
+				encodeElement((Element) child, out, stringToIndex, strings);
+			}
+			else if (child instanceof Text){
+				out.write(TEXT);
+				writeVarInt(out, indexOf(child.getValue(), stringToIndex, strings));
+			}
+		}
+	}
+
+	private static int indexOf(String str, Map<String, Integer> stringToIndex, List<String> strings) {
+		Integer index = stringToIndex.get(str);
+		if (index == null){
+			index = strings.size();
+			strings.add(str);
+			stringToIndex.put(str, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Decodes a document from the buffer, starting at its current position.
+	 * On return the buffer's position is after the encoded document
+	 * @param buffer
+	 * @return
+	 */
+	public static Document decode(ByteBuffer buffer) {
+		int stringCount = readVarInt(buffer);
+		String[] strings = new String[stringCount];
+		for (int i = 0; i < stringCount; i++) {
+			byte[] bytes = new byte[readVarInt(buffer)];
+			buffer.get(bytes);
+			strings[i] = new String(bytes, Charsets.UTF_8);
+		}
+		if (buffer.get() != ELEMENT){
+			throw new IllegalArgumentException("Malformed encoded document, expected the root element");
+		}
+		return new Document(decodeElement(buffer, strings));
+	}
+
+	private static Element decodeElement(ByteBuffer buffer, String[] strings) {
+		String name = strings[readVarInt(buffer)];
+		String namespace = strings[readVarInt(buffer)];
+		Element element = new Element(name, namespace);
+		int attributeCount = readVarInt(buffer);
+		for (int i = 0; i < attributeCount; i++) {
+			String attributeName = strings[readVarInt(buffer)];
+			String attributeNamespace = strings[readVarInt(buffer)];
+			element.addAttribute(new Attribute(attributeName, attributeNamespace, strings[readVarInt(buffer)]));
+		}
+		int childCount = readVarInt(buffer);
+		for (int i = 0; i < childCount; i++) {
+			byte type = buffer.get();
+			if (type == ELEMENT){
+				element.appendChild(decodeElement(buffer, strings));
+			}
+			else if (type == TEXT){
+				element.appendChild(new Text(strings[readVarInt(buffer)]));
+			}
+			else{
+				throw new IllegalArgumentException("Malformed encoded document, unexpected node type: " + type);
+			}
+		}
+		return element;
+	}
+
+	static void writeVarInt(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	static int readVarInt(ByteBuffer buffer) {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			byte b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0){
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed variable length integer");
+	}
+}
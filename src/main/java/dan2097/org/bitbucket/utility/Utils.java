@@ -6,10 +6,15 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -49,18 +54,27 @@ import dan2097.org.bitbucket.reactionextraction.ExperimentalSectionsCreator;
 import dan2097.org.bitbucket.reactionextraction.PreviousReactionData;
 import dan2097.org.bitbucket.reactionextraction.Reaction;
 import dan2097.org.bitbucket.reactionextraction.ReactionDepicter;
+import dan2097.org.bitbucket.reactionextraction.ReactionExtractor;
+import dan2097.org.bitbucket.reactionextraction.ReactionProvenance;
+import dan2097.org.bitbucket.utility.ExtractionEvents.Operation;
+import dan2097.org.bitbucket.utility.OscarReliantFunctionality.NameResolution;
 
 public class Utils {
 	
 	private static final Logger LOG = Logger.getLogger(Utils.class);
-	private static final Builder xomBuilder;
+	/**XOM builders, and the XML readers they use, are not thread safe so each thread has its own*/
+	private static final ThreadLocal<Builder> xomBuilder = new ThreadLocal<Builder>(){
+		protected Builder initialValue() {
+			return createXomBuilder();
+		}
+	};
 	private static final Pattern matchTab = Pattern.compile("\\t");
 	private static final Pattern matchWhiteSpace = Pattern.compile("\\s+");
 	private static final Pattern matchDot = Pattern.compile("\\.");
 	private static final Pattern matchForwardSlash = Pattern.compile("/");
 	private static final Pattern matchMiddleDot = Pattern.compile("\u00B7");
 	
-	static {
+	private static Builder createXomBuilder() {
 		XMLReader xmlReader;
 		try{
 			xmlReader = XMLReaderFactory.createXMLReader();
@@ -74,7 +88,14 @@ public class Utils {
 		catch (Exception e) {
 			throw new RuntimeException("Your system's default XML Reader does not support disabling DTD loading! Maybe try updating your version of java?");
 		}
-		xomBuilder = new Builder(xmlReader);
+		try{
+			xmlReader.setFeature("http://xml.org/sax/features/external-general-entities", false);
+			xmlReader.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+		}
+		catch (Exception e) {
+			throw new RuntimeException("Your system's default XML Reader does not support disabling external entities! Maybe try updating your version of java?");
+		}
+		return new Builder(xmlReader);
 	}
 
 	/**
@@ -93,6 +114,7 @@ public class Utils {
 	 * @return
 	 */
 	public static Document runChemicalTagger(String text) {
+		ExtractionEvents.Span span = ExtractionEvents.begin(Operation.chemicalTagging, text.length());
 		try{
 			String taggedText = tagString(text);
 			ChemistrySentenceParser chemistrySentenceParser = new ChemistrySentenceParser(taggedText);
@@ -103,22 +125,41 @@ public class Utils {
 				Element root = new Element("Document");
 				return new Document(root);
 			}
+			span.setOutcome("tagged");
 			return doc;
 		}
 		catch (StackOverflowError e){
 			LOG.error("A StackOverflowError was encountered while running with ChemicalTagger. Possibly a section of text with A LOT of brackets was encountered");
+			span.setOutcome("stackOverflow");
 			Element root = new Element("Document");
 			return new Document(root);
 		}
+		finally{
+			span.end();
+		}
 	}
 
 	/**
 	 * Uses OSCAR4's dictionaries/OPSIN to convert a name to SMILES
+	 * Names in the {@link CommonReagentTable} are answered from it
 	 * @param name
 	 * @return
 	 */
 	public static String resolveNameToSmiles(String name) {
-		return OscarReliantFunctionality.getInstance().resolveNameToSmiles(name);
+		ExtractionEvents.Span span = ExtractionEvents.begin(Operation.nameResolution, name.length());
+		try{
+			CommonReagentTable commonReagents = CommonReagentTable.getInstance();
+			if (commonReagents.contains(name)){
+				span.setOutcome("commonReagent");
+				return commonReagents.getSmiles(name);
+			}
+			String smiles = OscarReliantFunctionality.getInstance().resolveNameToSmiles(name);
+			span.setOutcome(smiles != null ? "resolved" : "unresolved");
+			return smiles;
+		}
+		finally{
+			span.end();
+		}
 	}
 	
 	/**
@@ -157,15 +198,29 @@ public class Utils {
 	
 	/**
 	 * Uses OSCAR4's dictionaries/OPSIN to convert a name to a normalised InChI
+	 * Names in the {@link CommonReagentTable} are answered from it
 	 * @param name
 	 * @return
 	 */
 	public static String resolveNameToInchi(String name) {
-		String inchi = OscarReliantFunctionality.getInstance().resolveNameToStdInchi(name);
-		if (inchi != null) {
-			return InchiNormaliser.normaliseInChI(inchi);
+		ExtractionEvents.Span span = ExtractionEvents.begin(Operation.nameResolution, name.length());
+		try{
+			CommonReagentTable commonReagents = CommonReagentTable.getInstance();
+			if (commonReagents.contains(name)){
+				span.setOutcome("commonReagent");
+				return commonReagents.getInchi(name);
+			}
+			String inchi = OscarReliantFunctionality.getInstance().resolveNameToStdInchi(name);
+			if (inchi != null) {
+				span.setOutcome("resolved");
+				return InchiNormaliser.normaliseInChI(inchi);
+			}
+			span.setOutcome("unresolved");
+			return null;
+		}
+		finally{
+			span.end();
 		}
-		return null;
 	}
 	
 	/**
@@ -246,7 +301,7 @@ public class Utils {
 	 * @throws IOException
 	 */
 	public static Document buildXmlFile(InputStream inputStream) throws ValidityException, ParsingException, IOException {
-		return xomBuilder.build(inputStream);
+		return xomBuilder.get().build(inputStream);
 	}
 	
 	/**
@@ -258,7 +313,7 @@ public class Utils {
 	 * @throws IOException
 	 */
 	public static Document buildXmlFromString(String xmlAsText) throws ValidityException, ParsingException, IOException {
-		return xomBuilder.build(xmlAsText, null);
+		return xomBuilder.get().build(xmlAsText, null);
 	}
 	
 	/**
@@ -372,6 +427,85 @@ public class Utils {
 		return chem;
 	}
 
+	/**
+	 * Resolves each distinct list of name components to a SMILES/InChI pair, as {@link #createChemicalFromName(List)} would.
+	 * The complete names and their components that are not in the {@link CommonReagentTable} are first resolved as a batch, see {@link OscarReliantFunctionality#resolveAll(Collection)}.
+	 * Single names that cannot be resolved in full are then split, as {@link #resolveNameToSmiles(List)} would, and the parts resolved as a second batch
+	 * @param nameComponentLists
+	 * @return
+	 */
+	public static Map<List<String>, ChemicalIdentifierPair> resolveNamesToIdentifierPairs(Collection<List<String>> nameComponentLists) {
+		Set<List<String>> distinctNames = new LinkedHashSet<List<String>>(nameComponentLists);
+		Set<String> names = new LinkedHashSet<String>();
+		for (List<String> nameComponents : distinctNames) {
+			names.add(StringUtils.stringListToString(nameComponents, " "));
+			if (nameComponents.size() > 1){
+				names.addAll(nameComponents);
+			}
+		}
+		CommonReagentTable commonReagents = CommonReagentTable.getInstance();
+		Map<String, NameResolution> resolutions = resolveBatch(names, commonReagents);
+		Set<String> partsOfSplitNames = new LinkedHashSet<String>();
+		for (List<String> nameComponents : distinctNames) {
+			if (nameComponents.size() == 1){
+				String name = nameComponents.get(0);
+				boolean fullyResolved;
+				if (commonReagents.contains(name)){
+					fullyResolved = commonReagents.getSmiles(name) != null && commonReagents.getInchi(name) != null;
+				}
+				else{
+					NameResolution resolution = resolutions.get(name);
+					fullyResolved = resolution.getSmiles() != null && resolution.getStdInchi() != null;
+				}
+				if (!fullyResolved){
+					List<String> splitComponents = splitNameIntoComponents(nameComponents.get(0));
+					if (splitComponents.size() > 1){
+						partsOfSplitNames.add(StringUtils.stringListToString(splitComponents, " "));
+						partsOfSplitNames.addAll(splitComponents);
+					}
+				}
+			}
+		}
+		if (partsOfSplitNames.size() > 0){
+			resolveBatch(partsOfSplitNames, commonReagents);
+		}
+		Map<List<String>, ChemicalIdentifierPair> results = new HashMap<List<String>, ChemicalIdentifierPair>();
+		for (List<String> nameComponents : distinctNames) {
+			results.put(nameComponents, new ChemicalIdentifierPair(resolveNameToSmiles(nameComponents), resolveNameToInchi(nameComponents)));
+		}
+		return results;
+	}
+
+	/**
+	 * Resolves the names that are not in the {@link CommonReagentTable} as a batch.
+	 * The returned map has no entries for the names in the table
+	 * @param names
+	 * @param commonReagents
+	 * @return
+	 */
+	private static Map<String, NameResolution> resolveBatch(Set<String> names, CommonReagentTable commonReagents) {
+		Set<String> namesToResolve = new LinkedHashSet<String>();
+		int totalNameLength = 0;
+		for (String name : names) {
+			if (!commonReagents.contains(name)){
+				namesToResolve.add(name);
+				totalNameLength += name.length();
+			}
+		}
+		if (namesToResolve.isEmpty()){
+			return Collections.emptyMap();
+		}
+		ExtractionEvents.Span span = ExtractionEvents.begin(Operation.batchNameResolution, totalNameLength);
+		try{
+			Map<String, NameResolution> resolutions = OscarReliantFunctionality.getInstance().resolveAll(namesToResolve);
+			span.setOutcome(namesToResolve.size() + " names");
+			return resolutions;
+		}
+		finally{
+			span.end();
+		}
+	}
+
 	/**
 	 * Convenience method for creating an experimental section parser
 	 * @param title
@@ -403,17 +537,33 @@ public class Utils {
 		return createIndigoReaction(products, reactants, spectators);
 	}
 
+	/**
+	 * Recreates the Indigo reaction for a reaction whose live Indigo reaction was not retained by the ReactionExtractor.
+	 * The RXN file is used in preference to the SMILES as it preserves the atom mapping.
+	 * The caller is responsible for disposing the returned object
+	 * @param reaction
+	 * @return
+	 */
+	public static IndigoObject loadIndigoReaction(Reaction reaction) {
+		Indigo indigo = IndigoHolder.getInstance();
+		if (reaction.getReactionRxn() != null){
+			return indigo.loadReaction(reaction.getReactionRxn());
+		}
+		if (reaction.getReactionSmiles() != null){
+			return indigo.loadReaction(reaction.getReactionSmiles());
+		}
+		return convertToIndigoReaction(reaction);
+	}
+
 	public static List<String> getSmilesForUniqueStructuresUsingInChIs(List<Chemical> chemicals) {
 		List<String> uniqueStructureSmiles = new ArrayList<String>();
-		Set<String> seenInChIs = new HashSet<String>();
+		LongHashSet seenStructures = new LongHashSet(chemicals.size());
 		for (Chemical chemical : chemicals) {
 			String smiles = chemical.getSmiles();
 			if (smiles != null){
-				String inchi = chemical.getInchi();
-				if (inchi != null){
-					if (!seenInChIs.contains(inchi)){
+				if (chemical.hasInchi()){
+					if (seenStructures.add(chemical.getStructureId())){
 						uniqueStructureSmiles.add(smiles);
-						seenInChIs.add(inchi);
 					}
 				}
 				else{
@@ -434,11 +584,27 @@ public class Utils {
 	public static IndigoObject createIndigoReaction(List<String> products, List<String> reactants, List<String> spectators) {
 		Indigo indigo = IndigoHolder.getInstance();
 		IndigoObject rxn = indigo.createReaction();
+		try{
+			populateIndigoReaction(indigo, rxn, products, reactants, spectators);
+		}
+		catch (RuntimeException e) {
+			IndigoScope.disposeQuietly(rxn);
+			throw e;
+		}
+		return rxn;
+	}
+
+	private static void populateIndigoReaction(Indigo indigo, IndigoObject rxn, List<String> products, List<String> reactants, List<String> spectators) {
 		for (String productSmiles : products) {
 			IndigoObject mol = indigo.loadMolecule(productSmiles);
-			mol.foldHydrogens();
-			mol.aromatize();
-			rxn.addProduct(mol);
+			try{
+				mol.foldHydrogens();
+				mol.aromatize();
+				rxn.addProduct(mol);//copies the molecule into the reaction
+			}
+			finally{
+				IndigoScope.disposeQuietly(mol);
+			}
 		}
 		
 		int i = 0;
@@ -449,9 +615,14 @@ public class Utils {
 		
 		for (String reactantSmiles : reactants) {
 			IndigoObject mol = indigo.loadMolecule(reactantSmiles);
-			mol.foldHydrogens();
-			mol.aromatize();
-			rxn.addReactant(mol);
+			try{
+				mol.foldHydrogens();
+				mol.aromatize();
+				rxn.addReactant(mol);//copies the molecule into the reaction
+			}
+			finally{
+				IndigoScope.disposeQuietly(mol);
+			}
 		}
 
 		i = 0;
@@ -462,9 +633,14 @@ public class Utils {
 		
 		for (String spectatorSmiles : spectators) {
 			IndigoObject mol = indigo.loadMolecule(spectatorSmiles);
-			mol.foldHydrogens();
-			mol.aromatize();
-			rxn.addCatalyst(mol);
+			try{
+				mol.foldHydrogens();
+				mol.aromatize();
+				rxn.addCatalyst(mol);//copies the molecule into the reaction
+			}
+			finally{
+				IndigoScope.disposeQuietly(mol);
+			}
 		}
 		
 		i = 0;
@@ -472,11 +648,28 @@ public class Utils {
 			catalyst.addDataSGroup(new int[0], new int[0], "smiles", spectators.get(i));
 			i++;
 		}
-		
-		return rxn;
 	}
 	
+	/**
+	 * Writes a depiction and CML file for each reaction to the given directory
+	 * @param directory
+	 * @param reactionMap
+	 * @throws IOException
+	 */
 	public static void serializeReactions(File directory, Map<Reaction, IndigoObject> reactionMap) throws IOException {
+		serializeReactions(directory, reactionMap, false);
+	}
+
+	/**
+	 * Writes a depiction and CML file for each reaction to the given directory.
+	 * If writeTaggedSentences is true the ChemicalTagger output of each reaction's paragraph is also written,
+	 * when it was retained (see {@link ReactionExtractor#setRetainTaggedSentences(boolean)})
+	 * @param directory
+	 * @param reactionMap
+	 * @param writeTaggedSentences
+	 * @throws IOException
+	 */
+	public static void serializeReactions(File directory, Map<Reaction, IndigoObject> reactionMap, boolean writeTaggedSentences) throws IOException {
 		if (!directory.exists()){
 			FileUtils.forceMkdir(directory);
 		}
@@ -488,7 +681,14 @@ public class Utils {
 		for (Entry<Reaction, IndigoObject> entry : entries) {
 			Reaction reaction = entry.getKey();
 			IndigoObject indigoReaction = entry.getValue();
-			String identifier = reaction.getInput().getIdentifier();//may be null for non USPTO documents
+			boolean rehydrated = false;
+			if (indigoReaction == null){//live Indigo reactions were not retained
+				indigoReaction = loadIndigoReaction(reaction);
+				rehydrated = true;
+			}
+			ReactionProvenance provenance = reaction.getProvenance();
+			String identifier = provenance != null ? provenance.getIdentifier() : null;//may be null for non USPTO documents
+			ExtractionEvents.setParagraph(identifier, provenance != null && provenance.getText() != null ? provenance.getText().length() : 0);
 			if (identifierToCount.get(identifier) == null){
 				identifierToCount.put(identifier, 1);
 			}
@@ -498,23 +698,51 @@ public class Utils {
 			try {
 				File f = new File(directory, "reaction" + paraIdent +"_" + subParaIdent + ".png");
 				ReactionDepicter.depictReaction(indigoReaction, f);
-					FileOutputStream in = new FileOutputStream(new File(directory, "reaction" + paraIdent +"_" + subParaIdent + "src.xml"));
-				    Serializer serializer = new Serializer(in);
-					serializer.setIndent(2);
-					serializer.write(reaction.getInput().getTaggedSentencesDocument());
-					IOUtils.closeQuietly(in);
+				if (writeTaggedSentences && provenance != null && provenance.getTaggedSentencesXml() != null){
+					FileUtils.writeStringToFile(new File(directory, "reaction" + paraIdent +"_" + subParaIdent + "src.xml"), provenance.getTaggedSentencesXml(), "UTF-8");
+				}
 					
 				FileOutputStream out = new FileOutputStream(new File(directory, "reaction" + paraIdent +"_" + subParaIdent + ".cml"));
-			    serializer = new Serializer(out);
+			    Serializer serializer = new Serializer(out);
 				serializer.setIndent(2);
 				serializer.write(new Document(reaction.toCML()));
 				IOUtils.closeQuietly(out);	
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
+			finally{
+				if (rehydrated){
+					IndigoScope.disposeQuietly(indigoReaction);
+				}
+			}
 		}
 	}
 	
+	/**
+	 * Writes to a temporary file in the same directory, then renames it to the target,
+	 * so that readers (or a rerun after the process is killed) never see a partially written file
+	 * @param target
+	 * @param content
+	 * @throws IOException
+	 */
+	public static void writeAtomically(File target, String content) throws IOException {
+		File directory = target.getAbsoluteFile().getParentFile();
+		FileUtils.forceMkdir(directory);
+		File temp = File.createTempFile(target.getName(), ".tmp", directory);
+		try{
+			FileUtils.writeStringToFile(temp, content, "UTF-8");
+			try{
+				Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally{
+			FileUtils.deleteQuietly(temp);
+		}
+	}
+
 	/**
 	 * Reads a file. For every line that is neither empty or starts with a tab
 	 * the line is split on tab and the first part added to the set of strings to be returned
@@ -0,0 +1,11 @@
+package dan2097.org.bitbucket.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("dan2097.reactionextraction.AtomMapping")
+@Label("Atom Mapping")
+@Description("Atom mapping of a reaction by Indigo")
+class AtomMappingEvent extends ExtractionEvent {
+}
@@ -0,0 +1,11 @@
+package dan2097.org.bitbucket.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("dan2097.reactionextraction.BatchNameResolution")
+@Label("Batch Name Resolution")
+@Description("Resolution of the chemical names of an experimental step")
+class BatchNameResolutionEvent extends ExtractionEvent {
+}
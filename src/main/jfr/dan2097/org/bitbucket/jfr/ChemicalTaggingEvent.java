@@ -0,0 +1,11 @@
+package dan2097.org.bitbucket.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("dan2097.reactionextraction.ChemicalTagging")
+@Label("ChemicalTagger")
+@Description("Tagging and parsing of a paragraph or heading by ChemicalTagger")
+class ChemicalTaggingEvent extends ExtractionEvent {
+}
@@ -0,0 +1,11 @@
+package dan2097.org.bitbucket.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("dan2097.reactionextraction.Depiction")
+@Label("Reaction Depiction")
+@Description("Rendering of a reaction to an image by Indigo")
+class DepictionEvent extends ExtractionEvent {
+}
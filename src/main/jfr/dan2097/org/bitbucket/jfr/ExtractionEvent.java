@@ -0,0 +1,26 @@
+package dan2097.org.bitbucket.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+/**
+ * The fields common to the flight recorder events of each extraction operation
+ * @author dl387
+ *
+ */
+@Category("Reaction Extraction")
+abstract class ExtractionEvent extends Event {
+
+	@Label("Document")
+	String documentIdentifier;
+
+	@Label("Paragraph")
+	String paragraphIdentifier;
+
+	@Label("Text Length")
+	int textLength;
+
+	@Label("Outcome")
+	String outcome;
+}
@@ -0,0 +1,54 @@
+package dan2097.org.bitbucket.jfr;
+
+import dan2097.org.bitbucket.utility.ExtractionEvents;
+import dan2097.org.bitbucket.utility.ExtractionEvents.Operation;
+
+/**
+ * Records {@link ExtractionEvents} as flight recorder events. Loaded reflectively by {@link ExtractionEvents} when present
+ * @author dl387
+ *
+ */
+public class JfrEventRecorder implements ExtractionEvents.Recorder {
+
+	public Object begin(Operation operation) {
+		ExtractionEvent event = createEvent(operation);
+		if (!event.isEnabled()){
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	private static ExtractionEvent createEvent(Operation operation) {
+		switch (operation) {
+		case chemicalTagging:
+			return new ChemicalTaggingEvent();
+		case paragraphClassification:
+			return new ParagraphClassificationEvent();
+		case nameResolution:
+			return new NameResolutionEvent();
+		case batchNameResolution:
+			return new BatchNameResolutionEvent();
+		case atomMapping:
+			return new AtomMappingEvent();
+		case inchiMerging:
+			return new InchiMergingEvent();
+		case depiction:
+			return new DepictionEvent();
+		default:
+			throw new IllegalArgumentException("Unexpected operation: " + operation);
+		}
+	}
+
+	public void end(Object event, String documentIdentifier, String paragraphIdentifier, int textLength, String outcome) {
+		ExtractionEvent extractionEvent = (ExtractionEvent) event;
+		extractionEvent.end();
+		if (extractionEvent.shouldCommit()){
+			extractionEvent.documentIdentifier = documentIdentifier;
+			extractionEvent.paragraphIdentifier = paragraphIdentifier;
+			extractionEvent.textLength = textLength;
+			extractionEvent.outcome = outcome;
+			extractionEvent.commit();
+		}
+	}
+}
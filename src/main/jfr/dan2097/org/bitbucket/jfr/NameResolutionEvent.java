@@ -0,0 +1,13 @@
+package dan2097.org.bitbucket.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+@Name("dan2097.reactionextraction.NameResolution")
+@Label("Name Resolution")
+@Threshold("1 ms")//frequent and usually quick, so only slow calls are recorded by default
+@Description("Resolution of a chemical name to a structure")
+class NameResolutionEvent extends ExtractionEvent {
+}
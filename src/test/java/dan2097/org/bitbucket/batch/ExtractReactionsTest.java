@@ -0,0 +1,127 @@
+package dan2097.org.bitbucket.batch;
+
+import static junit.framework.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dan2097.org.bitbucket.reactionextraction.IntegrationTests;
+
+public class ExtractReactionsTest {
+
+	private File directory;
+
+	@Before
+	public void createDirectory() throws IOException {
+		directory = File.createTempFile("extract-reactions", "");
+		directory.delete();
+		FileUtils.forceMkdir(directory);
+	}
+
+	@After
+	public void deleteDirectory() {
+		FileUtils.deleteQuietly(directory);
+	}
+
+	@Test
+	public void optionsAreParsed() {
+		ExtractReactions extractor = ExtractReactions.fromArguments(new String[]{"--threads", "3", directory.getPath(), new File(directory, "out").getPath(),
+				"--indigo-timeout", "5000", "--document-timeout", "60", "--format", "smiles", "--complete-only", "false"});
+		assertEquals(3, extractor.getThreads());
+		assertEquals(5000, extractor.getIndigoAtomMappingTimeout());
+		assertEquals(60000, extractor.getDocumentTimeout());
+		assertEquals(ExtractReactions.OutputFormat.smiles, extractor.getOutputFormat());
+		assertFalse(extractor.isCompleteReactionsOnly());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void unknownOptionsAreRejected() {
+		ExtractReactions.fromArguments(new String[]{"--workers", "3", directory.getPath(), new File(directory, "out").getPath()});
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void optionValuesAreChecked() {
+		ExtractReactions.fromArguments(new String[]{"--threads", "many", directory.getPath(), new File(directory, "out").getPath()});
+	}
+
+	@Test
+	public void extractFromArchiveOfZippedPatents() throws IOException {
+		ByteArrayOutputStream zippedPatent = new ByteArrayOutputStream();
+		ZipOutputStream innerZip = new ZipOutputStream(zippedPatent);
+		innerZip.putNextEntry(new ZipEntry("US20080000001A1/US20080000001A1.XML"));
+		IOUtils.copy(IntegrationTests.class.getResourceAsStream("patentText1.xml"), innerZip);
+		innerZip.closeEntry();
+		innerZip.close();
+
+		File archive = new File(directory, "patents.zip");
+		ZipOutputStream outerZip = new ZipOutputStream(new FileOutputStream(archive));
+		for (String zippedPatentName : new String[]{"US20080000001A1.ZIP", "US20080000001A1-copy.ZIP"}) {
+			outerZip.putNextEntry(new ZipEntry(zippedPatentName));
+			outerZip.write(zippedPatent.toByteArray());
+			outerZip.closeEntry();
+		}
+		outerZip.close();
+
+		File outputDirectory = new File(directory, "out");
+		ExtractReactions extractor = new ExtractReactions(archive, outputDirectory);
+		extractor.setThreads(2);
+		extractor.setOutputFormat(ExtractReactions.OutputFormat.smiles);
+		extractor.setCompleteReactionsOnly(false);
+		extractor.run();
+
+		List<String> lines = FileUtils.readLines(new File(outputDirectory, ExtractReactions.SMILES_FILE_NAME), "UTF-8");
+		assertEquals(3, lines.size());
+		assertEquals("document\tparagraph\tcomplete\tsmiles", lines.get(0));
+		Set<String> documentIds = new HashSet<String>();
+		for (String line : lines.subList(1, lines.size())) {
+			documentIds.add(line.substring(0, line.indexOf('\t')));
+		}
+		assertEquals(new HashSet<String>(Arrays.asList("US20080000001A1/US20080000001A1/US20080000001A1", "US20080000001A1-copy/US20080000001A1/US20080000001A1")), documentIds);
+	}
+
+	@Test
+	public void documentIdsAreNormalised() {
+		assertEquals("a/b", ExtractReactions.normaliseDocumentId("a/./c/../b"));
+		assertEquals("a/b", ExtractReactions.normaliseDocumentId("a\\b"));
+		assertEquals("absolute", ExtractReactions.normaliseDocumentId("/absolute"));
+		assertEquals("absolute", ExtractReactions.normaliseDocumentId("C:/absolute"));
+		assertNull(ExtractReactions.normaliseDocumentId("../escaped"));
+		assertNull(ExtractReactions.normaliseDocumentId("a/../../escaped"));
+		assertNull(ExtractReactions.normaliseDocumentId("a/.."));
+	}
+
+	@Test
+	public void archiveEntriesAreWrittenWithinTheOutputDirectory() throws IOException {
+		File archive = new File(directory, "patents.zip");
+		ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(archive));
+		for (String entryName : new String[]{"../escaped.xml", "/absolute.xml"}) {
+			zip.putNextEntry(new ZipEntry(entryName));
+			IOUtils.copy(IntegrationTests.class.getResourceAsStream("patentText1.xml"), zip);
+			zip.closeEntry();
+		}
+		zip.close();
+
+		File outputDirectory = new File(directory, "out");
+		ExtractReactions extractor = new ExtractReactions(archive, outputDirectory);
+		extractor.setThreads(1);
+		extractor.setCompleteReactionsOnly(false);
+		extractor.run();
+
+		assertFalse(new File(directory, "escaped.cml").exists());
+		assertTrue(new File(outputDirectory, "absolute.cml").exists());
+	}
+}
@@ -0,0 +1,72 @@
+package dan2097.org.bitbucket.batch;
+
+import static junit.framework.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dan2097.org.bitbucket.utility.Utils;
+
+public class RunJournalTest {
+
+	private File journalFile;
+
+	@Before
+	public void createJournalFile() throws IOException {
+		journalFile = File.createTempFile("run-journal", ".tsv");
+		journalFile.delete();
+	}
+
+	@After
+	public void deleteJournalFile() {
+		FileUtils.deleteQuietly(journalFile);
+	}
+
+	@Test
+	public void statusesSurviveReopening() throws IOException {
+		RunJournal journal = new RunJournal(journalFile);
+		journal.record("2008/US20080000032A1", RunJournal.Status.failed, "java.lang.RuntimeException: Malformed\npatent");
+		journal.record("2008/US20080004289A1", RunJournal.Status.completed, "3");
+		journal.record("2008/US20080000032A1", RunJournal.Status.completed, "1");
+		journal.record("2008/US20080000099A1", RunJournal.Status.quarantined, null);
+		journal.close();
+
+		journal = new RunJournal(journalFile);
+		assertEquals(RunJournal.Status.completed, journal.getStatus("2008/US20080000032A1"));
+		assertEquals(RunJournal.Status.completed, journal.getStatus("2008/US20080004289A1"));
+		assertEquals(RunJournal.Status.quarantined, journal.getStatus("2008/US20080000099A1"));
+		assertNull(journal.getStatus("2008/US20080000100A1"));
+		assertEquals(2, journal.count(RunJournal.Status.completed));
+		assertEquals(0, journal.count(RunJournal.Status.failed));
+		journal.close();
+		assertEquals(4, FileUtils.readLines(journalFile, "UTF-8").size());
+	}
+
+	@Test
+	public void truncatedLineIsIgnored() throws IOException {
+		FileUtils.writeStringToFile(journalFile, "doc1\tcompleted\t1300000000000\t2\ndoc2\tcompl", "UTF-8");
+		RunJournal journal = new RunJournal(journalFile);
+		assertEquals(RunJournal.Status.completed, journal.getStatus("doc1"));
+		assertNull(journal.getStatus("doc2"));
+		journal.close();
+	}
+
+	@Test
+	public void atomicOutput() throws IOException {
+		File directory = journalFile.getParentFile();
+		File target = new File(directory, "CorpusRunManagerTest.cml");
+		try{
+			Utils.writeAtomically(target, "first");
+			Utils.writeAtomically(target, "second");
+			assertEquals("second", FileUtils.readFileToString(target, "UTF-8"));
+		}
+		finally{
+			FileUtils.deleteQuietly(target);
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package dan2097.org.bitbucket.batch;
+
+import static junit.framework.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class WorkerProtocolTest {
+
+	@Test
+	public void requestRoundTrip() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		WorkerProtocol.writeRequest(out, "US20050001234A1", "<patent/>".getBytes("UTF-8"));
+		WorkerProtocol.writeShutdownRequest(out);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		WorkerProtocol.Request request = WorkerProtocol.readRequest(in);
+		assertEquals("US20050001234A1", request.documentId);
+		assertEquals("<patent/>", new String(request.document, "UTF-8"));
+		assertNull(WorkerProtocol.readRequest(in));
+	}
+
+	@Test
+	public void endOfStreamEndsRequests() throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(new byte[0]));
+		assertNull(WorkerProtocol.readRequest(in));
+	}
+
+	@Test
+	public void successfulResponseRoundTrip() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		WorkerProtocol.writeSuccess(new DataOutputStream(bytes), "doc1", Arrays.asList("<reaction id=\"1\"/>", "<reaction id=\"2\"/>"), Arrays.asList(false, true), true);
+		WorkerResult result = WorkerProtocol.readResponse(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), "doc1");
+		assertEquals(WorkerResult.Status.succeeded, result.getStatus());
+		assertTrue(result.isTruncated());
+		assertEquals(2, result.getReactions().size());
+		assertEquals(1, result.getCompleteReactions().size());
+		assertEquals("<reaction id=\"2\"/>", result.getCompleteReactions().get(0));
+	}
+
+	@Test
+	public void failedResponseRoundTrip() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		WorkerProtocol.writeFailure(new DataOutputStream(bytes), "doc1", "java.lang.NullPointerException");
+		WorkerResult result = WorkerProtocol.readResponse(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), "doc1");
+		assertEquals(WorkerResult.Status.failed, result.getStatus());
+		assertEquals("java.lang.NullPointerException", result.getMessage());
+	}
+
+	@Test(expected=IOException.class)
+	public void outOfSequenceResponse() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		WorkerProtocol.writeFailure(new DataOutputStream(bytes), "doc1", "");
+		WorkerProtocol.readResponse(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), "doc2");
+	}
+}
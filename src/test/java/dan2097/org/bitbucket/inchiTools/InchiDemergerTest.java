@@ -3,6 +3,7 @@ package dan2097.org.bitbucket.inchiTools;
 import static junit.framework.Assert.assertEquals;
 
 import java.util.Arrays;
+import java.util.List;
 
 import org.junit.Test;
 
@@ -31,4 +32,12 @@ public class InchiDemergerTest {
 		InchiDemerger demerger = new InchiDemerger("InChI=1/Cl");
 		assertEquals(Arrays.asList("InChI=1/Cl"), demerger.generateDemergedInchis());
 	}
+
+	@Test
+	public void repeatedDemergingIsUnaffectedByModifyingResult() {
+		String inchi = "InChI=1/C2H6O.H2O/c1-2-3;/h3H,2H2,1H3;1H2";
+		List<String> demergedInchis = new InchiDemerger(inchi).generateDemergedInchis();
+		demergedInchis.clear();
+		assertEquals(Arrays.asList("InChI=1/C2H6O/c1-2-3/h3H,2H2,1H3", "InChI=1/H2O/h1H2"), new InchiDemerger(inchi).generateDemergedInchis());
+	}
 }
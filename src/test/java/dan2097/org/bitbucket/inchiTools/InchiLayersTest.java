@@ -0,0 +1,35 @@
+package dan2097.org.bitbucket.inchiTools;
+
+import static junit.framework.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class InchiLayersTest {
+
+	@Test
+	public void layers() {
+		InchiLayers layers = new InchiLayers("InChI=1S/C2H6O/c1-2-3/h3H,2H2,1H3");
+		assertEquals(4, layers.getLayerCount());
+		assertEquals("InChI=1S", layers.getLayer(0).toString());
+		assertEquals("C2H6O", layers.getLayer(1).toString());
+		assertEquals('c', layers.getLayerIdentifier(2));
+		assertEquals("h3H,2H2,1H3", layers.getLayer(3).toString());
+		assertEquals("3H", layers.getLayer(3).subSequence(1, 3).toString());
+	}
+
+	@Test
+	public void splitMatchesStringSplit() {
+		String[] strs = new String[]{"", ";", ";;", "a", "a;", ";a", "a;;b", "a;b;;", "1H3;;3H"};
+		for (String str : strs) {
+			String[] expected = str.split(";");
+			int[] bounds = InchiLayers.split(str, 0, str.length(), ';');
+			String[] actual = new String[bounds.length / 2];
+			for (int i = 0; i < actual.length; i++) {
+				actual[i] = str.substring(bounds[i * 2], bounds[i * 2 + 1]);
+			}
+			assertEquals(str, Arrays.asList(expected), Arrays.asList(actual));
+		}
+	}
+}
@@ -31,4 +31,36 @@ public class InchiMergerTest {
 		InchiMerger merger = new InchiMerger(inchis);
 		assertEquals("InChI=1/C8H18O.C7H16O.C6H14O/c1-2-3-4-5-6-7-8-9;1-2-3-4-5-6-7-8;1-2-3-4-5-6-7/h9H,2-8H2,1H3;8H,2-7H2,1H3;7H,2-6H2,1H3", merger.generateMergedNormalisedInchi());
 	}
+
+	@Test
+	public void mergeHydrochloride() {
+		List<String> inchis = Arrays.asList("InChI=1/C5H5N/c1-2-4-6-5-3-1/h1-5H", "InChI=1/ClH/h1H");
+		InchiMerger merger = new InchiMerger(inchis);
+		assertEquals("InChI=1/C5H5N.ClH/c1-2-4-6-5-3-1;/h1-5H;1H", merger.mergeHydrochloride());
+		assertEquals("InChI=1/C5H5N.ClH/c1-2-4-6-5-3-1;/h1-5H;1H", merger.generateMergedNormalisedInchi());
+	}
+
+	@Test
+	public void mergeDihydrochloride() {
+		List<String> inchis = Arrays.asList("InChI=1/ClH/h1H", "InChI=1/C4H10N2/c1-2-6-4-3-5-1/h5-6H,1-4H2", "InChI=1/ClH/h1H");
+		InchiMerger merger = new InchiMerger(inchis);
+		assertEquals("InChI=1/C4H10N2.2ClH/c1-2-6-4-3-5-1;;/h5-6H,1-4H2;2*1H", merger.mergeHydrochloride());
+	}
+
+	@Test
+	public void onlySimpleHydrochloridesAreMergedTextually() {
+		assertNull(new InchiMerger(Arrays.asList("InChI=1/C6H6/c1-2-4-6-5-3-1/h1-6H", "InChI=1/C3H7NO/c1-4(2)3-5/h3H,1-2H3")).mergeHydrochloride());
+		assertNull(new InchiMerger(Arrays.asList("InChI=1/C3H7NO2/c1-2(4)3(5)6/h2H,4H2,1H3,(H,5,6)/t2-/m0/s1", "InChI=1/ClH/h1H")).mergeHydrochloride());
+		assertNull(new InchiMerger(Arrays.asList("InChI=1/C2H6O.H2O/c1-2-3;/h3H,2H2,1H3;1H2", "InChI=1/ClH/h1H")).mergeHydrochloride());
+		assertNull(new InchiMerger(Arrays.asList("InChI=1/ClH/h1H", "InChI=1/ClH/h1H")).mergeHydrochloride());
+		assertNull(new InchiMerger(Arrays.asList("InChI=1/Cl2/c1-2", "InChI=1/ClH/h1H")).mergeHydrochloride());
+	}
+
+	@Test
+	public void mergingIsIndependentOfInputOrder() {
+		String benzene = "InChI=1/C6H6/c1-2-4-6-5-3-1/h1-6H";
+		String dmf = "InChI=1/C3H7NO/c1-4(2)3-5/h3H,1-2H3";
+		String merged = new InchiMerger(Arrays.asList(benzene, dmf)).generateMergedNormalisedInchi();
+		assertEquals(merged, new InchiMerger(Arrays.asList(dmf, benzene)).generateMergedNormalisedInchi());
+	}
 }
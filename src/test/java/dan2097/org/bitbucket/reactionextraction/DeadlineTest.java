@@ -0,0 +1,37 @@
+package dan2097.org.bitbucket.reactionextraction;
+
+import static junit.framework.Assert.*;
+
+import org.junit.Test;
+
+public class DeadlineTest {
+
+	@Test
+	public void neverExpires() throws InterruptedException {
+		assertFalse(Deadline.never().hasExpired());
+		assertSame(Deadline.never(), Deadline.after(0));
+		assertSame(Deadline.never(), Deadline.after(-1));
+		Thread.sleep(2);
+		assertFalse(Deadline.never().hasExpired());
+	}
+
+	@Test
+	public void expires() throws InterruptedException {
+		Deadline deadline = Deadline.after(1);
+		Thread.sleep(5);
+		assertTrue(deadline.hasExpired());
+		assertFalse(Deadline.after(60000).hasExpired());
+	}
+
+	@Test
+	public void earliest() {
+		Deadline never = Deadline.never();
+		Deadline soon = Deadline.after(1000);
+		Deadline later = Deadline.after(60000);
+		assertSame(soon, never.earliest(soon));
+		assertSame(soon, soon.earliest(never));
+		assertSame(never, never.earliest(never));
+		assertSame(soon, soon.earliest(later));
+		assertSame(soon, later.earliest(soon));
+	}
+}
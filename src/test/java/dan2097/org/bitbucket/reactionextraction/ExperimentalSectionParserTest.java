@@ -7,6 +7,7 @@ import nu.xom.Element;
 import org.junit.Test;
 
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public class ExperimentalSectionParserTest {
 
@@ -176,4 +177,47 @@ public class ExperimentalSectionParserTest {
 		SectionAndStepIdentifier sectionAndStepIdentifier = parser.getSectionAndStepIdentifier(procedureEl);
 		assertNull(sectionAndStepIdentifier);
 	}
+
+	@Test
+	public void testFindDependencies(){
+		ExperimentalSection section = new ExperimentalSection();
+		section.setProcedureElement(TestUtils.stringToXom(
+				"<PROCEDURE>" +
+					"<NN-EXAMPLE>Example</NN-EXAMPLE>" +
+					"<CD>2</CD>" +
+				"</PROCEDURE>"));
+		section.setTargetChemicalNamePair(new ChemicalAliasPair(new Chemical("2-chloropyridine"), "4"));
+		Paragraph paragraph = mock(Paragraph.class);
+		when(paragraph.getTaggedSentencesDocument()).thenReturn(TestUtils.stringToXom(
+				"<Document>" +
+					"<MOLECULE>" +
+						"<OSCARCM><OSCAR-CM>pyridine</OSCAR-CM></OSCARCM>" +
+						"<REFERENCETOCOMPOUND><_-LRB->(</_-LRB-><CD>3</CD><_-RRB->)</_-RRB-></REFERENCETOCOMPOUND>" +
+					"</MOLECULE>" +
+					"<UNNAMEDMOLECULE>" +
+						"<NN-CHEMENTITY>compound</NN-CHEMENTITY>" +
+						"<PROCEDURE><NN-EXAMPLE>Example</NN-EXAMPLE><CD>1</CD></PROCEDURE>" +
+					"</UNNAMEDMOLECULE>" +
+				"</Document>").getDocument());
+		section.addParagraphToCurrentStep(paragraph);
+
+		SectionDependencies dependencies = new ExperimentalSectionParser(section, new PreviousReactionData()).findDependencies();
+		SectionDependencies expectedDefined = new SectionDependencies();
+		expectedDefined.addDefinedAlias("4");
+		expectedDefined.addDefinedAlias("3");
+		expectedDefined.addDefinedSection("2");
+		assertEquals(expectedDefined.getDefinedKeys(), dependencies.getDefinedKeys());
+
+		SectionDependencies expectedReferenced = new SectionDependencies();
+		expectedReferenced.addReferencedAlias("pyridine");
+		expectedReferenced.addReferencedAlias("3");
+		expectedReferenced.addReferencedSection("1");
+		assertTrue(dependencies.getReferencedKeys().containsAll(expectedReferenced.getReferencedKeys()));
+		SectionDependencies notReferenced = new SectionDependencies();
+		notReferenced.addReferencedSection("2");
+		notReferenced.addReferencedAlias("1");
+		for (String key : notReferenced.getReferencedKeys()) {
+			assertFalse(dependencies.getReferencedKeys().contains(key));
+		}
+	}
 }
@@ -1,11 +1,17 @@
 package dan2097.org.bitbucket.reactionextraction;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 
 import static junit.framework.Assert.*;
 
 import nu.xom.Document;
 
+import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 
 import com.ggasoftware.indigo.IndigoObject;
@@ -156,4 +162,184 @@ public class IntegrationTests{
 		assertEquals("mL", spectator.getVolumeUnits());
 		assertEquals("10", spectator.getVolumeValue());
 	}
+
+	@Test
+	public void listenerReceivesTheSameReactions() throws Exception{
+		for (String patent : new String[]{"patentText1.xml", "patentText2.xml"}) {
+			Document doc = Utils.buildXmlFile(IntegrationTests.class.getResourceAsStream(patent));
+			ReactionExtractor extractor = new ReactionExtractor(doc);
+			extractor.extractReactions();
+			List<String> expectedCompleteness = new ArrayList<String>();
+			for (Reaction reaction : extractor.getAllFoundReactions().keySet()) {
+				expectedCompleteness.add(reaction.getReactionSmiles() + " " + extractor.getAllCompleteReactions().containsKey(reaction));
+			}
+
+			final List<String> reactionCompleteness = new ArrayList<String>();
+			ReactionExtractor streamingExtractor = new ReactionExtractor(doc);
+			streamingExtractor.extractReactions(new ReactionListener() {
+				public void reactionFound(Reaction reaction, IndigoObject indigoReaction, boolean complete) {
+					assertNotNull(indigoReaction);
+					reactionCompleteness.add(reaction.getReactionSmiles() + " " + complete);
+				}
+			});
+			assertFalse(reactionCompleteness.isEmpty());
+			assertEquals(expectedCompleteness, reactionCompleteness);
+			assertTrue(streamingExtractor.getAllFoundReactions().isEmpty());
+			assertTrue(streamingExtractor.getAllCompleteReactions().isEmpty());
+		}
+	}
+
+	@Test
+	public void documentTimeBudgetTruncatesExtraction() throws Exception{
+		Document doc = Utils.buildXmlFile(IntegrationTests.class.getResourceAsStream("patentText1.xml"));
+		ReactionExtractor unboundedExtractor = new ReactionExtractor(doc);
+		unboundedExtractor.extractReactions();
+		assertFalse(unboundedExtractor.isTruncated());
+		ReactionExtractor boundedExtractor = new ReactionExtractor(doc);
+		boundedExtractor.setDocumentTimeBudget(1);//less than the time taken to tag the first paragraph
+		boundedExtractor.extractReactions();
+		assertTrue(boundedExtractor.isTruncated());
+		assertTrue(getReactionSmiles(unboundedExtractor.getAllFoundReactions()).containsAll(getReactionSmiles(boundedExtractor.getAllFoundReactions())));
+		assertTrue(getReactionSmiles(unboundedExtractor.getAllCompleteReactions()).containsAll(getReactionSmiles(boundedExtractor.getAllCompleteReactions())));
+	}
+
+	@Test
+	public void paragraphTimeBudgetOnlyLimitsMapping() throws Exception{
+		for (String patent : new String[]{"patentText1.xml", "patentText2.xml"}) {
+			Document doc = Utils.buildXmlFile(IntegrationTests.class.getResourceAsStream(patent));
+			ReactionExtractor unboundedExtractor = new ReactionExtractor(doc);
+			unboundedExtractor.extractReactions();
+			ReactionExtractor boundedExtractor = new ReactionExtractor(doc);
+			boundedExtractor.setParagraphTimeBudget(1);
+			boundedExtractor.extractReactions();
+			assertEquals(unboundedExtractor.getAllFoundReactions().size(), boundedExtractor.getAllFoundReactions().size());
+			List<String> unboundedCompleteReactions = getReactionSmiles(unboundedExtractor.getAllCompleteReactions());
+			List<String> boundedCompleteReactions = getReactionSmiles(boundedExtractor.getAllCompleteReactions());
+			assertTrue(unboundedCompleteReactions.containsAll(boundedCompleteReactions));
+			if (!boundedExtractor.isTruncated()){
+				assertEquals(unboundedCompleteReactions, boundedCompleteReactions);
+			}
+		}
+	}
+
+	@Test
+	public void indigoReactionsNeedNotBeRetained() throws Exception{
+		Document doc = Utils.buildXmlFile(IntegrationTests.class.getResourceAsStream("patentText1.xml"));
+		ReactionExtractor retainingExtractor = new ReactionExtractor(doc);
+		retainingExtractor.extractReactions();
+		ReactionExtractor nonRetainingExtractor = new ReactionExtractor(doc);
+		nonRetainingExtractor.setRetainIndigoReactions(false);
+		nonRetainingExtractor.extractReactions();
+		assertEquals(getReactionSmiles(retainingExtractor.getAllFoundReactions()), getReactionSmiles(nonRetainingExtractor.getAllFoundReactions()));
+		assertEquals(getReactionSmiles(retainingExtractor.getAllCompleteReactions()), getReactionSmiles(nonRetainingExtractor.getAllCompleteReactions()));
+
+		List<IndigoObject> retainedReactions = new ArrayList<IndigoObject>(retainingExtractor.getAllFoundReactions().values());
+		List<Reaction> reactions = new ArrayList<Reaction>(nonRetainingExtractor.getAllFoundReactions().keySet());
+		assertFalse(reactions.isEmpty());
+		for (int i = 0; i < reactions.size(); i++) {
+			Reaction reaction = reactions.get(i);
+			assertNull(nonRetainingExtractor.getAllFoundReactions().get(reaction));
+			assertNotNull(reaction.getReactionRxn());
+			IndigoObject rebuiltReaction = Utils.loadIndigoReaction(reaction);
+			IndigoObject retainedReaction = retainedReactions.get(i);
+			assertEquals(getMoleculeSmiles(retainedReaction.iterateReactants()), getMoleculeSmiles(rebuiltReaction.iterateReactants()));
+			assertEquals(getMoleculeSmiles(retainedReaction.iterateProducts()), getMoleculeSmiles(rebuiltReaction.iterateProducts()));
+		}
+		for (IndigoObject indigoReaction : nonRetainingExtractor.getAllCompleteReactions().values()) {
+			assertNull(indigoReaction);
+		}
+		retainingExtractor.close();
+		for (IndigoObject indigoReaction : retainingExtractor.getAllFoundReactions().values()) {
+			assertNull(indigoReaction);
+		}
+	}
+
+	@Test
+	public void concurrentSectionParsingGivesTheSameReactions() throws Exception{
+		ExecutorService sharedExecutor = ReactionExtractor.createSectionParsingExecutor(4);
+		try{
+			for (String patent : new String[]{"patentText1.xml", "patentText2.xml"}) {
+				Document doc = Utils.buildXmlFile(IntegrationTests.class.getResourceAsStream(patent));
+				ReactionExtractor sequentialExtractor = new ReactionExtractor(doc);
+				sequentialExtractor.extractReactions();
+				ReactionExtractor concurrentExtractor = new ReactionExtractor(doc);
+				concurrentExtractor.setSectionParsingThreads(4);
+				concurrentExtractor.extractReactions();
+				concurrentExtractor.close();
+				ReactionExtractor sharedExecutorExtractor = new ReactionExtractor(doc);
+				sharedExecutorExtractor.setSectionParsingThreads(sharedExecutor);
+				sharedExecutorExtractor.extractReactions();
+				sharedExecutorExtractor.close();
+				assertEquals(getReactionSmiles(sequentialExtractor.getAllFoundReactions()), getReactionSmiles(concurrentExtractor.getAllFoundReactions()));
+				assertEquals(getReactionSmiles(sequentialExtractor.getAllCompleteReactions()), getReactionSmiles(concurrentExtractor.getAllCompleteReactions()));
+				assertEquals(getReactionSmiles(sequentialExtractor.getAllFoundReactions()), getReactionSmiles(sharedExecutorExtractor.getAllFoundReactions()));
+			}
+			assertFalse(sharedExecutor.isShutdown());
+		}
+		finally{
+			sharedExecutor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void pipelineGivesTheSameReactions() throws Exception{
+		final Map<String, List<String>> documentToReactionSmiles = new ConcurrentHashMap<String, List<String>>();
+		ExtractionPipeline pipeline = new ExtractionPipeline(new ExtractionPipeline.Sink() {
+			public void documentCompleted(String documentId, Map<Reaction, IndigoObject> foundReactions, Map<Reaction, IndigoObject> completeReactions) throws IOException {
+				documentToReactionSmiles.put(documentId, getReactionSmiles(foundReactions));
+			}
+
+			public void documentFailed(String documentId, ExtractionPipeline.Stage stage, Exception e) {
+				fail(documentId + " failed at the " + stage + " stage: " + e);
+			}
+		});
+		String[] patents = new String[]{"patentText1.xml", "patentText2.xml"};
+		for (String patent : patents) {
+			pipeline.submit(patent, IOUtils.toByteArray(IntegrationTests.class.getResourceAsStream(patent)));
+		}
+		pipeline.close();
+		for (String patent : patents) {
+			ReactionExtractor extractor = new ReactionExtractor(Utils.buildXmlFile(IntegrationTests.class.getResourceAsStream(patent)));
+			extractor.extractReactions();
+			assertEquals(getReactionSmiles(extractor.getAllFoundReactions()), documentToReactionSmiles.get(patent));
+		}
+		for (ExtractionPipeline.StageMetrics metrics : pipeline.getStageMetrics()) {
+			assertEquals(patents.length, metrics.getCompleted());
+			assertEquals(0, metrics.getQueueDepth());
+		}
+	}
+
+	@Test
+	public void pipelineDocumentTimeBudgetStartsOnSubmission() throws Exception{
+		final Map<String, List<String>> documentToReactionSmiles = new ConcurrentHashMap<String, List<String>>();
+		ExtractionPipeline pipeline = new ExtractionPipeline(new ExtractionPipeline.Sink() {
+			public void documentCompleted(String documentId, Map<Reaction, IndigoObject> foundReactions, Map<Reaction, IndigoObject> completeReactions) throws IOException {
+				documentToReactionSmiles.put(documentId, getReactionSmiles(foundReactions));
+			}
+
+			public void documentFailed(String documentId, ExtractionPipeline.Stage stage, Exception e) {
+				fail(documentId + " failed at the " + stage + " stage: " + e);
+			}
+		});
+		pipeline.setDocumentTimeBudget(1);//less than the time taken to read the patent
+		pipeline.submit("patentText1.xml", IOUtils.toByteArray(IntegrationTests.class.getResourceAsStream("patentText1.xml")));
+		pipeline.close();
+		assertTrue(documentToReactionSmiles.get("patentText1.xml").isEmpty());
+	}
+
+	private static List<String> getMoleculeSmiles(Iterable<IndigoObject> molecules) {
+		List<String> moleculeSmiles = new ArrayList<String>();
+		for (IndigoObject molecule : molecules) {
+			moleculeSmiles.add(molecule.canonicalSmiles());
+		}
+		return moleculeSmiles;
+	}
+
+	private static List<String> getReactionSmiles(Map<Reaction, IndigoObject> reactions) {
+		List<String> reactionSmiles = new ArrayList<String>();
+		for (Reaction reaction : reactions.keySet()) {
+			reactionSmiles.add(reaction.getReactionSmiles());
+		}
+		return reactionSmiles;
+	}
 }
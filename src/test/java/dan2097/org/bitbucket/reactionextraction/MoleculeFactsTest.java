@@ -0,0 +1,74 @@
+package dan2097.org.bitbucket.reactionextraction;
+
+import static junit.framework.Assert.*;
+
+import java.util.List;
+
+import nu.xom.Element;
+
+import org.junit.Test;
+
+import dan2097.org.bitbucket.utility.ChemicalTaggerTags;
+import dan2097.org.bitbucket.utility.Utils;
+import dan2097.org.bitbucket.utility.XomUtils;
+
+public class MoleculeFactsTest {
+
+	private static Element createSentence() {
+		return TestUtils.stringToXom(
+				"<Sentence>" +
+					"<NounPhrase>" +
+						"<DT-THE>the</DT-THE>" +
+						"<MOLECULE>" +
+							"<OSCARCM>" +
+								"<OSCAR-CM>ethyl</OSCAR-CM>" +
+								"<OSCAR-CM>acetate</OSCAR-CM>" +
+							"</OSCARCM>" +
+							"<QUANTITY><VOLUME><CD>5</CD><NN-VOL>ml</NN-VOL></VOLUME></QUANTITY>" +
+						"</MOLECULE>" +
+						"<NN>layer</NN>" +
+					"</NounPhrase>" +
+				"</Sentence>");
+	}
+
+	@Test
+	public void testFactsMatchDirectComputation(){
+		Element sentence = createSentence();
+		Element molecule = XomUtils.getDescendantElementsWithTagName(sentence, ChemicalTaggerTags.MOLECULE_Container).get(0);
+		MoleculeFacts facts = new MoleculeFacts(molecule);
+		assertEquals(ChemTaggerOutputNameExtraction.findMoleculeName(molecule), facts.getNameComponents());
+		assertEquals("ethyl acetate", facts.getName());
+		assertEquals(1, facts.getQuantityElements().size());
+		Element oscarcm = molecule.getFirstChildElement(ChemicalTaggerTags.OSCARCM_Container);
+		assertEquals(Utils.getNextElement(oscarcm), facts.getElementAfterLastOscarcm());
+		assertEquals("5", facts.getElementAfterLastOscarcm().getValue());
+		assertEquals(Utils.getPreviousElement(oscarcm), facts.getElementBeforeFirstOscarcm());
+		assertEquals(ChemicalTaggerTags.DT_THE, facts.getElementBeforeFirstOscarcm().getLocalName());
+	}
+
+	@Test
+	public void testFactsAreSharedPerElementOfAParagraph(){
+		Element sentence = createSentence();
+		Element molecule = XomUtils.getDescendantElementsWithTagName(sentence, ChemicalTaggerTags.MOLECULE_Container).get(0);
+		Paragraph paragraph = new Paragraph("", null);
+		assertSame(paragraph.getMoleculeFacts(molecule), paragraph.getMoleculeFacts(molecule));
+		assertNotSame(paragraph.getMoleculeFacts(molecule), paragraph.getMoleculeFacts(new Element(molecule)));
+		assertNotSame(paragraph.getMoleculeFacts(molecule), new Paragraph("", null).getMoleculeFacts(molecule));
+		List<String> nameComponents = paragraph.getMoleculeFacts(molecule).getNameComponents();
+		nameComponents.clear();
+		assertEquals(1, paragraph.getMoleculeFacts(molecule).getNameComponents().size());
+	}
+
+	@Test
+	public void testNoNeighbouringElements(){
+		Element molecule = TestUtils.stringToXom(
+				"<MOLECULE>" +
+					"<OSCARCM><OSCAR-CM>water</OSCAR-CM></OSCARCM>" +
+				"</MOLECULE>");
+		MoleculeFacts facts = new MoleculeFacts(molecule);
+		assertNull(facts.getElementAfterLastOscarcm());
+		assertNull(facts.getElementBeforeFirstOscarcm());
+		assertNull(facts.getElementAfterLastOscarcm());
+		assertEquals(0, facts.getQuantityElements().size());
+	}
+}
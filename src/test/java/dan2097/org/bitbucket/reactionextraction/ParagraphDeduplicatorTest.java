@@ -0,0 +1,66 @@
+package dan2097.org.bitbucket.reactionextraction;
+
+import static junit.framework.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import nu.xom.Document;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dan2097.org.bitbucket.utility.Utils;
+
+public class ParagraphDeduplicatorTest {
+
+	private File spillDirectory;
+
+	@Before
+	public void createSpillDirectory() throws IOException {
+		spillDirectory = File.createTempFile("tagged-paragraphs", "");
+		spillDirectory.delete();
+	}
+
+	@After
+	public void deleteSpillDirectory() {
+		FileUtils.deleteQuietly(spillDirectory);
+	}
+
+	@Test
+	public void normalisation() {
+		assertEquals("Benzene was added", ParagraphDeduplicator.normalise(" Benzene\n was \t added "));
+		assertEquals("benzene", ParagraphDeduplicator.normalise("benzene"));
+	}
+
+	@Test
+	public void repeatedTextIsOnlyTaggedOnce() throws IOException {
+		ParagraphDeduplicator deduplicator = new ParagraphDeduplicator(10, null);
+		Document first = deduplicator.getTaggedDocument("Benzene (1 g) was added to toluene.");
+		Document second = deduplicator.getTaggedDocument("Benzene (1 g) was added\nto toluene.");
+		assertEquals(1, deduplicator.getMisses());
+		assertEquals(1, deduplicator.getHits());
+		assertNotSame(first, second);
+		assertEquals(Utils.runChemicalTagger("Benzene (1 g) was added to toluene.").toXML(), second.toXML());
+
+		//modifying a returned document does not affect subsequent results
+		first.getRootElement().removeChildren();
+		assertEquals(second.toXML(), deduplicator.getTaggedDocument("Benzene (1 g) was added to toluene.").toXML());
+		deduplicator.close();
+	}
+
+	@Test
+	public void leastRecentlyUsedAreSpilled() throws IOException {
+		ParagraphDeduplicator deduplicator = new ParagraphDeduplicator(1, spillDirectory);
+		String expected = deduplicator.getTaggedDocument("Benzene was added.").toXML();
+		deduplicator.getTaggedDocument("Toluene was added.");
+		assertEquals(1, spillDirectory.listFiles().length);
+		assertEquals(expected, deduplicator.getTaggedDocument("Benzene was added.").toXML());
+		assertEquals(1, deduplicator.getSpillHits());
+		assertEquals(2, deduplicator.getMisses());
+		deduplicator.close();
+		assertEquals(0, spillDirectory.listFiles().length);
+	}
+}
@@ -0,0 +1,65 @@
+package dan2097.org.bitbucket.reactionextraction;
+
+import static junit.framework.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import dan2097.org.bitbucket.utility.StructureId;
+
+public class PreviousReactionDataTest {
+
+	private static final String ETHANOL_INCHI = "InChI=1/C2H6O/c1-2-3/h3H,2H2,1H3";
+	private static final String METHANOL_INCHI = "InChI=1/CH4O/c1-2/h2H,1H3";
+
+	private static Reaction createReaction(String productName, String productInchi) {
+		Chemical product = new Chemical(productName);
+		product.setChemicalIdentifierPair(new ChemicalIdentifierPair(null, productInchi));
+		Reaction reaction = new Reaction();
+		reaction.addProduct(product);
+		return reaction;
+	}
+
+	@Test
+	public void testReactionsAndProductsOfSection(){
+		PreviousReactionData data = new PreviousReactionData();
+		assertNull(data.getReactions("1", null));
+		assertNull(data.getProductOfReaction("1"));
+		assertFalse(data.isProductOfSection("1", StructureId.of(ETHANOL_INCHI)));
+
+		Reaction step1Reaction = createReaction("ethanol", ETHANOL_INCHI);
+		data.addReactions(Arrays.asList(step1Reaction), "1", "a");
+		assertEquals(Arrays.asList(step1Reaction), data.getReactions("1", "a"));
+		assertEquals("ethanol", data.getProductOfReaction("1").getName());
+
+		Reaction step2Reaction = createReaction("methanol", METHANOL_INCHI);
+		data.addReactions(Arrays.asList(step2Reaction), "1", "b");
+		assertEquals(Arrays.asList(step2Reaction), data.getReactions("1", null));
+		assertEquals("methanol", data.getProductOfReaction("1").getName());
+		assertEquals("ethanol", data.getProductOfReaction("1", "a").getName());
+		assertTrue(data.isProductOfSection("1", StructureId.of(ETHANOL_INCHI)));
+		assertTrue(data.isProductOfSection("1", StructureId.of(METHANOL_INCHI)));
+		assertFalse(data.isProductOfSection("2", StructureId.of(METHANOL_INCHI)));
+	}
+
+	@Test
+	public void testProductsWithoutInchisAreNotIndexed(){
+		PreviousReactionData data = new PreviousReactionData();
+		data.addReactions(Arrays.asList(createReaction("brine", null)), "1", null);
+		assertEquals("brine", data.getProductOfReaction("1").getName());
+		assertFalse(data.isProductOfSection("1", StructureId.NONE));
+	}
+
+	@Test
+	public void testProductIndex(){
+		PreviousReactionData.ProductIndex index = new PreviousReactionData.ProductIndex();
+		assertFalse(index.containsStructure(StructureId.of(ETHANOL_INCHI)));
+		index.addProductsOf(createReaction("ethanol", ETHANOL_INCHI));
+		index.addProductsOf(createReaction("brine", null));
+		assertTrue(index.containsStructure(StructureId.of(ETHANOL_INCHI)));
+		assertFalse(index.containsStructure(StructureId.of(METHANOL_INCHI)));
+		assertEquals(2, index.getProducts().size());
+		assertEquals("brine", index.getProducts().get(1).getName());
+	}
+}
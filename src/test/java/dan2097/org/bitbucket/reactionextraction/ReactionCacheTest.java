@@ -0,0 +1,146 @@
+package dan2097.org.bitbucket.reactionextraction;
+
+import static junit.framework.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import nu.xom.Element;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReactionCacheTest {
+
+	private File cacheDirectory;
+
+	@Before
+	public void createCacheDirectory() throws IOException {
+		cacheDirectory = File.createTempFile("reaction-cache", "");
+		cacheDirectory.delete();
+	}
+
+	@After
+	public void deleteCacheDirectory() {
+		FileUtils.deleteQuietly(cacheDirectory);
+	}
+
+	@Test
+	public void allFieldsAreRoundTripped() throws IOException {
+		Chemical product = new Chemical("benzamide");
+		product.setChemicalIdentifierPair(new ChemicalIdentifierPair("NC(=O)c1ccccc1", "InChI=1S/C7H7NO/c8-7(9)6-4-2-1-3-5-6/h1-5H,(H2,8,9)"));
+		product.setMassValue("1.2");
+		product.setMassUnits("g");
+		product.setPercentYield(new BigDecimal("95.0"));
+		product.setRole(ChemicalRole.product);
+		product.setEntityType(ChemicalEntityType.exact);
+		Chemical reactant = new Chemical("benzoyl chloride");
+		reactant.setChemicalIdentifierPair(new ChemicalIdentifierPair("ClC(=O)c1ccccc1", null));
+		reactant.setAmountValue("10");
+		reactant.setAmountUnits("mmol");
+		reactant.setEquivalents(new BigDecimal("1.00"));
+		reactant.setStoichiometry(1);
+		reactant.setRole(ChemicalRole.reactant);
+		Chemical solvent = new Chemical("THF");
+		solvent.setVolumeValue("5");
+		solvent.setVolumeUnits("ml");
+		solvent.setMolarityValue("0.5");
+		solvent.setMolarityUnits("M");
+		solvent.setpH(new BigDecimal("7"));
+		solvent.setState("solution");
+		solvent.setSmarts("C1CCOC1");
+		solvent.setRole(ChemicalRole.solvent);
+
+		Reaction reaction = new Reaction();
+		reaction.addProduct(product);
+		reaction.addReactant(reactant);
+		reaction.addSpectator(solvent);
+		reaction.setReactionSmiles("ClC(=O)c1ccccc1>C1CCOC1>NC(=O)c1ccccc1");
+		reaction.setReactionRxn("$RXN\n\n  -INDIGO-\n\n  1  1\n");
+		List<ReactionProvenance.ChemicalMention> mentions = new ArrayList<ReactionProvenance.ChemicalMention>();
+		mentions.add(new ReactionProvenance.ChemicalMention(product, 40, 49));
+		mentions.add(new ReactionProvenance.ChemicalMention(reactant, 0, 16));
+		mentions.add(new ReactionProvenance.ChemicalMention(solvent, -1, -1));
+		reaction.setProvenance(new ReactionProvenance("p-0042", "benzoyl chloride & ammonia in thf gave benzamide", null, mentions));
+
+		ReactionCache cache = new ReactionCache(cacheDirectory, Long.MAX_VALUE);
+		cache.put("abcdef", Collections.singletonList(new ReactionCache.CachedReaction(reaction, true)));
+		List<ReactionCache.CachedReaction> retrieved = cache.get("abcdef");
+		assertEquals(1, retrieved.size());
+		assertTrue(retrieved.get(0).isComplete());
+		Reaction retrievedReaction = retrieved.get(0).getReaction();
+		assertEquals(reaction.getReactionSmiles(), retrievedReaction.getReactionSmiles());
+		assertEquals(reaction.getReactionRxn(), retrievedReaction.getReactionRxn());
+		assertEquals(reaction.toCML().toXML(), retrievedReaction.toCML().toXML());
+
+		Chemical retrievedReactant = retrievedReaction.getReactants().get(0);
+		assertNull(retrievedReactant.getInchi());
+		assertEquals(new BigDecimal("1.00"), retrievedReactant.getEquivalents());
+		assertEquals(Integer.valueOf(1), retrievedReactant.getStoichiometry());
+		Chemical retrievedSolvent = retrievedReaction.getSpectators().get(0);
+		assertEquals("C1CCOC1", retrievedSolvent.getSmarts());
+		assertEquals("0.5", retrievedSolvent.getMolarity());
+
+		ReactionProvenance provenance = retrievedReaction.getProvenance();
+		assertEquals("p-0042", provenance.getIdentifier());
+		assertEquals("benzoyl chloride & ammonia in thf gave benzamide", provenance.getText());
+		assertNull(provenance.getTaggedSentencesXml());
+		assertEquals(3, provenance.getChemicalMentions().size());
+		assertSame(retrievedReactant, provenance.getChemicalMentions().get(1).getChemical());
+		assertEquals(40, provenance.getChemicalMentions().get(0).getStart());
+		assertEquals(-1, provenance.getChemicalMentions().get(2).getEnd());
+	}
+
+	@Test
+	public void missingEntry() throws IOException {
+		ReactionCache cache = new ReactionCache(cacheDirectory, Long.MAX_VALUE);
+		assertNull(cache.get("0123456789"));
+		assertEquals(1, cache.getMisses());
+		cache.put("0123456789", Collections.<ReactionCache.CachedReaction>emptyList());
+		assertEquals(0, cache.get("0123456789").size());
+		assertEquals(1, cache.getHits());
+	}
+
+	@Test
+	public void keyDependsOnContent() throws IOException {
+		ReactionCache cache = new ReactionCache(cacheDirectory, Long.MAX_VALUE);
+		Element p1 = new Element("p");
+		p1.appendChild("Benzene was added");
+		Element p2 = new Element("p");
+		p2.appendChild("Toluene was added");
+		String key = cache.computeKey(Arrays.asList(p1, p2), true);
+		assertEquals(key, cache.computeKey(Arrays.asList(new Element(p1), new Element(p2)), true));
+		assertFalse(key.equals(cache.computeKey(Arrays.asList(p2, p1), true)));
+		assertFalse(key.equals(cache.computeKey(Arrays.asList(p1, p2), false)));
+		assertFalse(key.equals(cache.computeKey(Collections.singletonList(p1), true)));
+	}
+
+	@Test
+	public void leastRecentlyUsedEntriesAreEvicted() throws IOException {
+		ReactionCache cache = new ReactionCache(cacheDirectory, Long.MAX_VALUE);
+		List<ReactionCache.CachedReaction> noReactions = Collections.emptyList();
+		cache.put("aa01", noReactions);
+		cache.put("aa02", noReactions);
+		cache.put("bb03", noReactions);
+		long now = System.currentTimeMillis();
+		cache.getEntryFile("aa01").setLastModified(now - 30000);
+		cache.getEntryFile("aa02").setLastModified(now - 20000);
+		cache.getEntryFile("bb03").setLastModified(now - 10000);
+		assertNotNull(cache.get("aa01"));//now the most recently used
+
+		long entrySize = cache.getEntryFile("aa01").length();
+		assertEquals(3 * entrySize, cache.getTotalBytes());
+		assertEquals(2, cache.evict(entrySize));
+		assertTrue(cache.getEntryFile("aa01").exists());
+		assertFalse(cache.getEntryFile("aa02").exists());
+		assertFalse(cache.getEntryFile("bb03").exists());
+		assertEquals(entrySize, cache.getTotalBytes());
+	}
+}
@@ -0,0 +1,40 @@
+package dan2097.org.bitbucket.reactionextraction;
+
+import static junit.framework.Assert.*;
+
+import org.junit.Test;
+
+public class ReactionProvenanceTest {
+
+	@Test
+	public void exactMatch() {
+		int[] location = ReactionProvenance.findIgnoringWhitespace("To a solution of benzoic acid in THF", "benzoic acid", 0);
+		assertEquals(17, location[0]);
+		assertEquals(29, location[1]);
+	}
+
+	@Test
+	public void whitespaceDifferences() {
+		String text = "was added 2-chloro- pyridine (1 g)";
+		int[] location = ReactionProvenance.findIgnoringWhitespace(text, "2-chloro-pyridine", 0);
+		assertEquals("2-chloro- pyridine", text.substring(location[0], location[1]));
+		location = ReactionProvenance.findIgnoringWhitespace("ethylacetate", "ethyl acetate", 0);
+		assertEquals(0, location[0]);
+		assertEquals(12, location[1]);
+	}
+
+	@Test
+	public void searchesFromIndex() {
+		String text = "THF was added, then more THF";
+		int[] location = ReactionProvenance.findIgnoringWhitespace(text, "THF", 1);
+		assertEquals(25, location[0]);
+		assertEquals(28, location[1]);
+	}
+
+	@Test
+	public void notFound() {
+		assertNull(ReactionProvenance.findIgnoringWhitespace("To a solution of benzoic acid", "toluene", 0));
+		assertNull(ReactionProvenance.findIgnoringWhitespace("benzoic", "benzoic acid", 0));
+		assertNull(ReactionProvenance.findIgnoringWhitespace("benzoic acid", " ", 0));
+	}
+}
@@ -0,0 +1,97 @@
+package dan2097.org.bitbucket.reactionextraction;
+
+import static junit.framework.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import nu.xom.Document;
+import nu.xom.Element;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TaggedParagraphStoreTest {
+
+	private File storeFile;
+
+	@Before
+	public void createStoreFile() throws IOException {
+		storeFile = File.createTempFile("tagged-paragraphs", ".store");
+		storeFile.delete();
+	}
+
+	@After
+	public void deleteStoreFile() {
+		FileUtils.deleteQuietly(storeFile);
+	}
+
+	private static Document createTaggedDocument(String word) {
+		Element root = new Element("Document");
+		Element sentence = new Element("Sentence");
+		sentence.appendChild(word);
+		root.appendChild(sentence);
+		return new Document(root);
+	}
+
+	@Test
+	public void storedDocumentsSurviveReopening() throws IOException {
+		TaggedParagraphStore store = new TaggedParagraphStore(storeFile);
+		assertNull(store.get("Benzene was added."));
+		store.put("Benzene was added.", createTaggedDocument("benzene"));
+		store.put("Toluene was added.", createTaggedDocument("toluene"));
+		assertEquals(createTaggedDocument("benzene").toXML(), store.get("Benzene was added.").toXML());
+		store.close();
+
+		store = new TaggedParagraphStore(storeFile);
+		assertEquals(2, store.getParagraphCount());
+		assertEquals(createTaggedDocument("toluene").toXML(), store.get("Toluene was added.").toXML());
+		assertEquals(createTaggedDocument("benzene").toXML(), store.get("Benzene was added.").toXML());
+		assertNull(store.get("Benzene was  added."));
+		assertEquals(2, store.getHits());
+		store.close();
+	}
+
+	@Test
+	public void partiallyWrittenRecordIsDiscarded() throws IOException {
+		TaggedParagraphStore store = new TaggedParagraphStore(storeFile);
+		store.put("Benzene was added.", createTaggedDocument("benzene"));
+		store.close();
+		long completeLength = storeFile.length();
+		store = new TaggedParagraphStore(storeFile);
+		store.put("Toluene was added.", createTaggedDocument("toluene"));
+		store.close();
+		RandomAccessFile raf = new RandomAccessFile(storeFile, "rw");
+		raf.setLength(storeFile.length() - 3);
+		raf.close();
+
+		store = new TaggedParagraphStore(storeFile);
+		assertEquals(1, store.getParagraphCount());
+		assertEquals(completeLength, storeFile.length());
+		assertNull(store.get("Toluene was added."));
+		store.put("Toluene was added.", createTaggedDocument("toluene"));
+		assertEquals(createTaggedDocument("toluene").toXML(), store.get("Toluene was added.").toXML());
+		store.close();
+	}
+
+	@Test
+	public void storingATextAgainDoesNotAppend() throws IOException {
+		TaggedParagraphStore store = new TaggedParagraphStore(storeFile);
+		store.put("Benzene was added.", createTaggedDocument("benzene"));
+		long length = storeFile.length();
+		store.put("Benzene was added.", createTaggedDocument("toluene"));
+		assertEquals(length, storeFile.length());
+		assertEquals(1, store.getParagraphCount());
+		assertEquals(createTaggedDocument("benzene").toXML(), store.get("Benzene was added.").toXML());
+		store.close();
+	}
+
+	@Test(expected=IOException.class)
+	public void notAStore() throws IOException {
+		FileUtils.writeStringToFile(storeFile, "Not a store");
+		new TaggedParagraphStore(storeFile);
+	}
+}
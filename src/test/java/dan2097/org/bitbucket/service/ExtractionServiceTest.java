@@ -0,0 +1,147 @@
+package dan2097.org.bitbucket.service;
+
+import static junit.framework.Assert.*;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import dan2097.org.bitbucket.reactionextraction.IntegrationTests;
+
+public class ExtractionServiceTest {
+
+	private static final String TITLE = "Methyl 4-nitrobenzoate";
+	private static final String PARAGRAPH = "To a solution of 4-nitrobenzoic acid (1.67 g, 10 mmol) in methanol (20 ml) was added concentrated sulfuric acid (0.5 ml). " +
+			"The mixture was heated at reflux for 16 hours then evaporated to give methyl 4-nitrobenzoate (1.72 g, 95%) as a white solid.";
+
+	private static HttpURLConnection openPost(URL url, byte[] body) throws Exception {
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		OutputStream os = connection.getOutputStream();
+		try{
+			os.write(body);
+		}
+		finally{
+			IOUtils.closeQuietly(os);
+		}
+		return connection;
+	}
+
+	private static String post(URL url, byte[] body) throws Exception {
+		HttpURLConnection connection = openPost(url, body);
+		assertEquals(200, connection.getResponseCode());
+		InputStream is = connection.getInputStream();
+		try{
+			return IOUtils.toString(is, "UTF-8");
+		}
+		finally{
+			IOUtils.closeQuietly(is);
+		}
+	}
+
+	@Test
+	public void extractFromParagraphAndPatent() throws Exception {
+		ExtractionService service = new ExtractionService(new InetSocketAddress("localhost", 0));
+		service.setExtractionThreads(2);
+		File patent = new File(IntegrationTests.class.getResource("patentText1.xml").toURI());
+		service.setWarmUpDocuments(Arrays.asList(patent));
+		service.start();
+		try{
+			String baseUrl = "http://localhost:" + service.getPort();
+			String json = post(new URL(baseUrl + "/extract/paragraph?format=json&title=" + URLEncoder.encode(TITLE, "UTF-8")), PARAGRAPH.getBytes("UTF-8"));
+			assertTrue(json.startsWith("{\"truncated\":false,\"reactions\":[{"));
+			assertTrue(json.contains("\"complete\":true"));
+			assertTrue(json.contains("methyl 4-nitrobenzoate"));
+
+			String cml = post(new URL(baseUrl + "/extract/patent?completeOnly=false"), IOUtils.toByteArray(IntegrationTests.class.getResourceAsStream("patentText1.xml")));
+			assertTrue(cml.contains("<reactionList"));
+			assertTrue(cml.contains("6-(4-chloropyrid-2-yl)-2-pyrid-2-yl-pyrimidin-4-ol"));
+		}
+		finally{
+			service.close();
+		}
+	}
+
+	@Test
+	public void identicalRequestsInABatchAreExtractedOnce() throws Exception {
+		ExtractionService service = new ExtractionService(new InetSocketAddress("localhost", 0));
+		service.setExtractionThreads(1);
+		service.setBatchWindow(1000);
+		service.setMaxBatchSize(2);
+		service.start();
+		try{
+			Future<ExtractionService.ExtractedReactions> result1 = service.submitParagraph(TITLE, PARAGRAPH);
+			Future<ExtractionService.ExtractedReactions> result2 = service.submitParagraph(TITLE, PARAGRAPH);
+			assertSame(result1.get(), result2.get());
+			assertEquals(1, service.getBatchesProcessed());
+			assertEquals(2, service.getRequestsProcessed());
+			assertEquals(1, service.getExtractionsPerformed());
+			assertFalse(result1.get().getReactionToCompleteness().isEmpty());
+		}
+		finally{
+			service.close();
+		}
+	}
+
+	@Test
+	public void paragraphsAreStartedBeforeQueuedPatents() throws Exception {
+		ExtractionService service = new ExtractionService(new InetSocketAddress("localhost", 0));
+		service.setExtractionThreads(1);
+		service.setBatchWindow(0);
+		service.start();
+		try{
+			Future<ExtractionService.ExtractedReactions> firstPatent = service.submitPatent(IOUtils.toByteArray(IntegrationTests.class.getResourceAsStream("patentText1.xml")));
+			Future<ExtractionService.ExtractedReactions> secondPatent = service.submitPatent(IOUtils.toByteArray(IntegrationTests.class.getResourceAsStream("patentText2.xml")));
+			Future<ExtractionService.ExtractedReactions> paragraph = service.submitParagraph(TITLE, PARAGRAPH);
+			assertFalse(paragraph.get().getReactionToCompleteness().isEmpty());
+			assertFalse(secondPatent.isDone());
+			firstPatent.get();
+			secondPatent.get();
+		}
+		finally{
+			service.close();
+		}
+	}
+
+	@Test
+	public void oversizedRequestsAreRejected() throws Exception {
+		ExtractionService service = new ExtractionService(new InetSocketAddress("localhost", 0));
+		service.setExtractionThreads(1);
+		service.setMaxRequestSize(16);
+		service.start();
+		try{
+			HttpURLConnection connection = openPost(new URL("http://localhost:" + service.getPort() + "/extract/paragraph"), PARAGRAPH.getBytes("UTF-8"));
+			assertEquals(413, connection.getResponseCode());
+			assertEquals(0, service.getRequestsProcessed());
+		}
+		finally{
+			service.close();
+		}
+	}
+
+	@Test
+	public void jsonStringsAreEscaped() {
+		assertEquals("null", ExtractionService.jsonString(null));
+		assertEquals("\"a\\\"b\\\\c\\nd\\u0001\"", ExtractionService.jsonString("a\"b\\c\nd\u0001"));
+	}
+
+	@Test
+	public void parseQuery() throws Exception {
+		Map<String, String> parameters = ExtractionService.parseQuery("format=json&title=Example+1%3A&flag");
+		assertEquals("json", parameters.get("format"));
+		assertEquals("Example 1:", parameters.get("title"));
+		assertEquals("", parameters.get("flag"));
+		assertTrue(ExtractionService.parseQuery(null).isEmpty());
+	}
+}
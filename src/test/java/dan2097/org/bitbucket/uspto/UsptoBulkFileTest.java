@@ -0,0 +1,115 @@
+package dan2097.org.bitbucket.uspto;
+
+import static junit.framework.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UsptoBulkFileTest {
+
+	private static final String DOC1 = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<!DOCTYPE us-patent-grant SYSTEM \"us-patent-grant-v44.dtd\" [ ]>\n" +
+			"<us-patent-grant><us-bibliographic-data-grant><publication-reference><document-id><country>US</country><doc-number>07654321</doc-number></document-id></publication-reference></us-bibliographic-data-grant><description/></us-patent-grant>\n";
+	private static final String DOC2 = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+			"<us-patent-grant><us-bibliographic-data-grant><publication-reference><document-id><doc-number> 07654322 </doc-number></document-id></publication-reference></us-bibliographic-data-grant>" +
+			"<description><p>Not a declaration: <?xml-stylesheet href=\"a\"?></p></description></us-patent-grant>\r\n";
+	private static final String DOC3 = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<us-patent-grant><description/></us-patent-grant>\n";
+
+	private File bulkFile;
+
+	@Before
+	public void createBulkFile() throws IOException {
+		bulkFile = File.createTempFile("ipg", ".xml");
+		FileUtils.writeStringToFile(bulkFile, DOC1 + DOC2 + DOC3, "UTF-8");
+	}
+
+	@After
+	public void deleteBulkFile() {
+		FileUtils.deleteQuietly(bulkFile);
+		FileUtils.deleteQuietly(UsptoBulkFile.getIndexFile(bulkFile));
+	}
+
+	@Test
+	public void splitsDocuments() throws IOException {
+		UsptoBulkFile bulk = new UsptoBulkFile(bulkFile);
+		try{
+			assertEquals(3, bulk.getDocumentCount());
+			assertEquals(0, bulk.getDocumentOffset(0));
+			assertEquals(DOC1.length(), bulk.getDocumentOffset(1));
+			assertEquals(DOC2.length(), bulk.getDocumentLength(1));
+			assertEquals(DOC1, readDocument(bulk.openDocument(0)));
+			assertEquals(DOC2, readDocument(bulk.openDocument(1)));
+			assertEquals(DOC3, readDocument(bulk.openDocument(2)));
+		}
+		finally{
+			bulk.close();
+		}
+	}
+
+	@Test
+	public void documentNumbers() throws IOException {
+		UsptoBulkFile bulk = new UsptoBulkFile(bulkFile);
+		try{
+			assertEquals("07654321", bulk.getDocumentNumber(0));
+			assertEquals("07654322", bulk.getDocumentNumber(1));
+			assertNull(bulk.getDocumentNumber(2));
+		}
+		finally{
+			bulk.close();
+		}
+	}
+
+	@Test
+	public void randomAccessUsingIndex() throws IOException {
+		UsptoBulkFile bulk = new UsptoBulkFile(bulkFile);
+		try{
+			assertEquals(DOC2, readDocument(bulk.openDocument("07654322")));
+			assertNull(bulk.openDocument("07654323"));
+		}
+		finally{
+			bulk.close();
+		}
+		File indexFile = UsptoBulkFile.getIndexFile(bulkFile);
+		assertTrue(indexFile.exists());
+		assertEquals("07654321\t0\t" + DOC1.length() + "\n07654322\t" + DOC1.length() + "\t" + DOC2.length() + "\n", FileUtils.readFileToString(indexFile, "UTF-8"));
+
+		bulk = new UsptoBulkFile(bulkFile);
+		try{
+			assertEquals(DOC1, readDocument(bulk.openDocument("07654321")));
+		}
+		finally{
+			bulk.close();
+		}
+	}
+
+	@Test
+	public void parallelProcessing() throws IOException {
+		final Set<Integer> seen = Collections.synchronizedSet(new HashSet<Integer>());
+		UsptoBulkFile bulk = new UsptoBulkFile(bulkFile);
+		try{
+			bulk.processDocuments(new UsptoBulkFile.DocumentHandler() {
+				public void handleDocument(int documentIndex, InputStream document) throws Exception {
+					assertTrue(readDocument(document).startsWith("<?xml"));
+					seen.add(documentIndex);
+				}
+			}, 2);
+		}
+		finally{
+			bulk.close();
+		}
+		assertEquals(3, seen.size());
+	}
+
+	private static String readDocument(InputStream is) throws IOException {
+		return IOUtils.toString(is, "UTF-8");
+	}
+}
@@ -0,0 +1,72 @@
+package dan2097.org.bitbucket.uspto;
+
+import static junit.framework.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.List;
+
+import nu.xom.Document;
+import nu.xom.Element;
+
+import org.junit.Test;
+
+import dan2097.org.bitbucket.reactionextraction.IntegrationTests;
+import dan2097.org.bitbucket.utility.Utils;
+import dan2097.org.bitbucket.utility.XMLTags;
+import dan2097.org.bitbucket.utility.XomUtils;
+
+public class UsptoPatentReaderTest {
+
+	@Test
+	public void onlyDescriptionHeadingsAndParagraphsAreRead() throws Exception {
+		String patent = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+				"<!DOCTYPE us-patent-application SYSTEM \"us-patent-application-v42.dtd\" [ ]>\n" +
+				"<us-patent-application><abstract><p id=\"p-0001\">Abstract</p></abstract>" +
+				"<description id=\"description\"><heading id=\"h-0001\" level=\"1\">EXAMPLE 1</heading>" +
+				"<description-of-drawings><p id=\"p-0002\">A drawing</p></description-of-drawings>" +
+				"<p id=\"p-0003\" num=\"0003\">Benzene &amp; toluene<tables id=\"TABLE-US-00001\"><table><row><entry>1</entry></row></table></tables> were mixed</p>" +
+				"</description><claims><claim><p>Claim</p></claim></claims></us-patent-application>";
+		List<Element> elements = UsptoPatentReader.readHeadingsAndParagraphs(new ByteArrayInputStream(patent.getBytes("UTF-8")));
+		assertEquals(2, elements.size());
+		assertEquals(XMLTags.HEADING, elements.get(0).getLocalName());
+		assertEquals("EXAMPLE 1", elements.get(0).getValue());
+		assertEquals("1", elements.get(0).getAttributeValue("level"));
+		Element paragraph = elements.get(1);
+		assertEquals("0003", paragraph.getAttributeValue("num"));
+		assertEquals("Benzene & toluene were mixed", Utils.detachIrrelevantElementsAndGetParagraphText(paragraph));
+	}
+
+	@Test(expected=RuntimeException.class)
+	public void noDescription() throws Exception {
+		String patent = "<document><claims/></document>";
+		UsptoPatentReader.readHeadingsAndParagraphs(new ByteArrayInputStream(patent.getBytes("UTF-8")));
+	}
+
+	@Test
+	public void sameAsFullyBuiltDocument() throws Exception {
+		InputStream is = IntegrationTests.class.getResourceAsStream("patentText2.xml");
+		Document doc = Utils.buildXmlFile(is);
+		is.close();
+		Element description = doc.getRootElement().getFirstChildElement(XMLTags.DESCRIPTION);
+		List<Element> expected = XomUtils.getChildElementsWithTagNames(description, new String[]{XMLTags.HEADING, XMLTags.P});
+
+		is = IntegrationTests.class.getResourceAsStream("patentText2.xml");
+		List<Element> actual = UsptoPatentReader.readHeadingsAndParagraphs(is);
+		is.close();
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			Element expectedEl = new Element(expected.get(i));
+			Element actualEl = actual.get(i);
+			assertEquals(expectedEl.getLocalName(), actualEl.getLocalName());
+			assertEquals(expectedEl.getAttributeCount(), actualEl.getAttributeCount());
+			assertEquals(expectedEl.getValue().contains("\n"), actualEl.getValue().contains("\n"));
+			if (expectedEl.getLocalName().equals(XMLTags.P)){
+				assertEquals(Utils.detachIrrelevantElementsAndGetParagraphText(expectedEl), Utils.detachIrrelevantElementsAndGetParagraphText(actualEl));
+			}
+			else{
+				assertEquals(expectedEl.getValue(), actualEl.getValue());
+			}
+		}
+	}
+}
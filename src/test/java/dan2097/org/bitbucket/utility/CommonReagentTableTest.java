@@ -0,0 +1,75 @@
+package dan2097.org.bitbucket.utility;
+
+import static junit.framework.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class CommonReagentTableTest {
+
+	private static CommonReagentTable createTable(String content) throws IOException {
+		return new CommonReagentTable(new ByteArrayInputStream(content.getBytes(Charsets.UTF_8)));
+	}
+
+	@Test
+	public void lookup() throws IOException {
+		CommonReagentTable table = createTable(
+				"#comment\n" +
+				"THF\tC1CCOC1\tInChI=1/C4H8O/c1-2-4-5-3-1/h1-4H2\n" +
+				"ethanol\tCCO\tInChI=1/C2H6O/c1-2-3/h3H,2H2,1H3\n" +
+				"unknown structure\tC\t\n");
+		assertEquals(3, table.size());
+		assertTrue(table.contains("THF"));
+		assertEquals("C1CCOC1", table.getSmiles("THF"));
+		assertEquals("InChI=1/C2H6O/c1-2-3/h3H,2H2,1H3", table.getInchi("ethanol"));
+		assertNull(table.getInchi("unknown structure"));
+		assertFalse(table.contains("thf"));
+		assertNull(table.getSmiles("methanol"));
+	}
+
+	@Test(expected=IOException.class)
+	public void unsortedTable() throws IOException {
+		createTable("ethanol\tCCO\t\nTHF\tC1CCOC1\t\n");
+	}
+
+	@Test(expected=IOException.class)
+	public void malformedTable() throws IOException {
+		createTable("ethanol\tCCO\n");
+	}
+
+	@Test
+	public void commonSolventsAreInTheShippedTable() {
+		CommonReagentTable table = CommonReagentTable.getInstance();
+		assertTrue(table.size() > 0);
+		assertTrue(table.contains("THF"));
+		assertNotNull(table.getSmiles("THF"));
+		assertEquals(table.getSmiles("THF"), Utils.resolveNameToSmiles("THF"));
+		assertEquals(table.getInchi("THF"), Utils.resolveNameToInchi("THF"));
+	}
+
+	@Test
+	public void shippedTableIsUpToDateWithTheNamesToPrecompile() {
+		CommonReagentTable table = CommonReagentTable.getInstance();
+		Set<String> namesToPrecompile = CommonReagentTable.getNamesToPrecompile();
+		for (String name : namesToPrecompile) {
+			assertTrue(name + " is not in the common reagent table, regenerate it with: mvn -Pcommon-reagent-table process-classes", table.contains(name));
+		}
+		assertEquals("The common reagent table contains names that are no longer to be precompiled, regenerate it with: mvn -Pcommon-reagent-table process-classes",
+				namesToPrecompile.size(), table.size());
+	}
+
+	@Test
+	public void precompiledNamesAreResolvedAsUsual() {
+		CommonReagentTable table = CommonReagentTable.getInstance();
+		for (String name : CommonReagentTable.getNamesToPrecompile()) {
+			if (table.contains(name)){
+				assertEquals(name, OscarReliantFunctionality.getInstance().resolveNameToSmiles(name), table.getSmiles(name));
+			}
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package dan2097.org.bitbucket.utility;
+
+import static junit.framework.Assert.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+import dan2097.org.bitbucket.utility.ExtractionEvents.Operation;
+
+public class ExtractionEventsTest {
+
+	@After
+	public void clearContext() {
+		ExtractionEvents.clearContext();
+	}
+
+	@Test
+	public void settingTheDocumentClearsTheParagraph() {
+		ExtractionEvents.setDocumentIdentifier("US20080000001A1");
+		ExtractionEvents.setParagraph("0042", 120);
+		assertEquals("US20080000001A1", ExtractionEvents.getDocumentIdentifier());
+		assertEquals("0042", ExtractionEvents.getParagraphIdentifier());
+		ExtractionEvents.setDocumentIdentifier("US20080000002A1");
+		assertEquals("US20080000002A1", ExtractionEvents.getDocumentIdentifier());
+		assertNull(ExtractionEvents.getParagraphIdentifier());
+	}
+
+	@Test
+	public void contextIsPerThread() throws InterruptedException {
+		ExtractionEvents.setDocumentIdentifier("US20080000001A1");
+		final String[] otherThreadsDocument = new String[]{"unset"};
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				otherThreadsDocument[0] = ExtractionEvents.getDocumentIdentifier();
+			}
+		});
+		thread.start();
+		thread.join();
+		assertNull(otherThreadsDocument[0]);
+		assertEquals("US20080000001A1", ExtractionEvents.getDocumentIdentifier());
+	}
+
+	@Test
+	public void spansCanBeUsedWhetherOrNotRecording() {
+		ExtractionEvents.setDocumentIdentifier("US20080000001A1");
+		ExtractionEvents.setParagraph("0042", 120);
+		for (Operation operation : Operation.values()) {
+			ExtractionEvents.Span span = ExtractionEvents.begin(operation);
+			span.setOutcome("succeeded");
+			span.end();
+		}
+		ExtractionEvents.Span span = ExtractionEvents.begin(Operation.nameResolution, 7);
+		span.end();
+	}
+}
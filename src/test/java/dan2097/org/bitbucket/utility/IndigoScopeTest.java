@@ -0,0 +1,63 @@
+package dan2097.org.bitbucket.utility;
+
+import static junit.framework.Assert.*;
+
+import org.junit.Test;
+
+import com.ggasoftware.indigo.Indigo;
+import com.ggasoftware.indigo.IndigoObject;
+
+public class IndigoScopeTest {
+
+	@Test
+	public void trackedObjectsAreDisposedOnClose() {
+		Indigo indigo = new Indigo();
+		int referencesBefore = indigo.countReferences();
+		IndigoScope scope = new IndigoScope(indigo);
+		scope.track(indigo.loadMolecule("CCO"));
+		scope.track(indigo.loadReaction("CC(=O)O.OCC>>CC(=O)OCC"));
+		assertEquals(referencesBefore + 2, indigo.countReferences());
+		scope.close();
+		assertEquals(referencesBefore, indigo.countReferences());
+	}
+
+	@Test
+	public void keptObjectsSurviveClose() {
+		Indigo indigo = new Indigo();
+		int referencesBefore = indigo.countReferences();
+		IndigoScope scope = new IndigoScope(indigo);
+		scope.track(indigo.loadMolecule("CCO"));
+		IndigoObject kept = scope.keep(scope.track(indigo.loadMolecule("c1ccccc1")));
+		scope.close();
+		assertEquals(referencesBefore + 1, indigo.countReferences());
+		assertEquals("c1ccccc1", kept.canonicalSmiles());
+		IndigoScope.disposeQuietly(kept);
+		assertEquals(referencesBefore, indigo.countReferences());
+	}
+
+	@Test
+	public void disposeStopsTracking() {
+		Indigo indigo = new Indigo();
+		int referencesBefore = indigo.countReferences();
+		IndigoScope scope = new IndigoScope(indigo);
+		IndigoObject mol = scope.track(indigo.loadMolecule("CCO"));
+		scope.dispose(mol);
+		assertEquals(referencesBefore, indigo.countReferences());
+		scope.close();
+		assertEquals(referencesBefore, indigo.countReferences());
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void cannotTrackAfterClose() {
+		Indigo indigo = new Indigo();
+		IndigoScope scope = new IndigoScope(indigo);
+		scope.close();
+		IndigoObject mol = indigo.loadMolecule("CCO");
+		try{
+			scope.track(mol);
+		}
+		finally{
+			IndigoScope.disposeQuietly(mol);
+		}
+	}
+}
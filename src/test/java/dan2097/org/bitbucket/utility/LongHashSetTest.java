@@ -0,0 +1,56 @@
+package dan2097.org.bitbucket.utility;
+
+import static junit.framework.Assert.*;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class LongHashSetTest {
+
+	@Test
+	public void addAndContains() {
+		LongHashSet set = new LongHashSet();
+		assertTrue(set.isEmpty());
+		assertTrue(set.add(5));
+		assertFalse(set.add(5));
+		assertTrue(set.add(0));
+		assertFalse(set.add(0));
+		assertTrue(set.add(-1));
+		assertTrue(set.contains(5));
+		assertTrue(set.contains(0));
+		assertTrue(set.contains(-1));
+		assertFalse(set.contains(6));
+		assertEquals(3, set.size());
+		set.clear();
+		assertFalse(set.contains(0));
+		assertFalse(set.contains(5));
+		assertEquals(0, set.size());
+	}
+
+	@Test
+	public void matchesHashSetWhenResized() {
+		LongHashSet set = new LongHashSet();
+		Set<Long> expected = new HashSet<Long>();
+		Random random = new Random(1);
+		for (int i = 0; i < 10000; i++) {
+			long value = random.nextInt(5000) * 0x100000000L;//values differing only in their high bits
+			assertEquals(expected.add(value), set.add(value));
+		}
+		assertEquals(expected.size(), set.size());
+		for (long value = 0; value < 5000; value++) {
+			assertEquals(expected.contains(value * 0x100000000L), set.contains(value * 0x100000000L));
+		}
+	}
+
+	@Test
+	public void structureIds() {
+		String inchi = "InChI=1/C2H6O/c1-2-3/h3H,2H2,1H3";
+		assertEquals(StructureId.NONE, StructureId.of(null));
+		assertEquals(StructureId.of(inchi), StructureId.of(new String(inchi)));
+		assertFalse(StructureId.of(inchi) == StructureId.of("InChI=1/CH4O/c1-2/h2H,1H3"));
+		assertFalse(StructureId.NONE == StructureId.of(""));
+	}
+}
@@ -4,10 +4,13 @@ import static junit.framework.Assert.*;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.Test;
 
 import dan2097.org.bitbucket.inchiTools.InchiNormaliser;
+import dan2097.org.bitbucket.reactionextraction.ChemicalIdentifierPair;
+import dan2097.org.bitbucket.utility.OscarReliantFunctionality.NameResolution;
 
 public class NameResolutionTest {
 
@@ -76,4 +79,53 @@ public class NameResolutionTest {
 		List<String> nameComponents = Arrays.asList("NH3\u00B7H2O");
 		assertEquals("InChI=1/H3N.H2O/h1H3;1H2", Utils.resolveNameToInchi(nameComponents));
 	}
+
+	@Test
+	public void resolveAll(){
+		List<String> names = Arrays.asList("ethanol", "NH3", "ethanol", "acetic acid", "notAChemicalName");
+		Map<String, NameResolution> resolutions = OscarReliantFunctionality.getInstance().resolveAll(names);
+		assertEquals(4, resolutions.size());
+		for (String name : names) {
+			assertEquals(Utils.resolveNameToSmiles(name), resolutions.get(name).getSmiles());
+			assertEquals(OscarReliantFunctionality.getInstance().resolveNameToStdInchi(name), resolutions.get(name).getStdInchi());
+		}
+		assertEquals("N", resolutions.get("NH3").getSmiles());
+		assertNull(resolutions.get("notAChemicalName").getSmiles());
+	}
+
+	@Test
+	public void resolveNamesToIdentifierPairs(){
+		List<String> nameComponents = Arrays.asList("NH3", "H2O");
+		Map<List<String>, ChemicalIdentifierPair> pairs = Utils.resolveNamesToIdentifierPairs(Arrays.asList(nameComponents, Arrays.asList("NH3"), nameComponents));
+		assertEquals(2, pairs.size());
+		assertEquals("N.O", pairs.get(nameComponents).getSmiles());
+		assertEquals("InChI=1/H3N.H2O/h1H3;1H2", pairs.get(nameComponents).getInchi());
+		assertEquals("N", pairs.get(Arrays.asList("NH3")).getSmiles());
+	}
+
+	@Test
+	public void batchResolutionMatchesSerialResolution(){
+		//the names of a step's molecules, including those that can only be resolved by splitting them into components
+		List<List<String>> nameComponentLists = Arrays.asList(
+				Arrays.asList("3-(4-chloropyrid-2-yl)-3-oxopropionic acid ethyl ester"),
+				Arrays.asList("2-amidinopyridine hydrochloride"),
+				Arrays.asList("sodium hydroxide"),
+				Arrays.asList("ethanol"),
+				Arrays.asList("6-(4-chloropyrid-2-yl)-2-pyrid-2-yl-pyrimidin-4-ol"),
+				Arrays.asList("NH3", "H2O"),
+				Arrays.asList("NH3/H2O"),
+				Arrays.asList("NH3\u00B7H2O"),
+				Arrays.asList("azanylazane NH3"),
+				Arrays.asList("THF"),
+				Arrays.asList("notAChemicalName"));
+		Map<List<String>, ChemicalIdentifierPair> pairs = Utils.resolveNamesToIdentifierPairs(nameComponentLists);
+		assertEquals(nameComponentLists.size(), pairs.size());
+		for (List<String> nameComponents : nameComponentLists) {
+			assertEquals(nameComponents.toString(), Utils.resolveNameToSmiles(nameComponents), pairs.get(nameComponents).getSmiles());
+			assertEquals(nameComponents.toString(), Utils.resolveNameToInchi(nameComponents), pairs.get(nameComponents).getInchi());
+		}
+		assertEquals("N.O", pairs.get(Arrays.asList("NH3/H2O")).getSmiles());
+		assertEquals("InChI=1/H3N.H2O/h1H3;1H2", pairs.get(Arrays.asList("NH3\u00B7H2O")).getInchi());
+		assertNull(pairs.get(Arrays.asList("notAChemicalName")).getSmiles());
+	}
 }
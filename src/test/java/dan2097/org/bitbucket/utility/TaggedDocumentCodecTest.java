@@ -0,0 +1,56 @@
+package dan2097.org.bitbucket.utility;
+
+import static junit.framework.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import nu.xom.Attribute;
+import nu.xom.Document;
+import nu.xom.Element;
+
+import org.junit.Test;
+
+public class TaggedDocumentCodecTest {
+
+	@Test
+	public void roundTrip() {
+		Element root = new Element("Document");
+		Element sentence = new Element("Sentence");
+		root.appendChild(sentence);
+		Element molecule = new Element("MOLECULE");
+		molecule.addAttribute(new Attribute("type", "chemicalName"));
+		molecule.addAttribute(new Attribute("xml:space", "http://www.w3.org/XML/1998/namespace", "preserve"));
+		Element oscarcm = new Element("OSCARCM");
+		Element oscarOnt = new Element("OSCAR-CM");
+		oscarOnt.appendChild("benzoic");
+		oscarcm.appendChild(oscarOnt);
+		oscarcm.appendChild(" ");
+		oscarcm.appendChild("acid \u00e9");
+		molecule.appendChild(oscarcm);
+		sentence.appendChild(molecule);
+		sentence.appendChild(new Element("dl:other", "http://bitbucket.org/dan2097"));
+		Document doc = new Document(root);
+
+		byte[] encoded = TaggedDocumentCodec.encode(doc);
+		ByteBuffer buffer = ByteBuffer.wrap(encoded);
+		Document decoded = TaggedDocumentCodec.decode(buffer);
+		assertEquals(doc.toXML(), decoded.toXML());
+		assertEquals(encoded.length, buffer.position());
+		assertEquals(3, ((Element) decoded.getRootElement().getChild(0).getChild(0).getChild(0)).getChildCount());
+	}
+
+	@Test
+	public void varInts() {
+		int[] values = new int[]{0, 1, 127, 128, 300, 16384, Integer.MAX_VALUE};
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int value : values) {
+			TaggedDocumentCodec.writeVarInt(out, value);
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(out.toByteArray());
+		for (int value : values) {
+			assertEquals(value, TaggedDocumentCodec.readVarInt(buffer));
+		}
+		assertFalse(buffer.hasRemaining());
+	}
+}